@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import com.google.common.base.Preconditions;
+import lombok.*;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_CONCURRENCY;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = __SPRING_MAIL_CONCURRENCY)
+public class AdaptiveConcurrencyProperties {
+
+    // spring.mail.concurrency.enabled, to adapt the emails handed over to the mail server at the same time
+    @Builder.Default
+    private boolean enabled = false;
+
+    // spring.mail.concurrency.initialLimit, emails sent at the same time before any latency is measured
+    @Builder.Default
+    private int initialLimit = 4;
+
+    // spring.mail.concurrency.minLimit
+    @Builder.Default
+    private int minLimit = 1;
+
+    // spring.mail.concurrency.maxLimit
+    @Builder.Default
+    private int maxLimit = 50;
+
+    // spring.mail.concurrency.latencyTolerance, how many times the baseline latency the recent one may grow before backing off
+    @Builder.Default
+    private double latencyTolerance = 1.5;
+
+    // spring.mail.concurrency.backoffRatio, applied to the limit on rising latency or temporary failures
+    @Builder.Default
+    private double backoffRatio = 0.75;
+
+    // spring.mail.concurrency.acquireTimeoutMillis, waiting to be under the limit before failing the send
+    @Builder.Default
+    private long acquireTimeoutMillis = 30_000;
+
+    @PostConstruct
+    protected boolean validate() {
+        if (enabled) {
+            checkIsValid(this);
+        }
+        return true;
+    }
+
+    public static void checkIsValid(@NonNull final AdaptiveConcurrencyProperties adaptiveConcurrencyProperties) {
+        Preconditions.checkState(adaptiveConcurrencyProperties.getMinLimit() > 0,
+                "Expected at least one email sent at a time. Review property 'spring.mail.concurrency.minLimit'.");
+
+        Preconditions.checkState(adaptiveConcurrencyProperties.getMaxLimit() >= adaptiveConcurrencyProperties.getMinLimit(),
+                "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                "spring.mail.concurrency.maxLimit", "spring.mail.concurrency.minLimit");
+
+        Preconditions.checkState(adaptiveConcurrencyProperties.getInitialLimit() >= adaptiveConcurrencyProperties.getMinLimit()
+                        && adaptiveConcurrencyProperties.getInitialLimit() <= adaptiveConcurrencyProperties.getMaxLimit(),
+                "Expected an initial limit between the min and the max one. Review property 'spring.mail.concurrency.initialLimit'.");
+
+        Preconditions.checkState(adaptiveConcurrencyProperties.getLatencyTolerance() > 1,
+                "Expected a latency tolerance greater than one, otherwise the limit never grows. Review property 'spring.mail.concurrency.latencyTolerance'.");
+
+        Preconditions.checkState(adaptiveConcurrencyProperties.getBackoffRatio() > 0 && adaptiveConcurrencyProperties.getBackoffRatio() < 1,
+                "Expected a backoff ratio between 0 and 1. Review property 'spring.mail.concurrency.backoffRatio'.");
+
+        Preconditions.checkState(adaptiveConcurrencyProperties.getAcquireTimeoutMillis() >= 0,
+                "Expected a non negative time to wait for being under the limit. Review property 'spring.mail.concurrency.acquireTimeoutMillis'.");
+    }
+
+}
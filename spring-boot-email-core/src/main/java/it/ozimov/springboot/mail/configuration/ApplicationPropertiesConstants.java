@@ -29,6 +29,14 @@ public class ApplicationPropertiesConstants {
 
     public static final String __SPRING_MAIL_LOGGING_STRATEGY = __SPRING_MAIL_LOGGING + DOT + "strategy";
 
+    public static final String __SPRING_MAIL_POOL = "spring.mail.pool";
+
+    public static final String __SPRING_MAIL_CONCURRENCY = "spring.mail.concurrency";
+
+    public static final String __SPRING_MAIL_ROUTING = "spring.mail.routing";
+
+    public static final String __SPRING_MAIL_CIRCUIT_BREAKER = "spring.mail.circuit-breaker";
+
     public static final String SPRING_MAIL_HOST = "spring.mail.host";
 
     public static final String SPRING_MAIL_PORT = "spring.mail.port";
@@ -55,6 +63,12 @@ public class ApplicationPropertiesConstants {
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_MAX_KEPT_IN_MEMORY = __SPRING_MAIL_SCHEDULER + DOT + "persistence.maxKeptInMemory";
 
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DEAD_LETTERS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.deadLetters";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_DEAD_LETTER_MAX_ERROR_LENGTH = __SPRING_MAIL_SCHEDULER + DOT + "persistence.deadLetterMaxErrorLength";
+
+    public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_NOTIFICATIONS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.notifications";
+
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.enabled";
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.embedded";
@@ -65,6 +79,110 @@ public class ApplicationPropertiesConstants {
 
     public static final String SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS = __SPRING_MAIL_SCHEDULER + DOT + "persistence.redis.settings";
 
+    public static final String SPRING_MAIL_SCHEDULER_DISPATCHER_CONSUMERS = __SPRING_MAIL_SCHEDULER + DOT + "dispatcher.consumers";
+    public static final String SPRING_MAIL_SCHEDULER_DISPATCHER_VIRTUAL_THREADS = __SPRING_MAIL_SCHEDULER + DOT + "dispatcher.virtualThreads";
+
+    public static final String SPRING_MAIL_SCHEDULER_TIMING_WHEEL_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "timingWheel.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_TIMING_WHEEL_TICK_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "timingWheel.tickMillis";
+    public static final String SPRING_MAIL_SCHEDULER_TIMING_WHEEL_WHEEL_SIZE = __SPRING_MAIL_SCHEDULER + DOT + "timingWheel.wheelSize";
+    public static final String SPRING_MAIL_SCHEDULER_TIMING_WHEEL_HORIZON_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "timingWheel.horizonMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_ADMISSION_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "admission.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_ADMISSION_POLICY = __SPRING_MAIL_SCHEDULER + DOT + "admission.policy";
+    public static final String SPRING_MAIL_SCHEDULER_ADMISSION_HIGH_WATERMARK = __SPRING_MAIL_SCHEDULER + DOT + "admission.highWatermark";
+    public static final String SPRING_MAIL_SCHEDULER_ADMISSION_LOW_WATERMARK = __SPRING_MAIL_SCHEDULER + DOT + "admission.lowWatermark";
+    public static final String SPRING_MAIL_SCHEDULER_ADMISSION_BLOCK_TIMEOUT_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "admission.blockTimeoutMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_DEQUEUE_POLICY = __SPRING_MAIL_SCHEDULER + DOT + "dequeue.policy";
+    public static final String SPRING_MAIL_SCHEDULER_DEQUEUE_WEIGHTS = __SPRING_MAIL_SCHEDULER + DOT + "dequeue.weights";
+    public static final String SPRING_MAIL_SCHEDULER_DEQUEUE_MAX_LAG_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "dequeue.maxLagMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "retry.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_MAX_ATTEMPTS = __SPRING_MAIL_SCHEDULER + DOT + "retry.maxAttempts";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_INITIAL_BACKOFF_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "retry.initialBackoffMillis";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_MAX_BACKOFF_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "retry.maxBackoffMillis";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_MULTIPLIER = __SPRING_MAIL_SCHEDULER + DOT + "retry.multiplier";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_JITTER = __SPRING_MAIL_SCHEDULER + DOT + "retry.jitter";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_TRANSIENT_REPLY_CODES = __SPRING_MAIL_SCHEDULER + DOT + "retry.transientReplyCodes";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_PERMANENT_REPLY_CODES = __SPRING_MAIL_SCHEDULER + DOT + "retry.permanentReplyCodes";
+    public static final String SPRING_MAIL_SCHEDULER_RETRY_TRANSIENT_EXCEPTIONS = __SPRING_MAIL_SCHEDULER + DOT + "retry.transientExceptions";
+
+    public static final String SPRING_MAIL_SCHEDULER_SHUTDOWN_DRAIN_TIMEOUT_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "shutdown.drainTimeoutMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_CLUSTER_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "cluster.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_CLUSTER_NODE_ID = __SPRING_MAIL_SCHEDULER + DOT + "cluster.nodeId";
+    public static final String SPRING_MAIL_SCHEDULER_CLUSTER_VISIBILITY_TIMEOUT_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "cluster.visibilityTimeoutMillis";
+    public static final String SPRING_MAIL_SCHEDULER_CLUSTER_HEARTBEAT_INTERVAL_MILLIS = __SPRING_MAIL_SCHEDULER + DOT + "cluster.heartbeatIntervalMillis";
+
+    public static final String SPRING_MAIL_SCHEDULER_PRE_RENDER_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "preRender.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_PRE_RENDER_THREADS = __SPRING_MAIL_SCHEDULER + DOT + "preRender.threads";
+    public static final String SPRING_MAIL_SCHEDULER_PRE_RENDER_MAX_PREPARED = __SPRING_MAIL_SCHEDULER + DOT + "preRender.maxPrepared";
+
+    public static final String SPRING_MAIL_SCHEDULER_PIPELINE_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "pipeline.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_PIPELINE_PREPARE_THREADS = __SPRING_MAIL_SCHEDULER + DOT + "pipeline.prepareThreads";
+    public static final String SPRING_MAIL_SCHEDULER_PIPELINE_PREPARE_QUEUE_CAPACITY = __SPRING_MAIL_SCHEDULER + DOT + "pipeline.prepareQueueCapacity";
+    public static final String SPRING_MAIL_SCHEDULER_PIPELINE_TRANSPORT_THREADS = __SPRING_MAIL_SCHEDULER + DOT + "pipeline.transportThreads";
+    public static final String SPRING_MAIL_SCHEDULER_PIPELINE_TRANSPORT_QUEUE_CAPACITY = __SPRING_MAIL_SCHEDULER + DOT + "pipeline.transportQueueCapacity";
+
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_ENABLED = __SPRING_MAIL_SCHEDULER + DOT + "throttle.enabled";
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_MAX_CONCURRENT = __SPRING_MAIL_SCHEDULER + DOT + "throttle.maxConcurrent";
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_RATE_PER_SECOND = __SPRING_MAIL_SCHEDULER + DOT + "throttle.ratePerSecond";
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_BURST = __SPRING_MAIL_SCHEDULER + DOT + "throttle.burst";
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_LOOKAHEAD = __SPRING_MAIL_SCHEDULER + DOT + "throttle.lookahead";
+    public static final String SPRING_MAIL_SCHEDULER_THROTTLE_DOMAINS = __SPRING_MAIL_SCHEDULER + DOT + "throttle.domains";
+
+    public static final String SPRING_MAIL_POOL_ENABLED = __SPRING_MAIL_POOL + DOT + "enabled";
+
+    public static final String SPRING_MAIL_POOL_MAX_CONNECTIONS = __SPRING_MAIL_POOL + DOT + "maxConnections";
+
+    public static final String SPRING_MAIL_POOL_MAX_MESSAGES_PER_CONNECTION = __SPRING_MAIL_POOL + DOT + "maxMessagesPerConnection";
+
+    public static final String SPRING_MAIL_POOL_MAX_IDLE_MILLIS = __SPRING_MAIL_POOL + DOT + "maxIdleMillis";
+
+    public static final String SPRING_MAIL_POOL_VALIDATION_INTERVAL_MILLIS = __SPRING_MAIL_POOL + DOT + "validationIntervalMillis";
+
+    public static final String SPRING_MAIL_POOL_BORROW_TIMEOUT_MILLIS = __SPRING_MAIL_POOL + DOT + "borrowTimeoutMillis";
+
+    public static final String SPRING_MAIL_CONCURRENCY_ENABLED = __SPRING_MAIL_CONCURRENCY + DOT + "enabled";
+
+    public static final String SPRING_MAIL_CONCURRENCY_INITIAL_LIMIT = __SPRING_MAIL_CONCURRENCY + DOT + "initialLimit";
+
+    public static final String SPRING_MAIL_CONCURRENCY_MIN_LIMIT = __SPRING_MAIL_CONCURRENCY + DOT + "minLimit";
+
+    public static final String SPRING_MAIL_CONCURRENCY_MAX_LIMIT = __SPRING_MAIL_CONCURRENCY + DOT + "maxLimit";
+
+    public static final String SPRING_MAIL_CONCURRENCY_LATENCY_TOLERANCE = __SPRING_MAIL_CONCURRENCY + DOT + "latencyTolerance";
+
+    public static final String SPRING_MAIL_CONCURRENCY_BACKOFF_RATIO = __SPRING_MAIL_CONCURRENCY + DOT + "backoffRatio";
+
+    public static final String SPRING_MAIL_CONCURRENCY_ACQUIRE_TIMEOUT_MILLIS = __SPRING_MAIL_CONCURRENCY + DOT + "acquireTimeoutMillis";
+
+    public static final String SPRING_MAIL_ROUTING_ENABLED = __SPRING_MAIL_ROUTING + DOT + "enabled";
+
+    public static final String SPRING_MAIL_ROUTING_STRATEGY = __SPRING_MAIL_ROUTING + DOT + "strategy";
+
+    public static final String SPRING_MAIL_ROUTING_RELAYS = __SPRING_MAIL_ROUTING + DOT + "relays";
+
+    public static final String SPRING_MAIL_ROUTING_CIRCUIT_BREAKER_FAILURE_THRESHOLD = __SPRING_MAIL_ROUTING + DOT + "circuitBreaker.failureThreshold";
+
+    public static final String SPRING_MAIL_ROUTING_CIRCUIT_BREAKER_OPEN_MILLIS = __SPRING_MAIL_ROUTING + DOT + "circuitBreaker.openMillis";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_ENABLED = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "enabled";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_SLIDING_WINDOW_SIZE = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "slidingWindowSize";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_MINIMUM_CALLS = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "minimumCalls";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "failureRateThreshold";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "slowCallRateThreshold";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "slowCallDurationMillis";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_OPEN_MILLIS = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "openMillis";
+
+    public static final String SPRING_MAIL_CIRCUIT_BREAKER_HALF_OPEN_CALLS = __SPRING_MAIL_CIRCUIT_BREAKER + DOT + "halfOpenCalls";
+
     public static final String SPRING_MAIL_LOGGING_ENABLED = __SPRING_MAIL_LOGGING + DOT + "enabled";
 
     public static final String SPRING_MAIL_LOGGING_STRATEGY_FROM = __SPRING_MAIL_LOGGING_STRATEGY + DOT + "from";
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import com.google.common.base.Preconditions;
+import lombok.*;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_CIRCUIT_BREAKER;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = __SPRING_MAIL_CIRCUIT_BREAKER)
+public class CircuitBreakerProperties {
+
+    // spring.mail.circuit-breaker.enabled, to stop sending while the mail server is failing or hanging
+    @Builder.Default
+    private boolean enabled = false;
+
+    // spring.mail.circuit-breaker.slidingWindowSize, the latest sends the rates are computed on
+    @Builder.Default
+    private int slidingWindowSize = 20;
+
+    // spring.mail.circuit-breaker.minimumCalls, sends to be recorded before the rates are trusted
+    @Builder.Default
+    private int minimumCalls = 10;
+
+    // spring.mail.circuit-breaker.failureRateThreshold, percentage of failed sends opening the breaker
+    @Builder.Default
+    private double failureRateThreshold = 50;
+
+    // spring.mail.circuit-breaker.slowCallRateThreshold, percentage of slow sends opening the breaker
+    @Builder.Default
+    private double slowCallRateThreshold = 80;
+
+    // spring.mail.circuit-breaker.slowCallDurationMillis, a send taking at least this long is slow
+    @Builder.Default
+    private long slowCallDurationMillis = 10_000;
+
+    // spring.mail.circuit-breaker.openMillis, time the breaker stays open before letting the trial sends through
+    @Builder.Default
+    private long openMillis = 30_000;
+
+    // spring.mail.circuit-breaker.halfOpenCalls, trial sends deciding whether the breaker closes or opens again
+    @Builder.Default
+    private int halfOpenCalls = 3;
+
+    @PostConstruct
+    protected boolean validate() {
+        if (enabled) {
+            checkIsValid(this);
+        }
+        return true;
+    }
+
+    public static void checkIsValid(@NonNull final CircuitBreakerProperties circuitBreakerProperties) {
+        Preconditions.checkState(circuitBreakerProperties.getSlidingWindowSize() > 0,
+                "Expected at least one send in the sliding window. Review property 'spring.mail.circuit-breaker.slidingWindowSize'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getMinimumCalls() > 0
+                        && circuitBreakerProperties.getMinimumCalls() <= circuitBreakerProperties.getSlidingWindowSize(),
+                "Expected a minimum number of sends between one and the sliding window size. Review property 'spring.mail.circuit-breaker.minimumCalls'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getFailureRateThreshold() > 0 && circuitBreakerProperties.getFailureRateThreshold() <= 100,
+                "Expected a failure rate threshold greater than 0 and at most 100. Review property 'spring.mail.circuit-breaker.failureRateThreshold'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getSlowCallRateThreshold() > 0 && circuitBreakerProperties.getSlowCallRateThreshold() <= 100,
+                "Expected a slow call rate threshold greater than 0 and at most 100. Review property 'spring.mail.circuit-breaker.slowCallRateThreshold'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getSlowCallDurationMillis() > 0,
+                "Expected a positive duration for a send to be slow. Review property 'spring.mail.circuit-breaker.slowCallDurationMillis'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getOpenMillis() > 0,
+                "Expected a positive time for the breaker to stay open. Review property 'spring.mail.circuit-breaker.openMillis'.");
+
+        Preconditions.checkState(circuitBreakerProperties.getHalfOpenCalls() > 0,
+                "Expected at least one trial send while half open. Review property 'spring.mail.circuit-breaker.halfOpenCalls'.");
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.AdaptiveConcurrencyLimiter;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerConcurrencyLimitMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.ADAPTIVE_CONCURRENCY_IS_ENABLED;
+
+/**
+ * Provides the {@linkplain AdaptiveConcurrencyLimiter} used by the
+ * {@linkplain it.ozimov.springboot.mail.service.defaultimpl.DefaultEmailService} around every send, when the adaptive
+ * concurrency limit is enabled.
+ */
+@Configuration
+@ConditionalOnExpression(ADAPTIVE_CONCURRENCY_IS_ENABLED)
+public class EmailAdaptiveConcurrencyConfiguration {
+
+    @Bean
+    public AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter(final AdaptiveConcurrencyProperties adaptiveConcurrencyProperties) {
+        return new AdaptiveConcurrencyLimiter(adaptiveConcurrencyProperties);
+    }
+
+    /**
+     * Registers the limiter meters when Micrometer is on the classpath and a {@linkplain MeterRegistry} is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnExpression(ADAPTIVE_CONCURRENCY_IS_ENABLED)
+    public static class MetricsConfiguration {
+
+        @Bean
+        public MicrometerConcurrencyLimitMetrics concurrencyLimitMetrics(final AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter,
+                                                                         final ObjectProvider<MeterRegistry> meterRegistryProvider) {
+            final MicrometerConcurrencyLimitMetrics concurrencyLimitMetrics = new MicrometerConcurrencyLimitMetrics(adaptiveConcurrencyLimiter);
+            meterRegistryProvider.ifAvailable(concurrencyLimitMetrics::bindTo);
+            return concurrencyLimitMetrics;
+        }
+
+    }
+
+}
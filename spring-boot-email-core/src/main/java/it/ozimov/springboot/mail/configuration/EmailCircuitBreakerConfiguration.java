@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.CircuitBreaker;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerCircuitBreakerMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.CIRCUIT_BREAKER_IS_ENABLED;
+
+/**
+ * Provides the {@linkplain CircuitBreaker} used by the
+ * {@linkplain it.ozimov.springboot.mail.service.defaultimpl.DefaultEmailService} around every send, and by the
+ * {@linkplain it.ozimov.springboot.mail.service.defaultimpl.PriorityQueueEmailSchedulerService} to keep the due emails
+ * while it is open, when the circuit breaker is enabled.
+ */
+@Configuration
+@ConditionalOnExpression(CIRCUIT_BREAKER_IS_ENABLED)
+public class EmailCircuitBreakerConfiguration {
+
+    @Bean
+    public CircuitBreaker circuitBreaker(final CircuitBreakerProperties circuitBreakerProperties) {
+        return new CircuitBreaker(circuitBreakerProperties);
+    }
+
+    /**
+     * Registers the circuit breaker meters when Micrometer is on the classpath and a {@linkplain MeterRegistry} is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnExpression(CIRCUIT_BREAKER_IS_ENABLED)
+    public static class MetricsConfiguration {
+
+        @Bean
+        public MicrometerCircuitBreakerMetrics circuitBreakerMetrics(final CircuitBreaker circuitBreaker,
+                                                                     final ObjectProvider<MeterRegistry> meterRegistryProvider) {
+            final MicrometerCircuitBreakerMetrics circuitBreakerMetrics = new MicrometerCircuitBreakerMetrics(circuitBreaker);
+            meterRegistryProvider.ifAvailable(circuitBreakerMetrics::bindTo);
+            return circuitBreakerMetrics;
+        }
+
+    }
+
+}
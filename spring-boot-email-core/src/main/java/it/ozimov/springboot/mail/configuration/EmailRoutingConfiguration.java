@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerRoutingMetrics;
+import it.ozimov.springboot.mail.service.defaultimpl.PooledJavaMailSender;
+import it.ozimov.springboot.mail.service.defaultimpl.RoutingJavaMailSender;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Properties;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.ROUTING_IS_ENABLED;
+import static java.util.Objects.nonNull;
+
+/**
+ * Replaces the {@linkplain org.springframework.mail.javamail.JavaMailSender} auto-configured by Spring Boot with a
+ * {@linkplain RoutingJavaMailSender} when the routing among many relays is enabled. The settings a relay does not give
+ * are taken from the {@code spring.mail.*} properties, and each relay gets its own {@linkplain PooledJavaMailSender}
+ * when the pool of SMTP connections is enabled.
+ */
+@Configuration
+@ConditionalOnExpression(ROUTING_IS_ENABLED)
+@EnableConfigurationProperties(MailProperties.class)
+public class EmailRoutingConfiguration {
+
+    @Bean
+    public RoutingJavaMailSender routingJavaMailSender(final MailProperties mailProperties,
+                                                       final RoutingProperties routingProperties,
+                                                       final TransportPoolProperties transportPoolProperties) {
+        final RoutingJavaMailSender routingJavaMailSender = new RoutingJavaMailSender(routingProperties,
+                relay -> relaySender(mailProperties, transportPoolProperties, relay));
+        if (nonNull(mailProperties.getDefaultEncoding())) {
+            routingJavaMailSender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+        if (!mailProperties.getProperties().isEmpty()) {
+            final Properties javaMailProperties = new Properties();
+            javaMailProperties.putAll(mailProperties.getProperties());
+            routingJavaMailSender.setJavaMailProperties(javaMailProperties);
+        }
+        return routingJavaMailSender;
+    }
+
+    static JavaMailSenderImpl relaySender(final MailProperties mailProperties,
+                                          final TransportPoolProperties transportPoolProperties,
+                                          final RoutingProperties.Relay relay) {
+        final JavaMailSenderImpl relaySender = nonNull(transportPoolProperties) && transportPoolProperties.isEnabled() ?
+                new PooledJavaMailSender(transportPoolProperties) : new JavaMailSenderImpl();
+        relaySender.setHost(relay.getHost());
+        if (nonNull(relay.getPort())) {
+            relaySender.setPort(relay.getPort());
+        }
+        relaySender.setUsername(nonNull(relay.getUsername()) ? relay.getUsername() : mailProperties.getUsername());
+        relaySender.setPassword(nonNull(relay.getPassword()) ? relay.getPassword() : mailProperties.getPassword());
+        relaySender.setProtocol(nonNull(relay.getProtocol()) ? relay.getProtocol() : mailProperties.getProtocol());
+        if (nonNull(mailProperties.getDefaultEncoding())) {
+            relaySender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+        final Properties javaMailProperties = new Properties();
+        javaMailProperties.putAll(mailProperties.getProperties());
+        if (nonNull(relay.getProperties())) {
+            javaMailProperties.putAll(relay.getProperties());
+        }
+        relaySender.setJavaMailProperties(javaMailProperties);
+        return relaySender;
+    }
+
+    /**
+     * Registers the relay meters when Micrometer is on the classpath and a {@linkplain MeterRegistry} is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnExpression(ROUTING_IS_ENABLED)
+    public static class MetricsConfiguration {
+
+        @Bean
+        public MicrometerRoutingMetrics routingMetrics(final RoutingJavaMailSender routingJavaMailSender,
+                                                       final ObjectProvider<MeterRegistry> meterRegistryProvider) {
+            final MicrometerRoutingMetrics routingMetrics = new MicrometerRoutingMetrics(routingJavaMailSender);
+            meterRegistryProvider.ifAvailable(routingMetrics::bindTo);
+            return routingMetrics;
+        }
+
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerSchedulerMetrics;
+import it.ozimov.springboot.mail.service.defaultimpl.SchedulerMetrics;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SCHEDULER_IS_ENABLED;
+import static java.util.Objects.nonNull;
+
+/**
+ * Registers the scheduler meters when Micrometer is on the classpath and a {@linkplain MeterRegistry} is available.
+ * Otherwise, the scheduler runs without instrumentation.
+ */
+@Configuration
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+@ConditionalOnExpression(SCHEDULER_IS_ENABLED)
+public class EmailSchedulerMetricsConfiguration {
+
+    @Bean
+    public SchedulerMetrics emailSchedulerMetrics(final ObjectProvider<MeterRegistry> meterRegistryProvider) {
+        final MeterRegistry meterRegistry = meterRegistryProvider.getIfAvailable();
+        return nonNull(meterRegistry) ? new MicrometerSchedulerMetrics(meterRegistry) : SchedulerMetrics.NOOP;
+    }
+
+}
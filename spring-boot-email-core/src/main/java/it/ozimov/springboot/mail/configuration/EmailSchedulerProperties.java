@@ -22,9 +22,18 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_SCHEDULER;
 import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
 
 @Builder
 @Data
@@ -43,6 +52,36 @@ public class EmailSchedulerProperties {
     // spring.mail.scheduler.persistence.*
     private Persistence persistence = new Persistence();
 
+    // spring.mail.scheduler.dispatcher.*
+    private Dispatcher dispatcher = new Dispatcher();
+
+    // spring.mail.scheduler.timingWheel.*
+    private TimingWheel timingWheel = new TimingWheel();
+
+    // spring.mail.scheduler.admission.*
+    private Admission admission = new Admission();
+
+    // spring.mail.scheduler.dequeue.*
+    private Dequeue dequeue = new Dequeue();
+
+    // spring.mail.scheduler.retry.*
+    private Retry retry = new Retry();
+
+    // spring.mail.scheduler.shutdown.*
+    private Shutdown shutdown = new Shutdown();
+
+    // spring.mail.scheduler.cluster.*
+    private Cluster cluster = new Cluster();
+
+    // spring.mail.scheduler.preRender.*
+    private PreRender preRender = new PreRender();
+
+    // spring.mail.scheduler.pipeline.*
+    private Pipeline pipeline = new Pipeline();
+
+    // spring.mail.scheduler.throttle.*
+    private Throttle throttle = new Throttle();
+
     @Builder
     @Data
     @NoArgsConstructor
@@ -58,6 +97,259 @@ public class EmailSchedulerProperties {
         // spring.mail.scheduler.persistence.maxKeptInMemory
         private int maxKeptInMemory = 2000;
 
+        // spring.mail.scheduler.persistence.deadLetters, to keep the emails that could not be sent
+        private boolean deadLetters = false;
+
+        // spring.mail.scheduler.persistence.deadLetterMaxErrorLength, characters of the last error kept per dead letter
+        private int deadLetterMaxErrorLength = 512;
+
+        // spring.mail.scheduler.persistence.notifications, to load the emails added by other nodes as soon as persisted
+        private boolean notifications = false;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Dispatcher {
+
+        // spring.mail.scheduler.dispatcher.consumers
+        private int consumers = 1;
+
+        // spring.mail.scheduler.dispatcher.virtualThreads
+        private boolean virtualThreads = false;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class TimingWheel {
+
+        // spring.mail.scheduler.timingWheel.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.timingWheel.tickMillis
+        private long tickMillis = 1000;
+
+        // spring.mail.scheduler.timingWheel.wheelSize
+        private int wheelSize = 64;
+
+        // spring.mail.scheduler.timingWheel.horizonMillis
+        private long horizonMillis = 60000;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Admission {
+
+        public enum Policy {
+            // the producer waits until the emails in memory drop to the low watermark
+            BLOCK,
+            // the email is refused with an EmailSchedulingRejectedException
+            REJECT,
+            // the producer applies the email itself, rather than handing it over to the applier
+            CALLER_RUNS
+        }
+
+        // spring.mail.scheduler.admission.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.admission.policy
+        private Policy policy = Policy.BLOCK;
+
+        // spring.mail.scheduler.admission.highWatermark
+        // with persistence enabled at most maxKeptInMemory emails are in memory, so only the emails waiting to be applied
+        // can make the count go past it: keep the high watermark below maxKeptInMemory for the admission to engage
+        private int highWatermark = 100000;
+
+        // spring.mail.scheduler.admission.lowWatermark
+        private int lowWatermark = 80000;
+
+        // spring.mail.scheduler.admission.blockTimeoutMillis
+        private long blockTimeoutMillis = 30000;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Dequeue {
+
+        public enum Policy {
+            // the due email with the highest priority is always dispatched first
+            STRICT,
+            // each priority level dispatches up to its weight in emails per round
+            WEIGHTED_ROUND_ROBIN,
+            // each priority level dispatches up to its weight in recipients per round
+            DEFICIT_ROUND_ROBIN
+        }
+
+        // spring.mail.scheduler.dequeue.policy
+        private Policy policy = Policy.STRICT;
+
+        // spring.mail.scheduler.dequeue.weights, one per priority level starting from the highest; missing levels weigh 1
+        private List<Integer> weights = new ArrayList<>();
+
+        // spring.mail.scheduler.dequeue.maxLagMillis, one per priority level starting from the highest; 0 means no target
+        private List<Long> maxLagMillis = new ArrayList<>();
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Retry {
+
+        // spring.mail.scheduler.retry.enabled
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.retry.maxAttempts, counting the first attempt
+        private int maxAttempts = 3;
+
+        // spring.mail.scheduler.retry.initialBackoffMillis
+        private long initialBackoffMillis = 1000;
+
+        // spring.mail.scheduler.retry.maxBackoffMillis
+        private long maxBackoffMillis = 300000;
+
+        // spring.mail.scheduler.retry.multiplier
+        private double multiplier = 2.0;
+
+        // spring.mail.scheduler.retry.jitter, the fraction of the backoff randomly taken off
+        private double jitter = 0.5;
+
+        // spring.mail.scheduler.retry.transientReplyCodes, SMTP reply codes to retry besides the 4xx ones
+        private List<Integer> transientReplyCodes = new ArrayList<>();
+
+        // spring.mail.scheduler.retry.permanentReplyCodes, 4xx SMTP reply codes not to retry
+        private List<Integer> permanentReplyCodes = new ArrayList<>();
+
+        // spring.mail.scheduler.retry.transientExceptions, to retry when no SMTP reply code is available
+        private List<Class<? extends Throwable>> transientExceptions = new ArrayList<>(Arrays.asList(
+                SocketException.class, SocketTimeoutException.class, UnknownHostException.class));
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Shutdown {
+
+        // spring.mail.scheduler.shutdown.drainTimeoutMillis, 0 to stop without sending the due emails
+        private long drainTimeoutMillis = 0;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Cluster {
+
+        // spring.mail.scheduler.cluster.enabled, to share the persisted emails among several schedulers
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.cluster.nodeId, a random one when not given
+        private String nodeId;
+
+        // spring.mail.scheduler.cluster.visibilityTimeoutMillis, after which the emails claimed by a node can be claimed again
+        private long visibilityTimeoutMillis = 10000;
+
+        // spring.mail.scheduler.cluster.heartbeatIntervalMillis, how often a node renews its claims and restores the expired ones
+        private long heartbeatIntervalMillis = 2000;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PreRender {
+
+        // spring.mail.scheduler.preRender.enabled, to render the template emails as soon as they enter the queues
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.preRender.threads, rendering the template emails apart from the consumers
+        private int threads = 1;
+
+        // spring.mail.scheduler.preRender.maxPrepared, rendered emails kept in memory, the latest ones evicted first
+        private int maxPrepared = 500;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Pipeline {
+
+        // spring.mail.scheduler.pipeline.enabled, to prepare and transmit the emails taken by the consumers on pools of their own
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.pipeline.prepareThreads, rendering the templates and building the messages
+        private int prepareThreads = 1;
+
+        // spring.mail.scheduler.pipeline.prepareQueueCapacity, emails waiting to be prepared before the consumers block
+        private int prepareQueueCapacity = 100;
+
+        // spring.mail.scheduler.pipeline.transportThreads, handing the prepared messages over to the mail server
+        private int transportThreads = 1;
+
+        // spring.mail.scheduler.pipeline.transportQueueCapacity, prepared messages waiting before the prepare threads block
+        private int transportQueueCapacity = 100;
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Throttle {
+
+        // spring.mail.scheduler.throttle.enabled, to cap the dispatch towards each recipient domain
+        private boolean enabled = false;
+
+        // spring.mail.scheduler.throttle.maxConcurrent, emails being sent at the same time per domain; 0 means no cap
+        private int maxConcurrent = 10;
+
+        // spring.mail.scheduler.throttle.ratePerSecond, emails sent per second per domain; 0 means no rate limit
+        private double ratePerSecond = 0;
+
+        // spring.mail.scheduler.throttle.burst, emails sent back to back per domain before the rate applies
+        private int burst = 10;
+
+        // spring.mail.scheduler.throttle.lookahead, due emails looked at per priority level to skip the throttled ones
+        private int lookahead = 1000;
+
+        // spring.mail.scheduler.throttle.domains[gmail.com].*, overriding the limits above for the given domain
+        private Map<String, DomainLimit> domains = new HashMap<>();
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class DomainLimit {
+
+        // spring.mail.scheduler.throttle.domains[...].maxConcurrent, the default one if not given
+        private Integer maxConcurrent;
+
+        // spring.mail.scheduler.throttle.domains[...].ratePerSecond, the default one if not given
+        private Double ratePerSecond;
+
+        // spring.mail.scheduler.throttle.domains[...].burst, the default one if not given
+        private Integer burst;
+
     }
 
     @PostConstruct
@@ -92,11 +384,136 @@ public class EmailSchedulerProperties {
                         (emailSchedulerProperties.getPersistence().getMaxKeptInMemory() >= emailSchedulerProperties.getPersistence().getDesiredBatchSize()),
                 "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
                 "spring.mail.scheduler.persistence.maxKeptInMemory", "spring.mail.scheduler.persistence.desiredBatchSize");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getPersistence()) || emailSchedulerProperties.getPersistence().getDeadLetterMaxErrorLength() >= 0,
+                "Expected a non negative length for the errors of the dead letters. Review property 'spring.mail.scheduler.persistence.deadLetterMaxErrorLength'.");
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getDispatcher()) || emailSchedulerProperties.getDispatcher().getConsumers() > 0,
+                "Expected at least one consumer to dispatch the scheduled emails. Review property 'spring.mail.scheduler.dispatcher.consumers'.");
+
+        final TimingWheel timingWheel = emailSchedulerProperties.getTimingWheel();
+        if (nonNull(timingWheel) && timingWheel.isEnabled()) {
+            Preconditions.checkState(timingWheel.getTickMillis() > 0,
+                    "Expected a positive tick for the timing wheel. Review property 'spring.mail.scheduler.timingWheel.tickMillis'.");
+            Preconditions.checkState(timingWheel.getWheelSize() > 1,
+                    "Expected at least two buckets per timing wheel. Review property 'spring.mail.scheduler.timingWheel.wheelSize'.");
+            Preconditions.checkState(timingWheel.getHorizonMillis() >= timingWheel.getTickMillis(),
+                    "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.timingWheel.horizonMillis", "spring.mail.scheduler.timingWheel.tickMillis");
+        }
+
+        final Admission admission = emailSchedulerProperties.getAdmission();
+        if (nonNull(admission) && admission.isEnabled()) {
+            Preconditions.checkState(admission.getHighWatermark() > 0,
+                    "Expected a positive high watermark for the admission control. Review property 'spring.mail.scheduler.admission.highWatermark'.");
+            Preconditions.checkState(admission.getLowWatermark() >= 0,
+                    "Expected a non negative low watermark for the admission control. Review property 'spring.mail.scheduler.admission.lowWatermark'.");
+            Preconditions.checkState(admission.getHighWatermark() >= admission.getLowWatermark(),
+                    "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.admission.highWatermark", "spring.mail.scheduler.admission.lowWatermark");
+            Preconditions.checkState(admission.getBlockTimeoutMillis() > 0,
+                    "Expected a positive timeout for producers waiting to be admitted. Review property 'spring.mail.scheduler.admission.blockTimeoutMillis'.");
+        }
+
+        final Dequeue dequeue = emailSchedulerProperties.getDequeue();
+        if (nonNull(dequeue)) {
+            Preconditions.checkState(isNull(dequeue.getWeights()) || dequeue.getWeights().size() <= emailSchedulerProperties.getPriorityLevels(),
+                    "Expected at most one weight per priority level. Review property 'spring.mail.scheduler.dequeue.weights'.");
+            Preconditions.checkState(isNull(dequeue.getWeights()) || dequeue.getWeights().stream().allMatch(weight -> nonNull(weight) && weight > 0),
+                    "Expected positive weights for the priority levels. Review property 'spring.mail.scheduler.dequeue.weights'.");
+            Preconditions.checkState(isNull(dequeue.getMaxLagMillis()) || dequeue.getMaxLagMillis().size() <= emailSchedulerProperties.getPriorityLevels(),
+                    "Expected at most one lag target per priority level. Review property 'spring.mail.scheduler.dequeue.maxLagMillis'.");
+            Preconditions.checkState(isNull(dequeue.getMaxLagMillis()) || dequeue.getMaxLagMillis().stream().allMatch(maxLag -> nonNull(maxLag) && maxLag >= 0),
+                    "Expected non negative lag targets for the priority levels. Review property 'spring.mail.scheduler.dequeue.maxLagMillis'.");
+        }
+
+        final Retry retry = emailSchedulerProperties.getRetry();
+        if (nonNull(retry) && retry.isEnabled()) {
+            Preconditions.checkState(retry.getMaxAttempts() > 0,
+                    "Expected at least one attempt to send an email. Review property 'spring.mail.scheduler.retry.maxAttempts'.");
+            Preconditions.checkState(retry.getInitialBackoffMillis() > 0,
+                    "Expected a positive backoff before retrying an email. Review property 'spring.mail.scheduler.retry.initialBackoffMillis'.");
+            Preconditions.checkState(retry.getMaxBackoffMillis() >= retry.getInitialBackoffMillis(),
+                    "The application properties key '%s' should not have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.retry.maxBackoffMillis", "spring.mail.scheduler.retry.initialBackoffMillis");
+            Preconditions.checkState(retry.getMultiplier() >= 1,
+                    "Expected a multiplier not smaller than one, the backoff cannot shrink. Review property 'spring.mail.scheduler.retry.multiplier'.");
+            Preconditions.checkState(retry.getJitter() >= 0 && retry.getJitter() <= 1,
+                    "Expected a jitter between 0 and 1. Review property 'spring.mail.scheduler.retry.jitter'.");
+        }
+
+        Preconditions.checkState(isNull(emailSchedulerProperties.getShutdown()) || emailSchedulerProperties.getShutdown().getDrainTimeoutMillis() >= 0,
+                "Expected a non negative drain timeout. Review property 'spring.mail.scheduler.shutdown.drainTimeoutMillis'.");
+
+        final Cluster cluster = emailSchedulerProperties.getCluster();
+        if (nonNull(cluster) && cluster.isEnabled()) {
+            Preconditions.checkState(nonNull(emailSchedulerProperties.getPersistence()),
+                    "Expected the persistence layer to share the emails among the nodes. Review property 'spring.mail.scheduler.cluster.enabled'.");
+            Preconditions.checkState(cluster.getVisibilityTimeoutMillis() > 0,
+                    "Expected a positive visibility timeout for the claimed emails. Review property 'spring.mail.scheduler.cluster.visibilityTimeoutMillis'.");
+            Preconditions.checkState(cluster.getHeartbeatIntervalMillis() > 0,
+                    "Expected a positive heartbeat interval for the claimed emails. Review property 'spring.mail.scheduler.cluster.heartbeatIntervalMillis'.");
+            Preconditions.checkState(cluster.getHeartbeatIntervalMillis() < cluster.getVisibilityTimeoutMillis(),
+                    "The application properties key '%s' should have a value smaller than the value in property '%s'.",
+                    "spring.mail.scheduler.cluster.heartbeatIntervalMillis", "spring.mail.scheduler.cluster.visibilityTimeoutMillis");
+        }
+
+        final PreRender preRender = emailSchedulerProperties.getPreRender();
+        if (nonNull(preRender) && preRender.isEnabled()) {
+            Preconditions.checkState(preRender.getThreads() > 0,
+                    "Expected at least one thread to render the template emails. Review property 'spring.mail.scheduler.preRender.threads'.");
+            Preconditions.checkState(preRender.getMaxPrepared() > 0,
+                    "Expected at least one rendered email to be kept in memory. Review property 'spring.mail.scheduler.preRender.maxPrepared'.");
+        }
+
+        final Pipeline pipeline = emailSchedulerProperties.getPipeline();
+        if (nonNull(pipeline) && pipeline.isEnabled()) {
+            Preconditions.checkState(pipeline.getPrepareThreads() > 0,
+                    "Expected at least one thread to prepare the emails. Review property 'spring.mail.scheduler.pipeline.prepareThreads'.");
+            Preconditions.checkState(pipeline.getPrepareQueueCapacity() > 0,
+                    "Expected room for at least one email waiting to be prepared. Review property 'spring.mail.scheduler.pipeline.prepareQueueCapacity'.");
+            Preconditions.checkState(pipeline.getTransportThreads() > 0,
+                    "Expected at least one thread to transmit the emails. Review property 'spring.mail.scheduler.pipeline.transportThreads'.");
+            Preconditions.checkState(pipeline.getTransportQueueCapacity() > 0,
+                    "Expected room for at least one email waiting to be transmitted. Review property 'spring.mail.scheduler.pipeline.transportQueueCapacity'.");
+        }
+
+        final Throttle throttle = emailSchedulerProperties.getThrottle();
+        if (nonNull(throttle) && throttle.isEnabled()) {
+            Preconditions.checkState(throttle.getMaxConcurrent() >= 0,
+                    "Expected a non negative number of emails sent at the same time per domain. Review property 'spring.mail.scheduler.throttle.maxConcurrent'.");
+            Preconditions.checkState(throttle.getRatePerSecond() >= 0,
+                    "Expected a non negative rate per domain. Review property 'spring.mail.scheduler.throttle.ratePerSecond'.");
+            Preconditions.checkState(throttle.getBurst() > 0,
+                    "Expected a burst of at least one email per domain. Review property 'spring.mail.scheduler.throttle.burst'.");
+            Preconditions.checkState(throttle.getLookahead() > 0,
+                    "Expected to look at least at the earliest due email of each priority level. Review property 'spring.mail.scheduler.throttle.lookahead'.");
+            if (nonNull(throttle.getDomains())) {
+                throttle.getDomains().forEach((domain, domainLimit) -> {
+                    Preconditions.checkState(nonNull(domainLimit) && (isNull(domainLimit.getMaxConcurrent()) || domainLimit.getMaxConcurrent() >= 0),
+                            "Expected a non negative number of emails sent at the same time. Review property 'spring.mail.scheduler.throttle.domains[%s].maxConcurrent'.", domain);
+                    Preconditions.checkState(isNull(domainLimit.getRatePerSecond()) || domainLimit.getRatePerSecond() >= 0,
+                            "Expected a non negative rate. Review property 'spring.mail.scheduler.throttle.domains[%s].ratePerSecond'.", domain);
+                    Preconditions.checkState(isNull(domainLimit.getBurst()) || domainLimit.getBurst() > 0,
+                            "Expected a burst of at least one email. Review property 'spring.mail.scheduler.throttle.domains[%s].burst'.", domain);
+                });
+            }
+        }
     }
 
     private void setValuesToNull() {
         priorityLevels = null;
         persistence = null;
+        dispatcher = null;
+        timingWheel = null;
+        admission = null;
+        dequeue = null;
+        retry = null;
+        shutdown = null;
+        cluster = null;
+        preRender = null;
+        pipeline = null;
+        throttle = null;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerTransportPoolMetrics;
+import it.ozimov.springboot.mail.service.defaultimpl.PooledJavaMailSender;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Properties;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.TRANSPORT_POOL_IS_ENABLED_WITHOUT_ROUTING;
+import static java.util.Objects.nonNull;
+
+/**
+ * Replaces the {@linkplain org.springframework.mail.javamail.JavaMailSender} auto-configured by Spring Boot with a
+ * {@linkplain PooledJavaMailSender}, configured from the same {@code spring.mail.*} properties, when the pool of SMTP
+ * connections is enabled. When the routing among many relays is enabled too, each relay gets its own pool instead, see
+ * {@linkplain EmailRoutingConfiguration}.
+ */
+@Configuration
+@ConditionalOnExpression(TRANSPORT_POOL_IS_ENABLED_WITHOUT_ROUTING)
+@EnableConfigurationProperties(MailProperties.class)
+public class EmailTransportPoolConfiguration {
+
+    @Bean
+    public PooledJavaMailSender pooledJavaMailSender(final MailProperties mailProperties,
+                                                     final TransportPoolProperties transportPoolProperties) {
+        final PooledJavaMailSender pooledJavaMailSender = new PooledJavaMailSender(transportPoolProperties);
+        pooledJavaMailSender.setHost(mailProperties.getHost());
+        if (nonNull(mailProperties.getPort())) {
+            pooledJavaMailSender.setPort(mailProperties.getPort());
+        }
+        pooledJavaMailSender.setUsername(mailProperties.getUsername());
+        pooledJavaMailSender.setPassword(mailProperties.getPassword());
+        pooledJavaMailSender.setProtocol(mailProperties.getProtocol());
+        if (nonNull(mailProperties.getDefaultEncoding())) {
+            pooledJavaMailSender.setDefaultEncoding(mailProperties.getDefaultEncoding().name());
+        }
+        if (!mailProperties.getProperties().isEmpty()) {
+            final Properties javaMailProperties = new Properties();
+            javaMailProperties.putAll(mailProperties.getProperties());
+            pooledJavaMailSender.setJavaMailProperties(javaMailProperties);
+        }
+        return pooledJavaMailSender;
+    }
+
+    /**
+     * Registers the pool meters when Micrometer is on the classpath and a {@linkplain MeterRegistry} is available.
+     */
+    @Configuration
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+    @ConditionalOnExpression(TRANSPORT_POOL_IS_ENABLED_WITHOUT_ROUTING)
+    public static class MetricsConfiguration {
+
+        @Bean
+        public MicrometerTransportPoolMetrics transportPoolMetrics(final PooledJavaMailSender pooledJavaMailSender,
+                                                                   final ObjectProvider<MeterRegistry> meterRegistryProvider) {
+            final MicrometerTransportPoolMetrics transportPoolMetrics = new MicrometerTransportPoolMetrics(pooledJavaMailSender);
+            meterRegistryProvider.ifAvailable(transportPoolMetrics::bindTo);
+            return transportPoolMetrics;
+        }
+
+    }
+
+}
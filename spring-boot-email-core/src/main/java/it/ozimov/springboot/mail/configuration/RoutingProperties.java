@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import com.google.common.base.Preconditions;
+import lombok.*;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_ROUTING;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = __SPRING_MAIL_ROUTING)
+public class RoutingProperties {
+
+    public enum Strategy {
+        // each relay takes emails in turn, as many as its weight per round
+        WEIGHTED_ROUND_ROBIN,
+        // the relay with the fewest emails being sent, relative to its weight
+        LEAST_OUTSTANDING,
+        // the relay with the lowest moving average of the latency, times the emails being sent, relative to its weight
+        EWMA_LATENCY
+    }
+
+    // spring.mail.routing.enabled, to send the emails through many relays instead of the one of spring.mail.host
+    @Builder.Default
+    private boolean enabled = false;
+
+    // spring.mail.routing.strategy
+    @Builder.Default
+    private Strategy strategy = Strategy.LEAST_OUTSTANDING;
+
+    // spring.mail.routing.relays[name].*, in order of preference for the ties
+    @Builder.Default
+    private Map<String, Relay> relays = new LinkedHashMap<>();
+
+    // spring.mail.routing.circuitBreaker.*
+    @Builder.Default
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Relay {
+
+        // spring.mail.routing.relays[...].host
+        private String host;
+
+        // spring.mail.routing.relays[...].port, the default one of the protocol if not given
+        private Integer port;
+
+        // spring.mail.routing.relays[...].username, the one of spring.mail.username if not given
+        private String username;
+
+        // spring.mail.routing.relays[...].password, the one of spring.mail.password if not given
+        private String password;
+
+        // spring.mail.routing.relays[...].protocol, the one of spring.mail.protocol if not given
+        private String protocol;
+
+        // spring.mail.routing.relays[...].weight, share of the emails compared to the other relays
+        @Builder.Default
+        private int weight = 1;
+
+        // spring.mail.routing.relays[...].priorities, priority levels preferably sent through this relay; empty means any
+        @Builder.Default
+        private List<Integer> priorities = new ArrayList<>();
+
+        // spring.mail.routing.relays[...].properties.*, added to the ones of spring.mail.properties.*
+        @Builder.Default
+        private Map<String, String> properties = new HashMap<>();
+
+    }
+
+    @Builder
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class CircuitBreaker {
+
+        // spring.mail.routing.circuitBreaker.failureThreshold, consecutive failures of a relay before skipping it
+        @Builder.Default
+        private int failureThreshold = 5;
+
+        // spring.mail.routing.circuitBreaker.openMillis, time a relay is skipped before trying it again with one email
+        @Builder.Default
+        private long openMillis = 30_000;
+
+    }
+
+    @PostConstruct
+    protected boolean validate() {
+        if (enabled) {
+            checkIsValid(this);
+        }
+        return true;
+    }
+
+    public static void checkIsValid(@NonNull final RoutingProperties routingProperties) {
+        Preconditions.checkState(nonNull(routingProperties.getStrategy()),
+                "Expected a routing strategy. Review property 'spring.mail.routing.strategy'.");
+
+        Preconditions.checkState(nonNull(routingProperties.getRelays()) && !routingProperties.getRelays().isEmpty(),
+                "Expected at least one relay. Review property 'spring.mail.routing.relays'.");
+
+        for (final Map.Entry<String, Relay> entry : routingProperties.getRelays().entrySet()) {
+            final Relay relay = entry.getValue();
+            Preconditions.checkState(nonNull(relay) && nonNull(relay.getHost()) && !relay.getHost().trim().isEmpty(),
+                    "Expected the host of the relay. Review property 'spring.mail.routing.relays[%s].host'.", entry.getKey());
+            Preconditions.checkState(isNull(relay.getPort()) || relay.getPort() > 0,
+                    "Expected a positive port. Review property 'spring.mail.routing.relays[%s].port'.", entry.getKey());
+            Preconditions.checkState(relay.getWeight() > 0,
+                    "Expected a positive weight. Review property 'spring.mail.routing.relays[%s].weight'.", entry.getKey());
+            Preconditions.checkState(isNull(relay.getPriorities()) || relay.getPriorities().stream().allMatch(priority -> nonNull(priority) && priority > 0),
+                    "Expected positive priority levels. Review property 'spring.mail.routing.relays[%s].priorities'.", entry.getKey());
+        }
+
+        final CircuitBreaker circuitBreaker = routingProperties.getCircuitBreaker();
+        if (nonNull(circuitBreaker)) {
+            Preconditions.checkState(circuitBreaker.getFailureThreshold() > 0,
+                    "Expected at least one failure before skipping a relay. Review property 'spring.mail.routing.circuitBreaker.failureThreshold'.");
+            Preconditions.checkState(circuitBreaker.getOpenMillis() > 0,
+                    "Expected a positive time to skip a failing relay. Review property 'spring.mail.routing.circuitBreaker.openMillis'.");
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import com.google.common.base.Preconditions;
+import lombok.*;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.__SPRING_MAIL_POOL;
+
+@Builder
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Component
+@ConfigurationProperties(prefix = __SPRING_MAIL_POOL)
+public class TransportPoolProperties {
+
+    // spring.mail.pool.enabled, to keep the SMTP connections open and authenticated between the emails
+    @Builder.Default
+    private boolean enabled = false;
+
+    // spring.mail.pool.maxConnections, connections open at the same time, the senders beyond wait for one to be free
+    @Builder.Default
+    private int maxConnections = 4;
+
+    // spring.mail.pool.maxMessagesPerConnection, after which the connection is closed, since relays cap them
+    @Builder.Default
+    private int maxMessagesPerConnection = 100;
+
+    // spring.mail.pool.maxIdleMillis, after which an unused connection is closed, before the relay drops it
+    @Builder.Default
+    private long maxIdleMillis = 30_000;
+
+    // spring.mail.pool.validationIntervalMillis, idle time after which a connection is checked with a NOOP before use
+    @Builder.Default
+    private long validationIntervalMillis = 5_000;
+
+    // spring.mail.pool.borrowTimeoutMillis, waiting for a free connection before failing the send
+    @Builder.Default
+    private long borrowTimeoutMillis = 10_000;
+
+    @PostConstruct
+    protected boolean validate() {
+        if (enabled) {
+            checkIsValid(this);
+        }
+        return true;
+    }
+
+    public static void checkIsValid(@NonNull final TransportPoolProperties transportPoolProperties) {
+        Preconditions.checkState(transportPoolProperties.getMaxConnections() > 0,
+                "Expected at least one SMTP connection in the pool. Review property 'spring.mail.pool.maxConnections'.");
+
+        Preconditions.checkState(transportPoolProperties.getMaxMessagesPerConnection() > 0,
+                "Expected at least one email to be sent on each connection. Review property 'spring.mail.pool.maxMessagesPerConnection'.");
+
+        Preconditions.checkState(transportPoolProperties.getMaxIdleMillis() > 0,
+                "Expected a positive idle time before closing a connection. Review property 'spring.mail.pool.maxIdleMillis'.");
+
+        Preconditions.checkState(transportPoolProperties.getValidationIntervalMillis() >= 0,
+                "Expected a non negative idle time before checking a connection. Review property 'spring.mail.pool.validationIntervalMillis'.");
+
+        Preconditions.checkState(transportPoolProperties.getBorrowTimeoutMillis() >= 0,
+                "Expected a non negative time to wait for a free connection. Review property 'spring.mail.pool.borrowTimeoutMillis'.");
+    }
+
+}
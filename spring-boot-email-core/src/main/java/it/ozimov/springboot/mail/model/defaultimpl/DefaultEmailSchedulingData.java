@@ -37,7 +37,7 @@ public class DefaultEmailSchedulingData implements EmailSchedulingData {
 
     private static final long serialVersionUID = 60021395842232155L;
 
-    private final String id = UUID.randomUUID().toString();
+    private final String id;
     protected final Email email;
     protected final OffsetDateTime scheduledDateTime;
     protected final int assignedPriority;
@@ -48,8 +48,21 @@ public class DefaultEmailSchedulingData implements EmailSchedulingData {
                                       @NonNull final OffsetDateTime scheduledDateTime,
                                       final int desiredPriority,
                                       final int assignedPriority) {
+        this(UUID.randomUUID().toString(), email, scheduledDateTime, desiredPriority, assignedPriority);
+    }
+
+    /**
+     * Creates the scheduling data with the given id, e.g. to move an already scheduled email to a different time or
+     * priority level.
+     */
+    public DefaultEmailSchedulingData(@NonNull final String id,
+                                      @NonNull final Email email,
+                                      @NonNull final OffsetDateTime scheduledDateTime,
+                                      final int desiredPriority,
+                                      final int assignedPriority) {
         checkArgument(assignedPriority > 0, "Priority cannot be less than 1");
 
+        this.id = id;
         this.email = email;
         this.scheduledDateTime = scheduledDateTime;
         this.desiredPriority = desiredPriority;
@@ -52,6 +52,24 @@ public class TemplateEmailSchedulingData extends DefaultEmailSchedulingData {
         this.inlinePictures = inlinePictures;
     }
 
+    /**
+     * Creates the scheduling data with the given id, e.g. to move an already scheduled email to a different time or
+     * priority level.
+     */
+    public TemplateEmailSchedulingData(@NonNull final String id,
+                                       @NonNull final Email email,
+                                       @NonNull final OffsetDateTime scheduledDateTime,
+                                       final int desiredPriority,
+                                       final int assignedPriority,
+                                       @NonNull final String template,
+                                       @NonNull final Map<String, Object> modelObject,
+                                       @NonNull final InlinePicture[] inlinePictures) {
+        super(id, email, scheduledDateTime, desiredPriority, assignedPriority);
+        this.template = template;
+        this.modelObject = modelObject;
+        this.inlinePictures = inlinePictures;
+    }
+
     public static class TemplateEmailSchedulingDataBuilder {
         protected OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow();
     }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.util.List;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Summary of a bulk scheduling request, as returned by {@link EmailSchedulerService#scheduleAll(java.util.Collection)}.
+ * The outcomes are in the same order of the requested emails.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class BulkSchedulingResult {
+
+    public enum Status {
+        SCHEDULED,
+        REJECTED
+    }
+
+    private final List<Outcome> outcomes;
+
+    @Builder
+    public BulkSchedulingResult(@NonNull final List<Outcome> outcomes) {
+        this.outcomes = outcomes;
+    }
+
+    public int requested() {
+        return outcomes.size();
+    }
+
+    public int scheduled() {
+        return (int) outcomes.stream().filter(Outcome::isScheduled).count();
+    }
+
+    public int rejected() {
+        return requested() - scheduled();
+    }
+
+    public List<Outcome> rejectedOutcomes() {
+        return outcomes.stream()
+                .filter(outcome -> !outcome.isScheduled())
+                .collect(toList());
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    @EqualsAndHashCode
+    public static class Outcome {
+
+        // Position of the email in the request
+        private final int index;
+
+        private final Status status;
+
+        // Id of the scheduled email, null if rejected or not known by the implementation
+        private final String id;
+
+        // Priority assigned after normalization, 0 if rejected or not known by the implementation
+        private final int assignedPriority;
+
+        // Why the email was rejected, null if scheduled
+        private final String reason;
+
+        public boolean isScheduled() {
+            return status == Status.SCHEDULED;
+        }
+
+        public static Outcome scheduled(final int index, final String id, final int assignedPriority) {
+            return Outcome.builder()
+                    .index(index)
+                    .status(Status.SCHEDULED)
+                    .id(id)
+                    .assignedPriority(assignedPriority)
+                    .build();
+        }
+
+        public static Outcome rejected(final int index, @NonNull final String reason) {
+            return Outcome.builder()
+                    .index(index)
+                    .status(Status.REJECTED)
+                    .reason(reason)
+                    .build();
+        }
+
+    }
+
+}
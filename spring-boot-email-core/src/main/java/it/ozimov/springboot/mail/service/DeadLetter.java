@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NonNull;
+import lombok.ToString;
+
+import java.time.Instant;
+
+/**
+ * An email that could not be sent and was given up, kept by the {@link PersistenceService} along with why and when it
+ * failed, so that it can be replayed later on.
+ */
+@Getter
+@ToString
+@EqualsAndHashCode
+public class DeadLetter {
+
+    public enum Reason {
+        // The error is not worth another attempt, e.g. a 5xx SMTP reply
+        PERMANENT_FAILURE,
+        // The error was transient, but all the attempts failed
+        ATTEMPTS_EXHAUSTED,
+        // Retries are not enabled
+        NOT_RETRIED
+    }
+
+    private final EmailSchedulingData emailSchedulingData;
+
+    private final Reason reason;
+
+    // Failed attempts to send the email, including the last one
+    private final int attempts;
+
+    // Message of the last error, possibly truncated
+    private final String lastError;
+
+    private final Instant failedAt;
+
+    @Builder
+    public DeadLetter(@NonNull final EmailSchedulingData emailSchedulingData, @NonNull final Reason reason,
+                      final int attempts, final String lastError, @NonNull final Instant failedAt) {
+        this.emailSchedulingData = emailSchedulingData;
+        this.reason = reason;
+        this.attempts = attempts;
+        this.lastError = lastError;
+        this.failedAt = failedAt;
+    }
+
+    public String getId() {
+        return emailSchedulingData.getId();
+    }
+
+}
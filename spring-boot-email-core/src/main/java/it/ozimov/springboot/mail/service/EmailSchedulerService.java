@@ -17,12 +17,23 @@
 package it.ozimov.springboot.mail.service;
 
 import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.InlinePicture;
+import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
-import org.springframework.scheduling.annotation.Async;
+import it.ozimov.springboot.mail.service.exception.EmailSchedulingRejectedException;
+import lombok.NonNull;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static java.util.Objects.isNull;
 
 public interface EmailSchedulerService {
 
@@ -33,8 +44,9 @@ public interface EmailSchedulerService {
      * @param desiredPriorityLevel the desiredPriority level for the email:
      *                             the emails with scheduledTime<=now are sent according to an order depending
      *                             on their desiredPriority level
+     * @throws EmailSchedulingRejectedException if admission control is enabled and the email is not admitted
+     * @throws IllegalStateException            if the scheduler is not running
      */
-    @Async
     void schedule(Email mimeEmail, int desiredPriorityLevel);
 
     /**
@@ -45,8 +57,9 @@ public interface EmailSchedulerService {
      * @param desiredPriorityLevel the desiredPriority level for the email:
      *                             the emails with scheduledTime<=now are sent according to an order depending
      *                             on their desiredPriority level
+     * @throws EmailSchedulingRejectedException if admission control is enabled and the email is not admitted
+     * @throws IllegalStateException            if the scheduler is not running
      */
-    @Async
     void schedule(Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel);
 
     /**
@@ -59,8 +72,9 @@ public interface EmailSchedulerService {
      * @param template             the reference to the template file
      * @param modelObject          the model object to be used for the template engine, it may be null
      * @param inlinePictures       list of pictures to be rendered inline in the template
+     * @throws EmailSchedulingRejectedException if admission control is enabled and the email is not admitted
+     * @throws IllegalStateException            if the scheduler is not running
      */
-    @Async
     void schedule(Email mimeEmail, int desiredPriorityLevel,
                   String template, Map<String, Object> modelObject,
                   InlinePicture... inlinePictures) throws CannotSendEmailException;
@@ -76,12 +90,112 @@ public interface EmailSchedulerService {
      * @param template             the reference to the template file
      * @param modelObject          the model object to be used for the template engine, it may be null
      * @param inlinePictures       list of pictures to be rendered inline in the template
+     * @throws EmailSchedulingRejectedException if admission control is enabled and the email is not admitted
+     * @throws IllegalStateException            if the scheduler is not running
      */
-    @Async
     void schedule(Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel,
                   String template, Map<String, Object> modelObject,
                   InlinePicture... inlinePictures) throws CannotSendEmailException;
 
+    /**
+     * Schedules all the given emails, each one at its scheduled date-time and with its desired priority level.
+     * The assigned priority of the given {@linkplain EmailSchedulingData} is ignored, since it is computed from the
+     * desired one as for the other scheduling methods. Instances of {@linkplain TemplateEmailSchedulingData} are sent
+     * using their template.
+     * <p>
+     * Differently from the other scheduling methods, the call is synchronous, so that the outcome of each email is
+     * returned. The default implementation schedules one email at a time and, since the scheduled data is built by
+     * the called methods, it cannot report the id and the assigned priority of each scheduled email.
+     *
+     * @param emailSchedulingData the emails to be scheduled
+     * @return the outcome of each email, in the same order of the given collection
+     */
+    default BulkSchedulingResult scheduleAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingData) {
+        return scheduleAll(emailSchedulingData.stream());
+    }
+
+    /**
+     * Schedules all the emails in the given stream, see {@link #scheduleAll(Collection)}.
+     *
+     * @param emailSchedulingData the emails to be scheduled
+     * @return the outcome of each email, in the same order of the given stream
+     */
+    default BulkSchedulingResult scheduleAll(@NonNull final Stream<EmailSchedulingData> emailSchedulingData) {
+        final List<BulkSchedulingResult.Outcome> outcomes = new ArrayList<>();
+        final Iterator<EmailSchedulingData> iterator = emailSchedulingData.iterator();
+        for (int index = 0; iterator.hasNext(); index++) {
+            final EmailSchedulingData data = iterator.next();
+            if (isNull(data)) {
+                outcomes.add(BulkSchedulingResult.Outcome.rejected(index, "Null email scheduling data"));
+                continue;
+            }
+            try {
+                if (data instanceof TemplateEmailSchedulingData) {
+                    final TemplateEmailSchedulingData templateData = (TemplateEmailSchedulingData) data;
+                    schedule(templateData.getEmail(), templateData.getScheduledDateTime(), templateData.getDesiredPriority(),
+                            templateData.getTemplate(), templateData.getModelObject(), templateData.getInlinePictures());
+                } else {
+                    schedule(data.getEmail(), data.getScheduledDateTime(), data.getDesiredPriority());
+                }
+                outcomes.add(BulkSchedulingResult.Outcome.scheduled(index, null, 0));
+            } catch (final CannotSendEmailException | RuntimeException e) {
+                outcomes.add(BulkSchedulingResult.Outcome.rejected(index, String.valueOf(e.getMessage())));
+            }
+        }
+        return BulkSchedulingResult.builder().outcomes(outcomes).build();
+    }
+
+    /**
+     * Schedules the sending of an email message, as {@link #schedule(Email, OffsetDateTime, int)} does, returning
+     * the id of the scheduled email. The id can be used to {@link #cancel(String)} or {@link #reschedule(String, OffsetDateTime, int)}
+     * the email.
+     *
+     * @param mimeEmail            an email to be sent
+     * @param scheduledDateTime    the date-time at which the email should be sent
+     * @param desiredPriorityLevel the desiredPriority level for the email
+     * @return a future completed with the id of the email once it is scheduled, or completed exceptionally if the
+     * email cannot be scheduled
+     */
+    default CompletableFuture<String> submit(Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("Scheduling with id is not supported"));
+    }
+
+    /**
+     * Schedules the sending of an email message with a template, as
+     * {@link #schedule(Email, OffsetDateTime, int, String, Map, InlinePicture...)} does, returning the id of the
+     * scheduled email.
+     *
+     * @return a future completed with the id of the email once it is scheduled, or completed exceptionally if the
+     * email cannot be scheduled
+     */
+    default CompletableFuture<String> submit(Email mimeEmail, OffsetDateTime scheduledDateTime, int desiredPriorityLevel,
+                                             String template, Map<String, Object> modelObject,
+                                             InlinePicture... inlinePictures) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("Scheduling with id is not supported"));
+    }
+
+    /**
+     * Cancels a scheduled email, unless its sending already started.
+     *
+     * @param id the id of the scheduled email
+     * @return {@code true} if the email was scheduled and will not be sent.
+     */
+    default boolean cancel(String id) {
+        throw new UnsupportedOperationException("Cancelling a scheduled email is not supported");
+    }
+
+    /**
+     * Moves a scheduled email to a different date-time and priority level, unless its sending already started.
+     * The email keeps its id.
+     *
+     * @param id                   the id of the scheduled email
+     * @param scheduledDateTime    the new date-time at which the email should be sent
+     * @param desiredPriorityLevel the new desiredPriority level for the email
+     * @return {@code true} if the email was scheduled and has been moved.
+     */
+    default boolean reschedule(String id, OffsetDateTime scheduledDateTime, int desiredPriorityLevel) {
+        throw new UnsupportedOperationException("Rescheduling a scheduled email is not supported");
+    }
 
     default ServiceStatus status() {
         return ServiceStatus.CLOSED;
@@ -19,8 +19,11 @@ package it.ozimov.springboot.mail.service;
 import it.ozimov.springboot.mail.model.Email;
 import it.ozimov.springboot.mail.model.InlinePicture;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import it.ozimov.springboot.mail.service.exception.FanOutException;
 
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
+import java.util.Collection;
 import java.util.Map;
 
 public interface EmailService {
@@ -49,4 +52,81 @@ public interface EmailService {
                      String template, Map<String, Object> modelObject,
                      InlinePicture... inlinePictures) throws CannotSendEmailException;
 
+    /**
+     * Builds the message to be sent later on with {@link #sendPrepared(Email, MimeMessage)}, without sending it.
+     * The send date is not set.
+     *
+     * @param mimeEmail an email to be prepared
+     * @throws UnsupportedOperationException if the implementation cannot prepare the messages in advance.
+     */
+    default MimeMessage prepare(Email mimeEmail) {
+        throw new UnsupportedOperationException("Preparing the messages is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Renders the template and builds the message to be sent later on with {@link #sendPrepared(Email, MimeMessage)},
+     * without sending it. The send date is not set.
+     *
+     * @param mimeEmail      an email to be prepared
+     * @param template       the reference to the template file
+     * @param modelObject    the model object to be used for the template engine, it may be null
+     * @param inlinePictures list of pictures to be rendered inline in the template
+     * @throws UnsupportedOperationException if the implementation cannot prepare the messages in advance.
+     */
+    default MimeMessage prepare(Email mimeEmail,
+                                String template, Map<String, Object> modelObject,
+                                InlinePicture... inlinePictures) throws CannotSendEmailException {
+        throw new UnsupportedOperationException("Preparing the messages is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Send a message built by {@link #prepare(Email)} or {@link #prepare(Email, String, Map, InlinePicture...)}.
+     * <p>
+     * The send date is set or overridden if any is present.
+     *
+     * @param mimeEmail   the email the message was prepared from
+     * @param mimeMessage the prepared message
+     * @throws UnsupportedOperationException if the implementation cannot prepare the messages in advance.
+     */
+    default MimeMessage sendPrepared(Email mimeEmail, MimeMessage mimeMessage) throws CannotSendEmailException {
+        throw new UnsupportedOperationException("Preparing the messages is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Send the same message to many recipients, listing all of them in the envelope of a single SMTP transaction
+     * rather than repeating the transaction for each of them. Each recipient receives a blind copy: the recipients of
+     * the email itself are ignored. Transactions exceeding the recipients a server must accept are split.
+     * <p>
+     * The send date is set or overridden if any is present.
+     *
+     * @param mimeEmail  an email to be send
+     * @param recipients the addresses the email is delivered to
+     * @throws FanOutException               if some of the transactions failed, once all of them have been attempted.
+     * @throws UnsupportedOperationException if the implementation cannot fan out the messages.
+     */
+    default MimeMessage sendFanOut(Email mimeEmail, Collection<InternetAddress> recipients) throws CannotSendEmailException {
+        throw new UnsupportedOperationException("Fanning out the messages is not supported by " + getClass().getName());
+    }
+
+    /**
+     * Renders the template once and send the message to many recipients, as done by
+     * {@link #sendFanOut(Email, Collection)}.
+     * <p>
+     * The body is ignored if present.
+     * The send date is set or overridden if any is present.
+     *
+     * @param mimeEmail      an email to be send
+     * @param recipients     the addresses the email is delivered to
+     * @param template       the reference to the template file
+     * @param modelObject    the model object to be used for the template engine, it may be null
+     * @param inlinePictures list of pictures to be rendered inline in the template
+     * @throws FanOutException               if some of the transactions failed, once all of them have been attempted.
+     * @throws UnsupportedOperationException if the implementation cannot fan out the messages.
+     */
+    default MimeMessage sendFanOut(Email mimeEmail, Collection<InternetAddress> recipients,
+                                   String template, Map<String, Object> modelObject,
+                                   InlinePicture... inlinePictures) throws CannotSendEmailException {
+        throw new UnsupportedOperationException("Fanning out the messages is not supported by " + getClass().getName());
+    }
+
 }
@@ -19,7 +19,9 @@ package it.ozimov.springboot.mail.service;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 public interface PersistenceService {
@@ -103,6 +105,23 @@ public interface PersistenceService {
     @Transactional(readOnly = true)
     Collection<EmailSchedulingData> getNextBatch(int batchMaxSize);
 
+    /**
+     * Retrieves up to {@code batchMaxSize} {@linkplain EmailSchedulingData} of the given priority level that come
+     * after the given one, in the order kept by the persistence layer. The last email returned can be given back to
+     * read the following batch, so that the cost of a call depends on the size of the batch only.
+     *
+     * @param priorityLevel the priority level from which we want to extract the batch.
+     * @param batchMaxSize  the desired size of the batch.
+     * @param after         the last email of the previous batch of the priority level, or {@code null} to start
+     *                      from the first one.
+     * @return the batch of {@linkplain EmailSchedulingData}, in the order kept by the persistence layer.
+     * @throws UnsupportedOperationException if the implementation cannot read a batch after a given email.
+     */
+    @Transactional(readOnly = true)
+    default List<EmailSchedulingData> getNextBatchAfter(int priorityLevel, int batchMaxSize, EmailSchedulingData after) {
+        throw new UnsupportedOperationException("Reading a batch after a given email is not supported by " + getClass().getSimpleName());
+    }
+
     /**
      * Remove all the {@linkplain EmailSchedulingData} in the peristence layer.
      */
@@ -128,4 +147,184 @@ public interface PersistenceService {
     @Transactional(rollbackFor = Exception.class)
     void removeAll(Collection<String> ids);
 
+    /**
+     * Count the {@linkplain EmailSchedulingData} in the persistence layer.
+     *
+     * @return the number of stored {@linkplain EmailSchedulingData}.
+     * @throws UnsupportedOperationException if the implementation cannot count the stored data.
+     */
+    @Transactional(readOnly = true)
+    default long count() {
+        throw new UnsupportedOperationException("Counting the stored emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Moves the {@linkplain EmailSchedulingData} of the given {@linkplain DeadLetter} out of its priority level and
+     * among the dead letters, along with the reason of the failure. The stored value is kept, so that the email
+     * can be replayed.
+     *
+     * @param deadLetter the email that could not be sent, with the details of the failure.
+     * @throws UnsupportedOperationException if the implementation cannot store dead letters.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    default void addDeadLetter(DeadLetter deadLetter) {
+        throw new UnsupportedOperationException("Dead letters are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Retrieves up to {@code batchMaxSize} {@linkplain DeadLetter}s, starting from the oldest failure. The dead
+     * letters are not removed, see {@link #removeDeadLetters(Collection)}.
+     *
+     * @param batchMaxSize the desired size of the batch.
+     * @return a batch of dead letters, ordered by failure time.
+     * @throws UnsupportedOperationException if the implementation cannot store dead letters.
+     */
+    @Transactional(readOnly = true)
+    default Collection<DeadLetter> getNextDeadLetterBatch(int batchMaxSize) {
+        throw new UnsupportedOperationException("Dead letters are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Forgets the {@linkplain DeadLetter}s with the given ids, without removing the stored
+     * {@linkplain EmailSchedulingData}: to be called once the emails are scheduled again through
+     * {@link #addAll(Collection)}, or along with {@link #removeAll(Collection)} to discard them.
+     *
+     * @param ids a collection of ids of dead letters.
+     * @throws UnsupportedOperationException if the implementation cannot store dead letters.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    default void removeDeadLetters(Collection<String> ids) {
+        throw new UnsupportedOperationException("Dead letters are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Count the {@linkplain DeadLetter}s in the persistence layer.
+     *
+     * @return the number of stored dead letters.
+     * @throws UnsupportedOperationException if the implementation cannot store dead letters.
+     */
+    @Transactional(readOnly = true)
+    default long countDeadLetters() {
+        throw new UnsupportedOperationException("Dead letters are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Atomically claims a batch of up to {@code batchMaxSize} {@linkplain EmailSchedulingData} on behalf of the given
+     * owner, so that several schedulers sharing the persistence layer never load the same email. Claimed emails are
+     * moved out of their priority level until {@link #acknowledgeClaims(String, Collection)} is called, or until the
+     * visibility timeout expires and {@link #restoreExpiredClaims()} puts them back.
+     * <p>
+     * Only emails scheduled before the visibility timeout expires are claimed, so that no email stays claimed while
+     * waiting for its scheduled time.
+     * </p>
+     * <p>
+     * The claims are not transactional: each of them is a single atomic script, whose reply would be lost if queued in
+     * a transaction.
+     * </p>
+     *
+     * @param owner             the id of the node claiming the batch.
+     * @param batchMaxSize      the desired size of the batch.
+     * @param visibilityTimeout how long the claimed emails are invisible to the other nodes.
+     * @return the claimed emails, ordered by scheduled time.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default Collection<EmailSchedulingData> claimNextBatch(String owner, int batchMaxSize, Duration visibilityTimeout) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Renews all the claims of the given owner, that expire after the given visibility timeout from now on: to be
+     * called periodically, as a heartbeat, so that only the claims of a node that stopped or stalled expire. Claims
+     * that expired in the meantime are not renewed, since another node may own them now.
+     *
+     * @param owner             the id of the node that claimed the emails.
+     * @param visibilityTimeout how long the claimed emails are invisible to the other nodes from now on.
+     * @return the number of claims renewed.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default long renewClaims(String owner, Duration visibilityTimeout) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Forgets the claims of the given owner on the emails with the given ids, once they have been sent, removed or
+     * kept as {@linkplain DeadLetter}s. Claims that expired in the meantime are skipped, since another node may own
+     * them now.
+     *
+     * @param owner the id of the node that claimed the emails.
+     * @param ids   a collection of ids of claimed {@linkplain EmailSchedulingData}.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default void acknowledgeClaims(String owner, Collection<String> ids) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Puts back in their priority level all the emails claimed by the given owner, whether expired or not: to be
+     * called when the node stops, so that the other nodes do not wait for the visibility timeout.
+     *
+     * @param owner the id of the node that claimed the emails.
+     * @return the number of emails put back.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default long returnClaims(String owner) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Puts back in their priority level the emails with the given ids claimed by the given owner, whether expired or
+     * not: to be called when the node drops them from memory, so that the other nodes can load them. Ids not claimed by
+     * the owner are skipped.
+     *
+     * @param owner the id of the node that claimed the emails.
+     * @param ids   a collection of ids of claimed {@linkplain EmailSchedulingData}.
+     * @return the number of emails put back.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default long returnClaims(String owner, Collection<String> ids) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Removes the {@linkplain EmailSchedulingData} with the given id, unless another node than the given owner claimed
+     * it: to be called when a node withdraws an email it does not hold in memory, since the node that claimed it may be
+     * sending it. Removing an email does not forget its claim, if any.
+     * <p>
+     * The removal is not transactional: it is a single atomic script, whose reply would be lost if queued in a
+     * transaction.
+     * </p>
+     *
+     * @param owner the id of the node removing the email.
+     * @param id    the id of the {@linkplain EmailSchedulingData} to remove.
+     * @return {@code true} if the email was removed, {@code false} if missing or claimed by another node.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default boolean removeUnlessClaimedByOthers(String owner, String id) {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Puts back in their priority level the emails whose claim expired, whatever node claimed them.
+     *
+     * @return the number of emails put back.
+     * @throws UnsupportedOperationException if the implementation cannot claim emails.
+     */
+    default long restoreExpiredClaims() {
+        throw new UnsupportedOperationException("Claiming emails is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Calls the given listener whenever emails are added to the persistence layer, by this or by any other node
+     * sharing it, until the returned subscription is closed. The listener is called on a thread of the persistence
+     * layer, thus it must return quickly; notifications may be lost, so that it is meant to shorten the polling and not
+     * to replace it.
+     *
+     * @param listener the listener to be called after each addition.
+     * @return the subscription, to be closed to stop listening.
+     * @throws UnsupportedOperationException if the implementation cannot notify the additions.
+     */
+    default AutoCloseable subscribeToAdditions(Runnable listener) {
+        throw new UnsupportedOperationException("Notifying the additions is not supported by " + getClass().getSimpleName());
+    }
+
 }
\ No newline at end of file
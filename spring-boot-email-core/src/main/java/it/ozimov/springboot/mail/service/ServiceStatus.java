@@ -19,6 +19,10 @@ package it.ozimov.springboot.mail.service;
 public enum ServiceStatus {
 
     RUNNING,
+    // Running, while keeping the due emails since the circuit breaker around the mail server is not closed
+    SUSPENDED,
+    // Not admitting new emails, while still sending the due ones
+    DRAINING,
     CLOSING,
     CLOSED
 
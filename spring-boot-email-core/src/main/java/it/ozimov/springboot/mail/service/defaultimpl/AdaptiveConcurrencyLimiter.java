@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.AdaptiveConcurrencyProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailSendException;
+
+import java.net.SocketTimeoutException;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.nonNull;
+
+/**
+ * Limits the emails handed over to the mail server at the same time, adapting the limit to the latency of the server
+ * (additive increase, multiplicative decrease). Every email sent while the recent latency stays within the tolerance of
+ * the baseline one, and while at least half of the limit is used, raises the limit by its inverse. The limit is cut by the
+ * backoff ratio when the recent latency rises beyond the tolerance, or when the server defers an email with a 4xx
+ * reply or does not reply in time, at most once per recent latency so that a single burst of slow replies is not
+ * punished several times.
+ * <p>
+ * The recent latency is a fast moving average of the successful sends, while the baseline one follows the improvements
+ * quickly and the degradations slowly, approximating the latency of the server when not loaded.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double RECENT_LATENCY_WEIGHT = 0.2;
+    private static final double BASELINE_LATENCY_DECREASE_WEIGHT = 0.2;
+    private static final double BASELINE_LATENCY_INCREASE_WEIGHT = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    private final long acquireTimeoutNanos;
+    private final LongSupplier nanoClock;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition belowLimit = lock.newCondition();
+
+    // Guarded by the lock
+    private double limit;
+    private int inFlight;
+    private double recentLatencyNanos;
+    private double baselineLatencyNanos;
+    private boolean hasLatency;
+    private long lastBackoffNanos;
+    private long backoffs;
+    private long acquireTimeouts;
+
+    public AdaptiveConcurrencyLimiter(@NonNull final AdaptiveConcurrencyProperties adaptiveConcurrencyProperties) {
+        this(adaptiveConcurrencyProperties, System::nanoTime);
+    }
+
+    AdaptiveConcurrencyLimiter(@NonNull final AdaptiveConcurrencyProperties adaptiveConcurrencyProperties,
+                               @NonNull final LongSupplier nanoClock) {
+        checkArgument(adaptiveConcurrencyProperties.getMinLimit() > 0,
+                "Min limit should be a positive number, while %s was given", adaptiveConcurrencyProperties.getMinLimit());
+        checkArgument(adaptiveConcurrencyProperties.getMaxLimit() >= adaptiveConcurrencyProperties.getMinLimit(),
+                "Max limit should not be smaller than %s, while %s was given",
+                adaptiveConcurrencyProperties.getMinLimit(), adaptiveConcurrencyProperties.getMaxLimit());
+        checkArgument(adaptiveConcurrencyProperties.getInitialLimit() >= adaptiveConcurrencyProperties.getMinLimit()
+                        && adaptiveConcurrencyProperties.getInitialLimit() <= adaptiveConcurrencyProperties.getMaxLimit(),
+                "Initial limit should be between %s and %s, while %s was given", adaptiveConcurrencyProperties.getMinLimit(),
+                adaptiveConcurrencyProperties.getMaxLimit(), adaptiveConcurrencyProperties.getInitialLimit());
+        checkArgument(adaptiveConcurrencyProperties.getLatencyTolerance() > 1,
+                "Latency tolerance should be greater than one, while %s was given", adaptiveConcurrencyProperties.getLatencyTolerance());
+        checkArgument(adaptiveConcurrencyProperties.getBackoffRatio() > 0 && adaptiveConcurrencyProperties.getBackoffRatio() < 1,
+                "Backoff ratio should be between 0 and 1, while %s was given", adaptiveConcurrencyProperties.getBackoffRatio());
+        checkArgument(adaptiveConcurrencyProperties.getAcquireTimeoutMillis() >= 0,
+                "Acquire timeout should be a non negative number, while %s was given", adaptiveConcurrencyProperties.getAcquireTimeoutMillis());
+
+        minLimit = adaptiveConcurrencyProperties.getMinLimit();
+        maxLimit = adaptiveConcurrencyProperties.getMaxLimit();
+        latencyTolerance = adaptiveConcurrencyProperties.getLatencyTolerance();
+        backoffRatio = adaptiveConcurrencyProperties.getBackoffRatio();
+        acquireTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(adaptiveConcurrencyProperties.getAcquireTimeoutMillis());
+        this.nanoClock = nanoClock;
+        limit = adaptiveConcurrencyProperties.getInitialLimit();
+    }
+
+    /**
+     * Waits until the emails being sent are fewer than the limit, for at most the acquire timeout.
+     *
+     * @return the time the send starts, to be given back to {@link #release(long, Throwable)}.
+     * @throws MailSendException if the timeout expires or the thread is interrupted.
+     */
+    public long acquire() {
+        lock.lock();
+        try {
+            long remainingNanos = acquireTimeoutNanos;
+            while (inFlight >= currentLimit()) {
+                if (remainingNanos <= 0) {
+                    acquireTimeouts++;
+                    throw new MailSendException("The emails being sent did not drop below the limit of " + currentLimit()
+                            + " within " + TimeUnit.NANOSECONDS.toMillis(acquireTimeoutNanos) + " ms");
+                }
+                remainingNanos = belowLimit.awaitNanos(remainingNanos);
+            }
+            inFlight++;
+            return nanoClock.getAsLong();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Interrupted while waiting for the emails being sent to drop below the limit", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Accounts for a send started by {@link #acquire()} and adapts the limit.
+     *
+     * @param startNanos the value returned by {@link #acquire()}.
+     * @param failure    the failure of the send, or {@code null} if the email was sent.
+     */
+    public void release(final long startNanos, final Throwable failure) {
+        final long nowNanos = nanoClock.getAsLong();
+        lock.lock();
+        try {
+            final int inFlightAtRelease = inFlight;
+            inFlight--;
+            final int previousLimit = currentLimit();
+            if (nonNull(failure)) {
+                if (isCongestion(failure)) {
+                    backOff(nowNanos);
+                }
+            } else {
+                sampleLatency(nowNanos - startNanos);
+                if (recentLatencyNanos > baselineLatencyNanos * latencyTolerance) {
+                    backOff(nowNanos);
+                } else if (inFlightAtRelease * 2 >= previousLimit) {
+                    //grows only while at least half of the limit is used, otherwise it would drift up when idle
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+            if (currentLimit() > previousLimit) {
+                belowLimit.signalAll();
+            } else {
+                belowLimit.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ConcurrencyLimitStatistics statistics() {
+        lock.lock();
+        try {
+            return ConcurrencyLimitStatistics.builder()
+                    .limit(currentLimit())
+                    .inFlight(inFlight)
+                    .recentLatencyMillis(recentLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1))
+                    .baselineLatencyMillis(baselineLatencyNanos / TimeUnit.MILLISECONDS.toNanos(1))
+                    .backoffs(backoffs)
+                    .acquireTimeouts(acquireTimeouts)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int currentLimit() {
+        return Math.max(minLimit, (int) limit);
+    }
+
+    private void sampleLatency(final long latencyNanos) {
+        if (!hasLatency) {
+            recentLatencyNanos = latencyNanos;
+            baselineLatencyNanos = latencyNanos;
+            hasLatency = true;
+            return;
+        }
+        recentLatencyNanos += RECENT_LATENCY_WEIGHT * (latencyNanos - recentLatencyNanos);
+        baselineLatencyNanos += (latencyNanos < baselineLatencyNanos ? BASELINE_LATENCY_DECREASE_WEIGHT : BASELINE_LATENCY_INCREASE_WEIGHT)
+                * (latencyNanos - baselineLatencyNanos);
+    }
+
+    private void backOff(final long nowNanos) {
+        if (backoffs > 0 && nowNanos - lastBackoffNanos < recentLatencyNanos) {
+            return;
+        }
+        final int previousLimit = currentLimit();
+        limit = Math.max(minLimit, limit * backoffRatio);
+        lastBackoffNanos = nowNanos;
+        backoffs++;
+        log.debug("Concurrency limit cut from {} to {} [recent latency = {} ns, baseline latency = {} ns]",
+                previousLimit, currentLimit(), (long) recentLatencyNanos, (long) baselineLatencyNanos);
+    }
+
+    // A temporary reply or a missing reply means the server is overloaded, any other failure says nothing about it
+    private static boolean isCongestion(final Throwable failure) {
+        for (final Throwable cause : RetryPolicy.causes(failure)) {
+            final OptionalInt replyCode = RetryPolicy.replyCode(cause);
+            if ((replyCode.isPresent() && replyCode.getAsInt() >= 400 && replyCode.getAsInt() < 500)
+                    || cause instanceof SocketTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
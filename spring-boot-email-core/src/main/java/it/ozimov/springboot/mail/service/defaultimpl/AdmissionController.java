@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.service.exception.EmailSchedulingRejectedException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.min;
+import static java.util.Objects.nonNull;
+
+/**
+ * Bounds the number of scheduled emails held in memory. Once the high watermark is reached, emails are not admitted
+ * until the emails in memory drop to the low watermark, and the configured policy decides what happens to the
+ * producer in the meanwhile.
+ * <p>
+ * Admission does not take any lock unless a producer has to wait, hence the bound is soft: concurrent producers may
+ * overshoot the high watermark by at most one email each.
+ */
+@Slf4j
+class AdmissionController {
+
+    // Producers waiting to be admitted recheck the emails in memory at least this often, since not every
+    // email leaving the memory is notified
+    private static final long RECHECK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final EmailSchedulerProperties.Admission.Policy policy;
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final long blockTimeoutNanos;
+    private final IntSupplier heldInMemory;
+
+    private final Lock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private final AtomicBoolean saturated = new AtomicBoolean();
+
+    private final AtomicLong highWatermarkCrossings = new AtomicLong();
+    private final AtomicLong admittedEmails = new AtomicLong();
+    private final AtomicLong blockedEmails = new AtomicLong();
+    private final AtomicLong rejectedEmails = new AtomicLong();
+    private final AtomicLong callerRunsEmails = new AtomicLong();
+
+    AdmissionController(@NonNull final EmailSchedulerProperties.Admission admission, @NonNull final IntSupplier heldInMemory) {
+        checkArgument(admission.getHighWatermark() > 0,
+                "High watermark should be a positive number, while %s was given", admission.getHighWatermark());
+        checkArgument(admission.getLowWatermark() >= 0 && admission.getLowWatermark() <= admission.getHighWatermark(),
+                "Low watermark should be between 0 and %s, while %s was given", admission.getHighWatermark(), admission.getLowWatermark());
+        checkArgument(admission.getBlockTimeoutMillis() > 0,
+                "Block timeout should be a positive number, while %s was given", admission.getBlockTimeoutMillis());
+
+        this.policy = nonNull(admission.getPolicy()) ? admission.getPolicy() : EmailSchedulerProperties.Admission.Policy.BLOCK;
+        this.highWatermark = admission.getHighWatermark();
+        this.lowWatermark = admission.getLowWatermark();
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(admission.getBlockTimeoutMillis());
+        this.heldInMemory = heldInMemory;
+    }
+
+    public EmailSchedulerProperties.Admission.Policy policy() {
+        return policy;
+    }
+
+    /**
+     * Admits one email, applying the policy if the emails in memory reached the high watermark.
+     *
+     * @return {@code true} if the email can be handed over, {@code false} if the caller has to apply it by itself.
+     * @throws EmailSchedulingRejectedException if the email is refused, or the producer waited longer than the timeout.
+     */
+    public boolean admit() {
+        return admit(0, () -> {
+        });
+    }
+
+    /**
+     * Admits one more email for a producer holding emails already admitted but not yet handed over.
+     *
+     * @param notYetInMemory emails already admitted by the producer, but not yet handed over
+     * @param beforeBlocking called before waiting with the {@link EmailSchedulerProperties.Admission.Policy#BLOCK}
+     *                       policy, to hand over the emails that would otherwise never be counted in memory
+     * @return {@code true} if the email can be handed over, {@code false} if the caller has to apply it by itself.
+     * @throws EmailSchedulingRejectedException if the email is refused, or the producer waited longer than the timeout.
+     */
+    public boolean admit(final int notYetInMemory, @NonNull final Runnable beforeBlocking) {
+        if (!isSaturated(notYetInMemory)) {
+            admittedEmails.incrementAndGet();
+            return true;
+        }
+        switch (policy) {
+            case REJECT:
+                throw reject("Email rejected since %s scheduled emails are held in memory", heldInMemory.getAsInt() + notYetInMemory);
+            case CALLER_RUNS:
+                callerRunsEmails.incrementAndGet();
+                return false;
+            default:
+                beforeBlocking.run();
+                awaitAdmission();
+                admittedEmails.incrementAndGet();
+                return true;
+        }
+    }
+
+    private void awaitAdmission() {
+        blockedEmails.incrementAndGet();
+        final long deadline = System.nanoTime() + blockTimeoutNanos;
+        lock.lock();
+        try {
+            while (isSaturated(0)) {
+                final long remainingNanos = deadline - System.nanoTime();
+                if (remainingNanos <= 0) {
+                    throw reject("Email rejected after waiting %s ms to be admitted", TimeUnit.NANOSECONDS.toMillis(blockTimeoutNanos));
+                }
+                released.awaitNanos(min(remainingNanos, RECHECK_INTERVAL_NANOS));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw reject("Email rejected since the producer was interrupted while waiting to be admitted");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Notifies that scheduled emails left the memory, waking up the waiting producers if the low watermark is reached.
+     */
+    public void onReleased() {
+        if (saturated.get() && !isSaturated(0)) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public AdmissionStatistics statistics() {
+        return AdmissionStatistics.builder()
+                .policy(policy)
+                .heldInMemory(heldInMemory.getAsInt())
+                .highWatermark(highWatermark)
+                .lowWatermark(lowWatermark)
+                .saturated(saturated.get())
+                .highWatermarkCrossings(highWatermarkCrossings.get())
+                .admittedEmails(admittedEmails.get())
+                .blockedEmails(blockedEmails.get())
+                .rejectedEmails(rejectedEmails.get())
+                .callerRunsEmails(callerRunsEmails.get())
+                .build();
+    }
+
+    private boolean isSaturated(final int notYetInMemory) {
+        final int held = heldInMemory.getAsInt() + notYetInMemory;
+        if (saturated.get()) {
+            if (held <= lowWatermark && saturated.compareAndSet(true, false)) {
+                log.info("Scheduled emails in memory dropped to {}, admission resumed", held);
+            }
+        } else if (held >= highWatermark && saturated.compareAndSet(false, true)) {
+            highWatermarkCrossings.incrementAndGet();
+            log.warn("Scheduled emails in memory reached {}, admission paused until they drop to {}", held, lowWatermark);
+        }
+        return saturated.get();
+    }
+
+    private EmailSchedulingRejectedException reject(final String message, final Object... args) {
+        rejectedEmails.incrementAndGet();
+        return new EmailSchedulingRejectedException(String.format(message, args));
+    }
+
+}
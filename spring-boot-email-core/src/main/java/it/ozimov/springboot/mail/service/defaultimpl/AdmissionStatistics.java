@@ -0,0 +1,54 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the admission control of the {@linkplain PriorityQueueEmailSchedulerService}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class AdmissionStatistics {
+
+    private final EmailSchedulerProperties.Admission.Policy policy;
+
+    private final int heldInMemory;
+
+    private final int highWatermark;
+
+    private final int lowWatermark;
+
+    // True from when the high watermark is reached until the emails in memory drop to the low watermark
+    private final boolean saturated;
+
+    private final long highWatermarkCrossings;
+
+    private final long admittedEmails;
+
+    private final long blockedEmails;
+
+    private final long rejectedEmails;
+
+    private final long callerRunsEmails;
+
+}
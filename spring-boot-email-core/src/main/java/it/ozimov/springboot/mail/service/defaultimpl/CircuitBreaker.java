@@ -0,0 +1,354 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.CircuitBreakerProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailPreparationException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stops the calls towards a failing mail server for a while, so that they fail fast or go elsewhere instead of
+ * piling up waiting for the server to time out.
+ * <p>
+ * The breaker is closed while the rate of the failed calls and the rate of the slow ones, among the latest calls of the
+ * sliding window, stay below their thresholds. The rates are not trusted until the minimum number of calls is recorded.
+ * Once a rate reaches its threshold the breaker opens and the calls are not permitted. Once open for the given time,
+ * it lets the given number of trial calls through (half open): the breaker closes if the rates of the trial calls stay
+ * below the thresholds, and opens again otherwise.
+ * <p>
+ * Every permitted call must report its outcome, with the time it took, through either {@link #onSuccess(long)} or
+ * {@link #onFailure(long)}.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    // Rechecking a half open breaker whose trial calls are all in progress
+    static final long HALF_OPEN_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int minimumCalls;
+    private final double failureRateThreshold;
+    private final double slowCallRateThreshold;
+    private final long slowCallDurationNanos;
+    private final long openNanos;
+    private final int halfOpenCalls;
+    private final LongSupplier nanoClock;
+
+    private final Lock lock = new ReentrantLock();
+
+    // Guarded by the lock
+    private final Outcomes closedOutcomes;
+    private final Outcomes halfOpenOutcomes;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int permittedTrialCalls;
+    private long openings;
+    private long notPermittedCalls;
+
+    public CircuitBreaker(@NonNull final CircuitBreakerProperties circuitBreakerProperties) {
+        this(circuitBreakerProperties, System::nanoTime);
+    }
+
+    CircuitBreaker(@NonNull final CircuitBreakerProperties circuitBreakerProperties, @NonNull final LongSupplier nanoClock) {
+        checkArgument(circuitBreakerProperties.getSlidingWindowSize() > 0,
+                "Sliding window size should be a positive number, while %s was given", circuitBreakerProperties.getSlidingWindowSize());
+        checkArgument(circuitBreakerProperties.getMinimumCalls() > 0
+                        && circuitBreakerProperties.getMinimumCalls() <= circuitBreakerProperties.getSlidingWindowSize(),
+                "Minimum calls should be between 1 and %s, while %s was given",
+                circuitBreakerProperties.getSlidingWindowSize(), circuitBreakerProperties.getMinimumCalls());
+        checkArgument(circuitBreakerProperties.getFailureRateThreshold() > 0 && circuitBreakerProperties.getFailureRateThreshold() <= 100,
+                "Failure rate threshold should be greater than 0 and at most 100, while %s was given",
+                circuitBreakerProperties.getFailureRateThreshold());
+        checkArgument(circuitBreakerProperties.getSlowCallRateThreshold() > 0 && circuitBreakerProperties.getSlowCallRateThreshold() <= 100,
+                "Slow call rate threshold should be greater than 0 and at most 100, while %s was given",
+                circuitBreakerProperties.getSlowCallRateThreshold());
+        checkArgument(circuitBreakerProperties.getSlowCallDurationMillis() > 0,
+                "Slow call duration should be a positive number, while %s was given", circuitBreakerProperties.getSlowCallDurationMillis());
+        checkArgument(circuitBreakerProperties.getOpenMillis() > 0,
+                "Open time should be a positive number, while %s was given", circuitBreakerProperties.getOpenMillis());
+        checkArgument(circuitBreakerProperties.getHalfOpenCalls() > 0,
+                "Half open calls should be a positive number, while %s was given", circuitBreakerProperties.getHalfOpenCalls());
+
+        minimumCalls = circuitBreakerProperties.getMinimumCalls();
+        failureRateThreshold = circuitBreakerProperties.getFailureRateThreshold();
+        slowCallRateThreshold = circuitBreakerProperties.getSlowCallRateThreshold();
+        slowCallDurationNanos = TimeUnit.MILLISECONDS.toNanos(circuitBreakerProperties.getSlowCallDurationMillis());
+        openNanos = TimeUnit.MILLISECONDS.toNanos(circuitBreakerProperties.getOpenMillis());
+        halfOpenCalls = circuitBreakerProperties.getHalfOpenCalls();
+        this.nanoClock = nanoClock;
+        closedOutcomes = new Outcomes(circuitBreakerProperties.getSlidingWindowSize());
+        halfOpenOutcomes = new Outcomes(halfOpenCalls);
+    }
+
+    /**
+     * Returns a breaker opening after the given number of consecutive failed calls, and closing after a single
+     * successful trial call. The duration of the calls is not taken into account.
+     */
+    public static CircuitBreaker consecutiveFailures(final int failureThreshold, final long openMillis) {
+        return consecutiveFailures(failureThreshold, openMillis, System::nanoTime);
+    }
+
+    static CircuitBreaker consecutiveFailures(final int failureThreshold, final long openMillis, @NonNull final LongSupplier nanoClock) {
+        return new CircuitBreaker(CircuitBreakerProperties.builder()
+                .enabled(true)
+                .slidingWindowSize(failureThreshold)
+                .minimumCalls(failureThreshold)
+                .failureRateThreshold(100)
+                .slowCallRateThreshold(100)
+                .slowCallDurationMillis(Long.MAX_VALUE)
+                .openMillis(openMillis)
+                .halfOpenCalls(1)
+                .build(), nanoClock);
+    }
+
+    /**
+     * Tells whether a call would be let through now, without taking a trial call of a half open breaker.
+     */
+    public boolean isCallPermitted() {
+        lock.lock();
+        try {
+            return callPermitted();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lets a call through, if permitted. The caller must report the outcome of the call with either
+     * {@link #onSuccess(long)} or {@link #onFailure(long)}.
+     */
+    public boolean tryAcquirePermission() {
+        lock.lock();
+        try {
+            if (!callPermitted()) {
+                notPermittedCalls++;
+                return false;
+            }
+            if (state == State.OPEN) {
+                state = State.HALF_OPEN;
+                permittedTrialCalls = 0;
+                halfOpenOutcomes.clear();
+                log.info("Circuit breaker half open, letting {} trial calls through", halfOpenCalls);
+            }
+            if (state == State.HALF_OPEN) {
+                permittedTrialCalls++;
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the time before a call is permitted, 0 if it is permitted now. While all the trial calls of a half open
+     * breaker are in progress, the time to check again is returned.
+     */
+    public long nanosUntilPermitted() {
+        lock.lock();
+        try {
+            if (callPermitted()) {
+                return 0;
+            }
+            return state == State.OPEN ? openNanos - (nanoClock.getAsLong() - openedAt) : HALF_OPEN_RECHECK_NANOS;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess(final long durationNanos) {
+        record(false, durationNanos);
+    }
+
+    public void onFailure(final long durationNanos) {
+        record(true, durationNanos);
+    }
+
+    public State state() {
+        lock.lock();
+        try {
+            return state;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how many times the breaker opened.
+     */
+    public long openings() {
+        lock.lock();
+        try {
+            return openings;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CircuitBreakerStatistics statistics() {
+        lock.lock();
+        try {
+            final Outcomes outcomes = state == State.HALF_OPEN ? halfOpenOutcomes : closedOutcomes;
+            return CircuitBreakerStatistics.builder()
+                    .state(state)
+                    .failureRate(outcomes.failureRate())
+                    .slowCallRate(outcomes.slowCallRate())
+                    .recordedCalls(outcomes.size)
+                    .openings(openings)
+                    .notPermittedCalls(notPermittedCalls)
+                    .build();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether the failure comes from the email rather than from the mail server: a 5xx reply, or an email that
+     * could not even be prepared, would fail on any server and says nothing about its health.
+     */
+    static boolean isRejection(final Throwable failure) {
+        if (failure instanceof MailParseException || failure instanceof MailPreparationException) {
+            return true;
+        }
+        return RetryPolicy.causes(failure).stream()
+                .map(RetryPolicy::replyCode)
+                .anyMatch(replyCode -> replyCode.isPresent() && replyCode.getAsInt() >= 500);
+    }
+
+    private boolean callPermitted() {
+        switch (state) {
+            case OPEN:
+                return nanoClock.getAsLong() - openedAt >= openNanos;
+            case HALF_OPEN:
+                return permittedTrialCalls < halfOpenCalls;
+            default:
+                return true;
+        }
+    }
+
+    private void record(final boolean failed, final long durationNanos) {
+        final boolean slow = durationNanos >= slowCallDurationNanos;
+        lock.lock();
+        try {
+            recordLocked(failed, slow);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordLocked(final boolean failed, final boolean slow) {
+        switch (state) {
+            case CLOSED:
+                closedOutcomes.record(failed, slow);
+                if (closedOutcomes.size >= minimumCalls && exceedsThresholds(closedOutcomes)) {
+                    open();
+                }
+                break;
+            case HALF_OPEN:
+                halfOpenOutcomes.record(failed, slow);
+                if (halfOpenOutcomes.size >= halfOpenCalls) {
+                    if (exceedsThresholds(halfOpenOutcomes)) {
+                        open();
+                    } else {
+                        state = State.CLOSED;
+                        closedOutcomes.clear();
+                        log.info("Circuit breaker closed after {} trial calls", halfOpenOutcomes.size);
+                    }
+                }
+                break;
+            default:
+                //a call started before the breaker opened, the server is not being called
+                break;
+        }
+    }
+
+    private boolean exceedsThresholds(final Outcomes outcomes) {
+        return outcomes.failureRate() >= failureRateThreshold || outcomes.slowCallRate() >= slowCallRateThreshold;
+    }
+
+    private void open() {
+        final Outcomes outcomes = state == State.HALF_OPEN ? halfOpenOutcomes : closedOutcomes;
+        log.warn("Circuit breaker open for {} ms [failure rate = {}%, slow call rate = {}%]",
+                TimeUnit.NANOSECONDS.toMillis(openNanos), outcomes.failureRate(), outcomes.slowCallRate());
+        state = State.OPEN;
+        openedAt = nanoClock.getAsLong();
+        closedOutcomes.clear();
+        openings++;
+    }
+
+    /**
+     * Ring buffer with the outcomes of the latest calls.
+     */
+    private static class Outcomes {
+
+        private final boolean[] failed;
+        private final boolean[] slow;
+        private int size;
+        private int next;
+        private int failures;
+        private int slowCalls;
+
+        private Outcomes(final int capacity) {
+            failed = new boolean[capacity];
+            slow = new boolean[capacity];
+        }
+
+        private void record(final boolean failedCall, final boolean slowCall) {
+            if (size == failed.length) {
+                failures -= failed[next] ? 1 : 0;
+                slowCalls -= slow[next] ? 1 : 0;
+            } else {
+                size++;
+            }
+            failed[next] = failedCall;
+            slow[next] = slowCall;
+            failures += failedCall ? 1 : 0;
+            slowCalls += slowCall ? 1 : 0;
+            next = (next + 1) % failed.length;
+        }
+
+        private double failureRate() {
+            return size == 0 ? 0 : failures * 100.0 / size;
+        }
+
+        private double slowCallRate() {
+            return size == 0 ? 0 : slowCalls * 100.0 / size;
+        }
+
+        private void clear() {
+            size = 0;
+            next = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of a {@linkplain CircuitBreaker}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class CircuitBreakerStatistics {
+
+    private final CircuitBreaker.State state;
+
+    // Percentage of the recorded calls that failed, among the trial calls while half open
+    private final double failureRate;
+
+    // Percentage of the recorded calls that were slow, among the trial calls while half open
+    private final double slowCallRate;
+
+    // Calls the rates are computed on
+    private final int recordedCalls;
+
+    // Times the breaker opened
+    private final long openings;
+
+    // Calls refused while the breaker was open or all its trial calls were in progress
+    private final long notPermittedCalls;
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of an {@linkplain AdaptiveConcurrencyLimiter}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class ConcurrencyLimitStatistics {
+
+    // Emails that can be handed over to the mail server at the same time
+    private final int limit;
+
+    private final int inFlight;
+
+    // Moving average of the latency of the last successful sends
+    private final double recentLatencyMillis;
+
+    // Latency of the mail server when not loaded, as estimated from the successful sends
+    private final double baselineLatencyMillis;
+
+    // Times the limit was cut because of rising latency or temporary failures
+    private final long backoffs;
+
+    // Sends failed because the emails being sent did not drop below the limit in time
+    private final long acquireTimeouts;
+
+}
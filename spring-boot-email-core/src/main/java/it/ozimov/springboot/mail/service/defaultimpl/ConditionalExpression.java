@@ -37,6 +37,17 @@ public class ConditionalExpression {
                     " && '${" + SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED + ":false}' == 'true'";
 
 
+    public static final String TRANSPORT_POOL_IS_ENABLED = "'${" + SPRING_MAIL_POOL_ENABLED + ":false}' == 'true'";
+
+    public static final String ROUTING_IS_ENABLED = "'${" + SPRING_MAIL_ROUTING_ENABLED + ":false}' == 'true'";
+
+    public static final String TRANSPORT_POOL_IS_ENABLED_WITHOUT_ROUTING =
+            TRANSPORT_POOL_IS_ENABLED + " && '${" + SPRING_MAIL_ROUTING_ENABLED + ":false}' != 'true'";
+
+    public static final String ADAPTIVE_CONCURRENCY_IS_ENABLED = "'${" + SPRING_MAIL_CONCURRENCY_ENABLED + ":false}' == 'true'";
+
+    public static final String CIRCUIT_BREAKER_IS_ENABLED = "'${" + SPRING_MAIL_CIRCUIT_BREAKER_ENABLED + ":false}' == 'true'";
+
     public static final String EMAIL_LOGGING_RENDERER_IS_ENABLED = "'${" + SPRING_MAIL_LOGGING_ENABLED + ":true}' == 'true'";
 
 }
@@ -17,6 +17,7 @@
 package it.ozimov.springboot.mail.service.defaultimpl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
 import it.ozimov.springboot.mail.model.EmailAttachment;
@@ -24,6 +25,8 @@ import it.ozimov.springboot.mail.model.InlinePicture;
 import it.ozimov.springboot.mail.service.EmailService;
 import it.ozimov.springboot.mail.service.TemplateService;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import it.ozimov.springboot.mail.service.exception.CircuitBreakerOpenException;
+import it.ozimov.springboot.mail.service.exception.FanOutException;
 import it.ozimov.springboot.mail.service.exception.TemplateException;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessage;
 import lombok.NonNull;
@@ -38,7 +41,10 @@ import org.springframework.stereotype.Service;
 
 import jakarta.activation.DataHandler;
 import jakarta.activation.DataSource;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
@@ -47,9 +53,13 @@ import jakarta.mail.util.ByteArrayDataSource;
 
 import jakarta.validation.constraints.NotNull;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Optional.fromNullable;
 
@@ -57,6 +67,9 @@ import static com.google.common.base.Optional.fromNullable;
 @Slf4j
 public class DefaultEmailService implements EmailService {
 
+    // Recipients every SMTP server must accept in a single transaction, as of RFC 5321
+    static final int MAX_RECIPIENTS_PER_TRANSACTION = 100;
+
     private JavaMailSender javaMailSender;
 
     private TemplateService templateService;
@@ -65,6 +78,12 @@ public class DefaultEmailService implements EmailService {
 
     private EmailLogRenderer emailLogRenderer;
 
+    // Adapts the emails handed over to the mail server at the same time, if enabled
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    // Stops the sends while the mail server is failing or hanging, if enabled
+    private CircuitBreaker circuitBreaker;
+
     @Autowired(required = false)
     public DefaultEmailService(final @NonNull JavaMailSender javaMailSender,
                                final TemplateService templateService,
@@ -83,11 +102,21 @@ public class DefaultEmailService implements EmailService {
         this(javaMailSender, null, emailToMimeMessage, emailLogRenderer);
     }
 
+    @Autowired(required = false)
+    public void setConcurrencyLimiter(final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    @Autowired(required = false)
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     @Override
     public MimeMessage send(final @NonNull Email email) {
         email.setSentAt(new Date());
         final MimeMessage mimeMessage = toMimeMessage(email);
-        javaMailSender.send(mimeMessage);
+        transmit(mimeMessage);
         emailLogRenderer.info("Sent email {}.", email);
         return mimeMessage;
     }
@@ -98,6 +127,158 @@ public class DefaultEmailService implements EmailService {
                             final @NonNull InlinePicture... inlinePictures) throws CannotSendEmailException {
         email.setSentAt(new Date());
         final MimeMessage mimeMessage = toMimeMessage(email);
+        final String text = render(email, mimeMessage, template, modelObject, inlinePictures);
+        transmit(mimeMessage);
+        emailLogRenderer.info("Sent email {}.", emailWithCompiledBody(email, text));
+        return mimeMessage;
+    }
+
+    @Override
+    public MimeMessage prepare(final @NonNull Email email) {
+        return toMimeMessage(email);
+    }
+
+    @Override
+    public MimeMessage prepare(final @NonNull Email email,
+                               final @NonNull String template,
+                               final Map<String, Object> modelObject,
+                               final @NonNull InlinePicture... inlinePictures) throws CannotSendEmailException {
+        final MimeMessage mimeMessage = toMimeMessage(email);
+        render(email, mimeMessage, template, modelObject, inlinePictures);
+        return mimeMessage;
+    }
+
+    @Override
+    public MimeMessage sendPrepared(final @NonNull Email email, final @NonNull MimeMessage mimeMessage) throws CannotSendEmailException {
+        final Date sentAt = new Date();
+        email.setSentAt(sentAt);
+        try {
+            mimeMessage.setSentDate(sentAt);
+        } catch (MessagingException e) {
+            log.error("The mime message cannot be updated", e);
+            throw new CannotSendEmailException("Error while sending the email due to problems with the mime content.", e);
+        }
+        transmit(mimeMessage);
+        emailLogRenderer.info("Sent email {}.", email);
+        return mimeMessage;
+    }
+
+    @Override
+    public MimeMessage sendFanOut(final @NonNull Email email,
+                                  final @NonNull Collection<InternetAddress> recipients) throws CannotSendEmailException {
+        email.setSentAt(new Date());
+        final MimeMessage mimeMessage = toMimeMessage(email);
+        fanOut(mimeMessage, recipients);
+        emailLogRenderer.info("Sent email {} to {} recipients.", email, recipients.size());
+        return mimeMessage;
+    }
+
+    @Override
+    public MimeMessage sendFanOut(final @NonNull Email email,
+                                  final @NonNull Collection<InternetAddress> recipients,
+                                  final @NonNull String template,
+                                  final Map<String, Object> modelObject,
+                                  final @NonNull InlinePicture... inlinePictures) throws CannotSendEmailException {
+        email.setSentAt(new Date());
+        final MimeMessage mimeMessage = toMimeMessage(email);
+        final String text = render(email, mimeMessage, template, modelObject, inlinePictures);
+        fanOut(mimeMessage, recipients);
+        emailLogRenderer.info("Sent email {} to {} recipients.", emailWithCompiledBody(email, text), recipients.size());
+        return mimeMessage;
+    }
+
+    // Sends a copy of the message per batch of recipients, listed as blind copies so that the headers are the same for
+    // all, the message itself never being handed over. Every batch is attempted, whatever the outcome of the others
+    private void fanOut(final MimeMessage mimeMessage, final Collection<InternetAddress> recipients) throws CannotSendEmailException {
+        final List<InternetAddress> deliveredRecipients = new ArrayList<>();
+        final List<InternetAddress> failedRecipients = new ArrayList<>();
+        RuntimeException failure = null;
+        try {
+            mimeMessage.setRecipients(Message.RecipientType.TO, (Address[]) null);
+            mimeMessage.setRecipients(Message.RecipientType.CC, (Address[]) null);
+            mimeMessage.setRecipients(Message.RecipientType.BCC, (Address[]) null);
+            for (final List<InternetAddress> transactionRecipients : Iterables.partition(recipients, MAX_RECIPIENTS_PER_TRANSACTION)) {
+                final MimeMessage transactionMessage = new MimeMessage(mimeMessage);
+                transactionMessage.setRecipients(Message.RecipientType.BCC, transactionRecipients.toArray(new Address[0]));
+                try {
+                    transmit(transactionMessage);
+                    deliveredRecipients.addAll(transactionRecipients);
+                } catch (final RuntimeException e) {
+                    log.error("The email cannot be sent to a batch of {} recipients", transactionRecipients.size(), e);
+                    failedRecipients.addAll(transactionRecipients);
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        } catch (MessagingException e) {
+            log.error("The recipients cannot be set", e);
+            throw new CannotSendEmailException("Error while sending the email due to problems with the mime content.", e);
+        }
+        if (failure != null) {
+            throw new FanOutException(deliveredRecipients, failedRecipients, failure);
+        }
+    }
+
+    // Hands the message over to the mail server, within the concurrency limit if any
+    private void transmit(final MimeMessage mimeMessage) {
+        //fails fast rather than waiting for the concurrency limit while the circuit is open
+        if (circuitBreaker != null && !circuitBreaker.isCallPermitted()) {
+            throw circuitBreakerOpen();
+        }
+        if (concurrencyLimiter == null) {
+            deliver(mimeMessage);
+            return;
+        }
+        final long startNanos = concurrencyLimiter.acquire();
+        RuntimeException failure = null;
+        try {
+            deliver(mimeMessage);
+        } catch (final RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            concurrencyLimiter.release(startNanos, failure);
+        }
+    }
+
+    // Sends the message through the circuit breaker if any, reporting whether the mail server failed and how long it took
+    private void deliver(final MimeMessage mimeMessage) {
+        if (circuitBreaker == null) {
+            javaMailSender.send(mimeMessage);
+            return;
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            throw circuitBreakerOpen();
+        }
+        final long startNanos = System.nanoTime();
+        boolean failed = true;
+        try {
+            javaMailSender.send(mimeMessage);
+            failed = false;
+        } catch (final RuntimeException e) {
+            failed = !CircuitBreaker.isRejection(e);
+            throw e;
+        } finally {
+            //settled whatever is thrown, errors included, so that a trial call in half open state is never lost
+            if (failed) {
+                circuitBreaker.onFailure(System.nanoTime() - startNanos);
+            } else {
+                circuitBreaker.onSuccess(System.nanoTime() - startNanos);
+            }
+        }
+    }
+
+    private CircuitBreakerOpenException circuitBreakerOpen() {
+        return new CircuitBreakerOpenException(TimeUnit.NANOSECONDS.toMillis(circuitBreaker.nanosUntilPermitted()));
+    }
+
+    // Merges the template into the content of the message, returning the compiled body
+    private String render(final Email email,
+                          final MimeMessage mimeMessage,
+                          final String template,
+                          final Map<String, Object> modelObject,
+                          final InlinePicture... inlinePictures) throws CannotSendEmailException {
         try {
             final MimeMultipart content = new MimeMultipart("mixed");
 
@@ -136,8 +317,7 @@ public class DefaultEmailService implements EmailService {
 
             mimeMessage.setContent(content);
             mimeMessage.saveChanges();
-            javaMailSender.send(mimeMessage);
-            emailLogRenderer.info("Sent email {}.", emailWithCompiledBody(email, text));
+            return text;
         } catch (IOException e) {
             log.error("The template file cannot be read", e);
             throw new CannotSendEmailException("Error while sending the email due to problems with the template file.", e);
@@ -148,7 +328,6 @@ public class DefaultEmailService implements EmailService {
             log.error("The mime message cannot be created", e);
             throw new CannotSendEmailException("Error while sending the email due to problems with the mime content.", e);
         }
-        return mimeMessage;
     }
 
     private MimeMessage toMimeMessage(@NotNull Email email) {
@@ -18,25 +18,42 @@ package it.ozimov.springboot.mail.service.defaultimpl;
 
 import com.google.common.base.Preconditions;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.DeadLetter;
 import it.ozimov.springboot.mail.service.PersistenceService;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import jakarta.annotation.PostConstruct;
 import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.BoundHashOperations;
 import org.springframework.data.redis.core.BoundValueOperations;
 import org.springframework.data.redis.core.BoundZSetOperations;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.math.BigDecimal;
-import java.time.temporal.ChronoField;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.PERSISTENCE_IS_ENABLED;
 import static java.lang.Math.max;
@@ -45,13 +62,130 @@ import static java.util.Objects.nonNull;
 
 @Service("defaultEmailPersistenceService")
 @ConditionalOnExpression(PERSISTENCE_IS_ENABLED)
+@Slf4j
 public class DefaultPersistenceService implements PersistenceService {
 
     private static final String MATCH_ALL = "*";
 
+    private static final long SCAN_COUNT = 100;
+
+    /**
+     * Version 1 scored the emails by the nano-of-second of their scheduled time, version 2 by their scheduled epoch
+     * millis.
+     */
+    private static final int SCHEMA_VERSION = 2;
+
+    private static final String DEAD_LETTER_SEPARATOR = "|";
+
+    private static final String CLAIM_ORIGIN_SEPARATOR = "|";
+
+    /**
+     * Moves up to ARGV[3] emails scheduled before the deadline in ARGV[2] from the priority levels in KEYS[4..] to the
+     * claims of the owner in ARGV[1], earliest first. The origin of each claim is kept as "orderingKey|score", to put
+     * the email back where it was.
+     */
+    private static final RedisScript<List> CLAIM_SCRIPT = new DefaultRedisScript<>(
+            "local candidates = {}\n" +
+            "for k = 4, #KEYS do\n" +
+            "  local range = redis.call('ZRANGEBYSCORE', KEYS[k], '-inf', '(' .. ARGV[2], 'WITHSCORES', 'LIMIT', 0, ARGV[3])\n" +
+            "  for i = 1, #range, 2 do\n" +
+            "    candidates[#candidates + 1] = {k, range[i], range[i + 1], tonumber(range[i + 1])}\n" +
+            "  end\n" +
+            "end\n" +
+            "table.sort(candidates, function(a, b) return a[4] < b[4] or (a[4] == b[4] and a[1] < b[1]) end)\n" +
+            "local claimed = {}\n" +
+            "for i = 1, math.min(#candidates, tonumber(ARGV[3])) do\n" +
+            "  local candidate = candidates[i]\n" +
+            "  redis.call('ZREM', KEYS[candidate[1]], candidate[2])\n" +
+            "  redis.call('ZADD', KEYS[1], ARGV[2], candidate[2])\n" +
+            "  redis.call('HSET', KEYS[2], candidate[2], KEYS[candidate[1]] .. '|' .. candidate[3])\n" +
+            "  claimed[i] = candidate[2]\n" +
+            "end\n" +
+            "if #claimed > 0 then redis.call('SADD', KEYS[3], ARGV[1]) end\n" +
+            "return claimed", List.class);
+
+    /**
+     * Moves the deadline of all the claims of the owner to ARGV[1], the expired ones being already gone if restored.
+     */
+    private static final RedisScript<Long> RENEW_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGE', KEYS[1], 0, -1)\n" +
+            "for _, id in ipairs(ids) do\n" +
+            "  redis.call('ZADD', KEYS[1], ARGV[1], id)\n" +
+            "end\n" +
+            "return #ids", Long.class);
+
+    /**
+     * Sets the score of each email in ARGV (score, then id) of the priority level in KEYS[1], unless the email was
+     * removed meanwhile.
+     */
+    private static final RedisScript<Long> RESCORE_SCRIPT = new DefaultRedisScript<>(
+            "local rescored = 0\n" +
+            "for i = 1, #ARGV, 2 do\n" +
+            "  if redis.call('ZSCORE', KEYS[1], ARGV[i + 1]) then\n" +
+            "    redis.call('ZADD', KEYS[1], ARGV[i], ARGV[i + 1])\n" +
+            "    rescored = rescored + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "return rescored", Long.class);
+
+    /**
+     * Forgets the claims of the owner (ARGV: owner, then ids), leaving alone those that expired and may belong to
+     * another node now.
+     */
+    private static final RedisScript<Long> ACKNOWLEDGE_SCRIPT = new DefaultRedisScript<>(
+            "local acknowledged = 0\n" +
+            "for i = 2, #ARGV do\n" +
+            "  if redis.call('ZREM', KEYS[1], ARGV[i]) == 1 then\n" +
+            "    redis.call('HDEL', KEYS[2], ARGV[i])\n" +
+            "    acknowledged = acknowledged + 1\n" +
+            "  end\n" +
+            "end\n" +
+            "if redis.call('EXISTS', KEYS[1]) == 0 then redis.call('SREM', KEYS[3], ARGV[1]) end\n" +
+            "return acknowledged", Long.class);
+
+    /**
+     * Removes the email in KEYS[1] and its entry in the priority level in KEYS[4], unless the claim origins in KEYS[3]
+     * say it is claimed and the claims of the owner in KEYS[2] do not have it.
+     */
+    private static final RedisScript<Long> REMOVE_UNLESS_CLAIMED_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('HEXISTS', KEYS[3], KEYS[1]) == 1 and not redis.call('ZSCORE', KEYS[2], KEYS[1]) then\n" +
+            "  return 0\n" +
+            "end\n" +
+            "redis.call('ZREM', KEYS[4], KEYS[1])\n" +
+            "return redis.call('DEL', KEYS[1])", Long.class);
+
+    /**
+     * Puts back in their priority level the claims of the owner in ARGV[2] on the emails in KEYS[4 + ARGV[3]..], whose
+     * deadline is up to ARGV[1], unless the email was removed meanwhile. The priority levels they came from are in
+     * KEYS[4..3 + ARGV[3]], a claim coming from any other level being left to the next restore.
+     */
+    private static final RedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>(
+            "local firstId = 4 + tonumber(ARGV[3])\n" +
+            "local levels, ids = {}, {}\n" +
+            "for k = 4, firstId - 1 do levels[KEYS[k]] = true end\n" +
+            "for k = firstId, #KEYS do ids[KEYS[k]] = true end\n" +
+            "local restored = 0\n" +
+            "for _, id in ipairs(redis.call('ZRANGEBYSCORE', KEYS[1], '-inf', ARGV[1])) do\n" +
+            "  local origin = ids[id] and redis.call('HGET', KEYS[2], id)\n" +
+            "  local separator = origin and string.find(origin, '|', 1, true)\n" +
+            "  local orderingKey = separator and string.sub(origin, 1, separator - 1)\n" +
+            "  if ids[id] and (not orderingKey or levels[orderingKey]) then\n" +
+            "    if orderingKey and redis.call('EXISTS', id) == 1 then\n" +
+            "      redis.call('ZADD', orderingKey, string.sub(origin, separator + 1), id)\n" +
+            "      restored = restored + 1\n" +
+            "    end\n" +
+            "    redis.call('HDEL', KEYS[2], id)\n" +
+            "    redis.call('ZREM', KEYS[1], id)\n" +
+            "  end\n" +
+            "end\n" +
+            "if redis.call('EXISTS', KEYS[1]) == 0 then redis.call('SREM', KEYS[3], ARGV[2]) end\n" +
+            "return restored", Long.class);
+
     private final StringRedisTemplate orderingTemplate;
     private final RedisTemplate<String, EmailSchedulingData> valueTemplate;
 
+    private final Object additionsKey = new Object();
+
     @Autowired
     public DefaultPersistenceService(@Qualifier("orderingTemplate") @NonNull final StringRedisTemplate orderingTemplate,
                                      @Qualifier("valueTemplate") @NonNull final RedisTemplate<String, EmailSchedulingData> valueTemplate) {
@@ -69,6 +203,61 @@ public class DefaultPersistenceService implements PersistenceService {
         this.valueTemplate.afterPropertiesSet();
     }
 
+    /**
+     * Rescores the emails persisted by a previous version, once per Redis store: the schema version key is set when
+     * done. Rescoring is idempotent, so that several nodes starting together may all run it.
+     */
+    @PostConstruct
+    public void migrateSchema() {
+        final String schemaVersion = orderingTemplate.opsForValue().get(RedisBasedPersistenceServiceConstants.schemaVersionKey());
+        if (nonNull(schemaVersion) && Integer.parseInt(schemaVersion) >= SCHEMA_VERSION) {
+            return;
+        }
+
+        long rescored = 0;
+        for (String orderingKey : orderingKeys()) {
+            rescored += rescoreOps(orderingKey);
+        }
+        orderingTemplate.opsForValue().set(RedisBasedPersistenceServiceConstants.schemaVersionKey(), String.valueOf(SCHEMA_VERSION));
+        log.info("Migrated the persisted emails to schema version {}, {} of them rescored.", SCHEMA_VERSION, rescored);
+    }
+
+    // ZSCAN rather than ranges, since rescoring moves the emails within the priority level while it is walked
+    protected long rescoreOps(final String orderingKey) {
+        final ScanOptions scanOptions = ScanOptions.scanOptions().count(SCAN_COUNT).build();
+        final List<String> ids = new ArrayList<>();
+        long rescored = 0;
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = orderingTemplate.opsForZSet().scan(orderingKey, scanOptions)) {
+            while (cursor.hasNext()) {
+                ids.add(cursor.next().getValue());
+                if (ids.size() == SCAN_COUNT) {
+                    rescored += rescoreOps(orderingKey, ids);
+                    ids.clear();
+                }
+            }
+        }
+        return ids.isEmpty() ? rescored : rescored + rescoreOps(orderingKey, ids);
+    }
+
+    private long rescoreOps(final String orderingKey, final List<String> ids) {
+        final List<EmailSchedulingData> values = valueTemplate.opsForValue().multiGet(ids);
+        if (Objects.isNull(values)) {
+            return 0;
+        }
+        final List<String> args = new ArrayList<>(2 * ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (nonNull(values.get(i))) {
+                args.add(String.valueOf(calculateScore(values.get(i))));
+                args.add(ids.get(i));
+            }
+        }
+        if (args.isEmpty()) {
+            return 0;
+        }
+        final Long rescored = orderingTemplate.execute(RESCORE_SCRIPT, Collections.singletonList(orderingKey), args.toArray());
+        return nonNull(rescored) ? rescored : 0;
+    }
+
     @Override
     public void add(@NonNull final EmailSchedulingData emailSchedulingData) {
         addOps(emailSchedulingData);
@@ -87,6 +276,8 @@ public class DefaultPersistenceService implements PersistenceService {
         BoundValueOperations<String, EmailSchedulingData> valueValueOps = valueTemplate.boundValueOps(valueKey);
         valueValueOps.set(emailSchedulingData);
         valueValueOps.persist();
+
+        notifyAdditions(1);
     }
 
     @Override
@@ -124,9 +315,23 @@ public class DefaultPersistenceService implements PersistenceService {
     }
 
     protected void addAllOps(final Collection<EmailSchedulingData> emailSchedulingDataList) {
+        if (emailSchedulingDataList.isEmpty()) {
+            return;
+        }
+        //One ZADD per priority level and a single MSET for the values, rather than two round trips per email
+        final Map<String, Set<ZSetOperations.TypedTuple<String>>> tuplesByOrderingKey = new HashMap<>();
+        final Map<String, EmailSchedulingData> valuesByKey = new HashMap<>();
         for (EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
-            addOps(emailSchedulingData);
+            final String valueKey = emailSchedulingData.getId();
+            tuplesByOrderingKey.computeIfAbsent(orderingKey(emailSchedulingData), key -> new HashSet<>())
+                    .add(new DefaultTypedTuple<>(valueKey, calculateScore(emailSchedulingData)));
+            valuesByKey.put(valueKey, emailSchedulingData);
         }
+
+        tuplesByOrderingKey.forEach((orderingKey, tuples) -> orderingTemplate.boundZSetOps(orderingKey).add(tuples));
+        valueTemplate.opsForValue().multiSet(valuesByKey);
+
+        notifyAdditions(valuesByKey.size());
     }
 
     @Override
@@ -149,11 +354,57 @@ public class DefaultPersistenceService implements PersistenceService {
                 .collect(Collectors.toSet());
     }
 
+    @Override
+    public List<EmailSchedulingData> getNextBatchAfter(final int priorityLevel, final int batchMaxSize,
+                                                       final EmailSchedulingData after) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+
+        final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(priorityLevel);
+        return getNextBatchAfterOps(orderingKey, batchMaxSize, after);
+    }
+
+    protected List<EmailSchedulingData> getNextBatchAfterOps(final String orderingKey, final int batchMaxSize,
+                                                             final EmailSchedulingData after) {
+        final double minScore = nonNull(after) ? calculateScore(after) : Double.NEGATIVE_INFINITY;
+
+        //Redis breaks the ties of the scores by id, so only the emails sharing the score of the cursor are read again
+        final List<String> ids = new ArrayList<>(batchMaxSize);
+        long offset = 0;
+        Set<ZSetOperations.TypedTuple<String>> page;
+        do {
+            page = orderingTemplate.opsForZSet()
+                    .rangeByScoreWithScores(orderingKey, minScore, Double.POSITIVE_INFINITY, offset, batchMaxSize);
+            if (Objects.isNull(page)) {
+                break;
+            }
+            for (ZSetOperations.TypedTuple<String> tuple : page) {
+                if (ids.size() < batchMaxSize && isAfter(tuple, minScore, after)) {
+                    ids.add(tuple.getValue());
+                }
+            }
+            offset += page.size();
+        } while (ids.size() < batchMaxSize && page.size() == batchMaxSize);
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        //A single MGET for the whole batch, the values removed meanwhile being skipped
+        final List<EmailSchedulingData> values = valueTemplate.opsForValue().multiGet(ids);
+        return nonNull(values) ?
+                values.stream().filter(Objects::nonNull).collect(Collectors.toList()) :
+                Collections.emptyList();
+    }
+
+    private static boolean isAfter(final ZSetOperations.TypedTuple<String> tuple, final double minScore,
+                                   final EmailSchedulingData after) {
+        return Objects.isNull(after) || tuple.getScore() > minScore || tuple.getValue().compareTo(after.getId()) > 0;
+    }
+
     @Override
     public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
         Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
 
-        final Set<String> keys = new TreeSet<>(orderingTemplate.keys(RedisBasedPersistenceServiceConstants.orderingKeyPrefix() + MATCH_ALL));
+        final Set<String> keys = orderingKeys();
 
         final Set<EmailSchedulingData> emailSchedulingDataSet = new TreeSet<>(EmailSchedulingData.DEFAULT_COMPARATOR);
 
@@ -176,21 +427,16 @@ public class DefaultPersistenceService implements PersistenceService {
     public void removeAll(final int priorityLevel) {
         final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(priorityLevel);
 
-        BoundZSetOperations<String, String> boundZSetOperations = orderingTemplate.boundZSetOps(orderingKey);
-        long amount = boundZSetOperations.size();
-
-        final int offset = 2_000;
-
-        IntStream.range(0, (int) Math.ceil(amount / offset))
-                .parallel()
-                .forEach(i -> {
-                    long start = i * offset;
-                    long end = min(amount, start + offset);
-                    Set<String> valueIds = boundZSetOperations.range(start, end);
-                    valueTemplate.delete(valueIds);
-
-                });
+        //Read on a connection of its own, since no reply can be read within the transaction the deletions are queued in
+        final Set<String> valueIds = new HashSet<>();
+        try (RedisConnection connection = orderingTemplate.getRequiredConnectionFactory().getConnection()) {
+            final Set<byte[]> members = connection.zSetCommands().zRange(serialize(orderingKey), 0, -1);
+            if (nonNull(members)) {
+                members.forEach(member -> valueIds.add(orderingTemplate.getStringSerializer().deserialize(member)));
+            }
+        }
 
+        valueTemplate.delete(valueIds);
         orderingTemplate.delete(orderingKey);
     }
 
@@ -199,22 +445,305 @@ public class DefaultPersistenceService implements PersistenceService {
         ids.parallelStream().forEach(id -> removeOps(id));
     }
 
+    @Override
+    public long count() {
+        return countOps();
+    }
+
+    protected long countOps() {
+        long count = 0;
+        for (String key : orderingKeys()) {
+            final Long size = orderingTemplate.boundZSetOps(key).zCard();
+            count += nonNull(size) ? size : 0;
+        }
+        return count;
+    }
+
+    @Override
+    public void addDeadLetter(@NonNull final DeadLetter deadLetter) {
+        addDeadLetterOps(deadLetter);
+    }
+
+    protected void addDeadLetterOps(final DeadLetter deadLetter) {
+        final EmailSchedulingData emailSchedulingData = deadLetter.getEmailSchedulingData();
+        final String valueKey = emailSchedulingData.getId();
+
+        //The value is kept as is, only the ordering moves from the priority level to the dead letters
+        orderingTemplate.boundZSetOps(orderingKey(emailSchedulingData)).remove(valueKey);
+        orderingTemplate.boundZSetOps(RedisBasedPersistenceServiceConstants.deadLetterOrderingKey())
+                .add(valueKey, deadLetter.getFailedAt().toEpochMilli());
+        deadLetterInfoOps().put(valueKey, encodeDeadLetterInfo(deadLetter));
+    }
+
+    @Override
+    public Collection<DeadLetter> getNextDeadLetterBatch(final int batchMaxSize) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+
+        return getNextDeadLetterBatchOps(batchMaxSize);
+    }
+
+    protected Collection<DeadLetter> getNextDeadLetterBatchOps(final int batchMaxSize) {
+        final Set<String> valueIds = orderingTemplate.boundZSetOps(RedisBasedPersistenceServiceConstants.deadLetterOrderingKey())
+                .range(0, batchMaxSize - 1);
+        if (valueIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        //One HMGET and one MGET for the whole batch
+        final List<String> ids = new ArrayList<>(valueIds);
+        final List<String> infos = deadLetterInfoOps().multiGet(ids);
+        final List<EmailSchedulingData> values = valueTemplate.opsForValue().multiGet(ids);
+        final List<DeadLetter> deadLetters = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            if (nonNull(infos.get(i)) && nonNull(values.get(i))) {
+                deadLetters.add(decodeDeadLetter(values.get(i), infos.get(i)));
+            }
+        }
+        return deadLetters;
+    }
+
+    @Override
+    public void removeDeadLetters(@NonNull final Collection<String> ids) {
+        removeDeadLettersOps(ids);
+    }
+
+    protected void removeDeadLettersOps(final Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final Object[] valueKeys = ids.toArray();
+        orderingTemplate.boundZSetOps(RedisBasedPersistenceServiceConstants.deadLetterOrderingKey()).remove(valueKeys);
+        deadLetterInfoOps().delete(valueKeys);
+    }
+
+    @Override
+    public long countDeadLetters() {
+        final Long size = orderingTemplate.boundZSetOps(RedisBasedPersistenceServiceConstants.deadLetterOrderingKey()).zCard();
+        return nonNull(size) ? size : 0;
+    }
+
+    @Override
+    public Collection<EmailSchedulingData> claimNextBatch(@NonNull final String owner, final int batchMaxSize,
+                                                          @NonNull final Duration visibilityTimeout) {
+        Preconditions.checkArgument(batchMaxSize > 0, "Batch size should be a positive integer, while %s given.", batchMaxSize);
+        Preconditions.checkArgument(!visibilityTimeout.isNegative() && !visibilityTimeout.isZero(),
+                "Visibility timeout should be positive, while %s given.", visibilityTimeout);
+
+        return claimNextBatchOps(owner, batchMaxSize, visibilityTimeout);
+    }
+
+    protected Collection<EmailSchedulingData> claimNextBatchOps(final String owner, final int batchMaxSize,
+                                                                final Duration visibilityTimeout) {
+        final Set<String> orderingKeys = orderingKeys();
+        if (orderingKeys.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<String> keys = new ArrayList<>(claimKeys(owner));
+        keys.addAll(orderingKeys);
+        final List<String> claimedIds = orderingTemplate.execute(CLAIM_SCRIPT, keys, owner,
+                String.valueOf(TimeUtils.now() + visibilityTimeout.toMillis()), String.valueOf(batchMaxSize));
+        if (Objects.isNull(claimedIds) || claimedIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        final List<EmailSchedulingData> values = valueTemplate.opsForValue().multiGet(claimedIds);
+        return nonNull(values) ?
+                values.stream().filter(Objects::nonNull).collect(Collectors.toList()) :
+                Collections.emptyList();
+    }
+
+    @Override
+    public long renewClaims(@NonNull final String owner, @NonNull final Duration visibilityTimeout) {
+        Preconditions.checkArgument(!visibilityTimeout.isNegative() && !visibilityTimeout.isZero(),
+                "Visibility timeout should be positive, while %s given.", visibilityTimeout);
+
+        final Long renewed = orderingTemplate.execute(RENEW_SCRIPT,
+                Collections.singletonList(RedisBasedPersistenceServiceConstants.claimedKey(owner)),
+                String.valueOf(TimeUtils.now() + visibilityTimeout.toMillis()));
+        return nonNull(renewed) ? renewed : 0;
+    }
+
+    @Override
+    public void acknowledgeClaims(@NonNull final String owner, @NonNull final Collection<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        final List<String> args = new ArrayList<>(1 + ids.size());
+        args.add(owner);
+        args.addAll(ids);
+        orderingTemplate.execute(ACKNOWLEDGE_SCRIPT, claimKeys(owner), args.toArray());
+    }
+
+    @Override
+    public long returnClaims(@NonNull final String owner) {
+        Preconditions.checkArgument(!owner.isEmpty(), "The owner of the claims must be a non empty string");
+
+        return restoreClaimsOps(owner, Long.MAX_VALUE);
+    }
+
+    @Override
+    public long returnClaims(@NonNull final String owner, @NonNull final Collection<String> ids) {
+        Preconditions.checkArgument(!owner.isEmpty(), "The owner of the claims must be a non empty string");
+        if (ids.isEmpty()) {
+            return 0;
+        }
+
+        return restoreClaimsOps(owner, Long.MAX_VALUE, ids);
+    }
+
+    @Override
+    public boolean removeUnlessClaimedByOthers(@NonNull final String owner, @NonNull final String id) {
+        final EmailSchedulingData emailSchedulingData = getOps(id);
+        if (Objects.isNull(emailSchedulingData)) {
+            return false;
+        }
+
+        final Long removed = orderingTemplate.execute(REMOVE_UNLESS_CLAIMED_SCRIPT, Arrays.asList(id,
+                RedisBasedPersistenceServiceConstants.claimedKey(owner), RedisBasedPersistenceServiceConstants.claimOriginKey(),
+                orderingKey(emailSchedulingData)));
+        return nonNull(removed) && removed > 0;
+    }
+
+    @Override
+    public long restoreExpiredClaims() {
+        final Set<String> owners = orderingTemplate.opsForSet().members(RedisBasedPersistenceServiceConstants.claimOwnersKey());
+        if (Objects.isNull(owners)) {
+            return 0;
+        }
+        final long now = TimeUtils.now();
+        long restored = 0;
+        for (String owner : owners) {
+            restored += restoreClaimsOps(owner, now);
+        }
+        return restored;
+    }
+
+    protected long restoreClaimsOps(final String owner, final long maxDeadline) {
+        final Set<String> ids = orderingTemplate.opsForZSet()
+                .rangeByScore(RedisBasedPersistenceServiceConstants.claimedKey(owner), Double.NEGATIVE_INFINITY, maxDeadline);
+        return restoreClaimsOps(owner, maxDeadline, nonNull(ids) ? ids : Collections.emptySet());
+    }
+
+    // The priority levels the claims came from are read before running the script, so that every key it touches is
+    // given in KEYS; the script checks again the claims, which may have been renewed or restored meanwhile
+    protected long restoreClaimsOps(final String owner, final long maxDeadline, final Collection<String> ids) {
+        final List<String> keys = new ArrayList<>(claimKeys(owner));
+        final List<String> origins = ids.isEmpty() ?
+                Collections.emptyList() :
+                orderingTemplate.<String, String>opsForHash().multiGet(RedisBasedPersistenceServiceConstants.claimOriginKey(), ids);
+        final Set<String> orderingKeys = new TreeSet<>();
+        for (String origin : nonNull(origins) ? origins : Collections.<String>emptyList()) {
+            if (nonNull(origin) && origin.contains(CLAIM_ORIGIN_SEPARATOR)) {
+                orderingKeys.add(origin.substring(0, origin.indexOf(CLAIM_ORIGIN_SEPARATOR)));
+            }
+        }
+        keys.addAll(orderingKeys);
+        keys.addAll(ids);
+
+        final Long restored = orderingTemplate.execute(RESTORE_SCRIPT, keys,
+                String.valueOf(maxDeadline), owner, String.valueOf(orderingKeys.size()));
+        return nonNull(restored) ? restored : 0;
+    }
+
+    @Override
+    public AutoCloseable subscribeToAdditions(@NonNull final Runnable listener) {
+        final RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(orderingTemplate.getRequiredConnectionFactory());
+        container.addMessageListener((message, pattern) -> listener.run(),
+                new ChannelTopic(RedisBasedPersistenceServiceConstants.additionsChannel()));
+        container.afterPropertiesSet();
+        container.start();
+        return container::destroy;
+    }
+
+    // One PUBLISH per transaction, once committed, so that the nodes listening to the additions do not wait for their
+    // next poll and do not wake up before the emails can be read
+    private void notifyAdditions(final int added) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publishAdditions(added);
+            return;
+        }
+        final AtomicInteger pendingAdditions = (AtomicInteger) TransactionSynchronizationManager.getResource(additionsKey);
+        if (nonNull(pendingAdditions)) {
+            pendingAdditions.addAndGet(added);
+            return;
+        }
+        final AtomicInteger additions = new AtomicInteger(added);
+        TransactionSynchronizationManager.bindResource(additionsKey, additions);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(final int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(additionsKey);
+                if (status == STATUS_COMMITTED) {
+                    publishAdditions(additions.get());
+                }
+            }
+        });
+    }
+
+    // On a connection of its own, since PUBLISH cannot be queued in the MULTI of the template
+    private void publishAdditions(final int added) {
+        try (RedisConnection connection = orderingTemplate.getRequiredConnectionFactory().getConnection()) {
+            connection.publish(serialize(RedisBasedPersistenceServiceConstants.additionsChannel()), serialize(String.valueOf(added)));
+        }
+    }
+
+    // SCAN rather than KEYS, so that Redis is not blocked while walking a large keyspace
+    private Set<String> orderingKeys() {
+        final Set<String> orderingKeys = new TreeSet<>();
+        final ScanOptions scanOptions = ScanOptions.scanOptions()
+                .match(RedisBasedPersistenceServiceConstants.orderingKeyPrefix() + MATCH_ALL)
+                .count(SCAN_COUNT)
+                .build();
+        try (Cursor<String> cursor = orderingTemplate.scan(scanOptions)) {
+            cursor.forEachRemaining(orderingKeys::add);
+        }
+        return orderingKeys;
+    }
+
+    private static List<String> claimKeys(final String owner) {
+        return Arrays.asList(RedisBasedPersistenceServiceConstants.claimedKey(owner),
+                RedisBasedPersistenceServiceConstants.claimOriginKey(),
+                RedisBasedPersistenceServiceConstants.claimOwnersKey());
+    }
+
+    private BoundHashOperations<String, String, String> deadLetterInfoOps() {
+        return orderingTemplate.boundHashOps(RedisBasedPersistenceServiceConstants.deadLetterInfoKey());
+    }
+
+    // reason|attempts|failedAt|lastError, the error being last since it may contain the separator
+    private static String encodeDeadLetterInfo(final DeadLetter deadLetter) {
+        return new StringBuilder()
+                .append(deadLetter.getReason().name()).append(DEAD_LETTER_SEPARATOR)
+                .append(deadLetter.getAttempts()).append(DEAD_LETTER_SEPARATOR)
+                .append(deadLetter.getFailedAt().toEpochMilli()).append(DEAD_LETTER_SEPARATOR)
+                .append(nonNull(deadLetter.getLastError()) ? deadLetter.getLastError() : "")
+                .toString();
+    }
+
+    private static DeadLetter decodeDeadLetter(final EmailSchedulingData emailSchedulingData, final String info) {
+        final String[] fields = info.split(Pattern.quote(DEAD_LETTER_SEPARATOR), 4);
+        return DeadLetter.builder()
+                .emailSchedulingData(emailSchedulingData)
+                .reason(DeadLetter.Reason.valueOf(fields[0]))
+                .attempts(Integer.parseInt(fields[1]))
+                .failedAt(Instant.ofEpochMilli(Long.parseLong(fields[2])))
+                .lastError(fields.length > 3 && !fields[3].isEmpty() ? fields[3] : null)
+                .build();
+    }
+
+    private byte[] serialize(final String value) {
+        return orderingTemplate.getStringSerializer().serialize(value);
+    }
+
     private String orderingKey(final EmailSchedulingData emailSchedulingData) {
         return RedisBasedPersistenceServiceConstants.orderingKey(emailSchedulingData.getAssignedPriority());
     }
 
+    // The scheduled time in millis, so that the emails of a priority level are sorted by time and then by id
     private double calculateScore(final EmailSchedulingData emailSchedulingData) {
-        final long nanos = emailSchedulingData.getScheduledDateTime().getLong(ChronoField.NANO_OF_SECOND);
-        final int desiredPriority = emailSchedulingData.getDesiredPriority();
-
-        final String scoreStringValue = new StringBuilder()
-                .append(nanos)
-                .append(".")
-                .append(desiredPriority)
-                .append(Math.abs(emailSchedulingData.getId().hashCode()))
-                .toString();
-        final double score = new BigDecimal(scoreStringValue).doubleValue();
-        return score;
+        return emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli();
     }
 
 }
\ No newline at end of file
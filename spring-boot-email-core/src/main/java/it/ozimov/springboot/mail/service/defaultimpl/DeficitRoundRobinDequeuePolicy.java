@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.NonNull;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Deficit round robin over the priority levels: every round each level earns its weight in credit, and spends one
+ * credit per recipient of the email it dispatches. Differently from {@linkplain WeightedRoundRobinDequeuePolicy}, a level
+ * sending to large distribution lists does not get more than its share of the SMTP work. A level without due emails
+ * loses its credit, so that it cannot burst once it becomes busy again.
+ */
+public class DeficitRoundRobinDequeuePolicy implements DequeuePolicy {
+
+    private final int[] quanta;
+    private final long[] deficits;
+    private int current;
+    private boolean quantumGranted;
+
+    public DeficitRoundRobinDequeuePolicy(@NonNull final int[] quanta) {
+        checkArgument(quanta.length > 0, "Expected at least one priority level");
+        checkArgument(Arrays.stream(quanta).allMatch(quantum -> quantum > 0), "Expected positive weights, while %s was given", Arrays.toString(quanta));
+        this.quanta = quanta.clone();
+        deficits = new long[quanta.length];
+    }
+
+    @Override
+    public int select(final Levels levels) {
+        while (true) {
+            for (int visited = 0; visited < quanta.length; visited++) {
+                if (!levels.isDue(current)) {
+                    deficits[current] = 0;
+                } else {
+                    if (!quantumGranted) {
+                        deficits[current] += quanta[current];
+                        quantumGranted = true;
+                    }
+                    final long cost = cost(levels.head(current));
+                    if (deficits[current] >= cost) {
+                        deficits[current] -= cost;
+                        return current;
+                    }
+                }
+                current = (current + 1) % quanta.length;
+                quantumGranted = false;
+            }
+            //no level could afford its head: grant at once the rounds needed by the closest one
+            grantMissingRounds(levels);
+        }
+    }
+
+    private void grantMissingRounds(final Levels levels) {
+        long rounds = Long.MAX_VALUE;
+        for (int level = 0; level < quanta.length; level++) {
+            if (levels.isDue(level)) {
+                final long missing = cost(levels.head(level)) - deficits[level];
+                rounds = Math.min(rounds, (missing + quanta[level] - 1) / quanta[level]);
+            }
+        }
+        if (rounds == Long.MAX_VALUE) {
+            throw new IllegalStateException("Expected at least one priority level with a due email");
+        }
+        for (int level = 0; level < quanta.length; level++) {
+            if (levels.isDue(level)) {
+                deficits[level] += (rounds - 1) * quanta[level];
+            }
+        }
+    }
+
+    static long cost(final EmailSchedulingData emailSchedulingData) {
+        final Email email = emailSchedulingData.getEmail();
+        final long recipients = size(email.getTo()) + size(email.getCc()) + size(email.getBcc());
+        return Math.max(1, recipients);
+    }
+
+    private static long size(final Collection<?> collection) {
+        return collection == null ? 0 : collection.size();
+    }
+
+}
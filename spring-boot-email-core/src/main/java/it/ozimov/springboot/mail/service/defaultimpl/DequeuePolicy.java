@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+
+import java.util.List;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Decides which priority level the next due email is taken from. The {@linkplain PriorityQueueManager} calls the policy
+ * while holding its queue lock, so implementations do not need to be thread safe.
+ */
+public interface DequeuePolicy {
+
+    /**
+     * @param levels the priority levels, at least one of them having a due email.
+     * @return the index of a level having a due email, where index zero is the highest priority.
+     */
+    int select(Levels levels);
+
+    /**
+     * View over the priority levels at the time of the selection.
+     */
+    interface Levels {
+
+        int count();
+
+        boolean isDue(int level);
+
+        /**
+         * @return the earliest email of the level, or {@code null} if the level is empty.
+         */
+        EmailSchedulingData head(int level);
+
+    }
+
+    static DequeuePolicy of(final EmailSchedulerProperties.Dequeue dequeue, final int numberOfLevels) {
+        if (isNull(dequeue) || isNull(dequeue.getPolicy())) {
+            return new StrictPriorityDequeuePolicy();
+        }
+        switch (dequeue.getPolicy()) {
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinDequeuePolicy(weights(dequeue.getWeights(), numberOfLevels));
+            case DEFICIT_ROUND_ROBIN:
+                return new DeficitRoundRobinDequeuePolicy(weights(dequeue.getWeights(), numberOfLevels));
+            default:
+                return new StrictPriorityDequeuePolicy();
+        }
+    }
+
+    // Missing levels weigh one
+    static int[] weights(final List<Integer> weights, final int numberOfLevels) {
+        final int[] levelWeights = new int[numberOfLevels];
+        for (int level = 0; level < numberOfLevels; level++) {
+            levelWeights[level] = nonNull(weights) && level < weights.size() ? weights.get(level) : 1;
+        }
+        return levelWeights;
+    }
+
+}
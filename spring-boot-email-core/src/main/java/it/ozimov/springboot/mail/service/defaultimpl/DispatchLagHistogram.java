@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of the dispatch lag of a priority level, with buckets bounded by powers of two milliseconds. The
+ * percentiles are therefore approximated by the upper bound of the bucket they fall into.
+ */
+class DispatchLagHistogram {
+
+    // The last bucket collects the lags from about 12 days on
+    private static final int BUCKETS = 31;
+
+    private final int priorityLevel;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    DispatchLagHistogram(final int priorityLevel) {
+        this.priorityLevel = priorityLevel;
+    }
+
+    void record(final long lagInMillis) {
+        final long lag = Math.max(0, lagInMillis);
+        counts.incrementAndGet(bucket(lag));
+        count.incrementAndGet();
+        sumMillis.addAndGet(lag);
+        maxMillis.accumulateAndGet(lag, Math::max);
+    }
+
+    DispatchLagStatistics statistics() {
+        final long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        final SortedMap<Long, Long> histogram = new TreeMap<>();
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            snapshot[bucket] = counts.get(bucket);
+            total += snapshot[bucket];
+            if (snapshot[bucket] > 0) {
+                histogram.put(upperBound(bucket), snapshot[bucket]);
+            }
+        }
+        final long max = maxMillis.get();
+        return DispatchLagStatistics.builder()
+                .priorityLevel(priorityLevel)
+                .dispatchedEmails(total)
+                .meanMillis(total == 0 ? 0 : sumMillis.get() / Math.max(1, count.get()))
+                .p50Millis(percentile(snapshot, total, 0.50, max))
+                .p90Millis(percentile(snapshot, total, 0.90, max))
+                .p99Millis(percentile(snapshot, total, 0.99, max))
+                .maxMillis(max)
+                .histogram(histogram)
+                .build();
+    }
+
+    // Bucket 0 holds lags below 1 ms, bucket i the lags in [2^(i-1), 2^i) ms
+    static int bucket(final long lagInMillis) {
+        final int bucket = 64 - Long.numberOfLeadingZeros(lagInMillis);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static long percentile(final long[] snapshot, final long total, final double quantile, final long max) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += snapshot[bucket];
+            if (seen >= rank) {
+                return Math.min(upperBound(bucket), max);
+            }
+        }
+        return max;
+    }
+
+}
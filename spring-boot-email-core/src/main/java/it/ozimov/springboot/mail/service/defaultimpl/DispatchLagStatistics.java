@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.SortedMap;
+
+/**
+ * Snapshot of the dispatch lag of a priority level of the {@linkplain PriorityQueueEmailSchedulerService}, that is how
+ * late the emails were taken for sending with respect to their scheduled time.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class DispatchLagStatistics {
+
+    private final int priorityLevel;
+
+    private final long dispatchedEmails;
+
+    private final long meanMillis;
+
+    private final long p50Millis;
+
+    private final long p90Millis;
+
+    private final long p99Millis;
+
+    private final long maxMillis;
+
+    // Number of emails by upper bound of the lag, in milliseconds. The bounds are powers of two.
+    private final SortedMap<Long, Long> histogram;
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A stage of the dispatch pipeline of the {@linkplain PriorityQueueEmailSchedulerService}: a bounded queue drained by
+ * threads of its own. Each stage is sized after its own bottleneck, e.g. the cores for rendering and the connections
+ * to the mail server for the transport, and a full queue blocks the previous stage rather than growing without limit.
+ *
+ * @param <T> the type of the items handled by the stage.
+ */
+@Slf4j
+class DispatchStage<T> {
+
+    /**
+     * Handles an item taken from the queue of the stage, possibly handing it over to the next stage.
+     */
+    interface Handler<T> {
+
+        void handle(T item) throws InterruptedException;
+
+    }
+
+    private final String name;
+
+    private final int queueCapacity;
+
+    private final BlockingQueue<T> queue;
+
+    private final Handler<T> handler;
+
+    private final SchedulerMetrics schedulerMetrics;
+
+    private final List<Thread> threads;
+
+    private final AtomicLong processedEmails = new AtomicLong();
+    private final AtomicLong busyTimeNanos = new AtomicLong();
+
+    DispatchStage(@NonNull final String name, final int threads, final int queueCapacity,
+                  @NonNull final SchedulerThreadFactory threadFactory, @NonNull final SchedulerMetrics schedulerMetrics,
+                  @NonNull final Handler<T> handler) {
+        checkArgument(threads > 0, "Expected at least one thread for stage %s, while %s was given", name, threads);
+        checkArgument(queueCapacity > 0, "Expected a positive queue capacity for stage %s, while %s was given", name, queueCapacity);
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.handler = handler;
+        this.schedulerMetrics = schedulerMetrics;
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.threads = IntStream.rangeClosed(1, threads)
+                .mapToObj(index -> threadFactory.newThread(PriorityQueueEmailSchedulerService.class.getSimpleName()
+                        + " -- " + DispatchStage.class.getSimpleName() + "-" + name + "-" + index, this::work))
+                .collect(Collectors.toList());
+        schedulerMetrics.bindStage(name, queue::size);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void start() {
+        threads.forEach(Thread::start);
+    }
+
+    /**
+     * Hands the item over to the stage, waiting while its queue is full.
+     */
+    public void put(@NonNull final T item) throws InterruptedException {
+        queue.put(item);
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Stops the threads of the stage once done with their current item. The items still queued are discarded.
+     */
+    public void close() throws InterruptedException {
+        threads.forEach(Thread::interrupt);
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        final int discarded = queue.size();
+        queue.clear();
+        if (discarded > 0) {
+            log.warn("Discarded {} emails waiting in stage {}", discarded, name);
+        }
+    }
+
+    public StageStatistics statistics() {
+        return StageStatistics.builder()
+                .stageName(name)
+                .threads(threads.size())
+                .queueCapacity(queueCapacity)
+                .queueDepth(queue.size())
+                .processedEmails(processedEmails.get())
+                .busyTimeMillis(TimeUnit.NANOSECONDS.toMillis(busyTimeNanos.get()))
+                .build();
+    }
+
+    private void work() {
+        log.info("Email scheduler stage {} started", Thread.currentThread().getName());
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                final T item = queue.take();
+                final long startTime = System.nanoTime();
+                try {
+                    handler.handle(item);
+                } finally {
+                    final long serviceTimeInNanos = System.nanoTime() - startTime;
+                    processedEmails.incrementAndGet();
+                    busyTimeNanos.addAndGet(serviceTimeInNanos);
+                    schedulerMetrics.recordStageService(name, serviceTimeInNanos);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt(); //restore the interrupted status, so that the stage stops
+            } catch (final RuntimeException e) {
+                log.error("An error occurred in stage {}", name, e);
+            }
+        }
+        log.info("Email scheduler stage {} stopped", Thread.currentThread().getName());
+    }
+
+}
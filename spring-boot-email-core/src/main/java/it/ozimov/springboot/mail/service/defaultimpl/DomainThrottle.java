@@ -0,0 +1,356 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.NonNull;
+
+import jakarta.mail.internet.InternetAddress;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Comparator.comparingLong;
+import static java.util.Objects.nonNull;
+
+/**
+ * Caps the emails dispatched towards each recipient domain, both in the number of emails being sent at the same time
+ * and in their rate, the latter with a token bucket refilled continuously. An email is dispatchable only if all the
+ * domains among its recipients are, and it takes one place and one token from each of them.
+ * <p>
+ * The places are given back by {@link #release(EmailSchedulingData)}, which can be called more than once for the same
+ * email: an email waiting for a retry no longer holds its places, even if still in flight.
+ * <p>
+ * Only the domains with emails being sent or with tokens still to be refilled are kept, since any other domain is as
+ * dispatchable as a domain never seen before.
+ */
+class DomainThrottle {
+
+    // The consumers waiting for a throttled domain recheck at least this often, since no one is notified when a
+    // token is added to a bucket
+    static final long MAX_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    // The idle domains with a full bucket are evicted at once when the domains kept exceed this number, which then
+    // doubles the ones left
+    private static final int MIN_EVICTION_THRESHOLD = 1024;
+
+    // The emails whose domains are kept between checks, the least recently checked being forgotten first
+    private static final int MAX_CHECKED = 1024;
+
+    private final EmailSchedulerProperties.Throttle throttle;
+    private final LongSupplier nanoClock;
+
+    private final Map<String, DomainState> domains = new HashMap<>();
+    private final Lock lock = new ReentrantLock();
+
+    // The domains whose places are held by each email, by id
+    private final Map<String, String[]> holders = new HashMap<>();
+    // The domains of the emails checked but not yet dispatched, by id, so that the recipients of an email looked at
+    // again and again are not parsed each time
+    private final Map<String, String[]> checked = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, String[]> eldest) {
+            return size() > MAX_CHECKED;
+        }
+    };
+    // The rate limited domains without a token, by the time the next token is added to their bucket
+    private final PriorityQueue<DomainState> refills = new PriorityQueue<>(comparingLong(state -> state.nextTokenNanos));
+    private int evictionThreshold = MIN_EVICTION_THRESHOLD;
+
+    DomainThrottle(@NonNull final EmailSchedulerProperties.Throttle throttle) {
+        this(throttle, System::nanoTime);
+    }
+
+    DomainThrottle(@NonNull final EmailSchedulerProperties.Throttle throttle, @NonNull final LongSupplier nanoClock) {
+        checkArgument(throttle.getMaxConcurrent() >= 0,
+                "Max concurrent emails per domain should be a non negative number, while %s was given", throttle.getMaxConcurrent());
+        checkArgument(throttle.getRatePerSecond() >= 0,
+                "Rate per domain should be a non negative number, while %s was given", throttle.getRatePerSecond());
+        checkArgument(throttle.getBurst() > 0,
+                "Burst per domain should be a positive number, while %s was given", throttle.getBurst());
+        checkArgument(throttle.getLookahead() > 0,
+                "Lookahead should be a positive number, while %s was given", throttle.getLookahead());
+        this.throttle = throttle;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * @return how many due emails per priority level are looked at to find one that is not throttled.
+     */
+    int lookahead() {
+        return throttle.getLookahead();
+    }
+
+    /**
+     * @return true if none of the domains among the recipients of the email is at its cap.
+     */
+    boolean canDispatch(@NonNull final EmailSchedulingData emailSchedulingData) {
+        lock.lock();
+        try {
+            final long now = nanoClock.getAsLong();
+            final String[] emailDomains = checked.computeIfAbsent(emailSchedulingData.getId(),
+                    id -> domainsOf(emailSchedulingData.getEmail()));
+            for (final String domain : emailDomains) {
+                final DomainState state = domains.get(domain);
+                if (nonNull(state) && !state.canDispatch(now)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a place and a token from each domain among the recipients of the email, which is expected to be
+     * dispatchable.
+     */
+    void acquire(@NonNull final EmailSchedulingData emailSchedulingData) {
+        lock.lock();
+        try {
+            final long now = nanoClock.getAsLong();
+            pollRefilled(now);
+            final String[] cached = checked.remove(emailSchedulingData.getId());
+            final String[] acquired = nonNull(cached) ? cached : domainsOf(emailSchedulingData.getEmail());
+            for (final String domain : acquired) {
+                final DomainState state = state(domain, now);
+                state.acquire(now);
+                if (state.isRateLimited() && state.tokens < 1) {
+                    if (state.waitingForToken) {
+                        refills.remove(state);
+                    }
+                    state.nextTokenNanos = now + state.nanosUntilToken(now);
+                    state.waitingForToken = true;
+                    refills.add(state);
+                }
+            }
+            final String[] previous = holders.put(emailSchedulingData.getId(), acquired);
+            if (nonNull(previous)) {
+                release(previous, now);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the places held by the email, if any.
+     *
+     * @return true if the email was holding any place.
+     */
+    boolean release(@NonNull final EmailSchedulingData emailSchedulingData) {
+        lock.lock();
+        try {
+            final String[] acquired = holders.remove(emailSchedulingData.getId());
+            if (acquired == null) {
+                return false;
+            }
+            release(acquired, nanoClock.getAsLong());
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void release(final String[] acquired, final long nowInNanos) {
+        for (final String domain : acquired) {
+            final DomainState state = domains.get(domain);
+            if (nonNull(state)) {
+                state.inFlight--;
+                if (state.isIdle(nowInNanos)) {
+                    domains.remove(domain);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the nanoseconds after which a throttled domain may be dispatchable again, never more than
+     * {@link #MAX_RECHECK_NANOS}.
+     */
+    long nanosUntilAvailable() {
+        lock.lock();
+        try {
+            final long now = nanoClock.getAsLong();
+            pollRefilled(now);
+            final DomainState next = refills.peek();
+            return nonNull(next) ? Math.max(1, Math.min(MAX_RECHECK_NANOS, next.nextTokenNanos - now)) : MAX_RECHECK_NANOS;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // A domain gets a token at the time computed when its last token was taken, since no token is taken meanwhile
+    private void pollRefilled(final long nowInNanos) {
+        while (!refills.isEmpty() && refills.peek().nextTokenNanos - nowInNanos <= 0) {
+            refills.poll().waitingForToken = false;
+        }
+    }
+
+    /**
+     * @return the emails being sent towards the given domain.
+     */
+    int inFlight(@NonNull final String domain) {
+        lock.lock();
+        try {
+            final DomainState state = domains.get(normalize(domain));
+            return nonNull(state) ? state.inFlight : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DomainState state(final String domain, final long nowInNanos) {
+        DomainState state = domains.get(domain);
+        if (state == null) {
+            if (domains.size() >= evictionThreshold) {
+                domains.values().removeIf(kept -> kept.isIdle(nowInNanos));
+                evictionThreshold = Math.max(MIN_EVICTION_THRESHOLD, 2 * domains.size());
+            }
+            state = newState(domain, nowInNanos);
+            domains.put(domain, state);
+        }
+        return state;
+    }
+
+    private DomainState newState(final String domain, final long nowInNanos) {
+        final EmailSchedulerProperties.DomainLimit domainLimit = nonNull(throttle.getDomains()) ?
+                limitOf(domain) : null;
+        final int maxConcurrent = nonNull(domainLimit) && nonNull(domainLimit.getMaxConcurrent()) ?
+                domainLimit.getMaxConcurrent() : throttle.getMaxConcurrent();
+        final double ratePerSecond = nonNull(domainLimit) && nonNull(domainLimit.getRatePerSecond()) ?
+                domainLimit.getRatePerSecond() : throttle.getRatePerSecond();
+        final int burst = nonNull(domainLimit) && nonNull(domainLimit.getBurst()) ?
+                domainLimit.getBurst() : throttle.getBurst();
+        return new DomainState(maxConcurrent, ratePerSecond, burst, nowInNanos);
+    }
+
+    private EmailSchedulerProperties.DomainLimit limitOf(final String domain) {
+        for (final Map.Entry<String, EmailSchedulerProperties.DomainLimit> entry : throttle.getDomains().entrySet()) {
+            if (normalize(entry.getKey()).equals(domain)) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    // Sorted and without duplicates
+    static String[] domainsOf(final Email email) {
+        final Set<String> domains = new TreeSet<>();
+        addDomains(email.getTo(), domains);
+        addDomains(email.getCc(), domains);
+        addDomains(email.getBcc(), domains);
+        return domains.toArray(new String[0]);
+    }
+
+    private static void addDomains(final Collection<InternetAddress> addresses, final Set<String> domains) {
+        if (addresses == null) {
+            return;
+        }
+        for (final InternetAddress address : addresses) {
+            final String emailAddress = nonNull(address) ? address.getAddress() : null;
+            final int at = nonNull(emailAddress) ? emailAddress.lastIndexOf('@') : -1;
+            if (at >= 0 && at < emailAddress.length() - 1) {
+                domains.add(normalize(emailAddress.substring(at + 1)));
+            }
+        }
+    }
+
+    private static String normalize(final String domain) {
+        return domain.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class DomainState {
+
+        private final int maxConcurrent;
+        private final double tokensPerNano;
+        private final int burst;
+
+        private int inFlight;
+        private double tokens;
+        private long lastRefillNanos;
+        // Meaningful only while waiting in the refills
+        private boolean waitingForToken;
+        private long nextTokenNanos;
+
+        private DomainState(final int maxConcurrent, final double ratePerSecond, final int burst, final long nowInNanos) {
+            this.maxConcurrent = maxConcurrent;
+            this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            tokens = burst;
+            lastRefillNanos = nowInNanos;
+        }
+
+        private boolean isRateLimited() {
+            return tokensPerNano > 0;
+        }
+
+        // An idle domain is dispatchable as if it was never seen, thus it can be forgotten
+        private boolean isIdle(final long nowInNanos) {
+            if (inFlight > 0) {
+                return false;
+            }
+            refill(nowInNanos);
+            return !isRateLimited() || tokens >= burst;
+        }
+
+        private boolean canDispatch(final long nowInNanos) {
+            if (maxConcurrent > 0 && inFlight >= maxConcurrent) {
+                return false;
+            }
+            refill(nowInNanos);
+            return !isRateLimited() || tokens >= 1;
+        }
+
+        private void acquire(final long nowInNanos) {
+            inFlight++;
+            if (isRateLimited()) {
+                refill(nowInNanos);
+                tokens--;
+            }
+        }
+
+        private long nanosUntilToken(final long nowInNanos) {
+            if (!isRateLimited()) {
+                return Long.MAX_VALUE;
+            }
+            refill(nowInNanos);
+            return tokens >= 1 ? Long.MAX_VALUE : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        private void refill(final long nowInNanos) {
+            if (isRateLimited() && nowInNanos > lastRefillNanos) {
+                tokens = Math.min(burst, tokens + (nowInNanos - lastRefillNanos) * tokensPerNano);
+            }
+            lastRefillNanos = Math.max(lastRefillNanos, nowInNanos);
+        }
+
+    }
+
+}
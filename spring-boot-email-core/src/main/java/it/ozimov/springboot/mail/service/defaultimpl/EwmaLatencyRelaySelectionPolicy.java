@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+/**
+ * Sends through the relay expected to be done first: the moving average of its latency times the emails it would be
+ * sending, relative to its weight. A relay nothing was sent through yet is tried first, to measure it. The ties are
+ * broken in turn.
+ */
+public class EwmaLatencyRelaySelectionPolicy implements RelaySelectionPolicy {
+
+    private int offset;
+
+    @Override
+    public int select(final Candidates candidates) {
+        final int count = candidates.count();
+        final int start = Math.floorMod(offset++, count);
+        int selected = start;
+        double selectedCost = Double.MAX_VALUE;
+        for (int step = 0; step < count; step++) {
+            final int candidate = (start + step) % count;
+            final double cost = candidates.latencyNanos(candidate) * (candidates.outstanding(candidate) + 1)
+                    / candidates.weight(candidate);
+            if (cost < selectedCost) {
+                selected = candidate;
+                selectedCost = cost;
+            }
+        }
+        return selected;
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.base.Preconditions;
+import lombok.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hierarchical timing wheel holding the items whose deadline is far in the future.
+ * <p>
+ * Level 0 has {@code wheelSize} buckets of one tick each, every next level has {@code wheelSize} buckets, each one
+ * spanning a whole rotation of the previous level. An item is added in O(1) to the finest level that can hold it and,
+ * while time advances, the buckets of the coarse levels are cascaded into the finer ones, until items are expired.
+ * Items beyond the range of the coarsest level are kept in an overflow bucket, cascaded at each rotation of that level.
+ * Buckets are hash based, so that an item can also be removed in O(levels).
+ * <p>
+ * The class is not thread safe, callers must guard it with their own lock.
+ *
+ * @param <T> the type of the items, whose deadline is given in epoch millis
+ */
+class HierarchicalTimingWheel<T> {
+
+    private final long tickInMillis;
+    private final int wheelSize;
+    private final ToLongFunction<T> deadlineInMillis;
+
+    private final Set<T>[][] buckets;
+    private final Set<T> overflow = new LinkedHashSet<>();
+
+    // Every tick up to (and including) the current one was processed
+    private long currentTick;
+    private int size;
+
+    HierarchicalTimingWheel(final long tickInMillis, final int wheelSize, final int levels,
+                            final long startTimeInMillis, @NonNull final ToLongFunction<T> deadlineInMillis) {
+        Preconditions.checkArgument(tickInMillis > 0, "Tick should be a positive number of millis, while %s was given", tickInMillis);
+        Preconditions.checkArgument(wheelSize > 1, "Wheel size should be greater than one, while %s was given", wheelSize);
+        Preconditions.checkArgument(levels > 0, "Number of levels should be a positive number, while %s was given", levels);
+
+        this.tickInMillis = tickInMillis;
+        this.wheelSize = wheelSize;
+        this.deadlineInMillis = deadlineInMillis;
+        currentTick = startTimeInMillis / tickInMillis;
+
+        buckets = new Set[levels][wheelSize];
+        for (int level = 0; level < levels; level++) {
+            for (int slot = 0; slot < wheelSize; slot++) {
+                buckets[level][slot] = new LinkedHashSet<>();
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Adds an item to the wheel.
+     *
+     * @return the time, in epoch millis, when the bucket holding the item has to be processed, or {@code -1} if the item
+     * was not added since its deadline falls within the ticks already processed.
+     */
+    public long add(@NonNull final T item) {
+        final long deadlineTick = deadlineInMillis.applyAsLong(item) / tickInMillis;
+        if (deadlineTick <= currentTick) {
+            return -1;
+        }
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            if (deadlineTick / span - currentTick / span < wheelSize) {
+                if (buckets[level][(int) ((deadlineTick / span) % wheelSize)].add(item)) {
+                    size++;
+                }
+                return (deadlineTick / span) * span * tickInMillis;
+            }
+            span *= wheelSize;
+        }
+        if (overflow.add(item)) {
+            size++;
+        }
+        return (currentTick / span + 1) * span * tickInMillis;
+    }
+
+    /**
+     * Removes an item from the wheel. Since items are only cascaded towards finer levels, the item can only be in the
+     * bucket of its deadline at some level, or in the overflow bucket.
+     *
+     * @return {@code true} if the item was in the wheel.
+     */
+    public boolean remove(@NonNull final T item) {
+        final long deadlineTick = deadlineInMillis.applyAsLong(item) / tickInMillis;
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            if (buckets[level][(int) ((deadlineTick / span) % wheelSize)].remove(item)) {
+                size--;
+                return true;
+            }
+            span *= wheelSize;
+        }
+        if (overflow.remove(item)) {
+            size--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Advances the wheel up to the given time, handing over every item whose deadline tick is not after it.
+     */
+    public void advanceTo(final long timeInMillis, @NonNull final Consumer<T> expired) {
+        final long targetTick = timeInMillis / tickInMillis;
+        if (isEmpty()) {
+            currentTick = Math.max(currentTick, targetTick);
+            return;
+        }
+        while (currentTick < targetTick && !isEmpty()) {
+            final long nextTick = nextNonEmptyTick();
+            if (nextTick > targetTick) {
+                currentTick = targetTick;
+                return;
+            }
+            currentTick = nextTick;
+            processCurrentTick(expired);
+        }
+        currentTick = Math.max(currentTick, targetTick);
+    }
+
+    /**
+     * Returns the time, in epoch millis, when the next non empty bucket has to be processed, or {@link Long#MAX_VALUE}
+     * if the wheel is empty. The cost is linear in the number of buckets, not in the number of items.
+     */
+    public long nextExpirationInMillis() {
+        return isEmpty() ? Long.MAX_VALUE : nextNonEmptyTick() * tickInMillis;
+    }
+
+    private long nextNonEmptyTick() {
+        long next = Long.MAX_VALUE;
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            final long currentSlot = currentTick / span;
+            for (int offset = 1; offset < wheelSize; offset++) {
+                final long slot = currentSlot + offset;
+                if (!buckets[level][(int) (slot % wheelSize)].isEmpty()) {
+                    next = Math.min(next, slot * span);
+                    break;
+                }
+            }
+            span *= wheelSize;
+        }
+        if (!overflow.isEmpty()) {
+            next = Math.min(next, (currentTick / span + 1) * span);
+        }
+        return next;
+    }
+
+    // Expires the level 0 bucket of the current tick and cascades the coarser buckets starting at the current tick
+    private void processCurrentTick(final Consumer<T> expired) {
+        long span = 1;
+        for (int level = 0; level < buckets.length; level++) {
+            if (currentTick % span != 0) {
+                return;
+            }
+            final Set<T> bucket = buckets[level][(int) ((currentTick / span) % wheelSize)];
+            if (!bucket.isEmpty()) {
+                final List<T> items = new ArrayList<>(bucket);
+                bucket.clear();
+                size -= items.size();
+                items.forEach(item -> reinsert(item, expired));
+            }
+            span *= wheelSize;
+        }
+        if (currentTick % span == 0 && !overflow.isEmpty()) {
+            final List<T> items = new ArrayList<>(overflow);
+            overflow.clear();
+            size -= items.size();
+            items.forEach(item -> reinsert(item, expired));
+        }
+    }
+
+    private void reinsert(final T item, final Consumer<T> expired) {
+        if (add(item) < 0) {
+            expired.accept(item);
+        }
+    }
+
+}
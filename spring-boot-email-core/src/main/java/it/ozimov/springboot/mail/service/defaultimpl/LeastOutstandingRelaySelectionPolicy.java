@@ -0,0 +1,44 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+/**
+ * Sends through the relay with the fewest emails being sent, relative to its weight, so that a relay slowing down
+ * piles up emails and gets fewer new ones. The ties, e.g. when the emails are sent one at a time, are broken in turn.
+ */
+public class LeastOutstandingRelaySelectionPolicy implements RelaySelectionPolicy {
+
+    private int offset;
+
+    @Override
+    public int select(final Candidates candidates) {
+        final int count = candidates.count();
+        final int start = Math.floorMod(offset++, count);
+        int selected = start;
+        double selectedLoad = Double.MAX_VALUE;
+        for (int step = 0; step < count; step++) {
+            final int candidate = (start + step) % count;
+            final double load = (candidates.outstanding(candidate) + 1) / (double) candidates.weight(candidate);
+            if (load < selectedLoad) {
+                selected = candidate;
+                selectedLoad = load;
+            }
+        }
+        return selected;
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+
+/**
+ * Registers the meters of a {@linkplain CircuitBreaker} in a Micrometer {@linkplain MeterRegistry}.
+ * <p>
+ * Gauges:
+ * <ul>
+ * <li>{@code email.transport.circuit.state}, tagged with the {@code state}, 1 for the current state and 0 otherwise</li>
+ * <li>{@code email.transport.circuit.failure.rate}, in percent</li>
+ * <li>{@code email.transport.circuit.slow.call.rate}, in percent</li>
+ * </ul>
+ * Counters:
+ * <ul>
+ * <li>{@code email.transport.circuit.openings}</li>
+ * <li>{@code email.transport.circuit.not.permitted}</li>
+ * </ul>
+ */
+public class MicrometerCircuitBreakerMetrics {
+
+    static final String PREFIX = "email.transport.circuit.";
+
+    private final CircuitBreaker circuitBreaker;
+
+    public MicrometerCircuitBreakerMetrics(@NonNull final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public void bindTo(@NonNull final MeterRegistry meterRegistry) {
+        for (final CircuitBreaker.State state : CircuitBreaker.State.values()) {
+            Gauge.builder(PREFIX + "state", circuitBreaker, breaker -> breaker.state() == state ? 1 : 0)
+                    .description("Whether the circuit breaker around the mail server is in the state")
+                    .tag("state", state.name().toLowerCase())
+                    .register(meterRegistry);
+        }
+        Gauge.builder(PREFIX + "failure.rate", circuitBreaker, breaker -> breaker.statistics().getFailureRate())
+                .description("Percentage of the latest sends that failed")
+                .baseUnit("percent")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "slow.call.rate", circuitBreaker, breaker -> breaker.statistics().getSlowCallRate())
+                .description("Percentage of the latest sends that were slow")
+                .baseUnit("percent")
+                .register(meterRegistry);
+        FunctionCounter.builder(PREFIX + "openings", circuitBreaker, breaker -> breaker.statistics().getOpenings())
+                .description("Times the circuit breaker opened")
+                .register(meterRegistry);
+        FunctionCounter.builder(PREFIX + "not.permitted", circuitBreaker, breaker -> breaker.statistics().getNotPermittedCalls())
+                .description("Sends refused while the circuit breaker was open")
+                .register(meterRegistry);
+    }
+
+}
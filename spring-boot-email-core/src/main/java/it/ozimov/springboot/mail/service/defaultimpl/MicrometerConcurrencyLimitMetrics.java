@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+
+/**
+ * Registers the meters of an {@linkplain AdaptiveConcurrencyLimiter} in a Micrometer {@linkplain MeterRegistry}.
+ * <p>
+ * Gauges:
+ * <ul>
+ * <li>{@code email.transport.concurrency.limit}</li>
+ * <li>{@code email.transport.concurrency.in.flight}</li>
+ * <li>{@code email.transport.concurrency.latency}, in milliseconds, tagged with the {@code window}, either
+ * {@code recent} or {@code baseline}</li>
+ * </ul>
+ * Counters:
+ * <ul>
+ * <li>{@code email.transport.concurrency.backoffs}</li>
+ * <li>{@code email.transport.concurrency.acquire.timeouts}</li>
+ * </ul>
+ */
+public class MicrometerConcurrencyLimitMetrics {
+
+    static final String PREFIX = "email.transport.concurrency.";
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    public MicrometerConcurrencyLimitMetrics(@NonNull final AdaptiveConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public void bindTo(@NonNull final MeterRegistry meterRegistry) {
+        Gauge.builder(PREFIX + "limit", concurrencyLimiter, limiter -> limiter.statistics().getLimit())
+                .description("Emails that can be handed over to the mail server at the same time")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "in.flight", concurrencyLimiter, limiter -> limiter.statistics().getInFlight())
+                .description("Emails being handed over to the mail server")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "latency", concurrencyLimiter, limiter -> limiter.statistics().getRecentLatencyMillis())
+                .description("Moving average of the latency of the last successful sends")
+                .tag("window", "recent")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "latency", concurrencyLimiter, limiter -> limiter.statistics().getBaselineLatencyMillis())
+                .description("Latency of the mail server when not loaded")
+                .tag("window", "baseline")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        FunctionCounter.builder(PREFIX + "backoffs", concurrencyLimiter, limiter -> limiter.statistics().getBackoffs())
+                .description("Times the limit was cut because of rising latency or temporary failures")
+                .register(meterRegistry);
+        FunctionCounter.builder(PREFIX + "acquire.timeouts", concurrencyLimiter, limiter -> limiter.statistics().getAcquireTimeouts())
+                .description("Sends failed waiting for the emails being sent to drop below the limit")
+                .register(meterRegistry);
+    }
+
+}
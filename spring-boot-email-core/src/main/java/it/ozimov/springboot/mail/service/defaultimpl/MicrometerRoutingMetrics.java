@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Registers the meters of the relays of a {@linkplain RoutingJavaMailSender} in a Micrometer
+ * {@linkplain MeterRegistry}, each one tagged with the name of the {@code relay}.
+ * <p>
+ * Gauges:
+ * <ul>
+ * <li>{@code email.transport.relay.outstanding}</li>
+ * <li>{@code email.transport.relay.latency}, in milliseconds</li>
+ * <li>{@code email.transport.relay.circuit}, one when the circuit of the relay is in the tagged {@code state}</li>
+ * </ul>
+ * Counters:
+ * <ul>
+ * <li>{@code email.transport.relay.sent}</li>
+ * <li>{@code email.transport.relay.failed}</li>
+ * <li>{@code email.transport.relay.circuit.openings}</li>
+ * </ul>
+ */
+public class MicrometerRoutingMetrics {
+
+    static final String PREFIX = "email.transport.relay.";
+
+    private final RoutingJavaMailSender routingJavaMailSender;
+
+    public MicrometerRoutingMetrics(@NonNull final RoutingJavaMailSender routingJavaMailSender) {
+        this.routingJavaMailSender = routingJavaMailSender;
+    }
+
+    public void bindTo(@NonNull final MeterRegistry meterRegistry) {
+        for (final RelayStatistics relayStatistics : routingJavaMailSender.statistics()) {
+            final String relay = relayStatistics.getRelay();
+            Gauge.builder(PREFIX + "outstanding", routingJavaMailSender, of(relay, RelayStatistics::getOutstanding))
+                    .description("Emails being sent through the relay")
+                    .tag("relay", relay)
+                    .register(meterRegistry);
+            Gauge.builder(PREFIX + "latency", routingJavaMailSender, of(relay, RelayStatistics::getLatencyMillis))
+                    .description("Moving average of the latency of the last emails sent through the relay")
+                    .tag("relay", relay)
+                    .baseUnit("milliseconds")
+                    .register(meterRegistry);
+            for (final CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                Gauge.builder(PREFIX + "circuit", routingJavaMailSender,
+                                of(relay, statistics -> statistics.getCircuitState() == state ? 1 : 0))
+                        .description("Whether the circuit of the relay is in the given state")
+                        .tag("relay", relay)
+                        .tag("state", state.name().toLowerCase())
+                        .register(meterRegistry);
+            }
+            FunctionCounter.builder(PREFIX + "sent", routingJavaMailSender, of(relay, RelayStatistics::getSentMessages))
+                    .description("Emails sent through the relay")
+                    .tag("relay", relay)
+                    .register(meterRegistry);
+            FunctionCounter.builder(PREFIX + "failed", routingJavaMailSender, of(relay, RelayStatistics::getFailedMessages))
+                    .description("Emails the relay failed to send, handed over to the next relay if any")
+                    .tag("relay", relay)
+                    .register(meterRegistry);
+            FunctionCounter.builder(PREFIX + "circuit.openings", routingJavaMailSender, of(relay, RelayStatistics::getCircuitOpenings))
+                    .description("Times the relay was skipped because of too many consecutive failures")
+                    .tag("relay", relay)
+                    .register(meterRegistry);
+        }
+    }
+
+    private static ToDoubleFunction<RoutingJavaMailSender> of(final String relay, final ToDoubleFunction<RelayStatistics> value) {
+        return sender -> sender.statistics().stream()
+                .filter(relayStatistics -> relayStatistics.getRelay().equals(relay))
+                .mapToDouble(value)
+                .findFirst()
+                .orElse(Double.NaN);
+    }
+
+}
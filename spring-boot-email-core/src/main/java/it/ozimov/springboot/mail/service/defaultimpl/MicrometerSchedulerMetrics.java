@@ -0,0 +1,396 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.DeadLetter;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import lombok.NonNull;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * {@linkplain SchedulerMetrics} registering the meters of the scheduler in a Micrometer {@linkplain MeterRegistry}.
+ * <p>
+ * Gauges:
+ * <ul>
+ * <li>{@code email.scheduler.queue.size}, tagged with the {@code priority} level</li>
+ * <li>{@code email.scheduler.timing.wheel.size}</li>
+ * <li>{@code email.scheduler.in.memory}, in the queues or in the timing wheel</li>
+ * <li>{@code email.scheduler.in.flight}, handed over to a consumer and not yet sent</li>
+ * <li>{@code email.scheduler.ingestion.pending}, scheduled and not yet applied</li>
+ * <li>{@code email.scheduler.persisted}, sampled by the resumer</li>
+ * <li>{@code email.scheduler.stage.queue.depth}, tagged with the {@code stage} of the dispatch pipeline</li>
+ * <li>{@code email.scheduler.admission.held}, counted by the admission control, the emails not yet enqueued included</li>
+ * <li>{@code email.scheduler.admission.high.watermark} and {@code email.scheduler.admission.low.watermark}</li>
+ * <li>{@code email.scheduler.admission.saturated}, 1 while the emails are not admitted and 0 otherwise</li>
+ * </ul>
+ * Counters:
+ * <ul>
+ * <li>{@code email.scheduler.admission.high.watermark.crossings}</li>
+ * <li>{@code email.scheduler.admission.admitted}, {@code email.scheduler.admission.blocked},
+ * {@code email.scheduler.admission.rejected} and {@code email.scheduler.admission.caller.runs}</li>
+ * </ul>
+ * Timers and distribution summaries:
+ * <ul>
+ * <li>{@code email.scheduler.dequeue.wait}</li>
+ * <li>{@code email.scheduler.queue.lock.held}</li>
+ * <li>{@code email.scheduler.send.lag} and {@code email.scheduler.send.duration}, tagged with the {@code outcome}</li>
+ * <li>{@code email.scheduler.resumer.batch.size} and {@code email.scheduler.resumer.batch.duration}</li>
+ * <li>{@code email.scheduler.persistence.duration}, tagged with the {@code operation}</li>
+ * <li>{@code email.scheduler.stage.service.time}, tagged with the {@code stage} of the dispatch pipeline</li>
+ * </ul>
+ */
+public class MicrometerSchedulerMetrics implements SchedulerMetrics {
+
+    static final String PREFIX = "email.scheduler.";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer dequeueWait;
+    private final Timer queueLockHeld;
+    private final Timer sentLag;
+    private final Timer failedLag;
+    private final Timer sentDuration;
+    private final Timer failedDuration;
+    private final DistributionSummary resumerBatchSize;
+    private final Timer resumerBatchDuration;
+    private final AtomicLong persistedEmails = new AtomicLong();
+    private final Map<String, Timer> stageServiceTimes = new ConcurrentHashMap<>();
+    // Held here, since the counters keep a weak reference to the object they read
+    private Supplier<AdmissionStatistics> admissionStatistics;
+
+    public MicrometerSchedulerMetrics(@NonNull final MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+
+        dequeueWait = Timer.builder(PREFIX + "dequeue.wait")
+                .description("Time waited by a consumer for the next due email")
+                .register(meterRegistry);
+        queueLockHeld = Timer.builder(PREFIX + "queue.lock.held")
+                .description("Time the queue lock is held for at each acquisition")
+                .register(meterRegistry);
+        sentLag = sendLag("sent");
+        failedLag = sendLag("failed");
+        sentDuration = sendDuration("sent");
+        failedDuration = sendDuration("failed");
+        resumerBatchSize = DistributionSummary.builder(PREFIX + "resumer.batch.size")
+                .description("Emails loaded from the persistence layer at each resumer cycle")
+                .baseUnit("emails")
+                .register(meterRegistry);
+        resumerBatchDuration = Timer.builder(PREFIX + "resumer.batch.duration")
+                .description("Time taken to load a batch from the persistence layer and enqueue it")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "persisted", persistedEmails, AtomicLong::get)
+                .description("Emails in the persistence layer, as last sampled by the resumer")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return true;
+    }
+
+    @Override
+    public void bind(@NonNull final PriorityQueueManager priorityQueueManager, @NonNull final IntSupplier pendingIngestion) {
+        for (int priorityLevel = 1; priorityLevel <= priorityQueueManager.numberOfLevels(); priorityLevel++) {
+            final int level = priorityLevel;
+            Gauge.builder(PREFIX + "queue.size", priorityQueueManager, manager -> manager.currentlyQueued(level))
+                    .description("Emails in the priority queue")
+                    .tag("priority", String.valueOf(level))
+                    .register(meterRegistry);
+        }
+        Gauge.builder(PREFIX + "timing.wheel.size", priorityQueueManager, PriorityQueueManager::currentlyInTimingWheel)
+                .description("Emails in the timing wheel")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "in.memory", priorityQueueManager, PriorityQueueManager::currentlyInQueue)
+                .description("Emails in the priority queues or in the timing wheel")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "in.flight", priorityQueueManager, PriorityQueueManager::currentlyInFlight)
+                .description("Emails handed over to a consumer and not yet sent")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "ingestion.pending", pendingIngestion, IntSupplier::getAsInt)
+                .description("Emails scheduled and not yet applied")
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void bindAdmission(@NonNull final Supplier<AdmissionStatistics> admissionStatistics) {
+        this.admissionStatistics = admissionStatistics;
+        Gauge.builder(PREFIX + "admission.held", admissionStatistics, statistics -> statistics.get().getHeldInMemory())
+                .description("Emails held in memory as counted by the admission control, those not yet enqueued included")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "admission.high.watermark", admissionStatistics, statistics -> statistics.get().getHighWatermark())
+                .description("Emails held in memory from which no email is admitted")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "admission.low.watermark", admissionStatistics, statistics -> statistics.get().getLowWatermark())
+                .description("Emails held in memory down to which no email is admitted, once saturated")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "admission.saturated", admissionStatistics, statistics -> statistics.get().isSaturated() ? 1 : 0)
+                .description("Whether the emails are not admitted")
+                .register(meterRegistry);
+        admissionCounter("high.watermark.crossings", "Times the emails held in memory reached the high watermark",
+                AdmissionStatistics::getHighWatermarkCrossings);
+        admissionCounter("admitted", "Emails admitted, right away or after waiting", AdmissionStatistics::getAdmittedEmails);
+        admissionCounter("blocked", "Emails whose producer waited to be admitted", AdmissionStatistics::getBlockedEmails);
+        admissionCounter("rejected", "Emails refused, right away or after waiting", AdmissionStatistics::getRejectedEmails);
+        admissionCounter("caller.runs", "Emails applied by their producer instead of being admitted",
+                AdmissionStatistics::getCallerRunsEmails);
+    }
+
+    @Override
+    public void bindStage(@NonNull final String stageName, @NonNull final IntSupplier queueDepth) {
+        Gauge.builder(PREFIX + "stage.queue.depth", queueDepth, IntSupplier::getAsInt)
+                .description("Emails waiting in the queue of the stage")
+                .tag("stage", stageName)
+                .strongReference(true)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Lock instrument(@NonNull final ReentrantLock queueLock) {
+        return new TimedLock(queueLock, holdTimeInNanos -> queueLockHeld.record(holdTimeInNanos, TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public PersistenceService instrument(@NonNull final PersistenceService persistenceService) {
+        return new TimedPersistenceService(persistenceService);
+    }
+
+    @Override
+    public void recordDequeueWait(final long waitInNanos) {
+        dequeueWait.record(waitInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordSend(final EmailSchedulingData emailSchedulingData, final long lagInMillis,
+                           final long durationInNanos, final boolean sent) {
+        (sent ? sentLag : failedLag).record(Math.max(0, lagInMillis), TimeUnit.MILLISECONDS);
+        (sent ? sentDuration : failedDuration).record(durationInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordStageService(final String stageName, final long serviceTimeInNanos) {
+        stageServiceTimes.computeIfAbsent(stageName, stage -> Timer.builder(PREFIX + "stage.service.time")
+                        .description("Time taken by the stage for an email, handing it over to the next stage included")
+                        .tag("stage", stage)
+                        .register(meterRegistry))
+                .record(serviceTimeInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordResumerBatch(final int batchSize, final long durationInNanos) {
+        resumerBatchSize.record(batchSize);
+        resumerBatchDuration.record(durationInNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPersistedEmails(final long persistedEmails) {
+        this.persistedEmails.set(persistedEmails);
+    }
+
+    private void admissionCounter(final String name, final String description,
+                                  final ToLongFunction<AdmissionStatistics> count) {
+        FunctionCounter.builder(PREFIX + "admission." + name, admissionStatistics,
+                        statistics -> count.applyAsLong(statistics.get()))
+                .description(description)
+                .register(meterRegistry);
+    }
+
+    private Timer sendLag(final String outcome) {
+        return Timer.builder(PREFIX + "send.lag")
+                .description("Delay between the scheduled time of an email and the start of its sending")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Timer sendDuration(final String outcome) {
+        return Timer.builder(PREFIX + "send.duration")
+                .description("Time taken to send an email")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private Timer persistenceDuration(final String operation) {
+        return Timer.builder(PREFIX + "persistence.duration")
+                .description("Round trip time of the persistence layer")
+                .tag("operation", operation)
+                .register(meterRegistry);
+    }
+
+    private class TimedPersistenceService implements PersistenceService {
+
+        private final PersistenceService delegate;
+        private final Timer add = persistenceDuration("add");
+        private final Timer get = persistenceDuration("get");
+        private final Timer remove = persistenceDuration("remove");
+        private final Timer addAll = persistenceDuration("addAll");
+        private final Timer getNextBatch = persistenceDuration("getNextBatch");
+        private final Timer getNextBatchAfter = persistenceDuration("getNextBatchAfter");
+        private final Timer removeAll = persistenceDuration("removeAll");
+        private final Timer count = persistenceDuration("count");
+        private final Timer addDeadLetter = persistenceDuration("addDeadLetter");
+        private final Timer getNextDeadLetterBatch = persistenceDuration("getNextDeadLetterBatch");
+        private final Timer removeDeadLetters = persistenceDuration("removeDeadLetters");
+        private final Timer countDeadLetters = persistenceDuration("countDeadLetters");
+        private final Timer claimNextBatch = persistenceDuration("claimNextBatch");
+        private final Timer renewClaims = persistenceDuration("renewClaims");
+        private final Timer acknowledgeClaims = persistenceDuration("acknowledgeClaims");
+        private final Timer returnClaims = persistenceDuration("returnClaims");
+        private final Timer restoreExpiredClaims = persistenceDuration("restoreExpiredClaims");
+
+        private TimedPersistenceService(final PersistenceService delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void add(final EmailSchedulingData emailSchedulingData) {
+            add.record(() -> delegate.add(emailSchedulingData));
+        }
+
+        @Override
+        public Optional<EmailSchedulingData> get(final String id) {
+            return get.record(() -> delegate.get(id));
+        }
+
+        @Override
+        public boolean remove(final String id) {
+            return remove.record(() -> delegate.remove(id));
+        }
+
+        @Override
+        public void addAll(final Collection<EmailSchedulingData> emailSchedulingDataList) {
+            addAll.record(() -> delegate.addAll(emailSchedulingDataList));
+        }
+
+        @Override
+        public Collection<EmailSchedulingData> getNextBatch(final int priorityLevel, final int batchMaxSize) {
+            return getNextBatch.record(() -> delegate.getNextBatch(priorityLevel, batchMaxSize));
+        }
+
+        @Override
+        public Collection<EmailSchedulingData> getNextBatch(final int batchMaxSize) {
+            return getNextBatch.record(() -> delegate.getNextBatch(batchMaxSize));
+        }
+
+        @Override
+        public List<EmailSchedulingData> getNextBatchAfter(final int priorityLevel, final int batchMaxSize,
+                                                           final EmailSchedulingData after) {
+            return getNextBatchAfter.record(() -> delegate.getNextBatchAfter(priorityLevel, batchMaxSize, after));
+        }
+
+        @Override
+        public void removeAll() {
+            removeAll.record(() -> delegate.removeAll());
+        }
+
+        @Override
+        public void removeAll(final int priorityLevel) {
+            removeAll.record(() -> delegate.removeAll(priorityLevel));
+        }
+
+        @Override
+        public void removeAll(final Collection<String> ids) {
+            removeAll.record(() -> delegate.removeAll(ids));
+        }
+
+        @Override
+        public long count() {
+            return count.record(delegate::count);
+        }
+
+        @Override
+        public void addDeadLetter(final DeadLetter deadLetter) {
+            addDeadLetter.record(() -> delegate.addDeadLetter(deadLetter));
+        }
+
+        @Override
+        public Collection<DeadLetter> getNextDeadLetterBatch(final int batchMaxSize) {
+            return getNextDeadLetterBatch.record(() -> delegate.getNextDeadLetterBatch(batchMaxSize));
+        }
+
+        @Override
+        public void removeDeadLetters(final Collection<String> ids) {
+            removeDeadLetters.record(() -> delegate.removeDeadLetters(ids));
+        }
+
+        @Override
+        public long countDeadLetters() {
+            return countDeadLetters.record(delegate::countDeadLetters);
+        }
+
+        @Override
+        public Collection<EmailSchedulingData> claimNextBatch(final String owner, final int batchMaxSize,
+                                                              final Duration visibilityTimeout) {
+            return claimNextBatch.record(() -> delegate.claimNextBatch(owner, batchMaxSize, visibilityTimeout));
+        }
+
+        @Override
+        public long renewClaims(final String owner, final Duration visibilityTimeout) {
+            return renewClaims.record(() -> delegate.renewClaims(owner, visibilityTimeout));
+        }
+
+        @Override
+        public void acknowledgeClaims(final String owner, final Collection<String> ids) {
+            acknowledgeClaims.record(() -> delegate.acknowledgeClaims(owner, ids));
+        }
+
+        @Override
+        public long returnClaims(final String owner) {
+            return returnClaims.record(() -> delegate.returnClaims(owner));
+        }
+
+        @Override
+        public long returnClaims(final String owner, final Collection<String> ids) {
+            return returnClaims.record(() -> delegate.returnClaims(owner, ids));
+        }
+
+        @Override
+        public boolean removeUnlessClaimedByOthers(final String owner, final String id) {
+            return remove.record(() -> delegate.removeUnlessClaimedByOthers(owner, id));
+        }
+
+        @Override
+        public long restoreExpiredClaims() {
+            return restoreExpiredClaims.record(delegate::restoreExpiredClaims);
+        }
+
+        @Override
+        public AutoCloseable subscribeToAdditions(final Runnable listener) {
+            return delegate.subscribeToAdditions(listener); //not a round trip, thus not timed
+        }
+
+    }
+
+}
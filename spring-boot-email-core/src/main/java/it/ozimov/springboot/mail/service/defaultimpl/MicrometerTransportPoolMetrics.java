@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.NonNull;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Registers the meters of a {@linkplain PooledJavaMailSender} in a Micrometer {@linkplain MeterRegistry}.
+ * <p>
+ * Gauges:
+ * <ul>
+ * <li>{@code email.transport.pool.connections}, tagged with the {@code state}, either {@code active} or {@code idle}</li>
+ * <li>{@code email.transport.pool.max.connections}</li>
+ * </ul>
+ * Counters:
+ * <ul>
+ * <li>{@code email.transport.pool.created} and {@code email.transport.pool.closed}, the connections opened and closed</li>
+ * <li>{@code email.transport.pool.borrow.timeouts}</li>
+ * <li>{@code email.transport.pool.sent}</li>
+ * </ul>
+ */
+public class MicrometerTransportPoolMetrics {
+
+    static final String PREFIX = "email.transport.pool.";
+
+    private final PooledJavaMailSender pooledJavaMailSender;
+
+    public MicrometerTransportPoolMetrics(@NonNull final PooledJavaMailSender pooledJavaMailSender) {
+        this.pooledJavaMailSender = pooledJavaMailSender;
+    }
+
+    public void bindTo(@NonNull final MeterRegistry meterRegistry) {
+        Gauge.builder(PREFIX + "connections", pooledJavaMailSender, sender -> sender.statistics().getActiveConnections())
+                .description("SMTP connections sending an email")
+                .tag("state", "active")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "connections", pooledJavaMailSender, sender -> sender.statistics().getIdleConnections())
+                .description("SMTP connections open and waiting for the next email")
+                .tag("state", "idle")
+                .register(meterRegistry);
+        Gauge.builder(PREFIX + "max.connections", pooledJavaMailSender, sender -> sender.statistics().getMaxConnections())
+                .description("SMTP connections that can be open at the same time")
+                .register(meterRegistry);
+        counter(meterRegistry, "created", "SMTP connections opened", sender -> sender.statistics().getCreatedConnections());
+        counter(meterRegistry, "closed", "SMTP connections closed", sender -> sender.statistics().getClosedConnections());
+        counter(meterRegistry, "borrow.timeouts", "Sends failed waiting for a free SMTP connection",
+                sender -> sender.statistics().getBorrowTimeouts());
+        counter(meterRegistry, "sent", "Emails sent through the pooled SMTP connections",
+                sender -> sender.statistics().getSentMessages());
+    }
+
+    private void counter(final MeterRegistry meterRegistry, final String name, final String description,
+                         final ToDoubleFunction<PooledJavaMailSender> count) {
+        FunctionCounter.builder(PREFIX + name, pooledJavaMailSender, count)
+                .description(description)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.TransportPoolProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPTransport;
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * A {@linkplain JavaMailSenderImpl} keeping a bounded set of connected and authenticated {@linkplain Transport}s, so
+ * that the TCP handshake, the TLS negotiation and the authentication are paid once per connection instead of once per
+ * email.
+ * <p>
+ * A connection is closed when it has been idle for longer than {@code maxIdleMillis}, either by a background evictor
+ * or when borrowed, and after {@code maxMessagesPerConnection} emails. A connection idle for longer than
+ * {@code validationIntervalMillis} is checked before use, which for SMTP means a NOOP command. A connection failing
+ * for any reason other than rejected recipients is closed, and the next send opens a new one. After a failed
+ * transaction (MAIL FROM, DATA or the message itself rejected) the connection is reset with RSET, and kept only if the
+ * server accepts it.
+ * <p>
+ * The connection settings (host, port, credentials, protocol and JavaMail properties) are the ones of the
+ * {@linkplain JavaMailSenderImpl}.
+ */
+@Slf4j
+public class PooledJavaMailSender extends JavaMailSenderImpl implements AutoCloseable {
+
+    private static final String HEADER_MESSAGE_ID = "Message-ID";
+
+    private static final int SMTP_OK = 250;
+
+    private final int maxConnections;
+
+    private final int maxMessagesPerConnection;
+
+    private final long maxIdleNanos;
+
+    private final long validationIntervalNanos;
+
+    private final long borrowTimeoutMillis;
+
+    // Bounds the connections open at the same time, both idle and in use
+    private final Semaphore permits;
+
+    // Most recently used first, so that the spare connections go idle and are evicted when the load drops
+    private final Deque<PooledTransport> idleTransports = new ConcurrentLinkedDeque<>();
+
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private final AtomicLong createdConnections = new AtomicLong();
+
+    private final AtomicLong closedConnections = new AtomicLong();
+
+    private final AtomicLong borrowTimeouts = new AtomicLong();
+
+    private final AtomicLong sentMessages = new AtomicLong();
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    public PooledJavaMailSender(final @NonNull TransportPoolProperties transportPoolProperties) {
+        TransportPoolProperties.checkIsValid(transportPoolProperties);
+        maxConnections = transportPoolProperties.getMaxConnections();
+        maxMessagesPerConnection = transportPoolProperties.getMaxMessagesPerConnection();
+        maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(transportPoolProperties.getMaxIdleMillis());
+        validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(transportPoolProperties.getValidationIntervalMillis());
+        borrowTimeoutMillis = transportPoolProperties.getBorrowTimeoutMillis();
+        permits = new Semaphore(maxConnections, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = SchedulerThreadFactory.platformThreads()
+                    .newThread(PooledJavaMailSender.class.getSimpleName() + " -- Evictor", runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long evictionPeriodMillis = Math.max(transportPoolProperties.getMaxIdleMillis() / 2, 1);
+        evictor.scheduleWithFixedDelay(this::evictIdleTransports, evictionPeriodMillis, evictionPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doSend(final MimeMessage[] mimeMessages, final @Nullable Object[] originalMessages) throws MailException {
+        final Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        for (int i = 0; i < mimeMessages.length; i++) {
+            final MimeMessage mimeMessage = mimeMessages[i];
+            final Object originalMessage = nonNull(originalMessages) ? originalMessages[i] : mimeMessage;
+            final Address[] addresses;
+            try {
+                addresses = prepareForSending(mimeMessage);
+            } catch (final MessagingException e) {
+                failedMessages.put(originalMessage, e);
+                continue;
+            }
+
+            final PooledTransport pooledTransport;
+            try {
+                pooledTransport = borrow();
+            } catch (final AuthenticationFailedException e) {
+                throw new MailAuthenticationException(e);
+            } catch (final MessagingException | MailException e) {
+                //the remaining messages cannot be sent either
+                for (int j = i; j < mimeMessages.length; j++) {
+                    failedMessages.put(nonNull(originalMessages) ? originalMessages[j] : mimeMessages[j], e);
+                }
+                throw new MailSendException("Mail server connection failed", e, failedMessages);
+            }
+
+            boolean reusable = true;
+            try {
+                pooledTransport.transport.sendMessage(mimeMessage, addresses);
+                pooledTransport.sentMessages++;
+                sentMessages.incrementAndGet();
+            } catch (final SMTPSendFailedException e) {
+                //the server failed the transaction, so that the state of the connection is uncertain
+                reusable = reset(pooledTransport);
+                failedMessages.put(originalMessage, e);
+            } catch (final SendFailedException e) {
+                //the server rejected the recipients, the connection is still usable
+                failedMessages.put(originalMessage, e);
+            } catch (final MessagingException | RuntimeException e) {
+                reusable = false;
+                failedMessages.put(originalMessage, e);
+            } finally {
+                release(pooledTransport, reusable);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the connections of the pool.
+     */
+    public TransportPoolStatistics statistics() {
+        return TransportPoolStatistics.builder()
+                .maxConnections(maxConnections)
+                .activeConnections(activeConnections.get())
+                .idleConnections(idleTransports.size())
+                .createdConnections(createdConnections.get())
+                .closedConnections(closedConnections.get())
+                .borrowTimeouts(borrowTimeouts.get())
+                .sentMessages(sentMessages.get())
+                .build();
+    }
+
+    /**
+     * Closes the idle connections and stops the evictor. The connections in use are closed once their email is sent.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledTransport pooledTransport;
+        while (nonNull(pooledTransport = idleTransports.pollFirst())) {
+            closeTransport(pooledTransport);
+        }
+        log.info("Closed the pool of SMTP connections: {}", statistics());
+    }
+
+    // The same preparation done by the JavaMailSenderImpl before handing the message over to the transport
+    private static Address[] prepareForSending(final MimeMessage mimeMessage) throws MessagingException {
+        if (isNull(mimeMessage.getSentDate())) {
+            mimeMessage.setSentDate(new Date());
+        }
+        final String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (nonNull(messageId)) {
+            //preserve the explicitly specified message id, overwritten by saveChanges
+            mimeMessage.setHeader(HEADER_MESSAGE_ID, messageId);
+        }
+        final Address[] addresses = mimeMessage.getAllRecipients();
+        return nonNull(addresses) ? addresses : new Address[0];
+    }
+
+    private PooledTransport borrow() throws MessagingException {
+        if (closed) {
+            throw new MailSendException("The pool of SMTP connections is closed");
+        }
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                borrowTimeouts.incrementAndGet();
+                throw new MailSendException("No SMTP connection became free within " + borrowTimeoutMillis + " ms");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Interrupted while waiting for a free SMTP connection", e);
+        }
+
+        try {
+            PooledTransport pooledTransport;
+            while (nonNull(pooledTransport = idleTransports.pollFirst())) {
+                if (isUsable(pooledTransport)) {
+                    activeConnections.incrementAndGet();
+                    return pooledTransport;
+                }
+                closeTransport(pooledTransport);
+            }
+            pooledTransport = new PooledTransport(connectTransport());
+            createdConnections.incrementAndGet();
+            activeConnections.incrementAndGet();
+            return pooledTransport;
+        } catch (final MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private boolean isUsable(final PooledTransport pooledTransport) {
+        final long idleNanos = System.nanoTime() - pooledTransport.lastUsedAt;
+        if (idleNanos >= maxIdleNanos) {
+            return false;
+        }
+        //for SMTP, isConnected issues a NOOP, so it is skipped for the connections used a moment ago
+        return idleNanos < validationIntervalNanos || pooledTransport.transport.isConnected();
+    }
+
+    // Issues RSET, so that the server discards the failed transaction, and returns true if the server accepted it
+    private static boolean reset(final PooledTransport pooledTransport) {
+        if (!(pooledTransport.transport instanceof SMTPTransport)) {
+            return false;
+        }
+        try {
+            return ((SMTPTransport) pooledTransport.transport).simpleCommand("RSET") == SMTP_OK;
+        } catch (final MessagingException | RuntimeException e) {
+            log.debug("Cannot reset the SMTP connection", e);
+            return false;
+        }
+    }
+
+    private void release(final PooledTransport pooledTransport, final boolean reusable) {
+        activeConnections.decrementAndGet();
+        pooledTransport.lastUsedAt = System.nanoTime();
+        if (reusable && !closed && pooledTransport.sentMessages < maxMessagesPerConnection) {
+            idleTransports.offerFirst(pooledTransport);
+        } else {
+            closeTransport(pooledTransport);
+        }
+        permits.release();
+    }
+
+    private void evictIdleTransports() {
+        final long now = System.nanoTime();
+        for (final PooledTransport pooledTransport : idleTransports) {
+            //a connection borrowed in the meanwhile is not removed, thus not closed
+            if (now - pooledTransport.lastUsedAt >= maxIdleNanos && idleTransports.removeFirstOccurrence(pooledTransport)) {
+                closeTransport(pooledTransport);
+            }
+        }
+    }
+
+    private void closeTransport(final PooledTransport pooledTransport) {
+        closedConnections.incrementAndGet();
+        try {
+            pooledTransport.transport.close();
+        } catch (final MessagingException | RuntimeException e) {
+            log.debug("Cannot close the SMTP connection", e);
+        }
+    }
+
+    private static class PooledTransport {
+
+        private final Transport transport;
+
+        // Written by the thread holding the connection, read once it is back in the pool
+        private volatile long lastUsedAt = System.nanoTime();
+
+        private int sentMessages;
+
+        private PooledTransport(final Transport transport) {
+            this.transport = transport;
+        }
+
+    }
+
+}
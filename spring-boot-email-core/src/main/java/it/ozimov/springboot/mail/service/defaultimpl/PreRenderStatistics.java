@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the template emails rendered ahead of their send time by the {@linkplain PriorityQueueEmailSchedulerService}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class PreRenderStatistics {
+
+    private final int maxPrepared;
+
+    // Emails rendered or being rendered, and not yet sent
+    private final int preparedEmails;
+
+    // Emails sent with the message rendered in advance
+    private final long hits;
+
+    // Emails rendered by the consumer, since not rendered in time, evicted or failed to render in advance
+    private final long misses;
+
+    // Emails whose rendering was discarded to keep at most max prepared
+    private final long evictedEmails;
+
+}
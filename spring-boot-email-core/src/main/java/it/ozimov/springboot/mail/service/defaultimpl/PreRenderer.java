@@ -0,0 +1,223 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import jakarta.mail.internet.MimeMessage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * Renders the template emails on its own pool as soon as they enter the queues, so that the consumers only hand the
+ * prepared messages over to the transport.
+ * <p>
+ * At most {@code maxPrepared} emails are rendered or being rendered at once. Once full, an email scheduled before the
+ * latest prepared one evicts it, while a later email is not prepared: it is rendered by the consumer, as it is for the
+ * emails not rendered in time or whose rendering failed.
+ */
+@Slf4j
+class PreRenderer {
+
+    private final EmailService emailService;
+
+    private final int maxPrepared;
+
+    private final ExecutorService executorService;
+
+    private final Lock lock = new ReentrantLock();
+
+    // Rendered messages, or being rendered, ordered as in the queues so that the latest one is evicted first. Guarded by the lock.
+    private final TreeMap<EmailSchedulingData, CompletableFuture<MimeMessage>> prepared = new TreeMap<>(EmailSchedulingData.DEFAULT_COMPARATOR);
+    private final Map<String, EmailSchedulingData> preparedById = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictedEmails = new AtomicLong();
+
+    // Set once the email service turns out not to prepare the messages in advance, so that no email is submitted again
+    private volatile boolean unsupported;
+
+    PreRenderer(@NonNull final EmailService emailService, final int threads, final int maxPrepared) {
+        checkArgument(threads > 0, "Expected at least one thread to render the template emails, while %s was given", threads);
+        checkArgument(maxPrepared > 0, "Expected at least one email to be prepared, while %s was given", maxPrepared);
+        this.emailService = emailService;
+        this.maxPrepared = maxPrepared;
+        final SchedulerThreadFactory threadFactory = SchedulerThreadFactory.platformThreads();
+        final AtomicInteger index = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = threadFactory.newThread(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- "
+                    + PreRenderer.class.getSimpleName() + "-" + index.incrementAndGet(), runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts rendering the given email, if it is a template email not yet prepared. When already at max prepared, the
+     * latest prepared email is evicted if scheduled after the given one, otherwise the given email is not prepared.
+     */
+    public void submit(@NonNull final EmailSchedulingData emailSchedulingData) {
+        if (unsupported || !(emailSchedulingData instanceof TemplateEmailSchedulingData)) {
+            return;
+        }
+        final CompletableFuture<MimeMessage> preparedMessage = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if (preparedById.containsKey(emailSchedulingData.getId())) {
+                return;
+            }
+            if (prepared.size() >= maxPrepared) {
+                final EmailSchedulingData latest = prepared.lastKey();
+                if (EmailSchedulingData.DEFAULT_COMPARATOR.compare(emailSchedulingData, latest) >= 0) {
+                    return;
+                }
+                removeWhileLocked(latest.getId()).cancel(false);
+                evictedEmails.incrementAndGet();
+            }
+            prepared.put(emailSchedulingData, preparedMessage);
+            preparedById.put(emailSchedulingData.getId(), emailSchedulingData);
+        } finally {
+            lock.unlock();
+        }
+        try {
+            executorService.execute(() -> render((TemplateEmailSchedulingData) emailSchedulingData, preparedMessage));
+        } catch (final RejectedExecutionException e) {
+            remove(emailSchedulingData.getId());
+        }
+    }
+
+    /**
+     * Removes the message prepared for the given email, to be sent right away.
+     *
+     * @return the prepared message, or an empty optional if the email has to be rendered by the caller since it was not
+     * prepared, is still being rendered or its rendering failed.
+     */
+    public Optional<MimeMessage> take(@NonNull final EmailSchedulingData emailSchedulingData) {
+        final CompletableFuture<MimeMessage> preparedMessage = remove(emailSchedulingData.getId());
+        if (nonNull(preparedMessage) && preparedMessage.isDone() && !preparedMessage.isCompletedExceptionally()) {
+            hits.incrementAndGet();
+            return Optional.of(preparedMessage.join());
+        }
+        if (nonNull(preparedMessage)) {
+            preparedMessage.cancel(false);
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * Discards the message prepared for the email with the given id, if any, because the email left the queues.
+     */
+    public void discard(@NonNull final String id) {
+        final CompletableFuture<MimeMessage> preparedMessage = remove(id);
+        if (nonNull(preparedMessage)) {
+            preparedMessage.cancel(false);
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return prepared.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the rendering threads and discards all the prepared messages.
+     */
+    public void close() {
+        executorService.shutdownNow();
+        lock.lock();
+        try {
+            prepared.values().forEach(preparedMessage -> preparedMessage.cancel(false));
+            prepared.clear();
+            preparedById.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public PreRenderStatistics statistics() {
+        return PreRenderStatistics.builder()
+                .maxPrepared(maxPrepared)
+                .preparedEmails(size())
+                .hits(hits.get())
+                .misses(misses.get())
+                .evictedEmails(evictedEmails.get())
+                .build();
+    }
+
+    // The message is not rendered if discarded while waiting for a thread
+    private void render(final TemplateEmailSchedulingData templateEmailSchedulingData,
+                        final CompletableFuture<MimeMessage> preparedMessage) {
+        if (preparedMessage.isDone()) {
+            return;
+        }
+        try {
+            preparedMessage.complete(emailService.prepare(templateEmailSchedulingData.getEmail(),
+                    templateEmailSchedulingData.getTemplate(),
+                    templateEmailSchedulingData.getModelObject(),
+                    templateEmailSchedulingData.getInlinePictures()));
+        } catch (final UnsupportedOperationException e) {
+            if (!unsupported) {
+                unsupported = true;
+                log.info("The template emails are rendered when sent: {}", e.getMessage());
+            }
+            preparedMessage.completeExceptionally(e);
+        } catch (final CannotSendEmailException | RuntimeException e) {
+            log.warn("Email {} not rendered in advance, it is rendered again when sent", templateEmailSchedulingData.getId(), e);
+            preparedMessage.completeExceptionally(e);
+        }
+    }
+
+    private CompletableFuture<MimeMessage> remove(final String id) {
+        lock.lock();
+        try {
+            return removeWhileLocked(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private CompletableFuture<MimeMessage> removeWhileLocked(final String id) {
+        final EmailSchedulingData emailSchedulingData = preparedById.remove(id);
+        return isNull(emailSchedulingData) ? null : prepared.remove(emailSchedulingData);
+    }
+
+}
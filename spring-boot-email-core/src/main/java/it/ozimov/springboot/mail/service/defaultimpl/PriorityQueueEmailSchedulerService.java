@@ -23,45 +23,71 @@ import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.InlinePicture;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.BulkSchedulingResult;
+import it.ozimov.springboot.mail.service.DeadLetter;
 import it.ozimov.springboot.mail.service.EmailService;
 import it.ozimov.springboot.mail.service.PersistenceService;
 import it.ozimov.springboot.mail.service.EmailSchedulerService;
 import it.ozimov.springboot.mail.service.ServiceStatus;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import it.ozimov.springboot.mail.service.exception.CircuitBreakerOpenException;
+import it.ozimov.springboot.mail.service.exception.EmailSchedulingRejectedException;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PreDestroy;
+import jakarta.mail.internet.MimeMessage;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
 import static it.ozimov.springboot.mail.service.defaultimpl.ConditionalExpression.SCHEDULER_IS_ENABLED;
 import static java.lang.Math.max;
 import static java.lang.Math.min;
-import static java.util.Comparator.comparing;
+import static java.util.Objects.isNull;
 import static java.util.Objects.nonNull;
+import static java.util.stream.Collectors.toCollection;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * The class provides a {@linkplain EmailSchedulerService} implementation with priority queues and persistence.
  * <p>
- * Main logic for the thread wait-notify mechanism comes from {@see http://stackoverflow.com/a/8980307/1339429 }
+ * Consumers and resumer park on {@linkplain Condition}s rather than on object monitors, so that they can run on
+ * virtual threads (see {@code spring.mail.scheduler.dispatcher.virtualThreads}) without pinning the carrier threads.
  */
 @Service("priorityQueueEmailSchedulerService")
 @ConditionalOnExpression(SCHEDULER_IS_ENABLED)
@@ -69,97 +95,298 @@ import static java.util.Objects.nonNull;
 public class PriorityQueueEmailSchedulerService implements EmailSchedulerService {
 
     /**
-     * millisecs elapsed form the call of the send method and the actual sending by SMTP server
+     * How much later than the latest email loaded from the persistence layer an added email can be scheduled to be
+     * kept in memory as well, and the longest a consumer waits at once while the circuit breaker is open
      */
     protected static final Duration CONSUMER_CYCLE_LENGTH = Duration.of(1, ChronoUnit.SECONDS);
 
     /**
-     * millisecs elapsed form the call of the send method and the actual sending by SMTP server
+     * How long the resumer waits between two loads from the persistence layer, when the additions are not notified
      */
     protected static final Duration RESUMER_CYCLE_LENGTH = Duration.of(5, ChronoUnit.SECONDS);
 
+    /**
+     * How long the resumer waits for a low watermark signal or an addition to the persistence layer, when the additions
+     * are notified, before polling anyway
+     */
+    protected static final Duration RESUMER_IDLE_CYCLE_LENGTH = Duration.of(1, ChronoUnit.MINUTES);
+
+    /**
+     * max number of scheduled emails inserted in the queues while holding the queue lock once
+     */
+    protected static final int APPLIER_MAX_BATCH_SIZE = 1_024;
+
+    /**
+     * How often the drain on shutdown checks whether due emails are left.
+     */
+    protected static final Duration DRAIN_CHECK_INTERVAL = Duration.of(10, ChronoUnit.MILLIS);
+
     private final int batchSize;
     private final int minInMemory;
     private final int maxInMemory;
 
-    private volatile ServiceStatus serviceStatus = ServiceStatus.RUNNING;
+    // Whether the emails given up are kept as dead letters, and how much of their last error
+    private final boolean deadLetters;
+    private final int deadLetterMaxErrorLength;
+
+    // How long the due emails keep being dispatched on shutdown, 0 meaning no drain
+    private final long drainTimeoutMillis;
+
+    // The id of this node, how long its claims last and how often they are renewed, when several schedulers share the
+    // persistence layer
+    private final String clusterNodeId;
+    private final Duration visibilityTimeout;
+    private final Duration heartbeatInterval;
 
-    private AtomicLong timeOfNextScheduledMessage;
+    // Ids of the claimed emails evicted from the queues, returned to their priority level by the claim keeper rather
+    // than renewed, since this node no longer holds them
+    private final Queue<String> evictedClaims = new ConcurrentLinkedQueue<>();
+
+    // The last email loaded from each priority level, and how many emails were left to the persistence layer when the
+    // cursors were last moved. Used by the resumer only, and not when the emails are claimed.
+    private final EmailSchedulingData[] cursors;
+    private long leftToPersistenceLayerAtCursors;
+    private boolean cursorsSupported;
+
+    private volatile ServiceStatus serviceStatus = ServiceStatus.RUNNING;
 
     private final PriorityQueueManager priorityQueueManager;
 
     private final EmailService emailService;
 
-    private final Consumer consumer;
+    private final List<Consumer> consumers;
 
     private final Resumer resumer;
 
-    private final ExecutorService executor = Executors.newFixedThreadPool(5);
+    private final Applier applier;
+
+    private final AdmissionController admissionController;
+
+    private final RetryQueue retryQueue;
+
+    private final Retrier retrier;
+
+    private final ClaimKeeper claimKeeper;
+
+    // Renders the template emails as soon as they enter the queues, if enabled
+    private final PreRenderer preRenderer;
+
+    // Prepare and transmit the emails taken by the consumers on threads of their own, if the pipeline is enabled
+    private final DispatchStage<Dispatch> prepareStage;
+    private final DispatchStage<Dispatch> transportStage;
+
+    // Cleared once the email service turns out not to prepare the messages, so that the transport stage renders them
+    private volatile boolean prepareSupported = true;
+
+    // Keeps the due emails in the queues while the mail server is failing or hanging, if enabled. Set after the
+    // consumers started.
+    private volatile CircuitBreaker circuitBreaker;
+
+    // Wakes up the resumer whenever emails are added to the persistence layer, if enabled and supported
+    private final AutoCloseable additionsSubscription;
+
+    // Emails handed over by the producers, drained by the applier
+    private final Queue<EmailSchedulingData> ingestionQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger pendingIngestion = new AtomicInteger();
+
+    // Emails handed over by the producers and not yet in the queues: it drops before the enqueue, so that admission
+    // control may undercount, but never counts an email twice
+    private final AtomicInteger notYetEnqueued = new AtomicInteger();
+
+    // Futures of the emails submitted with an id and not yet applied, by email id
+    private final Map<String, CompletableFuture<String>> pendingSubmissions = new ConcurrentHashMap<>();
+
+    private final SchedulerThreadFactory threadFactory;
 
     private Optional<PersistenceService> persistenceServiceOptional;
 
     private EmailLogRenderer emailLogRenderer;
 
+    private final SchedulerMetrics schedulerMetrics;
+
     private final Lock schedulerLock = new ReentrantLock();
 
-    @Autowired
     public PriorityQueueEmailSchedulerService(
             final EmailService emailService,
             final EmailSchedulerProperties emailSchedulerProperties,
             final Optional<PersistenceService> persistenceServiceOptional,
             final EmailLogRenderer emailLogRenderer) throws InterruptedException {
+        this(emailService, emailSchedulerProperties, persistenceServiceOptional, emailLogRenderer, Optional.empty());
+    }
+
+    @Autowired
+    public PriorityQueueEmailSchedulerService(
+            final EmailService emailService,
+            final EmailSchedulerProperties emailSchedulerProperties,
+            final Optional<PersistenceService> persistenceServiceOptional,
+            final EmailLogRenderer emailLogRenderer,
+            final Optional<SchedulerMetrics> schedulerMetricsOptional) throws InterruptedException {
 
         this.emailService = emailService;
-        this.persistenceServiceOptional = persistenceServiceOptional;
+        schedulerMetrics = schedulerMetricsOptional.orElse(SchedulerMetrics.NOOP);
+        this.persistenceServiceOptional = persistenceServiceOptional.map(schedulerMetrics::instrument);
         this.emailLogRenderer = emailLogRenderer.registerLogger(log);
 
-        timeOfNextScheduledMessage = new AtomicLong();
-
         batchSize = nonNull(emailSchedulerProperties.getPersistence()) ?
                 emailSchedulerProperties.getPersistence().getDesiredBatchSize() : 0;
         minInMemory = nonNull(emailSchedulerProperties.getPersistence()) ?
                 emailSchedulerProperties.getPersistence().getMinKeptInMemory() : 1;
         maxInMemory = nonNull(emailSchedulerProperties.getPersistence()) ?
                 emailSchedulerProperties.getPersistence().getMaxKeptInMemory() : Integer.MAX_VALUE;
+        deadLetters = nonNull(emailSchedulerProperties.getPersistence()) &&
+                emailSchedulerProperties.getPersistence().isDeadLetters() && persistenceServiceOptional.isPresent();
+        deadLetterMaxErrorLength = nonNull(emailSchedulerProperties.getPersistence()) ?
+                emailSchedulerProperties.getPersistence().getDeadLetterMaxErrorLength() : 0;
+        drainTimeoutMillis = nonNull(emailSchedulerProperties.getShutdown()) ?
+                emailSchedulerProperties.getShutdown().getDrainTimeoutMillis() : 0;
+        if (nonNull(emailSchedulerProperties.getPersistence()) && emailSchedulerProperties.getPersistence().isDeadLetters()
+                && !persistenceServiceOptional.isPresent()) {
+            log.warn("Dead letters are not kept since the persistence layer is not enabled.");
+        }
+        final EmailSchedulerProperties.Cluster cluster = emailSchedulerProperties.getCluster();
+        final boolean clustered = nonNull(cluster) && cluster.isEnabled() && persistenceServiceOptional.isPresent();
+        clusterNodeId = clustered ? Optional.ofNullable(cluster.getNodeId()).filter(nodeId -> !nodeId.isEmpty())
+                .orElseGet(() -> UUID.randomUUID().toString()) : null;
+        visibilityTimeout = clustered ? Duration.ofMillis(cluster.getVisibilityTimeoutMillis()) : null;
+        heartbeatInterval = clustered ? Duration.ofMillis(cluster.getHeartbeatIntervalMillis()) : null;
+        if (clustered) {
+            log.info("Email scheduler node {} claims the persisted emails for {} ms, renewing them every {} ms",
+                    clusterNodeId, cluster.getVisibilityTimeoutMillis(), cluster.getHeartbeatIntervalMillis());
+        } else if (nonNull(cluster) && cluster.isEnabled()) {
+            log.warn("The emails are not shared among the nodes of the cluster since the persistence layer is not enabled.");
+        }
 
         final int numberOfPriorityLevels = emailSchedulerProperties.getPriorityLevels();
+        final EmailSchedulerProperties.TimingWheel timingWheel = emailSchedulerProperties.getTimingWheel();
+        final boolean useTimingWheel = nonNull(timingWheel) && timingWheel.isEnabled();
+        if (useTimingWheel && persistenceServiceOptional.isPresent()) {
+            log.warn("The timing wheel is not used since the persistence layer already keeps far-future emails out of memory.");
+        }
         priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, persistenceServiceOptional.isPresent(),
-                maxInMemory, CONSUMER_CYCLE_LENGTH);
+                maxInMemory, CONSUMER_CYCLE_LENGTH,
+                useTimingWheel && !persistenceServiceOptional.isPresent() ? timingWheel : null,
+                emailSchedulerProperties.getDequeue(), schedulerMetrics);
+        cursors = new EmailSchedulingData[numberOfPriorityLevels];
+        cursorsSupported = persistenceServiceOptional.isPresent();
+        schedulerMetrics.bind(priorityQueueManager, pendingIngestion::get);
+
+        final EmailSchedulerProperties.PreRender preRender = emailSchedulerProperties.getPreRender();
+        if (nonNull(preRender) && preRender.isEnabled()) {
+            preRenderer = new PreRenderer(emailService, preRender.getThreads(), preRender.getMaxPrepared());
+        } else {
+            preRenderer = null;
+        }
+        if (nonNull(preRenderer) || isClustered()) {
+            priorityQueueManager.onQueueChanges(this::onEnqueued, this::onEvicted);
+        }
 
-        //CREATING EMAIL CONSUMER
-        consumer = new Consumer();
-        startConsumer();
+        final EmailSchedulerProperties.Throttle throttle = emailSchedulerProperties.getThrottle();
+        if (nonNull(throttle) && throttle.isEnabled()) {
+            priorityQueueManager.throttle(new DomainThrottle(throttle));
+        }
+
+        final boolean useVirtualThreads = nonNull(emailSchedulerProperties.getDispatcher()) &&
+                emailSchedulerProperties.getDispatcher().isVirtualThreads();
+        threadFactory = SchedulerThreadFactory.of(useVirtualThreads);
+
+        //CREATING EMAIL CONSUMERS
+        final int numberOfConsumers = nonNull(emailSchedulerProperties.getDispatcher()) ?
+                emailSchedulerProperties.getDispatcher().getConsumers() : 1;
+        checkArgument(numberOfConsumers > 0, "Expected at least one consumer, while %s was given", numberOfConsumers);
+        final EmailSchedulerProperties.Retry retry = emailSchedulerProperties.getRetry();
+        retryQueue = nonNull(retry) && retry.isEnabled() ? new RetryQueue(new RetryPolicy(retry)) : null;
+        consumers = IntStream.rangeClosed(1, numberOfConsumers)
+                .mapToObj(Consumer::new)
+                .collect(toList());
+
+        //CREATING DISPATCH PIPELINE
+        final EmailSchedulerProperties.Pipeline pipeline = emailSchedulerProperties.getPipeline();
+        if (nonNull(pipeline) && pipeline.isEnabled()) {
+            transportStage = new DispatchStage<>("transport", pipeline.getTransportThreads(),
+                    pipeline.getTransportQueueCapacity(), threadFactory, schedulerMetrics, this::transmit);
+            prepareStage = new DispatchStage<>("prepare", pipeline.getPrepareThreads(),
+                    pipeline.getPrepareQueueCapacity(), threadFactory, schedulerMetrics, this::prepare);
+            transportStage.start();
+            prepareStage.start();
+        } else {
+            transportStage = null;
+            prepareStage = null;
+        }
+        startConsumers();
+
+        final EmailSchedulerProperties.Admission admission = emailSchedulerProperties.getAdmission();
+        admissionController = nonNull(admission) && admission.isEnabled() ?
+                new AdmissionController(admission, () -> priorityQueueManager.currentlyInQueue() + notYetEnqueued.get()) : null;
+        if (nonNull(admissionController)) {
+            schedulerMetrics.bindAdmission(admissionController::statistics);
+            if (persistenceServiceOptional.isPresent() && admission.getHighWatermark() > maxInMemory) {
+                log.warn("Admission control only engages when more than {} emails wait to be applied, since the persistence layer keeps at most {} emails in memory. " +
+                                "Review properties 'spring.mail.scheduler.admission.highWatermark' and 'spring.mail.scheduler.persistence.maxKeptInMemory'.",
+                        admission.getHighWatermark() - maxInMemory, maxInMemory);
+            }
+        }
+
+        //CREATING EMAIL APPLIER
+        applier = new Applier();
+        applier.start();
+
+        //CREATING EMAIL RETRIER
+        if (nonNull(retryQueue)) {
+            retrier = new Retrier();
+            retrier.start();
+        } else {
+            retrier = null;
+        }
 
         //CREATING EMAIL RESUMER
         if (this.persistenceServiceOptional.isPresent()) {
             resumer = new Resumer();
+            priorityQueueManager.onLowWatermark(max(1, minInMemory), resumer::wakeUp);
+            additionsSubscription = nonNull(emailSchedulerProperties.getPersistence()) &&
+                    emailSchedulerProperties.getPersistence().isNotifications() ?
+                    subscribeToAdditions(this.persistenceServiceOptional.get()) : null;
             startResumer();
         } else {
             resumer = null;
+            additionsSubscription = null;
+        }
+
+        //CREATING EMAIL CLAIM KEEPER
+        if (isClustered()) {
+            claimKeeper = new ClaimKeeper();
+            claimKeeper.start();
+        } else {
+            claimKeeper = null;
         }
     }
 
+    /**
+     * Lets the consumers stop taking the due emails while the circuit breaker around the mail server does not permit
+     * calls. It has to be the same breaker the {@linkplain EmailService} sends through.
+     */
+    @Autowired(required = false)
+    public void setCircuitBreaker(final CircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
     @Override
-    @Async
     public void schedule(@NonNull final Email mimeEmail, final int desiredPriorityLevel) {
         scheduleEmail(mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel);
     }
 
     @Override
-    @Async
     public void schedule(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel) {
         scheduleEmail(mimeEmail, scheduledDateTime, desiredPriorityLevel);
     }
 
     @Override
-    @Async
     public void schedule(@NonNull final Email mimeEmail, final int desiredPriorityLevel, @NonNull final String template,
                          @NonNull final Map<String, Object> modelObject, final InlinePicture... inlinePictures) throws CannotSendEmailException {
         scheduleTemplateEmail(mimeEmail, TimeUtils.offsetDateTimeNow(), desiredPriorityLevel, template, modelObject, inlinePictures);
     }
 
     @Override
-    @Async
     public void schedule(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel,
                          @NonNull final String template, @NonNull final Map<String, Object> modelObject, final InlinePicture... inlinePictures) throws CannotSendEmailException {
         scheduleTemplateEmail(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject, inlinePictures);
@@ -173,7 +400,6 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         schedule(emailSchedulingData);
 
         emailLogRenderer.info("Scheduled email {} at UTC time {} with priority {}", mimeEmail, scheduledDateTime, desiredPriorityLevel);
-        notifyConsumerIfCouldFire(scheduledDateTime);
     }
 
     private void scheduleTemplateEmail(final Email mimeEmail, final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel,
@@ -185,7 +411,6 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
         schedule(emailTemplateSchedulingData);
 
         emailLogRenderer.info("Scheduled email {} at UTC time {} with priority {} with template", mimeEmail, scheduledDateTime, desiredPriorityLevel);
-        notifyConsumerIfCouldFire(scheduledDateTime);
     }
 
     protected EmailSchedulingData buildEmailSchedulingData(@NonNull Email mimeEmail, @NonNull OffsetDateTime scheduledDateTime, int desiredPriorityLevel, int assignedPriorityLevel) {
@@ -209,182 +434,619 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
                 .build();
     }
 
-    protected synchronized void schedule(final EmailSchedulingData emailSchedulingData) {
-        enqueueFromScheduler(emailSchedulingData);
-        addToPersistenceLayer(emailSchedulingData);
-        completeEnqueue();
+    /**
+     * Hands the email over to the applier without taking any lock, so that producers never wait for the persistence
+     * layer or for the consumers. Runs on the caller thread, which is the one admission control pushes back.
+     *
+     * @throws EmailSchedulingRejectedException if admission control is enabled and the email is not admitted.
+     * @throws IllegalStateException            if the scheduler is not running.
+     */
+    protected void schedule(final EmailSchedulingData emailSchedulingData) {
+        checkState(serviceStatus == ServiceStatus.RUNNING, "Cannot schedule emails while the scheduler is %s.", serviceStatus);
+        if (isNull(admissionController) || admissionController.admit()) {
+            pendingIngestion.incrementAndGet();
+            notYetEnqueued.incrementAndGet();
+            ingestionQueue.offer(emailSchedulingData);
+            applier.wakeUp();
+        } else {
+            //caller-runs policy: the producer pays for persisting and enqueuing the email, and slows down
+            apply(Collections.singletonList(emailSchedulingData));
+        }
+    }
+
+    /**
+     * Schedules the email as {@link #schedule(EmailSchedulingData)} does, returning a future completed with the id of
+     * the email once it has been applied.
+     */
+    protected CompletableFuture<String> submit(final EmailSchedulingData emailSchedulingData) {
+        if (serviceStatus != ServiceStatus.RUNNING) {
+            return CompletableFuture.failedFuture(new IllegalStateException(
+                    String.format("Cannot schedule emails while the scheduler is %s.", serviceStatus)));
+        }
+        final CompletableFuture<String> submission = new CompletableFuture<>();
+        pendingSubmissions.put(emailSchedulingData.getId(), submission);
+        try {
+            schedule(emailSchedulingData);
+        } catch (final RuntimeException e) {
+            pendingSubmissions.remove(emailSchedulingData.getId());
+            submission.completeExceptionally(e);
+        }
+        return submission;
+    }
+
+    /**
+     * Writes a batch of scheduled emails to the persistence layer and then inserts them in the queues. The queue lock
+     * is taken only once the persistence layer has been written.
+     */
+    protected void applyIngested(final List<EmailSchedulingData> emailSchedulingDataList) {
+        schedulerLock.lock();
+        try {
+            checkState(isDispatching(), "Cannot schedule emails while the scheduler is %s.", serviceStatus);
+            persistenceServiceOptional.ifPresent(persistenceService -> persistenceService.addAll(emailSchedulingDataList));
+            final int countAdded = enqueueScheduled(emailSchedulingDataList);
+            log.debug("Applied {} scheduled emails, {} of them enqueued.", emailSchedulingDataList.size(), countAdded);
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
+    /**
+     * Inserts in the queues the emails just written to the persistence layer. In a cluster they are left there
+     * instead, to be claimed by whatever node has room for them, and the resumer is woken up to claim them.
+     *
+     * @return the number of emails actually enqueued.
+     */
+    private int enqueueScheduled(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
+        if (!isClustered()) {
+            return priorityQueueManager.enqueueAll(emailSchedulingDataCollection, false);
+        }
+        if (nonNull(resumer)) {
+            resumer.wakeUp();
+        }
+        return 0;
+    }
+
+    // Applies the emails and completes the futures of those submitted with an id
+    private void apply(final List<EmailSchedulingData> emailSchedulingDataList) {
+        try {
+            applyIngested(emailSchedulingDataList);
+        } catch (final RuntimeException e) {
+            completeSubmissions(emailSchedulingDataList, e);
+            throw e;
+        }
+        completeSubmissions(emailSchedulingDataList, null);
+    }
+
+    private void completeSubmissions(final Collection<EmailSchedulingData> emailSchedulingDataCollection, final Throwable failure) {
+        if (pendingSubmissions.isEmpty()) {
+            return;
+        }
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataCollection) {
+            final CompletableFuture<String> submission = pendingSubmissions.remove(emailSchedulingData.getId());
+            if (nonNull(submission)) {
+                if (isNull(failure)) {
+                    submission.complete(emailSchedulingData.getId());
+                } else {
+                    submission.completeExceptionally(failure);
+                }
+            }
+        }
     }
 
-    protected synchronized void startResumer() throws InterruptedException {
-        startAndWaitForWaitingState(resumer);
+    @Override
+    public CompletableFuture<String> submit(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime,
+                                            final int desiredPriorityLevel) {
+        try {
+            checkPriorityLevel(desiredPriorityLevel);
+            final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
+            return submit(buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel));
+        } catch (final RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
-    protected synchronized void startConsumer() throws InterruptedException {
-        startAndWaitForWaitingState(consumer);
+    @Override
+    public CompletableFuture<String> submit(@NonNull final Email mimeEmail, @NonNull final OffsetDateTime scheduledDateTime,
+                                            final int desiredPriorityLevel, @NonNull final String template,
+                                            @NonNull final Map<String, Object> modelObject, final InlinePicture... inlinePictures) {
+        try {
+            checkPriorityLevel(desiredPriorityLevel);
+            final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
+            return submit(buildEmailSchedulingData(mimeEmail, scheduledDateTime, desiredPriorityLevel, template, modelObject,
+                    assignedPriorityLevel, inlinePictures));
+        } catch (final RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
-    private void startAndWaitForWaitingState(final Thread thread) throws InterruptedException {
-        thread.start();
-        while (thread.getState() == Thread.State.RUNNABLE) {
-            TimeUnit.MILLISECONDS.sleep(50);
+    /**
+     * Removes the email from the in-memory queues and from the persistence layer, both in O(log n). In a cluster, an
+     * email claimed by another node is not cancelled, since that node may be sending it.
+     */
+    @Override
+    public boolean cancel(@NonNull final String id) {
+        schedulerLock.lock();
+        try {
+            if (serviceStatus != ServiceStatus.RUNNING) {
+                return false;
+            }
+            final Optional<EmailSchedulingData> waitingForRetry = nonNull(retryQueue) ? retryQueue.remove(id) : Optional.empty();
+            if (waitingForRetry.isPresent()) {
+                persistenceServiceOptional.ifPresent(persistenceService -> persistenceService.remove(id));
+                acknowledgeClaim(id);
+                priorityQueueManager.completeDispatch(waitingForRetry.get());
+                log.info("Cancelled scheduled email {} waiting for a retry", id);
+                return true;
+            }
+            if (priorityQueueManager.isInFlight(id)) {
+                return false;
+            }
+            final boolean removedFromMemory = priorityQueueManager.remove(id).isPresent();
+            final boolean removedFromPersistenceLayer = removeFromPersistenceLayer(id);
+            if (removedFromMemory) {
+                acknowledgeClaim(id);
+                if (nonNull(preRenderer)) preRenderer.discard(id);
+            }
+            if (removedFromPersistenceLayer && deadLetters) {
+                persistenceServiceOptional.get().removeDeadLetters(Collections.singletonList(id));
+            }
+            final boolean cancelled = removedFromMemory || removedFromPersistenceLayer;
+            if (cancelled) {
+                log.info("Cancelled scheduled email {}", id);
+            }
+            return cancelled;
+        } finally {
+            schedulerLock.unlock();
         }
     }
 
-    private void notifyConsumerIfCouldFire(@NonNull OffsetDateTime scheduledDateTime) {
-        final boolean canFire = isTimeOfNextSchedulerMessageNotSet() || scheduledDateTime.toInstant().toEpochMilli() < timeOfNextScheduledMessage.get();
-        if (canFire && consumer.enabled()) {
-            executor.submit(() -> {
-                synchronized (consumer) {
-                    consumer.notify(); //the consumer, if waiting, is notified and can try to send next scheduled message
+    /**
+     * Moves the email within the in-memory queues and the persistence layer, both in O(log n). In a cluster, an email
+     * claimed by another node is not moved, since that node may be sending it.
+     */
+    @Override
+    public boolean reschedule(@NonNull final String id, @NonNull final OffsetDateTime scheduledDateTime, final int desiredPriorityLevel) {
+        checkPriorityLevel(desiredPriorityLevel);
+        final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
+        schedulerLock.lock();
+        try {
+            if (serviceStatus != ServiceStatus.RUNNING || priorityQueueManager.isInFlight(id)) {
+                return false;
+            }
+            Optional<EmailSchedulingData> current = priorityQueueManager.remove(id);
+            final boolean inMemory = current.isPresent();
+            if (inMemory) {
+                acknowledgeClaim(id);
+                if (nonNull(preRenderer)) preRenderer.discard(id);
+            } else {
+                current = persistenceServiceOptional.flatMap(persistenceService -> persistenceService.get(id));
+            }
+            if (!current.isPresent() || (!inMemory && !removeFromPersistenceLayer(id))) {
+                return false;
+            }
+
+            final EmailSchedulingData rescheduled = withSchedule(current.get(), scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel);
+            persistenceServiceOptional.ifPresent(persistenceService -> {
+                if (inMemory) {
+                    persistenceService.remove(id);
                 }
+                persistenceService.add(rescheduled);
             });
+            enqueueScheduled(Collections.singletonList(rescheduled));
+            log.info("Rescheduled email {} at UTC time {} with priority {}", id, scheduledDateTime, desiredPriorityLevel);
+            return true;
+        } finally {
+            schedulerLock.unlock();
+        }
+    }
+
+    private EmailSchedulingData withSchedule(final EmailSchedulingData emailSchedulingData, final OffsetDateTime scheduledDateTime,
+                                             final int desiredPriorityLevel, final int assignedPriorityLevel) {
+        if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+            final TemplateEmailSchedulingData templateEmailSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+            return new TemplateEmailSchedulingData(templateEmailSchedulingData.getId(), templateEmailSchedulingData.getEmail(),
+                    scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel, templateEmailSchedulingData.getTemplate(),
+                    templateEmailSchedulingData.getModelObject(), templateEmailSchedulingData.getInlinePictures());
         }
+        return new DefaultEmailSchedulingData(emailSchedulingData.getId(), emailSchedulingData.getEmail(),
+                scheduledDateTime, desiredPriorityLevel, assignedPriorityLevel);
+    }
+
+    /**
+     * Returns a snapshot of the retries of the emails that could not be sent, if enabled.
+     *
+     * @return the retry statistics, or an empty optional if retries are disabled.
+     */
+    public Optional<RetryStatistics> retryStatistics() {
+        return Optional.ofNullable(retryQueue).map(RetryQueue::statistics);
     }
 
-    // Returns true if the email is enqueued
-    private boolean enqueueFromScheduler(final EmailSchedulingData emailSchedulingData) {
-        return enqueue(emailSchedulingData, false);
+    /**
+     * Returns a snapshot of the circuit breaker around the mail server, if enabled.
+     *
+     * @return the circuit breaker statistics, or an empty optional if the circuit breaker is disabled.
+     */
+    public Optional<CircuitBreakerStatistics> circuitBreakerStatistics() {
+        return Optional.ofNullable(circuitBreaker).map(CircuitBreaker::statistics);
+    }
+
+    /**
+     * Returns a snapshot of the admission control, if enabled.
+     *
+     * @return the admission statistics, or an empty optional if admission control is disabled.
+     */
+    public Optional<AdmissionStatistics> admissionStatistics() {
+        return Optional.ofNullable(admissionController).map(AdmissionController::statistics);
     }
 
+    /**
+     * Returns a snapshot of the template emails rendered ahead of their send time, if enabled.
+     *
+     * @return the pre-render statistics, or an empty optional if pre-rendering is disabled.
+     */
+    public Optional<PreRenderStatistics> preRenderStatistics() {
+        return Optional.ofNullable(preRenderer).map(PreRenderer::statistics);
+    }
+
+    /**
+     * Returns the number of scheduled emails handed over to the applier and not yet applied.
+     */
+    protected int pendingIngestion() {
+        return pendingIngestion.get();
+    }
+
+    /**
+     * Schedules all the given emails at once: priorities are validated and normalized before taking any lock, the
+     * emails are written to the persistence layer as a single batch and then inserted in the in-memory queues
+     * acquiring the queue lock only once.
+     */
+    @Override
+    public BulkSchedulingResult scheduleAll(@NonNull final Stream<EmailSchedulingData> emailSchedulingData) {
+        final List<BulkSchedulingResult.Outcome> outcomes = new ArrayList<>();
+        final List<EmailSchedulingData> accepted = new ArrayList<>();
+        final Iterator<EmailSchedulingData> iterator = emailSchedulingData.iterator();
+        for (int index = 0; iterator.hasNext(); index++) {
+            try {
+                final EmailSchedulingData normalizedEmailSchedulingData = normalize(iterator.next());
+                if (nonNull(admissionController)) {
+                    //the whole call runs on the caller thread, so the caller-runs policy simply admits the email
+                    admissionController.admit(accepted.size(), () -> scheduleAccepted(accepted, outcomes));
+                }
+                accepted.add(normalizedEmailSchedulingData);
+                outcomes.add(BulkSchedulingResult.Outcome.scheduled(index,
+                        normalizedEmailSchedulingData.getId(), normalizedEmailSchedulingData.getAssignedPriority()));
+            } catch (final RuntimeException e) {
+                outcomes.add(BulkSchedulingResult.Outcome.rejected(index, String.valueOf(e.getMessage())));
+            }
+        }
+
+        scheduleAccepted(accepted, outcomes);
+
+        final BulkSchedulingResult bulkSchedulingResult = BulkSchedulingResult.builder().outcomes(outcomes).build();
+        log.info("Scheduled {} emails out of {} requested", bulkSchedulingResult.scheduled(), bulkSchedulingResult.requested());
+        return bulkSchedulingResult;
+    }
 
-    private boolean enqueueFromPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
-        return enqueue(emailSchedulingData, true);
+    // Persists and enqueues the accepted emails, turning their outcomes into rejections if that fails
+    private void scheduleAccepted(final List<EmailSchedulingData> accepted, final List<BulkSchedulingResult.Outcome> outcomes) {
+        if (!accepted.isEmpty()) {
+            schedulerLock.lock();
+            try {
+                checkState(serviceStatus == ServiceStatus.RUNNING, "Cannot schedule emails while the scheduler is %s.", serviceStatus);
+                persistenceServiceOptional.ifPresent(persistenceService -> persistenceService.addAll(accepted));
+                enqueueScheduled(accepted);
+            } catch (final RuntimeException e) {
+                log.error("Cannot schedule a batch of {} emails.", accepted.size(), e);
+                final Set<String> failedIds = accepted.stream().map(EmailSchedulingData::getId).collect(toSet());
+                outcomes.replaceAll(outcome -> outcome.isScheduled() && failedIds.contains(outcome.getId()) ?
+                        BulkSchedulingResult.Outcome.rejected(outcome.getIndex(), String.valueOf(e.getMessage())) : outcome);
+            } finally {
+                schedulerLock.unlock();
+                accepted.clear();
+            }
+        }
     }
 
-    // Returns true if the email is enqueued
-    private boolean enqueue(final EmailSchedulingData emailSchedulingData, final boolean isFromPersistenceLayer) {
-        if (serviceStatus == ServiceStatus.RUNNING) {
-            return priorityQueueManager.enqueue(emailSchedulingData, isFromPersistenceLayer);
+    private EmailSchedulingData normalize(final EmailSchedulingData emailSchedulingData) {
+        checkArgument(nonNull(emailSchedulingData), "The email scheduling data cannot be null");
+        final int desiredPriorityLevel = emailSchedulingData.getDesiredPriority();
+        checkPriorityLevel(desiredPriorityLevel);
+
+        final int assignedPriorityLevel = normalizePriority(desiredPriorityLevel);
+        if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+            final TemplateEmailSchedulingData templateEmailSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+            return buildEmailSchedulingData(templateEmailSchedulingData.getEmail(), templateEmailSchedulingData.getScheduledDateTime(),
+                    desiredPriorityLevel, templateEmailSchedulingData.getTemplate(), templateEmailSchedulingData.getModelObject(),
+                    assignedPriorityLevel, templateEmailSchedulingData.getInlinePictures());
         }
-        return false;
+        return buildEmailSchedulingData(emailSchedulingData.getEmail(), emailSchedulingData.getScheduledDateTime(),
+                desiredPriorityLevel, assignedPriorityLevel);
     }
 
-    private void completeEnqueue() {
-        if (serviceStatus == ServiceStatus.RUNNING) {
-            priorityQueueManager.completeEnqueue();
+    private AutoCloseable subscribeToAdditions(final PersistenceService persistenceService) {
+        try {
+            return persistenceService.subscribeToAdditions(resumer::wakeUp);
+        } catch (final UnsupportedOperationException e) {
+            log.warn("The resumer polls the persistence layer since it cannot be notified of the additions: {}", e.getMessage());
+            return null;
         }
     }
 
-    protected void addToPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
-        if (serviceStatus == ServiceStatus.RUNNING) {
-            log.debug("Adding to persistence layer");
-            persistenceServiceOptional.ifPresent(
-                    persistenceService ->
-                            persistenceService.add(emailSchedulingData)
-            );
+    protected void startResumer() throws InterruptedException {
+        resumer.start();
+    }
+
+    protected void startConsumers() throws InterruptedException {
+        for (final Consumer consumer : consumers) {
+            consumer.start();
         }
     }
 
+    /**
+     * @return for each priority level, starting from the highest, how late the emails were taken for sending with
+     * respect to their scheduled time.
+     */
+    public List<DispatchLagStatistics> dispatchLagStatistics() {
+        return priorityQueueManager.dispatchLagStatistics();
+    }
+
+    /**
+     * Returns a snapshot of the statistics collected by each consumer dispatching the scheduled emails.
+     *
+     * @return the statistics of each consumer, ordered by consumer name.
+     */
+    public List<ConsumerStatistics> consumerStatistics() {
+        return consumers.stream()
+                .map(Consumer::statistics)
+                .collect(toList());
+    }
+
+    /**
+     * Returns a snapshot of each stage of the dispatch pipeline, if enabled.
+     *
+     * @return the statistics of the prepare and transport stages, or an empty list if the pipeline is disabled.
+     */
+    public List<StageStatistics> stageStatistics() {
+        return Stream.of(prepareStage, transportStage)
+                .filter(Objects::nonNull)
+                .map(DispatchStage::statistics)
+                .collect(toList());
+    }
+
     protected void deleteFromPersistenceLayer(final EmailSchedulingData emailSchedulingData) {
-        //This part is disabled for now, I'm not sure that this could not provide overhead to the persistence layer
-        if (serviceStatus == ServiceStatus.RUNNING) {
+        if (isDispatching()) {
             persistenceServiceOptional.ifPresent(
-                    persistenceService -> {
-                        persistenceService.remove(emailSchedulingData.getId());
-                        priorityQueueManager.completeDequeue();
-                    }
+                    persistenceService -> persistenceService.remove(emailSchedulingData.getId())
             );
+            acknowledgeClaim(emailSchedulingData.getId());
         }
     }
 
-    protected void loadNextBatch() {
-        if (serviceStatus == ServiceStatus.RUNNING) {
-            persistenceServiceOptional.ifPresent(
-                    persistenceService -> {
-                        final int currentlyInMemory = currentlyInMemory();
-                        if (currentlyInMemory < minInMemory) {
-                            //Currently REDIS loads all from the beginning so we need to count also those currentlyInMemory. This must be improved.
-                            final int expectedFromPersistenceLayer = Math.min(currentlyInMemory + batchSize, maxInMemory);
-                            final Collection<EmailSchedulingData> emailSchedulingDataList =
-                                    persistenceService.getNextBatch(expectedFromPersistenceLayer);
-                            if (!emailSchedulingDataList.isEmpty()) {
-                                enqueueBatch(emailSchedulingDataList);
-                            }
-                        }
-                    }
-            );
+    // Called while holding the queue lock
+    private void onEnqueued(final EmailSchedulingData emailSchedulingData) {
+        if (nonNull(preRenderer)) {
+            preRenderer.submit(emailSchedulingData);
         }
     }
 
-    protected void enqueueBatch(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
-        if (!emailSchedulingDataCollection.isEmpty()) {
-            EmailSchedulingData lastEmailSchedulingData = emailSchedulingDataCollection.stream()
-                    .filter(Objects::nonNull)
-                    .max((comparing(EmailSchedulingData::getScheduledDateTime))).get();
-            if (serviceStatus == ServiceStatus.RUNNING) {
-                int countAdded = 0;
-                for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataCollection) {
-                    synchronized (this) {
-                        if (enqueueFromPersistenceLayer(emailSchedulingData)) {
-                            countAdded++;
-                        }
-                        completeEnqueue();
-                    }
-                }
-                log.debug("Enqueued batch of {} emails of {} loaded from persistence layer.",
-                        countAdded, emailSchedulingDataCollection.size());
+    // Called while holding the queue lock, thus the claim is returned later on by the claim keeper
+    private void onEvicted(final EmailSchedulingData emailSchedulingData) {
+        if (nonNull(preRenderer)) {
+            preRenderer.discard(emailSchedulingData.getId());
+        }
+        if (isClustered()) {
+            evictedClaims.add(emailSchedulingData.getId());
+        }
+    }
+
+    // Removes an email withdrawn by the user, unless another node claimed it, if in a cluster
+    private boolean removeFromPersistenceLayer(final String id) {
+        return persistenceServiceOptional
+                .map(persistenceService -> isClustered() ?
+                        persistenceService.removeUnlessClaimedByOthers(clusterNodeId, id) :
+                        persistenceService.remove(id))
+                .orElse(false);
+    }
+
+    // Forgets the claim of this node on an email that left the memory for good, if in a cluster
+    private void acknowledgeClaim(final String id) {
+        if (isClustered()) {
+            persistenceServiceOptional.get().acknowledgeClaims(clusterNodeId, Collections.singletonList(id));
+        }
+    }
+
+    /**
+     * Removes from the persistence layer an email that could not be sent, or keeps it as a {@linkplain DeadLetter} if
+     * enabled.
+     *
+     * @param attempts the failed attempts to send the email, including the last one.
+     */
+    protected void giveUp(final EmailSchedulingData emailSchedulingData, final Throwable failure, final int attempts) {
+        if (!deadLetters) {
+            deleteFromPersistenceLayer(emailSchedulingData);
+        } else if (isDispatching()) {
+            final DeadLetter.Reason reason = isNull(retryQueue) ? DeadLetter.Reason.NOT_RETRIED :
+                    retryQueue.isTransient(failure) ? DeadLetter.Reason.ATTEMPTS_EXHAUSTED : DeadLetter.Reason.PERMANENT_FAILURE;
+            final String lastError = String.valueOf(failure);
+            try {
+                persistenceServiceOptional.get().addDeadLetter(DeadLetter.builder()
+                        .emailSchedulingData(emailSchedulingData)
+                        .reason(reason)
+                        .attempts(attempts)
+                        .lastError(lastError.substring(0, min(lastError.length(), deadLetterMaxErrorLength)))
+                        .failedAt(Instant.ofEpochMilli(TimeUtils.now()))
+                        .build());
+                acknowledgeClaim(emailSchedulingData.getId());
+                log.warn("Email {} kept as dead letter [reason = {}, attempts = {}]", emailSchedulingData.getId(), reason, attempts);
+            } catch (final RuntimeException e) {
+                log.error("Cannot keep email {} as dead letter", emailSchedulingData.getId(), e);
             }
+        }
+    }
 
-            if (nonNull(lastEmailSchedulingData)) {
-                notifyConsumerIfCouldFire(lastEmailSchedulingData.getScheduledDateTime());
+    /**
+     * Schedules again up to {@code maxEmails} dead letters, starting from the oldest failure.
+     * <p>
+     * Dead letters are read one batch at a time, as large as the desired batch size of the persistence layer, so that
+     * the heap never holds more than a batch. Each batch goes through the same path of {@link #scheduleAll(Stream)}:
+     * the emails are written back to their priority level and enqueued as far as the memory allows, the resumer
+     * loading the others later on. Only then the batch is removed from the dead letters, so that a failure in the middle
+     * of a replay loses no email.
+     *
+     * @param maxEmails the maximum number of dead letters to be replayed.
+     * @return the number of replayed dead letters.
+     * @throws IllegalStateException if the persistence layer is not enabled or the scheduler is not running.
+     */
+    public long replayDeadLetters(final long maxEmails) {
+        checkArgument(maxEmails > 0, "Expected a positive number of dead letters to replay, while %s was given", maxEmails);
+        checkState(persistenceServiceOptional.isPresent(), "Dead letters require the persistence layer to be enabled.");
+        final PersistenceService persistenceService = persistenceServiceOptional.get();
+
+        long replayed = 0;
+        while (replayed < maxEmails) {
+            final Collection<DeadLetter> deadLetterBatch =
+                    persistenceService.getNextDeadLetterBatch((int) min(batchSize, maxEmails - replayed));
+            if (deadLetterBatch.isEmpty()) {
+                break;
             }
+            final List<EmailSchedulingData> emailSchedulingDataList = deadLetterBatch.stream()
+                    .map(DeadLetter::getEmailSchedulingData)
+                    .collect(toList());
+
+            schedulerLock.lock();
+            try {
+                checkState(serviceStatus == ServiceStatus.RUNNING, "Cannot replay dead letters while the scheduler is %s.", serviceStatus);
+                persistenceService.addAll(emailSchedulingDataList);
+                enqueueScheduled(emailSchedulingDataList);
+            } finally {
+                schedulerLock.unlock();
+            }
+            persistenceService.removeDeadLetters(deadLetterBatch.stream().map(DeadLetter::getId).collect(toList()));
+            replayed += deadLetterBatch.size();
         }
+        log.info("Replayed {} dead letters", replayed);
+        return replayed;
     }
 
-    protected int normalizePriority(int priorityLevel) {
-        //the priority level must be between 0 and numberOfPriorityLevels
-        final int maxLevel = priorityQueueManager.numberOfLevels();
-        if (priorityLevel > maxLevel) {
-            log.warn("Scheduled email with priority level {}, while priority level {} was requested. Reason: max level exceeded",
-                    maxLevel, priorityLevel);
+    /**
+     * Loads the next batch from the persistence layer, if the emails in memory are fewer than the minimum to be kept.
+     *
+     * @return true if the batch came back full and there is still room for the minimum in memory, so that the next
+     * batch should be loaded right away.
+     */
+    protected boolean loadNextBatch() {
+        if (serviceStatus != ServiceStatus.RUNNING || !persistenceServiceOptional.isPresent()) {
+            return false;
+        }
+        final PersistenceService persistenceService = persistenceServiceOptional.get();
+        final int currentlyInMemory = currentlyInMemory();
+        if (currentlyInMemory >= minInMemory) {
+            return false;
+        }
+        //Claimed emails leave the priority levels and the cursors skip what was already loaded, so that only the room
+        //left in memory is read. Otherwise the persistence layer is read from the beginning, and we need to count also
+        //those currentlyInMemory and those being sent.
+        final int expectedFromPersistenceLayer = isClustered() || cursorsSupported ?
+                Math.min(batchSize, maxInMemory - currentlyInMemory) :
+                Math.min(currentlyInMemory + priorityQueueManager.currentlyInFlight() + batchSize, maxInMemory);
+        if (expectedFromPersistenceLayer <= 0) {
+            return false;
+        }
+        priorityQueueManager.startBatchLoad();
+        final long startTime = System.nanoTime();
+        try {
+            final Collection<EmailSchedulingData> emailSchedulingDataList = isClustered() ?
+                    persistenceService.claimNextBatch(clusterNodeId, expectedFromPersistenceLayer, visibilityTimeout) :
+                    getNextBatch(persistenceService, expectedFromPersistenceLayer);
+            if (!emailSchedulingDataList.isEmpty()) {
+                enqueueBatch(emailSchedulingDataList);
+            }
+            schedulerMetrics.recordResumerBatch(emailSchedulingDataList.size(), System.nanoTime() - startTime);
+            return (isClustered() || cursorsSupported) && emailSchedulingDataList.size() == expectedFromPersistenceLayer
+                    && currentlyInMemory() < minInMemory;
+        } finally {
+            priorityQueueManager.completeBatchLoad();
         }
-        return max(1, min(priorityLevel, maxLevel));
     }
 
-    private Optional<EmailSchedulingData> dequeue() throws InterruptedException {
-        Optional<EmailSchedulingData> emailSchedulingDataOptional = Optional.empty();
-        timeOfNextScheduledMessage.set(0);
-        boolean consumerEnabled = consumer.enabled();
-        while (consumerEnabled && !emailSchedulingDataOptional.isPresent()) {
-            if (consumer.enabled()) {
-                //try to find a message in queue
-                if (priorityQueueManager.hasElements()) {
-                    emailSchedulingDataOptional = priorityQueueManager.dequeueNext(CONSUMER_CYCLE_LENGTH);
+    // Reads after the cursor of each priority level, falling back to the beginning when the cursors are not supported
+    private Collection<EmailSchedulingData> getNextBatch(final PersistenceService persistenceService, final int batchMaxSize) {
+        if (cursorsSupported) {
+            try {
+                return getNextBatchAfterCursors(persistenceService, batchMaxSize);
+            } catch (final UnsupportedOperationException e) {
+                log.info("The persisted emails are loaded from the beginning at each batch: {}", e.getMessage());
+                cursorsSupported = false;
+                return persistenceService.getNextBatch(
+                        Math.min(currentlyInMemory() + priorityQueueManager.currentlyInFlight() + batchSize, maxInMemory));
+            }
+        }
+        return persistenceService.getNextBatch(batchMaxSize);
+    }
+
+    private Collection<EmailSchedulingData> getNextBatchAfterCursors(final PersistenceService persistenceService,
+                                                                     final int batchMaxSize) {
+        //Whatever was left behind the cursors is only in the persistence layer now, so it must be read again
+        final long leftToPersistenceLayer = priorityQueueManager.leftToPersistenceLayer();
+        if (leftToPersistenceLayer != leftToPersistenceLayerAtCursors) {
+            Arrays.fill(cursors, null);
+            leftToPersistenceLayerAtCursors = leftToPersistenceLayer;
+        }
+
+        final List<List<EmailSchedulingData>> batchByLevel = new ArrayList<>(cursors.length);
+        final List<EmailSchedulingData> merged = new ArrayList<>();
+        for (int priorityLevel = 1; priorityLevel <= cursors.length; priorityLevel++) {
+            final List<EmailSchedulingData> batch =
+                    persistenceService.getNextBatchAfter(priorityLevel, batchMaxSize, cursors[priorityLevel - 1]);
+            batchByLevel.add(batch);
+            merged.addAll(batch);
+        }
+        final Set<EmailSchedulingData> taken = merged.stream()
+                .sorted(EmailSchedulingData.DEFAULT_COMPARATOR)
+                .limit(batchMaxSize)
+                .collect(toCollection(LinkedHashSet::new));
+
+        //Each cursor moves to the last email of its level such that all those before it were taken
+        for (int level = 0; level < cursors.length; level++) {
+            for (EmailSchedulingData emailSchedulingData : batchByLevel.get(level)) {
+                if (!taken.contains(emailSchedulingData)) {
+                    break;
                 }
-                if (!emailSchedulingDataOptional.isPresent()) {
-                    //no message was found, let's sleep, some message may arrive in the meanwhile
-                    timeOfNextScheduledMessage.set(priorityQueueManager.millisToNextEmail());
-                    if (consumer.enabled()) {
-                        if (isTimeOfNextSchedulerMessageNotSet()) { //all the queues are empty
-                            consumer.waitForNotify(); //the consumer starts waiting for a new email to be scheduled or
-                        } else {
-                            final long waitTime = timeOfNextScheduledMessage.get() - TimeUtils.now() - CONSUMER_CYCLE_LENGTH.toMillis();
-                            if (waitTime > 0) {
-                                consumer.waitForMillis(waitTime); //wait before sending the most imminent scheduled email
-                            }
-                        }
-                    }
+                cursors[level] = emailSchedulingData;
+            }
+        }
+        return taken;
+    }
+
+    protected void enqueueBatch(final Collection<EmailSchedulingData> emailSchedulingDataCollection) {
+        if (!emailSchedulingDataCollection.isEmpty()) {
+            schedulerLock.lock();
+            try {
+                if (serviceStatus == ServiceStatus.RUNNING) {
+                    final int countAdded = priorityQueueManager.enqueueAll(emailSchedulingDataCollection, true);
+                    log.debug("Enqueued batch of {} emails of {} loaded from persistence layer.",
+                            countAdded, emailSchedulingDataCollection.size());
                 }
-            } else {
-                consumerEnabled = false;
+            } finally {
+                schedulerLock.unlock();
             }
         }
-        //here emailSchedulingData is the message to send
-        return emailSchedulingDataOptional;
     }
 
-    private boolean isTimeOfNextSchedulerMessageNotSet() {
-        return timeOfNextScheduledMessage.get() == 0L;
+    protected int normalizePriority(int priorityLevel) {
+        //the priority level must be between 0 and numberOfPriorityLevels
+        final int maxLevel = priorityQueueManager.numberOfLevels();
+        if (priorityLevel > maxLevel) {
+            log.warn("Scheduled email with priority level {}, while priority level {} was requested. Reason: max level exceeded",
+                    maxLevel, priorityLevel);
+        }
+        return max(1, min(priorityLevel, maxLevel));
     }
 
     private void checkPriorityLevel(int priorityLevel) {
         checkArgument(priorityLevel > 0, "The priority level index cannot be negative");
     }
 
-    private int queueIndex(final EmailSchedulingData emailSchedulingData) {
-        return emailSchedulingData.getAssignedPriority() - 1;
-    }
-
     private boolean canAddOneInMemory() {
         return !persistenceServiceOptional.isPresent() || currentlyInMemory() < maxInMemory;
     }
@@ -397,8 +1059,17 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
     protected void cleanUp() throws Exception {
         log.info("Closing EmailScheduler");
         try {
-            executor.shutdownNow();
-
+            //stopped first, so that no batch is loaded from the persistence layer while draining
+            if (nonNull(resumer)) {
+                log.debug("EMAIL SCHEDULER -- Closing Resumer");
+                resumer.close();
+            }
+            if (drainTimeoutMillis > 0) {
+                drain();
+            }
+            //stopped while still dispatching, so that the batch it may have already taken is applied rather than dropped
+            log.debug("EMAIL SCHEDULER -- Closing Applier");
+            applier.close();
             schedulerLock.lock();
             try {
                 this.serviceStatus = ServiceStatus.CLOSING;
@@ -408,12 +1079,40 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
 
             log.debug("EMAIL SCHEDULER -- Closing PriorityQueueManager");
             priorityQueueManager.close();
-            if (nonNull(resumer)) {
-                log.debug("EMAIL SCHEDULER -- Closing Resumer");
-                resumer.close();
+            if (nonNull(additionsSubscription)) {
+                log.debug("EMAIL SCHEDULER -- Closing subscription to the additions");
+                additionsSubscription.close();
+            }
+            if (pendingIngestion() > 0) {
+                checkpoint();
+            }
+            log.debug("EMAIL SCHEDULER -- Closing Consumers");
+            for (final Consumer consumer : consumers) {
+                consumer.close();
+            }
+            if (nonNull(prepareStage)) {
+                log.debug("EMAIL SCHEDULER -- Closing dispatch pipeline");
+                prepareStage.close();
+                transportStage.close();
+            }
+            if (nonNull(preRenderer)) {
+                log.debug("EMAIL SCHEDULER -- Closing PreRenderer");
+                preRenderer.close();
+            }
+            if (nonNull(retrier)) {
+                log.debug("EMAIL SCHEDULER -- Closing Retrier");
+                retrier.close();
+                final int waitingForRetry = retryQueue.drain().size();
+                if (waitingForRetry > 0) {
+                    log.warn("Discarded {} emails waiting for a retry{}", waitingForRetry,
+                            persistenceServiceOptional.isPresent() ? ", they are kept in the persistence layer" : "");
+                }
+            }
+            if (nonNull(claimKeeper)) {
+                log.debug("EMAIL SCHEDULER -- Closing ClaimKeeper");
+                claimKeeper.close();
+                log.info("Returned {} claimed emails to the cluster", persistenceServiceOptional.get().returnClaims(clusterNodeId));
             }
-            log.debug("EMAIL SCHEDULER -- Closing Consumer");
-            consumer.close();
 
         } catch (Exception e) {
             log.warn("An issue occurred while stopping EmailScheduler, it should be due to a thread interruption.", e);
@@ -424,105 +1123,579 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
     }
 
 
-    private class Consumer extends Thread {
+    @Override
+    public ServiceStatus status() {
+        final CircuitBreaker circuitBreaker = this.circuitBreaker;
+        if (serviceStatus == ServiceStatus.RUNNING && nonNull(circuitBreaker)
+                && circuitBreaker.state() != CircuitBreaker.State.CLOSED) {
+            return ServiceStatus.SUSPENDED;
+        }
+        return serviceStatus;
+    }
+
+    /**
+     * Returns the id this node claims the persisted emails with, if several schedulers share the persistence layer.
+     *
+     * @return the id of the node, or an empty optional if the scheduler is not in a cluster.
+     */
+    public Optional<String> clusterNodeId() {
+        return Optional.ofNullable(clusterNodeId);
+    }
+
+    private boolean isClustered() {
+        return nonNull(clusterNodeId);
+    }
 
-        public Consumer() {
-            super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + Consumer.class.getSimpleName());
+    // The consumers, the applier and the retrier keep working while draining
+    private boolean isDispatching() {
+        return serviceStatus == ServiceStatus.RUNNING || serviceStatus == ServiceStatus.DRAINING;
+    }
+
+    /**
+     * Stops admitting new emails and keeps dispatching the due ones with all the consumers, until none is left or the
+     * drain timeout expires. To be called once the resumer is stopped, so that no batch is loaded from the persistence
+     * layer.
+     */
+    protected void drain() throws InterruptedException {
+        schedulerLock.lock();
+        try {
+            this.serviceStatus = ServiceStatus.DRAINING;
+        } finally {
+            schedulerLock.unlock();
+        }
+        log.info("Draining EmailScheduler for up to {} ms", drainTimeoutMillis);
+
+        final long deadlineInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        while (hasDueWork()) {
+            if (System.nanoTime() - deadlineInNanos >= 0) {
+                log.warn("Drain timeout expired [in memory = {}, in flight = {}, not yet applied = {}]",
+                        currentlyInMemory(), priorityQueueManager.currentlyInFlight(), pendingIngestion());
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep(DRAIN_CHECK_INTERVAL.toNanos());
         }
+        log.info("Drained EmailScheduler");
+    }
+
+    // Emails waiting for a retry are in flight too, but they are not due until their backoff expires
+    private boolean hasDueWork() {
+        final int waitingForRetry = nonNull(retryQueue) ? retryQueue.size() : 0;
+        return pendingIngestion() > 0 || priorityQueueManager.currentlyInFlight() > waitingForRetry
+                || priorityQueueManager.hasDueElements();
+    }
+
+    /**
+     * Writes the emails handed over by the producers and not yet applied to the persistence layer as a single batch,
+     * so that they are sent after the restart. The emails in memory are already there. Without persistence, they are
+     * discarded.
+     */
+    protected void checkpoint() {
+        final List<EmailSchedulingData> notYetApplied = new ArrayList<>(ingestionQueue);
+        ingestionQueue.clear();
+        pendingIngestion.set(0);
+        if (persistenceServiceOptional.isPresent()) {
+            try {
+                persistenceServiceOptional.get().addAll(notYetApplied);
+                completeSubmissions(notYetApplied, null);
+                log.info("Checkpointed {} scheduled emails not yet applied", notYetApplied.size());
+                return;
+            } catch (final RuntimeException e) {
+                log.error("Cannot checkpoint {} scheduled emails not yet applied", notYetApplied.size(), e);
+            }
+        }
+        log.warn("Discarded {} scheduled emails not yet applied", notYetApplied.size());
+        completeSubmissions(notYetApplied, new IllegalStateException("The scheduler closed before the email was scheduled."));
+    }
+
+    /**
+     * Base class for the consumers and the resumer, running on a thread created by the {@linkplain SchedulerThreadFactory}.
+     */
+    private abstract class Worker implements Runnable {
+
+        protected final Thread thread;
+
+        private final CountDownLatch started = new CountDownLatch(1);
 
+        protected Worker(final String name) {
+            thread = threadFactory.newThread(name, this);
+        }
+
+        public String getName() {
+            return thread.getName();
+        }
+
+        public void start() throws InterruptedException {
+            thread.start();
+            started.await();
+        }
+
+        @Override
         public void run() {
-            log.info("Email scheduler consumer started");
+            try {
+                work();
+            } finally {
+                signalStarted();
+            }
+        }
+
+        protected abstract void work();
+
+        /**
+         * Releases the thread waiting in {@link #start()}, to be called once the worker is ready to park.
+         */
+        protected void signalStarted() {
+            started.countDown();
+        }
+
+        public boolean enabled() {
+            return isDispatching() && !thread.isInterrupted();
+        }
+
+        protected void interrupt() {
+            thread.interrupt();
+        }
+
+        protected void wakeUp() {
+            //interrupting the thread is enough, unless the worker waits on its own condition
+        }
+
+        public void close() throws InterruptedException {
+            try {
+                if (!thread.isInterrupted()) {
+                    log.info("Interrupting email scheduler {}", getName());
+                    thread.interrupt();
+                    wakeUp();
+                    thread.join();
+                } else {
+                    log.info("Email scheduler {} already interrupted", getName());
+                }
+            } catch (InterruptedException e) {
+            }
+        }
+
+    }
+
+    private class Consumer extends Worker {
+
+        private final AtomicLong sentEmails = new AtomicLong();
+        private final AtomicLong failedEmails = new AtomicLong();
+        private final AtomicLong busyTimeNanos = new AtomicLong();
+
+        public Consumer(final int index) {
+            super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + Consumer.class.getSimpleName() + "-" + index);
+        }
+
+        @Override
+        protected void work() {
+            log.info("Email scheduler consumer {} started", getName());
+            signalStarted();
             while (enabled()) {
                 try {
-                    final Optional<EmailSchedulingData> emailSchedulingDataOptional = dequeue();
+                    if (awaitCircuitBreaker()) {
+                        continue;
+                    }
+                    //parks until the earliest email is due, the manager wakes up the consumers only when needed
+                    final Optional<EmailSchedulingData> emailSchedulingDataOptional = priorityQueueManager.takeNext();
                     if (enabled() && emailSchedulingDataOptional.isPresent()) {
-                        final EmailSchedulingData emailSchedulingData = emailSchedulingDataOptional.get();
-                        if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
-                            final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+                        final Dispatch dispatch = new Dispatch(this, emailSchedulingDataOptional.get());
+                        if (nonNull(prepareStage)) {
+                            //waits while the pipeline is full, so that the other emails stay in the queues meanwhile
+                            prepareStage.put(dispatch);
+                        } else {
+                            Exception failure = null;
                             try {
-                                emailService.send(emailTemplateSchedulingData.getEmail(),
-                                        emailTemplateSchedulingData.getTemplate(),
-                                        emailTemplateSchedulingData.getModelObject(),
-                                        emailTemplateSchedulingData.getInlinePictures());
-                            } catch (final CannotSendEmailException e) {
-                                log.error("An error occurred while sending the email", e);
+                                send(dispatch.emailSchedulingData);
+                            } catch (final CannotSendEmailException | RuntimeException e) {
+                                failure = e;
+                            } finally {
+                                busyTimeNanos.addAndGet(System.nanoTime() - dispatch.startTime);
                             }
-                        } else {
-                            emailService.send(emailSchedulingData.getEmail());
-                        }
-                        if (enabled() && !persistenceServiceOptional.isPresent()) {
-                            priorityQueueManager.completeDequeue();
+                            complete(dispatch, failure);
                         }
-
-                        if (enabled()) deleteFromPersistenceLayer(emailSchedulingData);
                     }
                 } catch (final InterruptedException e) {
-                    log.error("Email scheduler consumer interrupted", e);
+                    if (serviceStatus == ServiceStatus.RUNNING) {
+                        log.error("Email scheduler consumer interrupted", e);
+                    }
+                    interrupt(); //restore the interrupted status, so that the consumer stops
                 }
             }
-            log.info("Email scheduler consumer stopped");
+            log.info("Email scheduler consumer {} stopped [sent = {}, failed = {}]", getName(), sentEmails.get(), failedEmails.get());
 
         }
 
-        public boolean enabled() {
-            return serviceStatus == ServiceStatus.RUNNING && !isInterrupted();
+        /**
+         * Waits for at most a consumer cycle while the circuit breaker does not permit calls, so that the due emails
+         * stay in the queues rather than piling up in front of a failing mail server.
+         *
+         * @return true if the consumer waited.
+         */
+        private boolean awaitCircuitBreaker() throws InterruptedException {
+            final CircuitBreaker circuitBreaker = PriorityQueueEmailSchedulerService.this.circuitBreaker;
+            final long nanosUntilPermitted = nonNull(circuitBreaker) ? circuitBreaker.nanosUntilPermitted() : 0;
+            if (nanosUntilPermitted <= 0) {
+                return false;
+            }
+            TimeUnit.NANOSECONDS.sleep(min(nanosUntilPermitted, CONSUMER_CYCLE_LENGTH.toNanos()));
+            return true;
+        }
+
+        private void onCompleted(final boolean sent) {
+            (sent ? sentEmails : failedEmails).incrementAndGet();
         }
 
-        public synchronized void waitForNotify() throws InterruptedException {
-            if (enabled()) {
-                log.debug("Email scheduler consumer starts waiting");
-                wait();
+        public ConsumerStatistics statistics() {
+            return ConsumerStatistics.builder()
+                    .consumerName(getName())
+                    .sentEmails(sentEmails.get())
+                    .failedEmails(failedEmails.get())
+                    .busyTimeMillis(TimeUnit.NANOSECONDS.toMillis(busyTimeNanos.get()))
+                    .build();
+        }
+
+    }
+
+    private void send(final EmailSchedulingData emailSchedulingData) throws CannotSendEmailException {
+        //lets a routing mail sender prefer the relays serving the priority level
+        RoutingHints.setPriority(emailSchedulingData.getAssignedPriority());
+        try {
+            if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+                final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+                final Optional<MimeMessage> preparedMessage = nonNull(preRenderer) ?
+                        preRenderer.take(emailSchedulingData) : Optional.empty();
+                if (preparedMessage.isPresent()) {
+                    emailService.sendPrepared(emailTemplateSchedulingData.getEmail(), preparedMessage.get());
+                } else {
+                    emailService.send(emailTemplateSchedulingData.getEmail(),
+                            emailTemplateSchedulingData.getTemplate(),
+                            emailTemplateSchedulingData.getModelObject(),
+                            emailTemplateSchedulingData.getInlinePictures());
+                }
+            } else {
+                emailService.send(emailSchedulingData.getEmail());
             }
+        } finally {
+            RoutingHints.clearPriority();
         }
+    }
 
-        public synchronized void waitForMillis(final long timeoutInMillis) throws InterruptedException {
-            if (enabled()) {
-                log.debug("Email scheduler consumer starts waiting for {} millis", timeoutInMillis);
-                wait(timeoutInMillis);
+    /**
+     * Counts the attempt to send the email and either forgets it, hands it over to the retry queue or gives it up.
+     */
+    private void complete(final Dispatch dispatch, final Exception failure) {
+        final EmailSchedulingData emailSchedulingData = dispatch.emailSchedulingData;
+        if (failure instanceof CircuitBreakerOpenException) {
+            //the mail server was not called, so that neither the send nor the attempt is counted
+            hold(emailSchedulingData, (CircuitBreakerOpenException) failure);
+            if (nonNull(admissionController)) admissionController.onReleased();
+            return;
+        }
+        dispatch.consumer.onCompleted(isNull(failure));
+        schedulerMetrics.recordSend(emailSchedulingData, dispatch.lagInMillis, System.nanoTime() - dispatch.startTime, isNull(failure));
+
+        if (isNull(failure)) {
+            if (nonNull(retryQueue)) retryQueue.onSent(emailSchedulingData);
+            if (isDispatching()) deleteFromPersistenceLayer(emailSchedulingData);
+            priorityQueueManager.completeDispatch(emailSchedulingData);
+        } else {
+            log.error("An error occurred while sending the email", failure);
+            final int attempts = nonNull(retryQueue) ? retryQueue.failedAttempts(emailSchedulingData.getId()) + 1 : 1;
+            if (retry(emailSchedulingData, failure)) {
+                priorityQueueManager.completeSend(emailSchedulingData); //the domains are free while it waits
+            } else {
+                if (isDispatching()) giveUp(emailSchedulingData, failure, attempts);
+                priorityQueueManager.completeDispatch(emailSchedulingData);
             }
         }
+        if (nonNull(admissionController)) admissionController.onReleased();
+    }
 
-        public void close() throws InterruptedException {
+    /**
+     * Holds an email the circuit breaker kept away from the mail server until the breaker lets calls through again:
+     * it waits in the retry queue if enabled, otherwise it goes back to the queues, where the consumers leave it while
+     * the breaker is open.
+     */
+    private void hold(final EmailSchedulingData emailSchedulingData, final CircuitBreakerOpenException failure) {
+        log.debug("Email {} held for {} ms since the circuit breaker is open", emailSchedulingData.getId(), failure.getRetryAfterMillis());
+        if (!isDispatching()) {
+            priorityQueueManager.completeDispatch(emailSchedulingData); //still in the persistence layer, if any
+        } else if (nonNull(retryQueue)) {
+            retryQueue.park(emailSchedulingData, failure.getRetryAfterMillis());
+            priorityQueueManager.completeSend(emailSchedulingData);
+        } else {
+            priorityQueueManager.requeue(emailSchedulingData);
+        }
+    }
+
+    /**
+     * Hands the email over to the retry queue, where it stays in flight and in the persistence layer until retried.
+     *
+     * @return true if the email will be retried.
+     */
+    private boolean retry(final EmailSchedulingData emailSchedulingData, final Exception failure) {
+        return nonNull(retryQueue) && isDispatching() && retryQueue.offer(emailSchedulingData, failure);
+    }
+
+    /**
+     * Prepare stage of the pipeline: renders the template, if any, and builds the message, then hands it over to the
+     * transport stage. Emails whose message cannot be prepared in advance are rendered by the transport stage.
+     */
+    private void prepare(final Dispatch dispatch) throws InterruptedException {
+        if (prepareSupported) {
             try {
-                if (!isInterrupted()) {
-                    log.info("Interrupting email scheduler consumer");
-                    interrupt();
-                    synchronized (this) {
-                        notify();
-                    }
-                    join();
+                dispatch.mimeMessage = prepareMessage(dispatch.emailSchedulingData);
+            } catch (final UnsupportedOperationException e) {
+                log.warn("The emails are rendered by the transport stage, since they cannot be prepared: {}", e.getMessage());
+                prepareSupported = false;
+            } catch (final CannotSendEmailException | RuntimeException e) {
+                complete(dispatch, e);
+                return;
+            }
+        }
+        transportStage.put(dispatch);
+    }
+
+    private MimeMessage prepareMessage(final EmailSchedulingData emailSchedulingData) throws CannotSendEmailException {
+        if (emailSchedulingData instanceof TemplateEmailSchedulingData) {
+            final Optional<MimeMessage> preparedMessage = nonNull(preRenderer) ?
+                    preRenderer.take(emailSchedulingData) : Optional.empty();
+            if (preparedMessage.isPresent()) {
+                return preparedMessage.get();
+            }
+            final TemplateEmailSchedulingData emailTemplateSchedulingData = (TemplateEmailSchedulingData) emailSchedulingData;
+            return emailService.prepare(emailTemplateSchedulingData.getEmail(),
+                    emailTemplateSchedulingData.getTemplate(),
+                    emailTemplateSchedulingData.getModelObject(),
+                    emailTemplateSchedulingData.getInlinePictures());
+        }
+        return emailService.prepare(emailSchedulingData.getEmail());
+    }
+
+    /**
+     * Transport stage of the pipeline: hands the prepared message over to the mail server.
+     */
+    private void transmit(final Dispatch dispatch) {
+        Exception failure = null;
+        try {
+            if (nonNull(dispatch.mimeMessage)) {
+                RoutingHints.setPriority(dispatch.emailSchedulingData.getAssignedPriority());
+                try {
+                    emailService.sendPrepared(dispatch.emailSchedulingData.getEmail(), dispatch.mimeMessage);
+                } finally {
+                    RoutingHints.clearPriority();
+                }
+            } else {
+                send(dispatch.emailSchedulingData);
+            }
+        } catch (final CannotSendEmailException | RuntimeException e) {
+            failure = e;
+        }
+        complete(dispatch, failure);
+    }
+
+    /**
+     * An email taken by a consumer, on its way to the mail server.
+     */
+    private static class Dispatch {
+
+        private final Consumer consumer;
+
+        private final EmailSchedulingData emailSchedulingData;
+
+        private final long lagInMillis;
+
+        private final long startTime = System.nanoTime();
+
+        // Set by the prepare stage, if the pipeline is enabled
+        private MimeMessage mimeMessage;
+
+        private Dispatch(final Consumer consumer, final EmailSchedulingData emailSchedulingData) {
+            this.consumer = consumer;
+            this.emailSchedulingData = emailSchedulingData;
+            lagInMillis = TimeUtils.now() - emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli();
+        }
+
+    }
+
+    /**
+     * Single consumer of the ingestion queue: it drains the emails handed over by the producers and applies them in
+     * batches, so that only one thread at a time competes with the consumers for the queue lock.
+     */
+    private class Applier extends Worker {
+
+        public Applier() {
+            super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + Applier.class.getSimpleName());
+        }
+
+        @Override
+        protected void work() {
+            log.info("Email scheduler applier started");
+            signalStarted();
+            List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+            while (enabled()) {
+                EmailSchedulingData emailSchedulingData;
+                while (emailSchedulingDataList.size() < APPLIER_MAX_BATCH_SIZE
+                        && nonNull(emailSchedulingData = ingestionQueue.poll())) {
+                    emailSchedulingDataList.add(emailSchedulingData);
+                }
+                if (emailSchedulingDataList.isEmpty()) {
+                    //a producer unparking the applier before this point leaves a permit, so no hand-over is missed
+                    LockSupport.park(this);
                 } else {
-                    log.info("Email scheduler consumer already interrupted");
+                    notYetEnqueued.addAndGet(-emailSchedulingDataList.size());
+                    try {
+                        apply(emailSchedulingDataList);
+                    } catch (final RuntimeException e) {
+                        log.error("Cannot apply {} scheduled emails.", emailSchedulingDataList.size(), e);
+                    } finally {
+                        pendingIngestion.addAndGet(-emailSchedulingDataList.size());
+                        //a new list for the next batch, since the persistence layer may keep the one it was given
+                        emailSchedulingDataList = new ArrayList<>();
+                        if (nonNull(admissionController)) admissionController.onReleased();
+                    }
                 }
-            } catch (InterruptedException e) {
+            }
+            log.info("Email scheduler applier stopped");
+        }
+
+        @Override
+        protected void wakeUp() {
+            LockSupport.unpark(thread);
+        }
+
+    }
+
+    /**
+     * Puts back in the queues the emails that could not be sent, once their backoff expires.
+     */
+    private class Retrier extends Worker {
+
+        public Retrier() {
+            super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + Retrier.class.getSimpleName());
+        }
+
+        @Override
+        protected void work() {
+            log.info("Email scheduler retrier started");
+            signalStarted();
+            while (enabled()) {
+                try {
+                    final EmailSchedulingData emailSchedulingData = retryQueue.take();
+                    if (enabled()) {
+                        priorityQueueManager.requeue(emailSchedulingData);
+                    }
+                } catch (final InterruptedException e) {
+                    if (serviceStatus == ServiceStatus.RUNNING) {
+                        log.error("Email scheduler retrier interrupted", e);
+                    }
+                    interrupt(); //restore the interrupted status, so that the retrier stops
+                }
+            }
+            log.info("Email scheduler retrier stopped");
+        }
+
+    }
+
+    /**
+     * Renews the claims of this node once per heartbeat interval, and puts back the emails claimed by any node that
+     * stopped renewing its own, so that they are claimed again within the visibility timeout plus a heartbeat interval.
+     */
+    private class ClaimKeeper extends Worker {
+
+        public ClaimKeeper() {
+            super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + ClaimKeeper.class.getSimpleName());
+        }
+
+        @Override
+        protected void work() {
+            log.info("Email scheduler claim keeper started");
+            signalStarted();
+            final PersistenceService persistenceService = persistenceServiceOptional.get();
+            while (enabled()) {
+                try {
+                    returnEvictedClaims(persistenceService);
+                    persistenceService.renewClaims(clusterNodeId, visibilityTimeout);
+                    final long restored = persistenceService.restoreExpiredClaims();
+                    if (restored > 0) {
+                        log.warn("Restored {} emails whose claim expired", restored);
+                        resumer.wakeUp();
+                    }
+                } catch (final RuntimeException e) {
+                    log.error("Cannot renew the claims of email scheduler node {}", clusterNodeId, e);
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(heartbeatInterval.toMillis());
+                } catch (final InterruptedException e) {
+                    if (serviceStatus == ServiceStatus.RUNNING) {
+                        log.error("Email scheduler claim keeper interrupted", e);
+                    }
+                    interrupt(); //restore the interrupted status, so that the claim keeper stops
+                }
+            }
+            log.info("Email scheduler claim keeper stopped");
+        }
+
+        // Before renewing the claims, so that the evicted emails are not kept from the other nodes any longer
+        private void returnEvictedClaims(final PersistenceService persistenceService) {
+            final List<String> ids = new ArrayList<>();
+            for (String id = evictedClaims.poll(); nonNull(id); id = evictedClaims.poll()) {
+                ids.add(id);
+            }
+            if (ids.isEmpty()) {
+                return;
+            }
+            try {
+                final long returned = persistenceService.returnClaims(clusterNodeId, ids);
+                log.debug("Returned {} claimed emails evicted from the queues", returned);
+            } catch (final RuntimeException e) {
+                evictedClaims.addAll(ids);
+                throw e;
             }
         }
 
     }
 
-    private class Resumer extends Thread {
+    private class Resumer extends Worker {
+
+        private final Lock resumerLock = new ReentrantLock();
+
+        private final Condition resumerCondition = resumerLock.newCondition();
+
+        // Sampled only when the metrics are recorded, and while the persistence layer can count the emails
+        private boolean countPersisted = schedulerMetrics.isEnabled();
+
+        // Set by wakeUp, so that a signal sent while a batch is being loaded is not lost. Guarded by the resumer lock.
+        private boolean wakeUpRequested;
 
         public Resumer() {
             super(PriorityQueueEmailSchedulerService.class.getSimpleName() + " -- " + Resumer.class.getSimpleName());
         }
 
-        public void run() {
+        @Override
+        protected void work() {
             if (persistenceServiceOptional.isPresent()) {
                 log.info("Email scheduler resumer started");
+                //Woken up by the low watermark and by the additions, if notified; polling is only a safety net then
+                final long cycleLengthInMillis = nonNull(additionsSubscription) ?
+                        RESUMER_IDLE_CYCLE_LENGTH.toMillis() : RESUMER_CYCLE_LENGTH.toMillis();
                 while (enabled()) {
                     try {
-                        if (canAddOneInMemory()) {
-                            if (enabled()) {
-                                loadNextBatch();
-                            }
-                            if (enabled()) {
-                                synchronized (this) {
-                                    wait(RESUMER_CYCLE_LENGTH.toMillis());
-                                }
-                            }
+                        boolean loadAgain = false;
+                        if (canAddOneInMemory() && enabled()) {
+                            loadAgain = loadNextBatch();
+                        }
+                        if (countPersisted && enabled()) {
+                            countPersisted = samplePersistedEmails();
+                        }
+                        signalStarted();
+                        if (enabled() && !loadAgain) {
+                            waitForMillis(isClustered() ? millisToNextClaim(cycleLengthInMillis) : cycleLengthInMillis);
                         }
                     } catch (final InterruptedException e) {
-                        log.error("Email scheduler consumer interrupted", e);
+                        if (serviceStatus == ServiceStatus.RUNNING) {
+                            log.error("Email scheduler resumer interrupted", e);
+                        }
+                        interrupt(); //restore the interrupted status, so that the resumer stops
                     }
                 }
                 log.info("Email scheduler resumer stopped");
@@ -531,26 +1704,59 @@ public class PriorityQueueEmailSchedulerService implements EmailSchedulerService
             }
         }
 
-        public boolean enabled() {
-            return serviceStatus == ServiceStatus.RUNNING && !isInterrupted();
+        // The emails are claimed once scheduled within the visibility timeout, so the resumer wakes up by then
+        private long millisToNextClaim(final long cycleLengthInMillis) {
+            try {
+                final long millisToNextClaim = persistenceServiceOptional.get().getNextBatch(1).stream()
+                        .findFirst()
+                        .map(emailSchedulingData -> emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli()
+                                - visibilityTimeout.toMillis() - TimeUtils.now())
+                        .orElse(cycleLengthInMillis);
+                //not positive when a claimable email is left for lack of room, the low watermark waking up the resumer
+                return millisToNextClaim > 0 ? min(millisToNextClaim, cycleLengthInMillis) : cycleLengthInMillis;
+            } catch (final RuntimeException e) {
+                log.warn("Cannot find the next email to be claimed", e);
+                return cycleLengthInMillis;
+            }
         }
 
-        public synchronized void close() throws InterruptedException {
+        // Returns false if the persistence layer cannot count the emails, so that it is not asked again
+        private boolean samplePersistedEmails() {
             try {
-                if (!isInterrupted()) {
-                    log.info("Interrupting email scheduler resumer");
-                    interrupt();
-                    synchronized (this) {
-                        notify();
-                    }
-                    join();
-                } else {
-                    log.info("Email scheduler resumer already interrupted");
+                schedulerMetrics.recordPersistedEmails(persistenceServiceOptional.get().count());
+                return true;
+            } catch (final UnsupportedOperationException e) {
+                log.info("The number of persisted emails is not sampled: {}", e.getMessage());
+                return false;
+            } catch (final RuntimeException e) {
+                log.warn("Cannot count the persisted emails", e);
+                return true;
+            }
+        }
+
+        private void waitForMillis(final long timeoutInMillis) throws InterruptedException {
+            resumerLock.lock();
+            try {
+                if (!wakeUpRequested) {
+                    resumerCondition.await(timeoutInMillis, TimeUnit.MILLISECONDS);
                 }
-            } catch (InterruptedException e) {
+                wakeUpRequested = false;
+            } finally {
+                resumerLock.unlock();
+            }
+        }
+
+        @Override
+        protected void wakeUp() {
+            resumerLock.lock();
+            try {
+                wakeUpRequested = true;
+                resumerCondition.signalAll();
+            } finally {
+                resumerLock.unlock();
             }
         }
 
     }
 
-}
\ No newline at end of file
+}
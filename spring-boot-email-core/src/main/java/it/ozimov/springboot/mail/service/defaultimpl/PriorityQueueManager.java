@@ -18,6 +18,7 @@ package it.ozimov.springboot.mail.service.defaultimpl;
 
 
 import com.google.common.base.Preconditions;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 import lombok.NonNull;
@@ -26,22 +27,36 @@ import lombok.extern.slf4j.Slf4j;
 import java.io.Closeable;
 import java.io.IOException;
 import java.time.Duration;
-import java.time.OffsetDateTime;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static java.util.Comparator.comparing;
+import static java.util.Objects.nonNull;
 
 @Slf4j
 public class PriorityQueueManager implements Closeable {
 
+    private static final int TIMING_WHEEL_LEVELS = 4;
+
     private final boolean hasPersistence;
     private volatile int currentlyQueued;
     private final TreeSet<EmailSchedulingData>[] queues;
@@ -50,9 +65,51 @@ public class PriorityQueueManager implements Closeable {
     // within "queuabilityDelta" time units of the last loaded.
     private final Duration queuabilityDelta;
 
-    private final Lock queueLock = new ReentrantLock();
-    private final Condition notDequeuing = queueLock.newCondition();
-    private final Condition notEnqueuing = queueLock.newCondition();
+    // Ids of the emails handed over to a consumer and not yet sent. Those must not be loaded again from the persistence
+    // layer, since they are still stored there until the sending completes.
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    // Ids of the emails whose dispatch completed, or that were removed, while a batch was being loaded from the
+    // persistence layer: the batch may have been read before they were removed from there.
+    private final Set<String> dispatchedDuringBatchLoad = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger batchLoadsInProgress = new AtomicInteger();
+    // Emails left in the persistence layer only, either not queued or evicted for lack of room: a reader going
+    // through the persistence layer with a cursor must start over whenever it changes.
+    private final AtomicLong leftToPersistenceLayer = new AtomicLong();
+    // Called when a dequeue leaves fewer emails in memory than the low watermark, to refill before the queues run dry
+    private volatile int lowWatermark;
+    private volatile Runnable lowWatermarkListener;
+    // Called with the emails entering the queues and with those evicted from them, to prepare their sending in advance
+    private volatile Consumer<EmailSchedulingData> enqueuedListener;
+    private volatile Consumer<EmailSchedulingData> evictedListener;
+    // Skips the due emails towards the recipient domains at their cap, if any
+    private volatile DomainThrottle domainThrottle;
+    // Emails in the queues or in the timing wheel by id, to remove them without scanning. Guarded by the queue lock.
+    private final Map<String, EmailSchedulingData> queuedById = new HashMap<>();
+
+    // Emails due after the near-term horizon wait in the timing wheel, if any, and are moved into the priority queues
+    // once they come within the horizon.
+    private final HierarchicalTimingWheel<EmailSchedulingData> timingWheel;
+    private final long nearTermHorizonInMillis;
+    private volatile int currentlyInTimingWheel;
+    // When the leader is going to wake up to advance the timing wheel
+    private long timingWheelWakeUpInMillis = Long.MAX_VALUE;
+
+    // Chooses the priority level to dequeue from when several of them have a due email
+    private final DequeuePolicy dequeuePolicy;
+    // How late the earliest email of each level may get before the level is served out of turn, 0 meaning no target
+    private final long[] maxLagInMillis;
+    private final DueLevels dueLevels;
+    private final DispatchLagHistogram[] lagHistograms;
+
+    private final SchedulerMetrics schedulerMetrics;
+
+    // Enqueues and dequeues run while holding the queue lock from start to end, so that none of them is ever ongoing
+    // once the lock is acquired
+    private final Lock queueLock;
+    // Signalled when the earliest email across all the queues changes, or when a consumer must take over the leadership
+    private final Condition available;
+    // The consumer waiting for the earliest email to be due, if any. The others wait without timeout (leader-follower).
+    private Thread leader;
 
     enum CurrentOperation {
         DEQUEUING, ENQUEUING, NONE, CLOSING
@@ -65,6 +122,42 @@ public class PriorityQueueManager implements Closeable {
                          final boolean hasPersistence,
                          final int maxInMemory,
                          @NonNull final Duration queuabilityDelta) {
+        this(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, null);
+    }
+
+    /**
+     * @param timingWheel the timing wheel settings, ignored if {@code null} or not enabled. The timing wheel cannot be
+     *                    used together with the persistence layer, since the latter already keeps the far-future
+     *                    emails out of memory.
+     */
+    PriorityQueueManager(final int numberOfPriorityLevels,
+                         final boolean hasPersistence,
+                         final int maxInMemory,
+                         @NonNull final Duration queuabilityDelta,
+                         final EmailSchedulerProperties.TimingWheel timingWheel) {
+        this(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, timingWheel, null);
+    }
+
+    /**
+     * @param dequeue the dequeue policy settings. If {@code null}, the due email with the highest priority is always
+     *                dequeued first.
+     */
+    PriorityQueueManager(final int numberOfPriorityLevels,
+                         final boolean hasPersistence,
+                         final int maxInMemory,
+                         @NonNull final Duration queuabilityDelta,
+                         final EmailSchedulerProperties.TimingWheel timingWheel,
+                         final EmailSchedulerProperties.Dequeue dequeue) {
+        this(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, timingWheel, dequeue, SchedulerMetrics.NOOP);
+    }
+
+    PriorityQueueManager(final int numberOfPriorityLevels,
+                         final boolean hasPersistence,
+                         final int maxInMemory,
+                         @NonNull final Duration queuabilityDelta,
+                         final EmailSchedulerProperties.TimingWheel timingWheel,
+                         final EmailSchedulerProperties.Dequeue dequeue,
+                         @NonNull final SchedulerMetrics schedulerMetrics) {
         Preconditions.checkArgument(numberOfPriorityLevels > 0, "Number of priority levels should be a positive number, while %s was given", numberOfPriorityLevels);
         Preconditions.checkArgument(maxInMemory > 0, "Number of max emails in memory should be a positive number, while %s was given", maxInMemory);
 
@@ -74,10 +167,38 @@ public class PriorityQueueManager implements Closeable {
 
         this.queuabilityDelta = queuabilityDelta;
 
+        this.schedulerMetrics = schedulerMetrics;
+        queueLock = schedulerMetrics.instrument(new ReentrantLock());
+        available = queueLock.newCondition();
+
         queues = new TreeSet[numberOfPriorityLevels];
         for (int i = 0; i < numberOfPriorityLevels; i++) {
             queues[i] = new TreeSet<>();
         }
+        dueLevels = new DueLevels();
+
+        dequeuePolicy = DequeuePolicy.of(dequeue, numberOfPriorityLevels);
+        maxLagInMillis = new long[numberOfPriorityLevels];
+        if (nonNull(dequeue) && nonNull(dequeue.getMaxLagMillis())) {
+            for (int i = 0; i < Math.min(numberOfPriorityLevels, dequeue.getMaxLagMillis().size()); i++) {
+                maxLagInMillis[i] = dequeue.getMaxLagMillis().get(i);
+            }
+        }
+        lagHistograms = new DispatchLagHistogram[numberOfPriorityLevels];
+        for (int i = 0; i < numberOfPriorityLevels; i++) {
+            lagHistograms[i] = new DispatchLagHistogram(i + 1);
+        }
+
+        if (nonNull(timingWheel) && timingWheel.isEnabled()) {
+            Preconditions.checkArgument(!hasPersistence, "The timing wheel cannot be used together with the persistence layer");
+            this.timingWheel = new HierarchicalTimingWheel<>(timingWheel.getTickMillis(), timingWheel.getWheelSize(),
+                    TIMING_WHEEL_LEVELS, TimeUtils.now() + timingWheel.getHorizonMillis(),
+                    emailSchedulingData -> emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli());
+            nearTermHorizonInMillis = timingWheel.getHorizonMillis();
+        } else {
+            this.timingWheel = null;
+            nearTermHorizonInMillis = 0;
+        }
     }
 
     public int numberOfLevels() {
@@ -85,65 +206,171 @@ public class PriorityQueueManager implements Closeable {
     }
 
     public boolean hasElements() {
-        return currentlyQueued > 0;
+        return currentlyInQueue() > 0;
     }
 
     public int currentlyInQueue() {
-        return currentlyQueued;
+        return currentlyQueued + currentlyInTimingWheel;
+    }
+
+    /**
+     * @return the emails in the queue of the given priority level, read without acquiring the queue lock.
+     */
+    public int currentlyQueued(final int priorityLevel) {
+        return queues[priorityLevel - 1].size();
+    }
+
+    public int currentlyInTimingWheel() {
+        return currentlyInTimingWheel;
+    }
+
+    public int currentlyInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @return how many times an email was left in the persistence layer only, either because not queued or because
+     * evicted from the queues to make room for an earlier one.
+     */
+    public long leftToPersistenceLayer() {
+        return leftToPersistenceLayer.get();
+    }
+
+    /**
+     * Registers the listener to be called whenever a dequeue or a removal leaves in memory fewer emails than the given
+     * low watermark while there were at least as many before, i.e. once per crossing rather than at each dequeue below
+     * it. The listener is called while holding the queue lock, thus it must return quickly and must not call back the
+     * manager.
+     */
+    public void onLowWatermark(final int lowWatermark, @NonNull final Runnable listener) {
+        Preconditions.checkArgument(lowWatermark > 0, "The low watermark should be a positive number, while %s was given", lowWatermark);
+        this.lowWatermark = lowWatermark;
+        lowWatermarkListener = listener;
+    }
+
+    /**
+     * Registers the listeners to be called whenever an email enters the queues, either directly or from the timing
+     * wheel, and whenever an email is evicted from them to make room for an earlier one. The listeners are called while
+     * holding the queue lock, thus they must return quickly and must not call back the manager.
+     */
+    public void onQueueChanges(@NonNull final Consumer<EmailSchedulingData> enqueuedListener,
+                               @NonNull final Consumer<EmailSchedulingData> evictedListener) {
+        this.enqueuedListener = enqueuedListener;
+        this.evictedListener = evictedListener;
     }
 
-    public long millisToNextEmail() {
-        Optional<OffsetDateTime> minScheduledTime = getStreamOfAllFirst()
-                .map(EmailSchedulingData::getScheduledDateTime)
-                .min(OffsetDateTime::compareTo);
-        return !minScheduledTime.isPresent() ? 0 :
-                minScheduledTime.get().toInstant().toEpochMilli();
+    /**
+     * Registers the throttle capping the emails dispatched towards each recipient domain. The due emails towards a
+     * throttled domain are skipped, so that the following ones are dispatched in the meanwhile.
+     */
+    void throttle(@NonNull final DomainThrottle domainThrottle) {
+        this.domainThrottle = domainThrottle;
+    }
+
+    /**
+     * @return true if the earliest email in the queues is due, the emails in the timing wheel being never due.
+     */
+    public boolean hasDueElements() {
+        queueLock.lock();
+        try {
+            final long now = TimeUtils.now();
+            return getStreamOfAllFirst().anyMatch(first -> toEpochMilli(first) <= now);
+        } finally {
+            queueLock.unlock();
+        }
     }
 
     public boolean enqueue(final EmailSchedulingData emailSchedulingData, final boolean isFromPersistenceLayer) {
         log.debug("Called Enqueue [currently queued = {}, isFromPersistenceLayer = {}]", currentlyInQueue(), isFromPersistenceLayer);
-        queueLock.lock();
+        startEnqueue();
+        if (isCurrentOperationEnqueuing()) {
+            return doEnqueue(emailSchedulingData, isFromPersistenceLayer);
+        }
+        return false;
+    }
+
+    /**
+     * Enqueues all the given emails acquiring the queue lock only once. Differently from
+     * {@link #enqueue(EmailSchedulingData, boolean)}, the lock is released before returning.
+     *
+     * @return the number of emails actually enqueued.
+     */
+    public int enqueueAll(@NonNull final Collection<EmailSchedulingData> emailSchedulingDataCollection,
+                          final boolean isFromPersistenceLayer) {
+        if (emailSchedulingDataCollection.isEmpty()) {
+            return 0;
+        }
+        startEnqueue();
+        int enqueued = 0;
         try {
-            while (isCurrentOperationDequeuing() || isCurrentOperationEnqueuing()) {
-                notDequeuing.await();
-                if (!isCurrentOperationClosing()) {
-                    setCurrentOperationToEnqueuing();
+            if (isCurrentOperationEnqueuing()) {
+                for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataCollection) {
+                    if (doEnqueue(emailSchedulingData, isFromPersistenceLayer)) {
+                        enqueued++;
+                    }
                 }
             }
-            if (isCurrentOperationNone() && !isCurrentOperationClosing()) {
-                setCurrentOperationToEnqueuing();
-            }
+        } finally {
+            completeEnqueue();
+        }
+        return enqueued;
+    }
 
-            if (isCurrentOperationEnqueuing() && !isCurrentOperationClosing()) {
-                final int queueIndex = queueIndex(emailSchedulingData);
-                TreeSet<EmailSchedulingData> queue = queues[queueIndex];
-                if (!queue.contains(emailSchedulingData)) { //It may happen when fetching from persistence layer
-                    final boolean isEnqueuable = isFromPersistenceLayer
-                            //True also if there is no persistence layer or the queues are empty
-                            || beforeLastLoadedFromPersistenceLayer(emailSchedulingData);
-                    boolean dequeueLastLoaded = isEnqueuable && !canAddOneInMemory() && hasElements();
-
-                    if (isEnqueuable) {
-                        queues[queueIndex].add(emailSchedulingData);
-                        currentlyQueued++;
-                    } else {
-                        log.debug("Email scheduling data {} not queued but should be persisted afterwards", emailSchedulingData);
-                    }
+    // Acquires the queue lock, to be released by completeEnqueue(), and sets the current operation to enqueuing unless
+    // closing.
+    private void startEnqueue() {
+        queueLock.lock();
+        if (!isCurrentOperationClosing()) {
+            setCurrentOperationToEnqueuing();
+        }
+    }
 
-                    if (dequeueLastLoaded) {
-                        int queueIndexOfLatestOfAllLast = queueIndexOfLatestOfAllLast();
-                        TreeSet<EmailSchedulingData> queueOfLatestOfAllLast = queues[queueIndexOfLatestOfAllLast];
-                        queueOfLatestOfAllLast.pollLast();
-                        currentlyQueued--;
-                    }
-                    return isEnqueuable;
+    // Must be called while holding the queue lock, with current operation set to enqueuing.
+    private boolean doEnqueue(final EmailSchedulingData emailSchedulingData, final boolean isFromPersistenceLayer) {
+        final int queueIndex = queueIndex(emailSchedulingData);
+        TreeSet<EmailSchedulingData> queue = queues[queueIndex];
+        if (isFromPersistenceLayer && isDispatchingOrDispatched(emailSchedulingData)) {
+            log.debug("Email scheduling data {} not queued since it is being dispatched", emailSchedulingData);
+        } else if (isFromPersistenceLayer && queuedById.containsKey(emailSchedulingData.getId())) {
+            log.debug("Email scheduling data {} not queued since it is already in memory", emailSchedulingData);
+        } else if (!queue.contains(emailSchedulingData)) { //It may happen when fetching from persistence layer
+            final boolean isEnqueuable = isFromPersistenceLayer
+                    //True also if there is no persistence layer or the queues are empty
+                    || beforeLastLoadedFromPersistenceLayer(emailSchedulingData);
+            boolean dequeueLastLoaded = isEnqueuable && !canAddOneInMemory() && hasElements();
+
+            if (isEnqueuable && addToTimingWheel(emailSchedulingData)) {
+                queuedById.put(emailSchedulingData.getId(), emailSchedulingData);
+                log.debug("Email scheduling data {} added to the timing wheel", emailSchedulingData);
+            } else if (isEnqueuable) {
+                final boolean isNewEarliest = isEarliest(emailSchedulingData);
+                queues[queueIndex].add(emailSchedulingData);
+                queuedById.put(emailSchedulingData.getId(), emailSchedulingData);
+                currentlyQueued++;
+                if (isNewEarliest) {
+                    leader = null;
+                    available.signal(); //the consumers wait for a different deadline now
+                }
+                if (nonNull(enqueuedListener)) {
+                    enqueuedListener.accept(emailSchedulingData);
                 }
+            } else {
+                log.debug("Email scheduling data {} not queued but should be persisted afterwards", emailSchedulingData);
+                leftToPersistenceLayer.incrementAndGet();
             }
-        } catch (InterruptedException e) {
-            if (!isCurrentOperationClosing()) {
-                log.error("Priority queue manager interrupted during dequeuing operation.", e);
+
+            if (dequeueLastLoaded) {
+                int queueIndexOfLatestOfAllLast = queueIndexOfLatestOfAllLast();
+                TreeSet<EmailSchedulingData> queueOfLatestOfAllLast = queues[queueIndexOfLatestOfAllLast];
+                final EmailSchedulingData evicted = queueOfLatestOfAllLast.pollLast();
+                queuedById.remove(evicted.getId());
+                currentlyQueued--;
+                leftToPersistenceLayer.incrementAndGet();
+                if (nonNull(evictedListener)) {
+                    evictedListener.accept(evicted);
+                }
             }
-            completeEnqueue();
+            return isEnqueuable;
         }
         return false;
     }
@@ -155,65 +382,342 @@ public class PriorityQueueManager implements Closeable {
                         "Cannot complete enqueue if current operation is %s.", currentOperation);
                 log.debug("Completed Enqueue [currently queued = {}]", currentlyInQueue());
                 setCurrentOperationToNone();
-                notEnqueuing.signal();
             }
         } finally {
             queueLock.unlock();
         }
     }
 
-    public Optional<EmailSchedulingData> dequeueNext(final Duration consumerCycle) {
-        log.debug("Called Dequeue [currently queued = {}]", currentlyInQueue());
-        queueLock.lock();
+    /**
+     * Waits until an email is due and polls it. Among the due emails, the one with the highest priority is returned.
+     * <p>
+     * Only one consumer at a time (the leader) waits with a timeout, precisely until the earliest email across all
+     * the priority levels is due. The other consumers wait until signalled, so that no consumer wakes up for nothing
+     * when the queues are empty or while waiting for the next email. The returned email is tracked as in flight until
+     * {@link #completeDispatch(EmailSchedulingData)} is called.
+     *
+     * @return the email to be sent, or an empty optional if the manager is closing.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public Optional<EmailSchedulingData> takeNext() throws InterruptedException {
+        final long startInNanos = System.nanoTime();
+        queueLock.lockInterruptibly();
         try {
-            while (isCurrentOperationEnqueuing() || isCurrentOperationDequeuing()) {
-                notDequeuing.await();
-                if (!isCurrentOperationClosing()) {
-                    setCurrentOperationToDequeuing();
+            while (!isCurrentOperationClosing()) {
+                //one reading of the clock, so that the due emails polled are the ones the delay was computed for
+                final long nowInMillis = TimeUtils.now();
+                advanceTimingWheel(nowInMillis);
+                final Optional<EmailSchedulingData> earliest = getStreamOfAllFirst()
+                        .min(comparing(EmailSchedulingData::getScheduledDateTime));
+                final long earliestDelayInNanos = earliest
+                        .map(first -> TimeUnit.MILLISECONDS.toNanos(toEpochMilli(first) - nowInMillis))
+                        .orElse(Long.MAX_VALUE);
+                final EmailSchedulingData emailSchedulingData = earliestDelayInNanos <= 0 ? pollFirstDue(nowInMillis) : null;
+                if (nonNull(emailSchedulingData)) {
+                    schedulerMetrics.recordDequeueWait(System.nanoTime() - startInNanos);
+                    return Optional.of(emailSchedulingData);
                 }
-            }
-            if (isCurrentOperationNone() && !isCurrentOperationClosing()) {
-                setCurrentOperationToDequeuing();
-            }
-            if (isCurrentOperationDequeuing() && !isCurrentOperationClosing()) {
-                final long now = TimeUtils.now();
-                for (final TreeSet<EmailSchedulingData> queue : queues) {
-                    if (!queue.isEmpty()) {
-                        final long time = queue.first().getScheduledDateTime().toInstant().toEpochMilli();
-                        if (time - now <= consumerCycle.toMillis()) {
-                            //message found!
-                            currentlyQueued--;
-                            return Optional.of(queue.pollFirst());
+
+                //all the due emails may be towards throttled domains, then wait for one of them to be available again
+                final long delayInNanos = Math.min(earliestDelayInNanos > 0 ? earliestDelayInNanos : domainThrottle.nanosUntilAvailable(),
+                        timingWheelDelayInNanos(nowInMillis));
+                if (delayInNanos == Long.MAX_VALUE) {
+                    available.await();
+                    continue;
+                }
+
+                if (nonNull(leader)) {
+                    available.await();
+                } else {
+                    final Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    try {
+                        available.awaitNanos(delayInNanos);
+                    } finally {
+                        if (leader == thisThread) {
+                            leader = null;
                         }
                     }
                 }
             }
-        } catch (InterruptedException e) {
-            if (!isCurrentOperationClosing()) {
-                log.error("Priority queue manager interrupted during dequeuing operation.", e);
+            return Optional.empty();
+        } finally {
+            if (leader == null && hasElements()) {
+                available.signal(); //another consumer becomes the leader
             }
-            completeDequeue();
+            queueLock.unlock();
+        }
+    }
+
+    /**
+     * Marks the given email, previously returned by {@link #takeNext()}, as no longer in flight.
+     * To be called once the email was sent and removed from the persistence layer.
+     */
+    public void completeDispatch(@NonNull final EmailSchedulingData emailSchedulingData) {
+        final String id = emailSchedulingData.getId();
+        if (batchLoadsInProgress.get() > 0) {
+            dispatchedDuringBatchLoad.add(id);
         }
+        inFlight.remove(id);
+        completeSend(emailSchedulingData);
+    }
 
+    /**
+     * Gives back the places held by the given email towards its recipient domains, if throttled. To be called once the
+     * attempt to send the email is over, even if the email stays in flight waiting for a retry.
+     */
+    public void completeSend(@NonNull final EmailSchedulingData emailSchedulingData) {
+        final DomainThrottle domainThrottle = this.domainThrottle;
+        if (nonNull(domainThrottle) && domainThrottle.release(emailSchedulingData)) {
+            queueLock.lock();
+            try {
+                available.signal(); //an email towards the released domains may be dispatchable now
+            } finally {
+                queueLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Puts back in the queues an email previously returned by {@link #takeNext()} that has to be sent again.
+     * The email is no longer in flight, and it is not enqueued twice if a batch from the persistence layer already
+     * brought it back.
+     *
+     * @return true if the email was enqueued.
+     */
+    public boolean requeue(@NonNull final EmailSchedulingData emailSchedulingData) {
+        inFlight.remove(emailSchedulingData.getId());
+        completeSend(emailSchedulingData);
+        return enqueueAll(Collections.singletonList(emailSchedulingData), true) > 0;
+    }
+
+    /**
+     * Removes the email with the given id from the queues or from the timing wheel, in O(log n). Emails already handed
+     * over to a consumer are not affected, see {@link #isInFlight(String)}.
+     *
+     * @return the removed email, or an empty optional if no email with the given id is in memory.
+     */
+    public Optional<EmailSchedulingData> remove(@NonNull final String id) {
+        queueLock.lock();
         try {
-            return Optional.empty();
+            if (batchLoadsInProgress.get() > 0) {
+                dispatchedDuringBatchLoad.add(id); //the batch being loaded must not bring it back
+            }
+            final EmailSchedulingData emailSchedulingData = queuedById.remove(id);
+            if (emailSchedulingData == null) {
+                return Optional.empty();
+            }
+            final int inQueueBefore = currentlyInQueue();
+            if (queues[queueIndex(emailSchedulingData)].remove(emailSchedulingData)) {
+                currentlyQueued--;
+            } else if (nonNull(timingWheel) && timingWheel.remove(emailSchedulingData)) {
+                currentlyInTimingWheel = timingWheel.size();
+            }
+            checkLowWatermark(inQueueBefore);
+            log.debug("Removed {} [currently queued = {}]", emailSchedulingData, currentlyInQueue());
+            return Optional.of(emailSchedulingData);
         } finally {
-            completeDequeue();
+            queueLock.unlock();
         }
     }
 
-    public void completeDequeue() {
+    /**
+     * Returns true if the email with the given id was handed over to a consumer and is not yet sent.
+     */
+    public boolean isInFlight(@NonNull final String id) {
+        return inFlight.contains(id);
+    }
+
+    /**
+     * To be called before reading a batch from the persistence layer, so that the emails dispatched in the meanwhile
+     * are not enqueued again.
+     */
+    public void startBatchLoad() {
+        batchLoadsInProgress.incrementAndGet();
+    }
+
+    public void completeBatchLoad() {
+        if (batchLoadsInProgress.decrementAndGet() == 0) {
+            dispatchedDuringBatchLoad.clear();
+        }
+    }
+
+    // Must be called while holding the queue lock. Returns true if the email is far enough in the future to wait in the
+    // timing wheel.
+    private boolean addToTimingWheel(final EmailSchedulingData emailSchedulingData) {
+        if (timingWheel == null) {
+            return false;
+        }
+        final long nowInMillis = TimeUtils.now();
+        advanceTimingWheel(nowInMillis);
+        final long scheduledTime = emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli();
+        if (scheduledTime < nowInMillis + nearTermHorizonInMillis) {
+            return false;
+        }
+        final long bucketTime = timingWheel.add(emailSchedulingData);
+        if (bucketTime < 0) {
+            return false;
+        }
+        currentlyInTimingWheel = timingWheel.size();
+        if (bucketTime - nearTermHorizonInMillis < timingWheelWakeUpInMillis) {
+            leader = null;
+            available.signal(); //the timing wheel has to be advanced earlier than expected
+        }
+        return true;
+    }
+
+    // Must be called while holding the queue lock. Moves into the priority queues the emails within the horizon.
+    private void advanceTimingWheel(final long nowInMillis) {
+        if (timingWheel == null || timingWheel.isEmpty()) {
+            return;
+        }
+        timingWheel.advanceTo(nowInMillis + nearTermHorizonInMillis, emailSchedulingData -> {
+            queues[queueIndex(emailSchedulingData)].add(emailSchedulingData);
+            currentlyQueued++;
+            if (nonNull(enqueuedListener)) {
+                enqueuedListener.accept(emailSchedulingData);
+            }
+        });
+        currentlyInTimingWheel = timingWheel.size();
+    }
+
+    // Must be called while holding the queue lock, right after advancing the timing wheel.
+    private long timingWheelDelayInNanos(final long nowInMillis) {
+        if (timingWheel == null || timingWheel.isEmpty()) {
+            timingWheelWakeUpInMillis = Long.MAX_VALUE;
+            return Long.MAX_VALUE;
+        }
+        timingWheelWakeUpInMillis = timingWheel.nextExpirationInMillis() - nearTermHorizonInMillis;
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1, timingWheelWakeUpInMillis - nowInMillis));
+    }
+
+    // Must be called while holding the queue lock and with at least one email due by the given time. Returns null if
+    // all the due emails are towards throttled domains.
+    private EmailSchedulingData pollFirstDue(final long now) {
+        setCurrentOperationToDequeuing();
         try {
-            if (!isCurrentOperationClosing()) {
-                Preconditions.checkState(isCurrentOperationDequeuing(),
-                        "Cannot complete dequeue if current operation is %s.", currentOperation);
-                log.debug("Completed Dequeue [currently queued = {}]", currentlyInQueue());
-                setCurrentOperationToNone();
-                notDequeuing.signal();
+            final int level = selectDueLevel(now);
+            if (level < 0) {
+                Preconditions.checkState(nonNull(domainThrottle), "Expected at least one email due before %s", now);
+                return null;
             }
+            final EmailSchedulingData emailSchedulingData = pollFirst(level, now);
+            log.debug("Dequeued {} [currently queued = {}]", emailSchedulingData, currentlyInQueue());
+            return emailSchedulingData;
         } finally {
-            queueLock.unlock();
+            setCurrentOperationToNone();
+        }
+    }
+
+    // Must be called while holding the queue lock. Returns the level to dequeue from among those whose earliest email is
+    // due by now, or -1 if there is none. A level lagging behind its target is served before the others.
+    private int selectDueLevel(final long nowInMillis) {
+        dueLevels.refresh(nowInMillis, domainThrottle);
+        boolean anyDue = false;
+        int mostOverdueLevel = -1;
+        long mostOverdueInMillis = 0;
+        for (int level = 0; level < queues.length; level++) {
+            if (dueLevels.isDue(level)) {
+                anyDue = true;
+                if (maxLagInMillis[level] > 0) {
+                    final long overdueInMillis = nowInMillis - toEpochMilli(queues[level].first()) - maxLagInMillis[level];
+                    if (overdueInMillis > mostOverdueInMillis) {
+                        mostOverdueInMillis = overdueInMillis;
+                        mostOverdueLevel = level;
+                    }
+                }
+            }
+        }
+        if (!anyDue) {
+            return -1;
+        }
+        if (mostOverdueLevel >= 0) {
+            return mostOverdueLevel;
         }
+        final int level = dequeuePolicy.select(dueLevels);
+        Preconditions.checkState(level >= 0 && level < queues.length && dueLevels.isDue(level),
+                "The dequeue policy selected the priority level index %s, which has no due email", level);
+        return level;
+    }
+
+    // Must be called while holding the queue lock, on the level just selected as due.
+    private EmailSchedulingData pollFirst(final int level, final long nowInMillis) {
+        final int inQueueBefore = currentlyInQueue();
+        currentlyQueued--;
+        final EmailSchedulingData emailSchedulingData = dueLevels.head(level);
+        queues[level].remove(emailSchedulingData);
+        queuedById.remove(emailSchedulingData.getId());
+        inFlight.add(emailSchedulingData.getId());
+        if (nonNull(domainThrottle)) {
+            domainThrottle.acquire(emailSchedulingData);
+        }
+        lagHistograms[level].record(nowInMillis - toEpochMilli(emailSchedulingData));
+        checkLowWatermark(inQueueBefore);
+        return emailSchedulingData;
+    }
+
+    // Must be called while holding the queue lock, after lowering the count of the emails in memory: the listener is
+    // called when the count crosses the low watermark, whatever it dropped by
+    private void checkLowWatermark(final int inQueueBefore) {
+        if (nonNull(lowWatermarkListener) && inQueueBefore >= lowWatermark && currentlyInQueue() < lowWatermark) {
+            lowWatermarkListener.run();
+        }
+    }
+
+    private static long toEpochMilli(final EmailSchedulingData emailSchedulingData) {
+        return emailSchedulingData.getScheduledDateTime().toInstant().toEpochMilli();
+    }
+
+    /**
+     * @return for each priority level, starting from the highest, how late the emails were dequeued with respect to
+     * their scheduled time.
+     */
+    public List<DispatchLagStatistics> dispatchLagStatistics() {
+        return Arrays.stream(lagHistograms)
+                .map(DispatchLagHistogram::statistics)
+                .collect(Collectors.toList());
+    }
+
+    // The earliest email of each level that is due and, if throttled, not towards a domain at its cap
+    private class DueLevels implements DequeuePolicy.Levels {
+
+        private final EmailSchedulingData[] dispatchable = new EmailSchedulingData[queues.length];
+
+        private void refresh(final long dueUntilInMillis, final DomainThrottle domainThrottle) {
+            for (int level = 0; level < queues.length; level++) {
+                dispatchable[level] = null;
+                int lookedAt = 0;
+                for (final EmailSchedulingData emailSchedulingData : queues[level]) {
+                    if (toEpochMilli(emailSchedulingData) > dueUntilInMillis
+                            || (nonNull(domainThrottle) && lookedAt++ >= domainThrottle.lookahead())) {
+                        break;
+                    }
+                    if (domainThrottle == null || domainThrottle.canDispatch(emailSchedulingData)) {
+                        dispatchable[level] = emailSchedulingData;
+                        break;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int count() {
+            return queues.length;
+        }
+
+        @Override
+        public boolean isDue(final int level) {
+            return nonNull(dispatchable[level]);
+        }
+
+        @Override
+        public EmailSchedulingData head(final int level) {
+            if (nonNull(dispatchable[level])) {
+                return dispatchable[level];
+            }
+            return queues[level].isEmpty() ? null : queues[level].first();
+        }
+
     }
 
     protected boolean isCurrentOperationNone() {
@@ -241,20 +745,14 @@ public class PriorityQueueManager implements Closeable {
         }
     }
 
-    protected void setCurrentOperationToEnqueuing() throws InterruptedException {
+    protected void setCurrentOperationToEnqueuing() {
         currentOperationLock.writeLock().lock();
-        if (isCurrentOperationDequeuing()) {
-            notDequeuing.await();
-        }
         currentOperation = CurrentOperation.ENQUEUING;
         currentOperationLock.writeLock().unlock();
     }
 
-    protected void setCurrentOperationToDequeuing() throws InterruptedException {
+    protected void setCurrentOperationToDequeuing() {
         currentOperationLock.writeLock().lock();
-        if (isCurrentOperationEnqueuing()) {
-            notEnqueuing.await();
-        }
         currentOperation = CurrentOperation.DEQUEUING;
         currentOperationLock.writeLock().unlock();
     }
@@ -269,6 +767,11 @@ public class PriorityQueueManager implements Closeable {
         return emailSchedulingData.getAssignedPriority() - 1;
     }
 
+    private boolean isDispatchingOrDispatched(final EmailSchedulingData emailSchedulingData) {
+        final String id = emailSchedulingData.getId();
+        return inFlight.contains(id) || dispatchedDuringBatchLoad.contains(id);
+    }
+
     private boolean canAddOneInMemory() {
         return !hasPersistence || currentlyInQueue() < maxInMemory;
     }
@@ -310,10 +813,15 @@ public class PriorityQueueManager implements Closeable {
     private Stream<EmailSchedulingData> getStreamOfAllFirst() {
         return Arrays.stream(queues)
                 .filter(queue -> !queue.isEmpty())
-                .map(queue -> queue.last())
+                .map(queue -> queue.first())
                 .filter(Objects::nonNull);
     }
 
+    private boolean isEarliest(final EmailSchedulingData emailSchedulingData) {
+        return getStreamOfAllFirst()
+                .noneMatch(first -> first.getScheduledDateTime().isBefore(emailSchedulingData.getScheduledDateTime()));
+    }
+
     @Override
     public void close() throws IOException {
         if (currentOperationLock.isWriteLocked()) {
@@ -322,6 +830,12 @@ public class PriorityQueueManager implements Closeable {
         currentOperationLock.writeLock().lock();
         currentOperation = CurrentOperation.CLOSING;
         currentOperationLock.writeLock().unlock();
+        queueLock.lock();
+        try {
+            available.signalAll(); //the consumers waiting for the next email return
+        } finally {
+            queueLock.unlock();
+        }
         try {
             queueLock.unlock();
         } catch (IllegalMonitorStateException e) {
@@ -24,6 +24,20 @@ public class RedisBasedPersistenceServiceConstants {
 
     public static final String ORDERING_KEY_PREFIX = "priority-level:";
 
+    public static final String DEAD_LETTER_ORDERING_KEY = "dead-letters";
+
+    public static final String DEAD_LETTER_INFO_KEY = "dead-letters:info";
+
+    public static final String CLAIMED_KEY_PREFIX = "claimed-by:";
+
+    public static final String CLAIM_ORIGIN_KEY = "claims:origin";
+
+    public static final String CLAIM_OWNERS_KEY = "claims:owners";
+
+    public static final String ADDITIONS_CHANNEL = "emails:added";
+
+    public static final String SCHEMA_VERSION_KEY = "schema:version";
+
     public static final String orderingKey(final int priorityLevel) {
         Preconditions.checkArgument(priorityLevel > 0, "Priority level must be a positive integer number");
         return orderingKeyPrefix() + priorityLevel;
@@ -33,4 +47,37 @@ public class RedisBasedPersistenceServiceConstants {
         return ORDERING_KEY_PREFIX;
     }
 
+    public static final String deadLetterOrderingKey() {
+        return DEAD_LETTER_ORDERING_KEY;
+    }
+
+    public static final String deadLetterInfoKey() {
+        return DEAD_LETTER_INFO_KEY;
+    }
+
+    public static final String claimedKey(final String owner) {
+        Preconditions.checkArgument(owner != null && !owner.isEmpty(), "The owner of the claims must be a non empty string");
+        return claimedKeyPrefix() + owner;
+    }
+
+    public static final String claimedKeyPrefix() {
+        return CLAIMED_KEY_PREFIX;
+    }
+
+    public static final String claimOriginKey() {
+        return CLAIM_ORIGIN_KEY;
+    }
+
+    public static final String claimOwnersKey() {
+        return CLAIM_OWNERS_KEY;
+    }
+
+    public static final String additionsChannel() {
+        return ADDITIONS_CHANNEL;
+    }
+
+    public static final String schemaVersionKey() {
+        return SCHEMA_VERSION_KEY;
+    }
+
 }
\ No newline at end of file
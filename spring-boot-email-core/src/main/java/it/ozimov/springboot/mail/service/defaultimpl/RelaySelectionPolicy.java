@@ -0,0 +1,72 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.RoutingProperties;
+
+import static java.util.Objects.isNull;
+
+/**
+ * Decides which relay the next email is sent through. The {@linkplain RoutingJavaMailSender} calls the policy while
+ * holding its selection lock, so implementations do not need to be thread safe.
+ */
+public interface RelaySelectionPolicy {
+
+    /**
+     * @param candidates the relays that may take the email, at least one.
+     * @return the index of the chosen relay among the candidates.
+     */
+    int select(Candidates candidates);
+
+    /**
+     * View over the candidate relays at the time of the selection.
+     */
+    interface Candidates {
+
+        int count();
+
+        String name(int candidate);
+
+        int weight(int candidate);
+
+        /**
+         * @return the emails being sent through the relay.
+         */
+        int outstanding(int candidate);
+
+        /**
+         * @return the moving average of the latency of the relay, or zero if no email was sent through it yet.
+         */
+        double latencyNanos(int candidate);
+
+    }
+
+    static RelaySelectionPolicy of(final RoutingProperties.Strategy strategy) {
+        if (isNull(strategy)) {
+            return new LeastOutstandingRelaySelectionPolicy();
+        }
+        switch (strategy) {
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinRelaySelectionPolicy();
+            case EWMA_LATENCY:
+                return new EwmaLatencyRelaySelectionPolicy();
+            default:
+                return new LeastOutstandingRelaySelectionPolicy();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of a relay of a {@linkplain RoutingJavaMailSender}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class RelayStatistics {
+
+    private final String relay;
+
+    private final CircuitBreaker.State circuitState;
+
+    // Emails being sent through the relay right now
+    private final int outstanding;
+
+    // Moving average of the latency of the last emails sent through the relay
+    private final double latencyMillis;
+
+    private final long sentMessages;
+
+    // Emails the relay failed to send, each one handed over to the next relay if any
+    private final long failedMessages;
+
+    // Times the relay was skipped because of too many consecutive failures
+    private final long circuitOpenings;
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import lombok.NonNull;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSenderFailedException;
+import org.springframework.mail.MailSendException;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.nonNull;
+
+/**
+ * Decides whether an email that could not be sent deserves another attempt, and how long to wait before it.
+ * <p>
+ * Failures carrying SMTP reply codes are classified by code: 4xx replies are transient unless listed among the
+ * permanent ones, any other reply is permanent unless listed among the transient ones, and a single permanent reply
+ * makes the whole failure permanent, since some recipients may have been rejected for good. Failures without reply
+ * codes are transient only if caused by one of the configured exceptions, e.g. a refused connection or a read timeout.
+ */
+class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final double multiplier;
+    private final double jitter;
+    private final Set<Integer> transientReplyCodes;
+    private final Set<Integer> permanentReplyCodes;
+    private final List<Class<? extends Throwable>> transientExceptions;
+
+    RetryPolicy(@NonNull final EmailSchedulerProperties.Retry retry) {
+        checkArgument(retry.getMaxAttempts() > 0,
+                "Max attempts should be a positive number, while %s was given", retry.getMaxAttempts());
+        checkArgument(retry.getInitialBackoffMillis() > 0,
+                "Initial backoff should be a positive number, while %s was given", retry.getInitialBackoffMillis());
+        checkArgument(retry.getMaxBackoffMillis() >= retry.getInitialBackoffMillis(),
+                "Max backoff should not be smaller than %s, while %s was given", retry.getInitialBackoffMillis(), retry.getMaxBackoffMillis());
+        checkArgument(retry.getMultiplier() >= 1,
+                "Multiplier should not be smaller than one, while %s was given", retry.getMultiplier());
+        checkArgument(retry.getJitter() >= 0 && retry.getJitter() <= 1,
+                "Jitter should be between 0 and 1, while %s was given", retry.getJitter());
+
+        maxAttempts = retry.getMaxAttempts();
+        initialBackoffMillis = retry.getInitialBackoffMillis();
+        maxBackoffMillis = retry.getMaxBackoffMillis();
+        multiplier = retry.getMultiplier();
+        jitter = retry.getJitter();
+        transientReplyCodes = nonNull(retry.getTransientReplyCodes()) ? ImmutableSet.copyOf(retry.getTransientReplyCodes()) : ImmutableSet.of();
+        permanentReplyCodes = nonNull(retry.getPermanentReplyCodes()) ? ImmutableSet.copyOf(retry.getPermanentReplyCodes()) : ImmutableSet.of();
+        transientExceptions = nonNull(retry.getTransientExceptions()) ? ImmutableList.copyOf(retry.getTransientExceptions()) : ImmutableList.of();
+    }
+
+    public int maxAttempts() {
+        return maxAttempts;
+    }
+
+    public boolean isTransient(@NonNull final Throwable failure) {
+        final List<Throwable> causes = causes(failure);
+        boolean hasReplyCode = false;
+        for (final Throwable cause : causes) {
+            final OptionalInt replyCode = replyCode(cause);
+            if (replyCode.isPresent()) {
+                if (!isTransient(replyCode.getAsInt())) {
+                    return false;
+                }
+                hasReplyCode = true;
+            }
+        }
+        return hasReplyCode || causes.stream()
+                .anyMatch(cause -> transientExceptions.stream().anyMatch(type -> type.isInstance(cause)));
+    }
+
+    /**
+     * Returns the time to wait after the given failed attempt: it grows exponentially with the attempts, up to the max
+     * backoff, and a random fraction up to the jitter is taken off, so that emails failed together are not retried
+     * together.
+     *
+     * @param attempt the failed attempt, starting from 1.
+     */
+    public long backoffMillis(final int attempt) {
+        checkArgument(attempt > 0, "Attempt should be a positive number, while %s was given", attempt);
+        final long backoffMillis = (long) Math.min(initialBackoffMillis * Math.pow(multiplier, attempt - 1), maxBackoffMillis);
+        return backoffMillis - (long) (backoffMillis * jitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private boolean isTransient(final int replyCode) {
+        if (replyCode >= 400 && replyCode < 500) {
+            return !permanentReplyCodes.contains(replyCode);
+        }
+        return transientReplyCodes.contains(replyCode);
+    }
+
+    // The failure, its causes and the failures of the single messages wrapped by Spring, each one once
+    static List<Throwable> causes(final Throwable failure) {
+        final Set<Throwable> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Deque<Throwable> toVisit = new ArrayDeque<>();
+        toVisit.push(failure);
+        while (!toVisit.isEmpty()) {
+            final Throwable throwable = toVisit.pop();
+            if (visited.add(throwable)) {
+                if (nonNull(throwable.getCause())) {
+                    toVisit.push(throwable.getCause());
+                }
+                if (throwable instanceof MailSendException) {
+                    Arrays.stream(((MailSendException) throwable).getMessageExceptions()).forEach(toVisit::push);
+                }
+            }
+        }
+        return ImmutableList.copyOf(visited);
+    }
+
+    static OptionalInt replyCode(final Throwable throwable) {
+        if (throwable instanceof SMTPSendFailedException) {
+            return OptionalInt.of(((SMTPSendFailedException) throwable).getReturnCode());
+        } else if (throwable instanceof SMTPAddressFailedException) {
+            return OptionalInt.of(((SMTPAddressFailedException) throwable).getReturnCode());
+        } else if (throwable instanceof SMTPSenderFailedException) {
+            return OptionalInt.of(((SMTPSenderFailedException) throwable).getReturnCode());
+        }
+        return OptionalInt.empty();
+    }
+
+}
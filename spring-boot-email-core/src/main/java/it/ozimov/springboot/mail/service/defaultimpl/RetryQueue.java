@@ -0,0 +1,188 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Keeps the emails that could not be sent out of the priority queues until their backoff expires, so that the
+ * consumers never wait for a failing email. The failed attempts of each email are counted until it is either sent or
+ * given up.
+ */
+@Slf4j
+class RetryQueue {
+
+    private final RetryPolicy retryPolicy;
+
+    private final DelayQueue<DelayedRetry> delayedRetries = new DelayQueue<>();
+
+    private final Map<String, Integer> failedAttempts = new ConcurrentHashMap<>();
+
+    private final AtomicLong retriedEmails = new AtomicLong();
+    private final AtomicLong exhaustedEmails = new AtomicLong();
+    private final AtomicLong permanentlyFailedEmails = new AtomicLong();
+
+    RetryQueue(@NonNull final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Counts a failed attempt to send the given email and, if the failure is transient and attempts are left, holds the
+     * email until its backoff expires.
+     *
+     * @return {@code true} if the email will be retried, {@code false} if it has to be given up.
+     */
+    public boolean offer(@NonNull final EmailSchedulingData emailSchedulingData, @NonNull final Throwable failure) {
+        final String id = emailSchedulingData.getId();
+        final int attempt = failedAttempts.merge(id, 1, Integer::sum);
+        if (!retryPolicy.isTransient(failure)) {
+            failedAttempts.remove(id);
+            permanentlyFailedEmails.incrementAndGet();
+            log.warn("Email {} not retried since the failure is permanent", id);
+            return false;
+        }
+        if (attempt >= retryPolicy.maxAttempts()) {
+            failedAttempts.remove(id);
+            exhaustedEmails.incrementAndGet();
+            log.warn("Email {} given up after {} attempts", id, attempt);
+            return false;
+        }
+        final long backoffMillis = retryPolicy.backoffMillis(attempt);
+        delayedRetries.offer(new DelayedRetry(emailSchedulingData, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMillis)));
+        retriedEmails.incrementAndGet();
+        log.info("Email {} will be retried in {} ms, after {} failed attempts", id, backoffMillis, attempt);
+        return true;
+    }
+
+    /**
+     * Holds the given email for the given time without counting a failed attempt, since the mail server was not even
+     * called.
+     */
+    public void park(@NonNull final EmailSchedulingData emailSchedulingData, final long delayMillis) {
+        delayedRetries.offer(new DelayedRetry(emailSchedulingData, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis)));
+    }
+
+    /**
+     * Waits until the backoff of an email expires.
+     *
+     * @return the email to be sent again.
+     */
+    public EmailSchedulingData take() throws InterruptedException {
+        return delayedRetries.take().emailSchedulingData;
+    }
+
+    /**
+     * Forgets the failed attempts of an email that was finally sent.
+     */
+    public void onSent(@NonNull final EmailSchedulingData emailSchedulingData) {
+        failedAttempts.remove(emailSchedulingData.getId());
+    }
+
+    /**
+     * Removes the email with the given id, if waiting for its backoff to expire.
+     *
+     * @return the removed email, or an empty optional if no email with the given id is waiting.
+     */
+    public Optional<EmailSchedulingData> remove(@NonNull final String id) {
+        for (final DelayedRetry delayedRetry : delayedRetries) {
+            if (delayedRetry.emailSchedulingData.getId().equals(id) && delayedRetries.remove(delayedRetry)) {
+                failedAttempts.remove(id);
+                return Optional.of(delayedRetry.emailSchedulingData);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Tells whether the given failure deserves another attempt, regardless of the attempts left.
+     */
+    public boolean isTransient(@NonNull final Throwable failure) {
+        return retryPolicy.isTransient(failure);
+    }
+
+    /**
+     * Returns the failed attempts to send the email with the given id, 0 if none failed or the email was given up.
+     */
+    public int failedAttempts(@NonNull final String id) {
+        return failedAttempts.getOrDefault(id, 0);
+    }
+
+    public int size() {
+        return delayedRetries.size();
+    }
+
+    /**
+     * Removes all the emails waiting for their backoff to expire.
+     */
+    public List<EmailSchedulingData> drain() {
+        final List<DelayedRetry> drained = new ArrayList<>(delayedRetries);
+        delayedRetries.clear();
+        failedAttempts.clear();
+        return drained.stream()
+                .map(delayedRetry -> delayedRetry.emailSchedulingData)
+                .collect(toList());
+    }
+
+    public RetryStatistics statistics() {
+        return RetryStatistics.builder()
+                .maxAttempts(retryPolicy.maxAttempts())
+                .waitingEmails(delayedRetries.size())
+                .retriedEmails(retriedEmails.get())
+                .exhaustedEmails(exhaustedEmails.get())
+                .permanentlyFailedEmails(permanentlyFailedEmails.get())
+                .build();
+    }
+
+    private static class DelayedRetry implements Delayed {
+
+        private final EmailSchedulingData emailSchedulingData;
+
+        private final long dueInNanos;
+
+        private DelayedRetry(final EmailSchedulingData emailSchedulingData, final long dueInNanos) {
+            this.emailSchedulingData = emailSchedulingData;
+            this.dueInNanos = dueInNanos;
+        }
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(dueInNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed other) {
+            return Long.compare(dueInNanos, ((DelayedRetry) other).dueInNanos);
+        }
+
+    }
+
+}
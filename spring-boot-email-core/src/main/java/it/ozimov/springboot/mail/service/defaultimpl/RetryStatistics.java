@@ -0,0 +1,46 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the retries of the {@linkplain PriorityQueueEmailSchedulerService}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class RetryStatistics {
+
+    private final int maxAttempts;
+
+    // Emails waiting for their backoff to expire
+    private final int waitingEmails;
+
+    private final long retriedEmails;
+
+    // Emails given up after failing with a transient error max attempts times
+    private final long exhaustedEmails;
+
+    private final long permanentlyFailedEmails;
+
+}
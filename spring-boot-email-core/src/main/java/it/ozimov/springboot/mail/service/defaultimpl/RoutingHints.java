@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.experimental.UtilityClass;
+
+import java.util.OptionalInt;
+
+import static java.util.Objects.nonNull;
+
+/**
+ * Hints the {@linkplain RoutingJavaMailSender} about the relay an email should go through.
+ * <p>
+ * An email can name its relay with the {@value #RELAY_HEADER} custom header, which is removed before sending. The
+ * scheduler also hands over the priority level of the email being sent, for the relays serving given priority levels.
+ * Either way the hinted relays are only preferred: when they are failing, the email goes through the other ones.
+ */
+@UtilityClass
+public class RoutingHints {
+
+    public static final String RELAY_HEADER = "X-Email-Relay";
+
+    private static final ThreadLocal<Integer> PRIORITY = new ThreadLocal<>();
+
+    /**
+     * Hints the priority level of the emails sent by the current thread, until {@link #clearPriority()} is called.
+     */
+    public static void setPriority(final int priority) {
+        PRIORITY.set(priority);
+    }
+
+    public static OptionalInt priority() {
+        final Integer priority = PRIORITY.get();
+        return nonNull(priority) ? OptionalInt.of(priority) : OptionalInt.empty();
+    }
+
+    public static void clearPriority() {
+        PRIORITY.remove();
+    }
+
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import it.ozimov.springboot.mail.configuration.RoutingProperties;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.isNull;
+import static java.util.Objects.nonNull;
+
+/**
+ * A {@linkplain JavaMailSenderImpl} sending each email through one of many relays, chosen by a
+ * {@linkplain RelaySelectionPolicy}.
+ * <p>
+ * A relay failing to send an email, e.g. refusing the connection, timing out or deferring the email with a 4xx reply,
+ * hands it over to the next relay, so that the email fails only when no relay can send it. Emails rejected with a 5xx
+ * reply are not handed over, since any relay would reject them. Each relay has its own {@linkplain CircuitBreaker}, so
+ * that a relay failing too many times in a row is skipped for a while instead of slowing down every email.
+ * <p>
+ * The relays named by the {@value RoutingHints#RELAY_HEADER} header of an email, or serving its priority level, are
+ * tried before the other ones, see {@linkplain RoutingHints}.
+ */
+@Slf4j
+public class RoutingJavaMailSender extends JavaMailSenderImpl implements AutoCloseable {
+
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final List<Relay> relays;
+
+    private final Map<String, Relay> relaysByName;
+
+    private final RelaySelectionPolicy relaySelectionPolicy;
+
+    // Held while calling the selection policy, which does not need to be thread safe
+    private final Lock selectionLock = new ReentrantLock();
+
+    /**
+     * @param routingProperties the relays and the routing strategy.
+     * @param senderFactory     creates the sender of each relay.
+     */
+    public RoutingJavaMailSender(@NonNull final RoutingProperties routingProperties,
+                                 @NonNull final Function<RoutingProperties.Relay, JavaMailSender> senderFactory) {
+        RoutingProperties.checkIsValid(routingProperties);
+        final RoutingProperties.CircuitBreaker circuitBreaker = nonNull(routingProperties.getCircuitBreaker()) ?
+                routingProperties.getCircuitBreaker() : new RoutingProperties.CircuitBreaker();
+        relays = routingProperties.getRelays().entrySet().stream()
+                .map(entry -> new Relay(entry.getKey(), entry.getValue(), senderFactory.apply(entry.getValue()),
+                        CircuitBreaker.consecutiveFailures(circuitBreaker.getFailureThreshold(), circuitBreaker.getOpenMillis())))
+                .collect(ImmutableList.toImmutableList());
+        relaysByName = relays.stream().collect(Collectors.toMap(relay -> relay.name, relay -> relay));
+        relaySelectionPolicy = RelaySelectionPolicy.of(routingProperties.getStrategy());
+    }
+
+    @Override
+    protected void doSend(final MimeMessage[] mimeMessages, final @Nullable Object[] originalMessages) throws MailException {
+        final Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+        final OptionalInt priority = RoutingHints.priority();
+        for (int i = 0; i < mimeMessages.length; i++) {
+            final MimeMessage mimeMessage = mimeMessages[i];
+            final Object originalMessage = nonNull(originalMessages) ? originalMessages[i] : mimeMessage;
+            final String relayHint;
+            try {
+                relayHint = takeRelayHint(mimeMessage);
+            } catch (final MessagingException e) {
+                failedMessages.put(originalMessage, e);
+                continue;
+            }
+            final Exception failure = route(mimeMessage, relayHint, priority);
+            if (nonNull(failure)) {
+                failedMessages.put(originalMessage, failure);
+            }
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /**
+     * Returns a snapshot of each relay, in the configured order.
+     */
+    public List<RelayStatistics> statistics() {
+        return relays.stream()
+                .map(relay -> RelayStatistics.builder()
+                        .relay(relay.name)
+                        .circuitState(relay.circuitBreaker.state())
+                        .outstanding(relay.outstanding.get())
+                        .latencyMillis(relay.latencyNanos / TimeUnit.MILLISECONDS.toNanos(1))
+                        .sentMessages(relay.sentMessages.get())
+                        .failedMessages(relay.failedMessages.get())
+                        .circuitOpenings(relay.circuitBreaker.openings())
+                        .build())
+                .collect(ImmutableList.toImmutableList());
+    }
+
+    /**
+     * Closes the senders of the relays holding resources, e.g. pools of connections.
+     */
+    @Override
+    public void close() {
+        for (final Relay relay : relays) {
+            if (relay.sender instanceof AutoCloseable) {
+                try {
+                    ((AutoCloseable) relay.sender).close();
+                } catch (final Exception e) {
+                    log.warn("Cannot close the sender of relay {}", relay.name, e);
+                }
+            }
+        }
+    }
+
+    // The hint is not meant for the recipients
+    private static String takeRelayHint(final MimeMessage mimeMessage) throws MessagingException {
+        final String relayHint = mimeMessage.getHeader(RoutingHints.RELAY_HEADER, null);
+        if (nonNull(relayHint)) {
+            mimeMessage.removeHeader(RoutingHints.RELAY_HEADER);
+            return relayHint.trim();
+        }
+        return null;
+    }
+
+    /**
+     * Sends the email through the first relay able to, returning the failure if none is.
+     */
+    private Exception route(final MimeMessage mimeMessage, final String relayHint, final OptionalInt priority) {
+        final List<List<Relay>> tiers = tiers(relayHint, priority);
+        Exception lastFailure = null;
+        Relay relay;
+        while (nonNull(relay = select(tiers))) {
+            final long startNanos = System.nanoTime();
+            relay.outstanding.incrementAndGet();
+            try {
+                relay.sender.send(mimeMessage);
+                relay.onSent(System.nanoTime() - startNanos);
+                return null;
+            } catch (final RuntimeException e) {
+                if (CircuitBreaker.isRejection(e)) {
+                    //the relay did its job, any other relay would reject the email as well
+                    relay.circuitBreaker.onSuccess(System.nanoTime() - startNanos);
+                    return e;
+                }
+                relay.onFailed(System.nanoTime() - startNanos);
+                lastFailure = e;
+                log.warn("Relay {} failed to send the email, trying the next one if any: {}", relay.name, e.getMessage());
+            } finally {
+                relay.outstanding.decrementAndGet();
+            }
+        }
+        return new MailSendException("No relay could send the email", lastFailure);
+    }
+
+    // The relays to try in order: the hinted one, the ones serving the priority level, then all the other ones
+    private List<List<Relay>> tiers(final String relayHint, final OptionalInt priority) {
+        final List<List<Relay>> tiers = new ArrayList<>(3);
+        final List<Relay> remaining = new ArrayList<>(relays);
+        if (nonNull(relayHint)) {
+            final Relay hintedRelay = relaysByName.get(relayHint);
+            if (nonNull(hintedRelay)) {
+                tiers.add(new ArrayList<>(ImmutableList.of(hintedRelay)));
+                remaining.remove(hintedRelay);
+            } else {
+                log.debug("Unknown relay {} in header {}, ignored", relayHint, RoutingHints.RELAY_HEADER);
+            }
+        }
+        if (priority.isPresent()) {
+            final List<Relay> servingRelays = remaining.stream()
+                    .filter(relay -> relay.serves(priority.getAsInt()))
+                    .collect(Collectors.toCollection(ArrayList::new));
+            remaining.removeAll(servingRelays);
+            tiers.add(servingRelays);
+        }
+        tiers.add(remaining);
+        return tiers;
+    }
+
+    /**
+     * Takes the next relay out of the tiers, skipping the relays whose circuit is open, or returns {@code null} if
+     * none is left.
+     */
+    private Relay select(final List<List<Relay>> tiers) {
+        for (final List<Relay> tier : tiers) {
+            while (!tier.isEmpty()) {
+                final List<Relay> permitted = tier.stream()
+                        .filter(relay -> relay.circuitBreaker.isCallPermitted())
+                        .collect(ImmutableList.toImmutableList());
+                if (permitted.isEmpty()) {
+                    break;
+                }
+                final Relay relay;
+                selectionLock.lock();
+                try {
+                    relay = permitted.get(relaySelectionPolicy.select(new Candidates(permitted)));
+                } finally {
+                    selectionLock.unlock();
+                }
+                tier.remove(relay);
+                //another sender may have taken the trial email of a half open circuit meanwhile
+                if (relay.circuitBreaker.tryAcquirePermission()) {
+                    return relay;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static class Relay {
+
+        private final String name;
+
+        private final int weight;
+
+        // Empty when serving any priority level
+        private final Set<Integer> priorities;
+
+        private final JavaMailSender sender;
+
+        private final CircuitBreaker circuitBreaker;
+
+        private final AtomicInteger outstanding = new AtomicInteger();
+
+        private final AtomicLong sentMessages = new AtomicLong();
+
+        private final AtomicLong failedMessages = new AtomicLong();
+
+        private final Lock latencyLock = new ReentrantLock();
+
+        // Written under the latency lock, read without it by the selection
+        private volatile double latencyNanos;
+
+        private Relay(final String name, final RoutingProperties.Relay relay, final JavaMailSender sender,
+                      final CircuitBreaker circuitBreaker) {
+            checkArgument(nonNull(sender), "Expected a sender for relay %s", name);
+            this.name = name;
+            this.weight = relay.getWeight();
+            this.priorities = isNull(relay.getPriorities()) ? ImmutableSet.of() : ImmutableSet.copyOf(relay.getPriorities());
+            this.sender = sender;
+            this.circuitBreaker = circuitBreaker;
+        }
+
+        private boolean serves(final int priority) {
+            return priorities.isEmpty() || priorities.contains(priority);
+        }
+
+        private void onSent(final long elapsedNanos) {
+            circuitBreaker.onSuccess(elapsedNanos);
+            sentMessages.incrementAndGet();
+            latencyLock.lock();
+            try {
+                latencyNanos = latencyNanos == 0 ? elapsedNanos : latencyNanos + LATENCY_WEIGHT * (elapsedNanos - latencyNanos);
+            } finally {
+                latencyLock.unlock();
+            }
+        }
+
+        private void onFailed(final long elapsedNanos) {
+            circuitBreaker.onFailure(elapsedNanos);
+            failedMessages.incrementAndGet();
+        }
+
+    }
+
+    private static class Candidates implements RelaySelectionPolicy.Candidates {
+
+        private final List<Relay> relays;
+
+        private Candidates(final List<Relay> relays) {
+            this.relays = relays;
+        }
+
+        @Override
+        public int count() {
+            return relays.size();
+        }
+
+        @Override
+        public String name(final int candidate) {
+            return relays.get(candidate).name;
+        }
+
+        @Override
+        public int weight(final int candidate) {
+            return relays.get(candidate).weight;
+        }
+
+        @Override
+        public int outstanding(final int candidate) {
+            return relays.get(candidate).outstanding.get();
+        }
+
+        @Override
+        public double latencyNanos(final int candidate) {
+            return relays.get(candidate).latencyNanos;
+        }
+
+    }
+
+}
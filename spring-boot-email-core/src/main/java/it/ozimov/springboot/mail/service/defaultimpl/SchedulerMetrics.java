@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Instrumentation hooks of the {@linkplain PriorityQueueEmailSchedulerService} and its {@linkplain PriorityQueueManager}.
+ * Every hook does nothing by default, so that {@link #NOOP} costs no more than a virtual call when no metrics registry
+ * is available.
+ */
+public interface SchedulerMetrics {
+
+    SchedulerMetrics NOOP = new SchedulerMetrics() {
+    };
+
+    /**
+     * @return {@code true} if the metrics are actually recorded, so that values expensive to compute (like the number
+     * of emails in the persistence layer) are worth sampling.
+     */
+    default boolean isEnabled() {
+        return false;
+    }
+
+    /**
+     * Registers the gauges reading the state of the scheduler.
+     */
+    default void bind(final PriorityQueueManager priorityQueueManager, final IntSupplier pendingIngestion) {
+    }
+
+    /**
+     * Registers the meters reading the admission control of the scheduler, if enabled.
+     */
+    default void bindAdmission(final Supplier<AdmissionStatistics> admissionStatistics) {
+    }
+
+    /**
+     * Registers the gauge reading the queue depth of a stage of the dispatch pipeline.
+     */
+    default void bindStage(final String stageName, final IntSupplier queueDepth) {
+    }
+
+    /**
+     * @return the lock to be used as queue lock, possibly timing how long it is held.
+     */
+    default Lock instrument(final ReentrantLock queueLock) {
+        return queueLock;
+    }
+
+    /**
+     * @return the persistence service to be used by the scheduler, possibly timing each round trip.
+     */
+    default PersistenceService instrument(final PersistenceService persistenceService) {
+        return persistenceService;
+    }
+
+    /**
+     * Records how long a consumer waited for the next due email.
+     */
+    default void recordDequeueWait(final long waitInNanos) {
+    }
+
+    /**
+     * Records a sending attempt, with how late it started with respect to the scheduled time and how long it took.
+     */
+    default void recordSend(final EmailSchedulingData emailSchedulingData, final long lagInMillis,
+                            final long durationInNanos, final boolean sent) {
+    }
+
+    /**
+     * Records how long a stage of the dispatch pipeline took for an email, handing it over to the next stage included.
+     */
+    default void recordStageService(final String stageName, final long serviceTimeInNanos) {
+    }
+
+    /**
+     * Records a batch loaded by the resumer from the persistence layer.
+     */
+    default void recordResumerBatch(final int batchSize, final long durationInNanos) {
+    }
+
+    default void recordPersistedEmails(final long persistedEmails) {
+    }
+
+}
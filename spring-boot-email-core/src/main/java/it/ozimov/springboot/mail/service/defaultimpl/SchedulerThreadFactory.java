@@ -0,0 +1,87 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the threads used by the {@linkplain PriorityQueueEmailSchedulerService}, either platform threads or,
+ * when requested and supported by the running JVM (Java 21+), virtual threads.
+ * <p>
+ * Virtual threads are created by reflection, so that the library can still be compiled and run on JDK17.
+ */
+@Slf4j
+class SchedulerThreadFactory implements ThreadFactory {
+
+    private final ThreadFactory delegate;
+
+    private final boolean virtual;
+
+    private SchedulerThreadFactory(final ThreadFactory delegate, final boolean virtual) {
+        this.delegate = delegate;
+        this.virtual = virtual;
+    }
+
+    static SchedulerThreadFactory platformThreads() {
+        return new SchedulerThreadFactory(Thread::new, false);
+    }
+
+    static SchedulerThreadFactory of(final boolean useVirtualThreads) {
+        if (useVirtualThreads) {
+            final Optional<ThreadFactory> virtualThreadFactory = virtualThreadFactory();
+            if (virtualThreadFactory.isPresent()) {
+                return new SchedulerThreadFactory(virtualThreadFactory.get(), true);
+            }
+            log.warn("Virtual threads are not supported by the running JVM (Java {}), platform threads are used instead.",
+                    System.getProperty("java.specification.version"));
+        }
+        return platformThreads();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public Thread newThread(@NonNull final Runnable runnable) {
+        return delegate.newThread(runnable);
+    }
+
+    public Thread newThread(@NonNull final String name, @NonNull final Runnable runnable) {
+        final Thread thread = newThread(runnable);
+        thread.setName(name);
+        return thread;
+    }
+
+    private static Optional<ThreadFactory> virtualThreadFactory() {
+        try {
+            final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            final Object builder = ofVirtual.invoke(null);
+            final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return Optional.of((ThreadFactory) factory.invoke(builder));
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            log.debug("Cannot create a virtual thread factory", e);
+            return Optional.empty();
+        }
+    }
+
+}
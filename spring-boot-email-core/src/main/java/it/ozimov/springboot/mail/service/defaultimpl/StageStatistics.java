@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of a stage of the dispatch pipeline of the {@linkplain PriorityQueueEmailSchedulerService}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class StageStatistics {
+
+    private final String stageName;
+
+    private final int threads;
+
+    private final int queueCapacity;
+
+    // Emails waiting for a thread of the stage
+    private final int queueDepth;
+
+    private final long processedEmails;
+
+    // Time spent by the threads of the stage on the emails, waiting for the next stage included
+    private final long busyTimeMillis;
+
+}
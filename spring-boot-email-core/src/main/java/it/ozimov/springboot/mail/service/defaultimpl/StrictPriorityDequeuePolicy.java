@@ -0,0 +1,35 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+/**
+ * Always takes the due email with the highest priority. Lower priority levels are served only when no higher level has
+ * a due email, hence they may starve under sustained load.
+ */
+public class StrictPriorityDequeuePolicy implements DequeuePolicy {
+
+    @Override
+    public int select(final Levels levels) {
+        for (int level = 0; level < levels.count(); level++) {
+            if (levels.isDue(level)) {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.NonNull;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongConsumer;
+
+/**
+ * {@linkplain Lock} reporting how long it is held each time, from the outermost acquisition to the matching release.
+ * Waiting on one of its {@linkplain Condition}s releases the lock, hence the time spent waiting is not counted.
+ */
+class TimedLock implements Lock {
+
+    private final ReentrantLock delegate;
+    private final LongConsumer holdTimeInNanosRecorder;
+    // Guarded by the lock itself
+    private long acquiredAtInNanos;
+
+    TimedLock(@NonNull final ReentrantLock delegate, @NonNull final LongConsumer holdTimeInNanosRecorder) {
+        this.delegate = delegate;
+        this.holdTimeInNanosRecorder = holdTimeInNanosRecorder;
+    }
+
+    @Override
+    public void lock() {
+        delegate.lock();
+        onAcquired();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        delegate.lockInterruptibly();
+        onAcquired();
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (delegate.tryLock()) {
+            onAcquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(final long time, final TimeUnit unit) throws InterruptedException {
+        if (delegate.tryLock(time, unit)) {
+            onAcquired();
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void unlock() {
+        if (delegate.getHoldCount() == 1) {
+            onReleased();
+        }
+        delegate.unlock();
+    }
+
+    @Override
+    public Condition newCondition() {
+        return new TimedCondition(delegate.newCondition());
+    }
+
+    private void onAcquired() {
+        if (delegate.getHoldCount() == 1) {
+            acquiredAtInNanos = System.nanoTime();
+        }
+    }
+
+    private void onReleased() {
+        holdTimeInNanosRecorder.accept(System.nanoTime() - acquiredAtInNanos);
+    }
+
+    private class TimedCondition implements Condition {
+
+        private final Condition condition;
+
+        private TimedCondition(final Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public void await() throws InterruptedException {
+            onReleased();
+            try {
+                condition.await();
+            } finally {
+                acquiredAtInNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void awaitUninterruptibly() {
+            onReleased();
+            condition.awaitUninterruptibly();
+            acquiredAtInNanos = System.nanoTime();
+        }
+
+        @Override
+        public long awaitNanos(final long nanosTimeout) throws InterruptedException {
+            onReleased();
+            try {
+                return condition.awaitNanos(nanosTimeout);
+            } finally {
+                acquiredAtInNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public boolean await(final long time, final TimeUnit unit) throws InterruptedException {
+            onReleased();
+            try {
+                return condition.await(time, unit);
+            } finally {
+                acquiredAtInNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public boolean awaitUntil(final Date deadline) throws InterruptedException {
+            onReleased();
+            try {
+                return condition.awaitUntil(deadline);
+            } finally {
+                acquiredAtInNanos = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void signal() {
+            condition.signal();
+        }
+
+        @Override
+        public void signalAll() {
+            condition.signalAll();
+        }
+
+    }
+
+}
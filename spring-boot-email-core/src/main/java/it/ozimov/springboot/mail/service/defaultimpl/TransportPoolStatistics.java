@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the SMTP connections of a {@linkplain PooledJavaMailSender}.
+ */
+@Getter
+@Builder
+@ToString
+@EqualsAndHashCode
+public class TransportPoolStatistics {
+
+    private final int maxConnections;
+
+    // Connections sending an email right now
+    private final int activeConnections;
+
+    // Connections open and authenticated, waiting for the next email
+    private final int idleConnections;
+
+    private final long createdConnections;
+
+    // Connections closed because idle for too long, used for too many emails, broken or failing the NOOP check
+    private final long closedConnections;
+
+    // Sends failed because no connection became free in time
+    private final long borrowTimeouts;
+
+    private final long sentMessages;
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import lombok.NonNull;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Visits the priority levels in round, taking up to as many emails from each level as its weight before moving to the
+ * next one. Levels without due emails are skipped, so that the dispatching never idles while an email is due.
+ */
+public class WeightedRoundRobinDequeuePolicy implements DequeuePolicy {
+
+    private final int[] weights;
+    private int current;
+    private int servedInTurn;
+
+    public WeightedRoundRobinDequeuePolicy(@NonNull final int[] weights) {
+        checkArgument(weights.length > 0, "Expected at least one priority level");
+        checkArgument(Arrays.stream(weights).allMatch(weight -> weight > 0), "Expected positive weights, while %s was given", Arrays.toString(weights));
+        this.weights = weights.clone();
+    }
+
+    @Override
+    public int select(final Levels levels) {
+        if (levels.isDue(current) && servedInTurn < weights[current]) {
+            servedInTurn++;
+            return current;
+        }
+        for (int step = 1; step <= weights.length; step++) {
+            final int level = (current + step) % weights.length;
+            if (levels.isDue(level)) {
+                current = level;
+                servedInTurn = 1;
+                return level;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Spreads the emails over the relays in proportion to their weights, interleaving them rather than sending a whole
+ * weight worth of emails through a relay at once (smooth weighted round robin). The relays left out of a selection,
+ * e.g. because their circuit is open, keep their turn.
+ */
+public class WeightedRoundRobinRelaySelectionPolicy implements RelaySelectionPolicy {
+
+    private final Map<String, Integer> currentWeights = new HashMap<>();
+
+    @Override
+    public int select(final Candidates candidates) {
+        int totalWeight = 0;
+        int selected = 0;
+        int selectedWeight = Integer.MIN_VALUE;
+        for (int candidate = 0; candidate < candidates.count(); candidate++) {
+            final int weight = candidates.weight(candidate);
+            final int currentWeight = currentWeights.merge(candidates.name(candidate), weight, Integer::sum);
+            totalWeight += weight;
+            if (currentWeight > selectedWeight) {
+                selected = candidate;
+                selectedWeight = currentWeight;
+            }
+        }
+        currentWeights.merge(candidates.name(selected), -totalWeight, Integer::sum);
+        return selected;
+    }
+
+}
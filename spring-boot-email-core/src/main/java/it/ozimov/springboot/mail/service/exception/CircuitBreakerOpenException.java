@@ -0,0 +1,37 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.exception;
+
+import lombok.Getter;
+import org.springframework.mail.MailSendException;
+
+/**
+ * Thrown when an email is not handed over to the mail server because its circuit breaker is open, i.e. the server
+ * failed or replied too slowly too many times lately.
+ */
+public class CircuitBreakerOpenException extends MailSendException {
+
+    // Time before the circuit breaker lets a call through again
+    @Getter
+    private final long retryAfterMillis;
+
+    public CircuitBreakerOpenException(final long retryAfterMillis) {
+        super("The circuit breaker of the mail server is open, no email is sent for the next " + retryAfterMillis + " ms");
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.exception;
+
+/**
+ * Thrown when the scheduler refuses an email because too many scheduled emails are already held in memory.
+ */
+public class EmailSchedulingRejectedException extends RuntimeException {
+
+    public EmailSchedulingRejectedException() {
+        super();
+    }
+
+    public EmailSchedulingRejectedException(final String message) {
+        super(message);
+    }
+
+    public EmailSchedulingRejectedException(final Throwable cause) {
+        super(cause);
+    }
+
+    public EmailSchedulingRejectedException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.exception;
+
+import jakarta.mail.internet.InternetAddress;
+import lombok.Getter;
+import org.springframework.mail.MailSendException;
+
+import java.util.List;
+
+/**
+ * Thrown when some of the transactions of a fan out failed, once all of them have been attempted: the recipients of
+ * the transactions that went through are not to be sent the email again.
+ */
+public class FanOutException extends MailSendException {
+
+    // Recipients of the transactions accepted by the mail server
+    @Getter
+    private final List<InternetAddress> deliveredRecipients;
+
+    // Recipients of the transactions that failed, the cause being the failure of the first of them
+    @Getter
+    private final List<InternetAddress> failedRecipients;
+
+    public FanOutException(final List<InternetAddress> deliveredRecipients, final List<InternetAddress> failedRecipients,
+                           final Throwable cause) {
+        super("The email was not delivered to " + failedRecipients.size() + " of "
+                + (deliveredRecipients.size() + failedRecipients.size()) + " recipients", cause);
+        this.deliveredRecipients = deliveredRecipients;
+        this.failedRecipients = failedRecipients;
+    }
+
+}
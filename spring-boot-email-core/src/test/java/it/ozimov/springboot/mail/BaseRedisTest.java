@@ -44,12 +44,14 @@ import redis.embedded.RedisServer;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
 
 import static it.ozimov.springboot.mail.PortUtils.randomFreePort;
 import static it.ozimov.springboot.mail.configuration.ApplicationPropertiesConstants.*;
 import static java.util.Objects.nonNull;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public abstract class BaseRedisTest implements ContextBasedTest {
 
@@ -194,6 +196,7 @@ public abstract class BaseRedisTest implements ContextBasedTest {
         @Bean
         public DataSource dataSource() throws SQLException {
             DataSource dataSource = mock(DataSource.class);
+            when(dataSource.getConnection()).thenReturn(mock(Connection.class));
             return dataSource;
         }
 
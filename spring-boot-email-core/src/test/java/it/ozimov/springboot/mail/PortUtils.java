@@ -18,11 +18,15 @@ package it.ozimov.springboot.mail;
 
 
 import java.io.IOException;
+import java.net.ServerSocket;
 
 public class PortUtils {
 
     public static int randomFreePort() throws IOException {
-        return 0;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            serverSocket.setReuseAddress(true);
+            return serverSocket.getLocalPort();
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.configuration;
+
+import it.ozimov.springboot.mail.UnitTest;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static junit.framework.TestCase.fail;
+
+public class AdaptiveConcurrencyPropertiesTest implements UnitTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldReturnDefaultPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        AdaptiveConcurrencyProperties adaptiveConcurrencyProperties = new AdaptiveConcurrencyProperties();
+
+        //Act
+        boolean givenValidation = adaptiveConcurrencyProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+        assertions.assertThat(adaptiveConcurrencyProperties.isEnabled()).isFalse();
+        assertions.assertThat(adaptiveConcurrencyProperties.getInitialLimit()).isEqualTo(4);
+        assertions.assertThat(adaptiveConcurrencyProperties.getMinLimit()).isEqualTo(1);
+        assertions.assertThat(adaptiveConcurrencyProperties.getMaxLimit()).isEqualTo(50);
+        assertions.assertThat(adaptiveConcurrencyProperties.getLatencyTolerance()).isEqualTo(1.5);
+        assertions.assertThat(adaptiveConcurrencyProperties.getBackoffRatio()).isEqualTo(0.75);
+        assertions.assertThat(adaptiveConcurrencyProperties.getAcquireTimeoutMillis()).isEqualTo(30_000);
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenInitialLimitIsAboveMaxLimitAndConcurrencyIsEnabled() throws Exception {
+        //Arrange
+        AdaptiveConcurrencyProperties adaptiveConcurrencyProperties = new AdaptiveConcurrencyProperties();
+        adaptiveConcurrencyProperties.setEnabled(true);
+        adaptiveConcurrencyProperties.setInitialLimit(51);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected an initial limit between the min and the max one. Review property 'spring.mail.concurrency.initialLimit'.");
+
+        //Act
+        adaptiveConcurrencyProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenBackoffRatioIsNotBelowOneAndConcurrencyIsEnabled() throws Exception {
+        //Arrange
+        AdaptiveConcurrencyProperties adaptiveConcurrencyProperties = new AdaptiveConcurrencyProperties();
+        adaptiveConcurrencyProperties.setEnabled(true);
+        adaptiveConcurrencyProperties.setBackoffRatio(1);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a backoff ratio between 0 and 1. Review property 'spring.mail.concurrency.backoffRatio'.");
+
+        //Act
+        adaptiveConcurrencyProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldNotValidateWhenConcurrencyIsDisabled() throws Exception {
+        //Arrange
+        AdaptiveConcurrencyProperties adaptiveConcurrencyProperties = new AdaptiveConcurrencyProperties();
+        adaptiveConcurrencyProperties.setLatencyTolerance(0.5);
+
+        //Act
+        boolean givenValidation = adaptiveConcurrencyProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+    }
+
+}
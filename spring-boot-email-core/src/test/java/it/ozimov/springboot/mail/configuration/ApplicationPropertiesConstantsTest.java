@@ -56,6 +56,10 @@ public class ApplicationPropertiesConstantsTest {
     @Test
     public void shouldConstantsRemainUnchanged() {
         assertions.assertThat(__SPRING_MAIL_SCHEDULER).isEqualTo("spring.mail.scheduler");
+        assertions.assertThat(__SPRING_MAIL_POOL).isEqualTo("spring.mail.pool");
+        assertions.assertThat(__SPRING_MAIL_CONCURRENCY).isEqualTo("spring.mail.concurrency");
+        assertions.assertThat(__SPRING_MAIL_ROUTING).isEqualTo("spring.mail.routing");
+        assertions.assertThat(__SPRING_MAIL_CIRCUIT_BREAKER).isEqualTo("spring.mail.circuit-breaker");
         assertions.assertThat(SPRING_MAIL_HOST).isEqualTo("spring.mail.host");
         assertions.assertThat(SPRING_MAIL_PORT).isEqualTo("spring.mail.port");
         assertions.assertThat(SPRING_MAIL_USERNAME).isEqualTo("spring.mail.username");
@@ -69,11 +73,82 @@ public class ApplicationPropertiesConstantsTest {
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DESIRED_BATCH_SIZE).isEqualTo("spring.mail.scheduler.persistence.desiredBatchSize");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_MIN_KEPT_IN_MEMORY).isEqualTo("spring.mail.scheduler.persistence.minKeptInMemory");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_MAX_KEPT_IN_MEMORY).isEqualTo("spring.mail.scheduler.persistence.maxKeptInMemory");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DEAD_LETTERS).isEqualTo("spring.mail.scheduler.persistence.deadLetters");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_DEAD_LETTER_MAX_ERROR_LENGTH).isEqualTo("spring.mail.scheduler.persistence.deadLetterMaxErrorLength");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_NOTIFICATIONS).isEqualTo("spring.mail.scheduler.persistence.notifications");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_ENABLED).isEqualTo("spring.mail.scheduler.persistence.redis.enabled");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_EMBEDDED).isEqualTo("spring.mail.scheduler.persistence.redis.embedded");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_HOST).isEqualTo("spring.mail.scheduler.persistence.redis.host");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_PORT).isEqualTo("spring.mail.scheduler.persistence.redis.port");
         assertions.assertThat(SPRING_MAIL_SCHEDULER_PERSISTENCE_REDIS_SETTINGS).isEqualTo("spring.mail.scheduler.persistence.redis.settings");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_DISPATCHER_CONSUMERS).isEqualTo("spring.mail.scheduler.dispatcher.consumers");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_DISPATCHER_VIRTUAL_THREADS).isEqualTo("spring.mail.scheduler.dispatcher.virtualThreads");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_TIMING_WHEEL_ENABLED).isEqualTo("spring.mail.scheduler.timingWheel.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_TIMING_WHEEL_TICK_MILLIS).isEqualTo("spring.mail.scheduler.timingWheel.tickMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_TIMING_WHEEL_WHEEL_SIZE).isEqualTo("spring.mail.scheduler.timingWheel.wheelSize");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_TIMING_WHEEL_HORIZON_MILLIS).isEqualTo("spring.mail.scheduler.timingWheel.horizonMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_ADMISSION_ENABLED).isEqualTo("spring.mail.scheduler.admission.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_ADMISSION_POLICY).isEqualTo("spring.mail.scheduler.admission.policy");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_ADMISSION_HIGH_WATERMARK).isEqualTo("spring.mail.scheduler.admission.highWatermark");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_ADMISSION_LOW_WATERMARK).isEqualTo("spring.mail.scheduler.admission.lowWatermark");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_ADMISSION_BLOCK_TIMEOUT_MILLIS).isEqualTo("spring.mail.scheduler.admission.blockTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_DEQUEUE_POLICY).isEqualTo("spring.mail.scheduler.dequeue.policy");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_DEQUEUE_WEIGHTS).isEqualTo("spring.mail.scheduler.dequeue.weights");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_DEQUEUE_MAX_LAG_MILLIS).isEqualTo("spring.mail.scheduler.dequeue.maxLagMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_ENABLED).isEqualTo("spring.mail.scheduler.retry.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_MAX_ATTEMPTS).isEqualTo("spring.mail.scheduler.retry.maxAttempts");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_INITIAL_BACKOFF_MILLIS).isEqualTo("spring.mail.scheduler.retry.initialBackoffMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_MAX_BACKOFF_MILLIS).isEqualTo("spring.mail.scheduler.retry.maxBackoffMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_MULTIPLIER).isEqualTo("spring.mail.scheduler.retry.multiplier");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_JITTER).isEqualTo("spring.mail.scheduler.retry.jitter");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_TRANSIENT_REPLY_CODES).isEqualTo("spring.mail.scheduler.retry.transientReplyCodes");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_PERMANENT_REPLY_CODES).isEqualTo("spring.mail.scheduler.retry.permanentReplyCodes");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_RETRY_TRANSIENT_EXCEPTIONS).isEqualTo("spring.mail.scheduler.retry.transientExceptions");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_SHUTDOWN_DRAIN_TIMEOUT_MILLIS).isEqualTo("spring.mail.scheduler.shutdown.drainTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_CLUSTER_ENABLED).isEqualTo("spring.mail.scheduler.cluster.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_CLUSTER_NODE_ID).isEqualTo("spring.mail.scheduler.cluster.nodeId");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_CLUSTER_VISIBILITY_TIMEOUT_MILLIS).isEqualTo("spring.mail.scheduler.cluster.visibilityTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_CLUSTER_HEARTBEAT_INTERVAL_MILLIS).isEqualTo("spring.mail.scheduler.cluster.heartbeatIntervalMillis");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PRE_RENDER_ENABLED).isEqualTo("spring.mail.scheduler.preRender.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PRE_RENDER_THREADS).isEqualTo("spring.mail.scheduler.preRender.threads");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PRE_RENDER_MAX_PREPARED).isEqualTo("spring.mail.scheduler.preRender.maxPrepared");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PIPELINE_ENABLED).isEqualTo("spring.mail.scheduler.pipeline.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PIPELINE_PREPARE_THREADS).isEqualTo("spring.mail.scheduler.pipeline.prepareThreads");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PIPELINE_PREPARE_QUEUE_CAPACITY).isEqualTo("spring.mail.scheduler.pipeline.prepareQueueCapacity");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PIPELINE_TRANSPORT_THREADS).isEqualTo("spring.mail.scheduler.pipeline.transportThreads");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_PIPELINE_TRANSPORT_QUEUE_CAPACITY).isEqualTo("spring.mail.scheduler.pipeline.transportQueueCapacity");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_ENABLED).isEqualTo("spring.mail.scheduler.throttle.enabled");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_MAX_CONCURRENT).isEqualTo("spring.mail.scheduler.throttle.maxConcurrent");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_RATE_PER_SECOND).isEqualTo("spring.mail.scheduler.throttle.ratePerSecond");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_BURST).isEqualTo("spring.mail.scheduler.throttle.burst");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_LOOKAHEAD).isEqualTo("spring.mail.scheduler.throttle.lookahead");
+        assertions.assertThat(SPRING_MAIL_SCHEDULER_THROTTLE_DOMAINS).isEqualTo("spring.mail.scheduler.throttle.domains");
+        assertions.assertThat(SPRING_MAIL_POOL_ENABLED).isEqualTo("spring.mail.pool.enabled");
+        assertions.assertThat(SPRING_MAIL_POOL_MAX_CONNECTIONS).isEqualTo("spring.mail.pool.maxConnections");
+        assertions.assertThat(SPRING_MAIL_POOL_MAX_MESSAGES_PER_CONNECTION).isEqualTo("spring.mail.pool.maxMessagesPerConnection");
+        assertions.assertThat(SPRING_MAIL_POOL_MAX_IDLE_MILLIS).isEqualTo("spring.mail.pool.maxIdleMillis");
+        assertions.assertThat(SPRING_MAIL_POOL_VALIDATION_INTERVAL_MILLIS).isEqualTo("spring.mail.pool.validationIntervalMillis");
+        assertions.assertThat(SPRING_MAIL_POOL_BORROW_TIMEOUT_MILLIS).isEqualTo("spring.mail.pool.borrowTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_ENABLED).isEqualTo("spring.mail.concurrency.enabled");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_INITIAL_LIMIT).isEqualTo("spring.mail.concurrency.initialLimit");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_MIN_LIMIT).isEqualTo("spring.mail.concurrency.minLimit");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_MAX_LIMIT).isEqualTo("spring.mail.concurrency.maxLimit");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_LATENCY_TOLERANCE).isEqualTo("spring.mail.concurrency.latencyTolerance");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_BACKOFF_RATIO).isEqualTo("spring.mail.concurrency.backoffRatio");
+        assertions.assertThat(SPRING_MAIL_CONCURRENCY_ACQUIRE_TIMEOUT_MILLIS).isEqualTo("spring.mail.concurrency.acquireTimeoutMillis");
+        assertions.assertThat(SPRING_MAIL_ROUTING_ENABLED).isEqualTo("spring.mail.routing.enabled");
+        assertions.assertThat(SPRING_MAIL_ROUTING_STRATEGY).isEqualTo("spring.mail.routing.strategy");
+        assertions.assertThat(SPRING_MAIL_ROUTING_RELAYS).isEqualTo("spring.mail.routing.relays");
+        assertions.assertThat(SPRING_MAIL_ROUTING_CIRCUIT_BREAKER_FAILURE_THRESHOLD).isEqualTo("spring.mail.routing.circuitBreaker.failureThreshold");
+        assertions.assertThat(SPRING_MAIL_ROUTING_CIRCUIT_BREAKER_OPEN_MILLIS).isEqualTo("spring.mail.routing.circuitBreaker.openMillis");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_ENABLED).isEqualTo("spring.mail.circuit-breaker.enabled");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_SLIDING_WINDOW_SIZE).isEqualTo("spring.mail.circuit-breaker.slidingWindowSize");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_MINIMUM_CALLS).isEqualTo("spring.mail.circuit-breaker.minimumCalls");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_FAILURE_RATE_THRESHOLD).isEqualTo("spring.mail.circuit-breaker.failureRateThreshold");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_SLOW_CALL_RATE_THRESHOLD).isEqualTo("spring.mail.circuit-breaker.slowCallRateThreshold");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_SLOW_CALL_DURATION_MILLIS).isEqualTo("spring.mail.circuit-breaker.slowCallDurationMillis");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_OPEN_MILLIS).isEqualTo("spring.mail.circuit-breaker.openMillis");
+        assertions.assertThat(SPRING_MAIL_CIRCUIT_BREAKER_HALF_OPEN_CALLS).isEqualTo("spring.mail.circuit-breaker.halfOpenCalls");
         assertions.assertThat(SPRING_MAIL_LOGGING_ENABLED).isEqualTo("spring.mail.logging.enabled");
         assertions.assertThat(SPRING_MAIL_LOGGING_STRATEGY_FROM).isEqualTo("spring.mail.logging.strategy.from");
         assertions.assertThat(SPRING_MAIL_LOGGING_STRATEGY_REPLY_TO).isEqualTo("spring.mail.logging.strategy.replyTo");
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.configuration;
+
+import it.ozimov.springboot.mail.UnitTest;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static junit.framework.TestCase.fail;
+
+public class CircuitBreakerPropertiesTest implements UnitTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldReturnDefaultPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        CircuitBreakerProperties circuitBreakerProperties = new CircuitBreakerProperties();
+
+        //Act
+        boolean givenValidation = circuitBreakerProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+        assertions.assertThat(circuitBreakerProperties.isEnabled()).isFalse();
+        assertions.assertThat(circuitBreakerProperties.getSlidingWindowSize()).isEqualTo(20);
+        assertions.assertThat(circuitBreakerProperties.getMinimumCalls()).isEqualTo(10);
+        assertions.assertThat(circuitBreakerProperties.getFailureRateThreshold()).isEqualTo(50);
+        assertions.assertThat(circuitBreakerProperties.getSlowCallRateThreshold()).isEqualTo(80);
+        assertions.assertThat(circuitBreakerProperties.getSlowCallDurationMillis()).isEqualTo(10_000);
+        assertions.assertThat(circuitBreakerProperties.getOpenMillis()).isEqualTo(30_000);
+        assertions.assertThat(circuitBreakerProperties.getHalfOpenCalls()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenMinimumCallsExceedTheSlidingWindowAndCircuitBreakerIsEnabled() throws Exception {
+        //Arrange
+        CircuitBreakerProperties circuitBreakerProperties = new CircuitBreakerProperties();
+        circuitBreakerProperties.setEnabled(true);
+        circuitBreakerProperties.setMinimumCalls(21);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a minimum number of sends between one and the sliding window size. Review property 'spring.mail.circuit-breaker.minimumCalls'.");
+
+        //Act
+        circuitBreakerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenFailureRateThresholdIsAboveOneHundredAndCircuitBreakerIsEnabled() throws Exception {
+        //Arrange
+        CircuitBreakerProperties circuitBreakerProperties = new CircuitBreakerProperties();
+        circuitBreakerProperties.setEnabled(true);
+        circuitBreakerProperties.setFailureRateThreshold(101);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a failure rate threshold greater than 0 and at most 100. Review property 'spring.mail.circuit-breaker.failureRateThreshold'.");
+
+        //Act
+        circuitBreakerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldNotValidateWhenCircuitBreakerIsDisabled() throws Exception {
+        //Arrange
+        CircuitBreakerProperties circuitBreakerProperties = new CircuitBreakerProperties();
+        circuitBreakerProperties.setHalfOpenCalls(0);
+
+        //Act
+        boolean givenValidation = circuitBreakerProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+    }
+
+}
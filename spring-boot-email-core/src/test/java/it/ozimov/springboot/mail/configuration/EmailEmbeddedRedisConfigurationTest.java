@@ -23,6 +23,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 
 import java.util.List;
@@ -61,8 +62,18 @@ public class EmailEmbeddedRedisConfigurationTest implements UnitTest {
         TimeUnit.SECONDS.sleep(1);
         //Assert
         assertions.assertThat(emailEmbeddedRedisConfiguration.emailEmbeddedRedis().isActive()).isFalse();
+        assertions.assertThatThrownBy(() -> emailEmbeddedRedisConfiguration.redisConnectionFactory().getConnection())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("destroyed");
 
-        exportException.expect(RedisConnectionFailureException.class);
-        emailEmbeddedRedisConfiguration.redisConnectionFactory().getConnection();
+        JedisConnectionFactory connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration("localhost", port));
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+        try {
+            exportException.expect(RedisConnectionFailureException.class);
+            connectionFactory.getConnection();
+        } finally {
+            connectionFactory.destroy();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import com.google.common.collect.ImmutableMap;
+import it.ozimov.springboot.mail.service.defaultimpl.PooledJavaMailSender;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.nio.charset.StandardCharsets;
+
+public class EmailRoutingConfigurationTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldConfigureTheRelayFromItsPropertiesFirstAndFromTheMailPropertiesThen() throws Exception {
+        //Arrange
+        final MailProperties mailProperties = new MailProperties();
+        mailProperties.setUsername("cicero");
+        mailProperties.setPassword("catilina");
+        mailProperties.setDefaultEncoding(StandardCharsets.ISO_8859_1);
+        mailProperties.getProperties().put("mail.smtp.starttls.enable", "true");
+        mailProperties.getProperties().put("mail.smtp.timeout", "10000");
+        final RoutingProperties.Relay relay = RoutingProperties.Relay.builder()
+                .host("smtp.mala-tempora.currunt")
+                .port(2525)
+                .password("verres")
+                .properties(ImmutableMap.of("mail.smtp.timeout", "2000"))
+                .build();
+
+        //Act
+        final JavaMailSenderImpl relaySender = EmailRoutingConfiguration.relaySender(mailProperties, new TransportPoolProperties(), relay);
+
+        //Assert
+        assertions.assertThat(relaySender).isNotInstanceOf(PooledJavaMailSender.class);
+        assertions.assertThat(relaySender.getHost()).isEqualTo("smtp.mala-tempora.currunt");
+        assertions.assertThat(relaySender.getPort()).isEqualTo(2525);
+        assertions.assertThat(relaySender.getUsername()).isEqualTo("cicero");
+        assertions.assertThat(relaySender.getPassword()).isEqualTo("verres");
+        assertions.assertThat(relaySender.getProtocol()).isEqualTo("smtp");
+        assertions.assertThat(relaySender.getDefaultEncoding()).isEqualTo("ISO-8859-1");
+        assertions.assertThat(relaySender.getJavaMailProperties())
+                .containsEntry("mail.smtp.starttls.enable", "true")
+                .containsEntry("mail.smtp.timeout", "2000");
+    }
+
+    @Test
+    public void shouldPoolTheConnectionsOfEachRelayWhenThePoolIsEnabled() throws Exception {
+        //Arrange
+        final TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+        transportPoolProperties.setEnabled(true);
+        final RoutingProperties.Relay relay = RoutingProperties.Relay.builder()
+                .host("smtp.mala-tempora.currunt")
+                .build();
+
+        //Act
+        final JavaMailSenderImpl relaySender = EmailRoutingConfiguration.relaySender(new MailProperties(), transportPoolProperties, relay);
+
+        //Assert
+        assertions.assertThat(relaySender).isInstanceOf(PooledJavaMailSender.class);
+        ((PooledJavaMailSender) relaySender).close();
+    }
+
+}
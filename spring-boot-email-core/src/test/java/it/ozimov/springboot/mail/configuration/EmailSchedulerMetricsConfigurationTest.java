@@ -0,0 +1,65 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.ozimov.springboot.mail.service.defaultimpl.MicrometerSchedulerMetrics;
+import it.ozimov.springboot.mail.service.defaultimpl.SchedulerMetrics;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EmailSchedulerMetricsConfigurationTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final EmailSchedulerMetricsConfiguration emailSchedulerMetricsConfiguration = new EmailSchedulerMetricsConfiguration();
+
+    @Test
+    public void shouldCreateMicrometerMetricsWhenMeterRegistryIsAvailable() throws Exception {
+        //Arrange
+        final ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+        when(meterRegistryProvider.getIfAvailable()).thenReturn(new SimpleMeterRegistry());
+
+        //Act
+        final SchedulerMetrics schedulerMetrics = emailSchedulerMetricsConfiguration.emailSchedulerMetrics(meterRegistryProvider);
+
+        //Assert
+        assertions.assertThat(schedulerMetrics).isInstanceOf(MicrometerSchedulerMetrics.class);
+        assertions.assertThat(schedulerMetrics.isEnabled()).isTrue();
+    }
+
+    @Test
+    public void shouldNotInstrumentWhenMeterRegistryIsNotAvailable() throws Exception {
+        //Arrange
+        final ObjectProvider<MeterRegistry> meterRegistryProvider = mock(ObjectProvider.class);
+
+        //Act
+        final SchedulerMetrics schedulerMetrics = emailSchedulerMetricsConfiguration.emailSchedulerMetrics(meterRegistryProvider);
+
+        //Assert
+        assertions.assertThat(schedulerMetrics).isSameAs(SchedulerMetrics.NOOP);
+        assertions.assertThat(schedulerMetrics.isEnabled()).isFalse();
+    }
+
+}
@@ -16,12 +16,18 @@
 
 package it.ozimov.springboot.mail.configuration;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import it.ozimov.springboot.mail.UnitTest;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+
 import static junit.framework.TestCase.fail;
 
 public class EmailSchedulerPropertiesTest implements UnitTest {
@@ -56,6 +62,162 @@ public class EmailSchedulerPropertiesTest implements UnitTest {
         assertions.assertThat(givenPersistenceProperties.getDesiredBatchSize()).isEqualTo(500);
         assertions.assertThat(givenPersistenceProperties.getMinKeptInMemory()).isEqualTo(250);
         assertions.assertThat(givenPersistenceProperties.getMaxKeptInMemory()).isEqualTo(2000);
+        assertions.assertThat(givenPersistenceProperties.isDeadLetters()).isFalse();
+        assertions.assertThat(givenPersistenceProperties.getDeadLetterMaxErrorLength()).isEqualTo(512);
+        assertions.assertThat(givenPersistenceProperties.isNotifications()).isFalse();
+    }
+
+    @Test
+    public void shouldReturnDefaultDispatcherPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Dispatcher givenDispatcherProperties = emailSchedulerProperties.getDispatcher();
+
+        //Assert
+        assertions.assertThat(givenDispatcherProperties.getConsumers()).isEqualTo(1);
+        assertions.assertThat(givenDispatcherProperties.isVirtualThreads()).isFalse();
+    }
+
+    @Test
+    public void shouldReturnDefaultTimingWheelPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.TimingWheel givenTimingWheelProperties = emailSchedulerProperties.getTimingWheel();
+
+        //Assert
+        assertions.assertThat(givenTimingWheelProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenTimingWheelProperties.getTickMillis()).isEqualTo(1000);
+        assertions.assertThat(givenTimingWheelProperties.getWheelSize()).isEqualTo(64);
+        assertions.assertThat(givenTimingWheelProperties.getHorizonMillis()).isEqualTo(60000);
+    }
+
+    @Test
+    public void shouldReturnDefaultAdmissionPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Admission givenAdmissionProperties = emailSchedulerProperties.getAdmission();
+
+        //Assert
+        assertions.assertThat(givenAdmissionProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenAdmissionProperties.getPolicy()).isEqualTo(EmailSchedulerProperties.Admission.Policy.BLOCK);
+        assertions.assertThat(givenAdmissionProperties.getHighWatermark()).isEqualTo(100000);
+        assertions.assertThat(givenAdmissionProperties.getLowWatermark()).isEqualTo(80000);
+        assertions.assertThat(givenAdmissionProperties.getBlockTimeoutMillis()).isEqualTo(30000);
+    }
+
+    @Test
+    public void shouldReturnDefaultDequeuePropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Dequeue givenDequeueProperties = emailSchedulerProperties.getDequeue();
+
+        //Assert
+        assertions.assertThat(givenDequeueProperties.getPolicy()).isEqualTo(EmailSchedulerProperties.Dequeue.Policy.STRICT);
+        assertions.assertThat(givenDequeueProperties.getWeights()).isEmpty();
+        assertions.assertThat(givenDequeueProperties.getMaxLagMillis()).isEmpty();
+    }
+
+    @Test
+    public void shouldReturnDefaultRetryPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Retry givenRetryProperties = emailSchedulerProperties.getRetry();
+
+        //Assert
+        assertions.assertThat(givenRetryProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenRetryProperties.getMaxAttempts()).isEqualTo(3);
+        assertions.assertThat(givenRetryProperties.getInitialBackoffMillis()).isEqualTo(1000);
+        assertions.assertThat(givenRetryProperties.getMaxBackoffMillis()).isEqualTo(300000);
+        assertions.assertThat(givenRetryProperties.getMultiplier()).isEqualTo(2.0);
+        assertions.assertThat(givenRetryProperties.getJitter()).isEqualTo(0.5);
+        assertions.assertThat(givenRetryProperties.getTransientReplyCodes()).isEmpty();
+        assertions.assertThat(givenRetryProperties.getPermanentReplyCodes()).isEmpty();
+        assertions.assertThat(givenRetryProperties.getTransientExceptions())
+                .containsExactly(SocketException.class, SocketTimeoutException.class, UnknownHostException.class);
+    }
+
+    @Test
+    public void shouldReturnDefaultShutdownPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Shutdown givenShutdownProperties = emailSchedulerProperties.getShutdown();
+
+        //Assert
+        assertions.assertThat(givenShutdownProperties.getDrainTimeoutMillis()).isZero();
+    }
+
+    @Test
+    public void shouldReturnDefaultClusterPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Cluster givenClusterProperties = emailSchedulerProperties.getCluster();
+
+        //Assert
+        assertions.assertThat(givenClusterProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenClusterProperties.getNodeId()).isNull();
+        assertions.assertThat(givenClusterProperties.getVisibilityTimeoutMillis()).isEqualTo(10000);
+        assertions.assertThat(givenClusterProperties.getHeartbeatIntervalMillis()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldReturnDefaultPreRenderPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.PreRender givenPreRenderProperties = emailSchedulerProperties.getPreRender();
+
+        //Assert
+        assertions.assertThat(givenPreRenderProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenPreRenderProperties.getThreads()).isEqualTo(1);
+        assertions.assertThat(givenPreRenderProperties.getMaxPrepared()).isEqualTo(500);
+    }
+
+    @Test
+    public void shouldReturnDefaultPipelinePropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Pipeline givenPipelineProperties = emailSchedulerProperties.getPipeline();
+
+        //Assert
+        assertions.assertThat(givenPipelineProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenPipelineProperties.getPrepareThreads()).isEqualTo(1);
+        assertions.assertThat(givenPipelineProperties.getPrepareQueueCapacity()).isEqualTo(100);
+        assertions.assertThat(givenPipelineProperties.getTransportThreads()).isEqualTo(1);
+        assertions.assertThat(givenPipelineProperties.getTransportQueueCapacity()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldReturnDefaultThrottlePropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = new EmailSchedulerProperties();
+
+        //Act
+        EmailSchedulerProperties.Throttle givenThrottleProperties = emailSchedulerProperties.getThrottle();
+
+        //Assert
+        assertions.assertThat(givenThrottleProperties.isEnabled()).isFalse();
+        assertions.assertThat(givenThrottleProperties.getMaxConcurrent()).isEqualTo(10);
+        assertions.assertThat(givenThrottleProperties.getRatePerSecond()).isZero();
+        assertions.assertThat(givenThrottleProperties.getBurst()).isEqualTo(10);
+        assertions.assertThat(givenThrottleProperties.getLookahead()).isEqualTo(1000);
+        assertions.assertThat(givenThrottleProperties.getDomains()).isEmpty();
     }
 
     @Test
@@ -244,6 +406,458 @@ public class EmailSchedulerPropertiesTest implements UnitTest {
         fail("IllegalStateException expected");
     }
 
+    @Test
+    public void shouldValidateThrowExceptionWhenNumberOfConsumersIsZeroAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .dispatcher(EmailSchedulerProperties.Dispatcher.builder()
+                        .consumers(0)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one consumer to dispatch the scheduled emails. Review property 'spring.mail.scheduler.dispatcher.consumers'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenTimingWheelHorizonIsSmallerThanTickAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .timingWheel(EmailSchedulerProperties.TimingWheel.builder()
+                        .enabled(true)
+                        .tickMillis(1000)
+                        .wheelSize(64)
+                        .horizonMillis(999)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("The application properties key 'spring.mail.scheduler.timingWheel.horizonMillis' should not have a value smaller than the value in property 'spring.mail.scheduler.timingWheel.tickMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenAdmissionLowWatermarkIsGreaterThanHighWatermarkAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .admission(EmailSchedulerProperties.Admission.builder()
+                        .enabled(true)
+                        .highWatermark(10)
+                        .lowWatermark(11)
+                        .blockTimeoutMillis(1000)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("The application properties key 'spring.mail.scheduler.admission.highWatermark' should not have a value smaller than the value in property 'spring.mail.scheduler.admission.lowWatermark'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenDequeueHasMoreWeightsThanPriorityLevelsAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(2)
+                .dequeue(EmailSchedulerProperties.Dequeue.builder()
+                        .policy(EmailSchedulerProperties.Dequeue.Policy.WEIGHTED_ROUND_ROBIN)
+                        .weights(ImmutableList.of(3, 2, 1))
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at most one weight per priority level. Review property 'spring.mail.scheduler.dequeue.weights'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenDequeueWeightIsNotPositiveAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(2)
+                .dequeue(EmailSchedulerProperties.Dequeue.builder()
+                        .policy(EmailSchedulerProperties.Dequeue.Policy.DEFICIT_ROUND_ROBIN)
+                        .weights(ImmutableList.of(3, 0))
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected positive weights for the priority levels. Review property 'spring.mail.scheduler.dequeue.weights'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenDequeueMaxLagIsNegativeAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(2)
+                .dequeue(EmailSchedulerProperties.Dequeue.builder()
+                        .maxLagMillis(ImmutableList.of(1000L, -1L))
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected non negative lag targets for the priority levels. Review property 'spring.mail.scheduler.dequeue.maxLagMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateReturnTrueWhenRetryIsEnabledWithValidValues() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .retry(EmailSchedulerProperties.Retry.builder()
+                        .enabled(true)
+                        .maxAttempts(3)
+                        .initialBackoffMillis(100)
+                        .maxBackoffMillis(1000)
+                        .multiplier(2)
+                        .jitter(0.5)
+                        .build())
+                .build();
+
+        //Act
+        boolean isValid = emailSchedulerProperties.validate();
+
+        //Assert
+        assertions.assertThat(isValid).isTrue();
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenRetryMaxBackoffIsSmallerThanInitialBackoffAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .retry(EmailSchedulerProperties.Retry.builder()
+                        .enabled(true)
+                        .maxAttempts(3)
+                        .initialBackoffMillis(1000)
+                        .maxBackoffMillis(100)
+                        .multiplier(2)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("The application properties key 'spring.mail.scheduler.retry.maxBackoffMillis' should not have a value smaller than the value in property 'spring.mail.scheduler.retry.initialBackoffMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenRetryJitterIsGreaterThanOneAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .retry(EmailSchedulerProperties.Retry.builder()
+                        .enabled(true)
+                        .maxAttempts(3)
+                        .initialBackoffMillis(100)
+                        .maxBackoffMillis(1000)
+                        .multiplier(2)
+                        .jitter(1.5)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a jitter between 0 and 1. Review property 'spring.mail.scheduler.retry.jitter'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenDrainTimeoutIsNegativeAndSchedulerIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .shutdown(EmailSchedulerProperties.Shutdown.builder()
+                        .drainTimeoutMillis(-1)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a non negative drain timeout. Review property 'spring.mail.scheduler.shutdown.drainTimeoutMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenClusterIsEnabledWithoutPersistence() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .cluster(EmailSchedulerProperties.Cluster.builder()
+                        .enabled(true)
+                        .visibilityTimeoutMillis(60000)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected the persistence layer to share the emails among the nodes. Review property 'spring.mail.scheduler.cluster.enabled'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenVisibilityTimeoutIsNotPositiveAndClusterIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .persistence(EmailSchedulerProperties.Persistence.builder()
+                        .desiredBatchSize(1)
+                        .maxKeptInMemory(1)
+                        .build())
+                .cluster(EmailSchedulerProperties.Cluster.builder()
+                        .enabled(true)
+                        .visibilityTimeoutMillis(0)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a positive visibility timeout for the claimed emails. Review property 'spring.mail.scheduler.cluster.visibilityTimeoutMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenHeartbeatIntervalIsNotSmallerThanVisibilityTimeout() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .persistence(EmailSchedulerProperties.Persistence.builder()
+                        .desiredBatchSize(1)
+                        .maxKeptInMemory(1)
+                        .build())
+                .cluster(EmailSchedulerProperties.Cluster.builder()
+                        .enabled(true)
+                        .visibilityTimeoutMillis(1000)
+                        .heartbeatIntervalMillis(1000)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("The application properties key 'spring.mail.scheduler.cluster.heartbeatIntervalMillis' should have a value smaller than the value in property 'spring.mail.scheduler.cluster.visibilityTimeoutMillis'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenPreRenderThreadsAreNotPositiveAndPreRenderIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .preRender(EmailSchedulerProperties.PreRender.builder()
+                        .enabled(true)
+                        .threads(0)
+                        .maxPrepared(1)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one thread to render the template emails. Review property 'spring.mail.scheduler.preRender.threads'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenMaxPreparedIsNotPositiveAndPreRenderIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .preRender(EmailSchedulerProperties.PreRender.builder()
+                        .enabled(true)
+                        .threads(1)
+                        .maxPrepared(0)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one rendered email to be kept in memory. Review property 'spring.mail.scheduler.preRender.maxPrepared'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenTransportThreadsAreNotPositiveAndPipelineIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .pipeline(EmailSchedulerProperties.Pipeline.builder()
+                        .enabled(true)
+                        .prepareThreads(1)
+                        .prepareQueueCapacity(1)
+                        .transportThreads(0)
+                        .transportQueueCapacity(1)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one thread to transmit the emails. Review property 'spring.mail.scheduler.pipeline.transportThreads'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenPrepareQueueCapacityIsNotPositiveAndPipelineIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .pipeline(EmailSchedulerProperties.Pipeline.builder()
+                        .enabled(true)
+                        .prepareThreads(1)
+                        .prepareQueueCapacity(0)
+                        .transportThreads(1)
+                        .transportQueueCapacity(1)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected room for at least one email waiting to be prepared. Review property 'spring.mail.scheduler.pipeline.prepareQueueCapacity'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenLookaheadIsNotPositiveAndThrottleIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .throttle(EmailSchedulerProperties.Throttle.builder()
+                        .enabled(true)
+                        .maxConcurrent(1)
+                        .burst(1)
+                        .lookahead(0)
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected to look at least at the earliest due email of each priority level. Review property 'spring.mail.scheduler.throttle.lookahead'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenDomainBurstIsNotPositiveAndThrottleIsEnabled() throws Exception {
+        //Arrange
+        EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .enabled(true)
+                .priorityLevels(1)
+                .throttle(EmailSchedulerProperties.Throttle.builder()
+                        .enabled(true)
+                        .maxConcurrent(1)
+                        .burst(1)
+                        .lookahead(1)
+                        .domains(ImmutableMap.of("gmail.com", EmailSchedulerProperties.DomainLimit.builder()
+                                .ratePerSecond(5.0)
+                                .burst(0)
+                                .build()))
+                        .build())
+                .build();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a burst of at least one email. Review property 'spring.mail.scheduler.throttle.domains[gmail.com].burst'.");
+
+        //Act
+        emailSchedulerProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
     @Test
     public void shouldCheckIsValidThrowExceptionWhenInputIsNull() throws Exception {
         //Arrange
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import it.ozimov.springboot.mail.service.defaultimpl.PooledJavaMailSender;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+
+import java.nio.charset.StandardCharsets;
+
+public class EmailTransportPoolConfigurationTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final EmailTransportPoolConfiguration emailTransportPoolConfiguration = new EmailTransportPoolConfiguration();
+
+    @Test
+    public void shouldConfigureThePooledSenderFromTheMailProperties() throws Exception {
+        //Arrange
+        final MailProperties mailProperties = new MailProperties();
+        mailProperties.setHost("smtp.mala-tempora.currunt");
+        mailProperties.setPort(2525);
+        mailProperties.setUsername("cicero");
+        mailProperties.setPassword("catilina");
+        mailProperties.setDefaultEncoding(StandardCharsets.ISO_8859_1);
+        mailProperties.getProperties().put("mail.smtp.starttls.enable", "true");
+        final TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+        transportPoolProperties.setEnabled(true);
+
+        //Act
+        try (final PooledJavaMailSender pooledJavaMailSender =
+                     emailTransportPoolConfiguration.pooledJavaMailSender(mailProperties, transportPoolProperties)) {
+
+            //Assert
+            assertions.assertThat(pooledJavaMailSender.getHost()).isEqualTo("smtp.mala-tempora.currunt");
+            assertions.assertThat(pooledJavaMailSender.getPort()).isEqualTo(2525);
+            assertions.assertThat(pooledJavaMailSender.getUsername()).isEqualTo("cicero");
+            assertions.assertThat(pooledJavaMailSender.getPassword()).isEqualTo("catilina");
+            assertions.assertThat(pooledJavaMailSender.getProtocol()).isEqualTo("smtp");
+            assertions.assertThat(pooledJavaMailSender.getDefaultEncoding()).isEqualTo("ISO-8859-1");
+            assertions.assertThat(pooledJavaMailSender.getJavaMailProperties()).containsEntry("mail.smtp.starttls.enable", "true");
+            assertions.assertThat(pooledJavaMailSender.statistics().getMaxConnections()).isEqualTo(4);
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import it.ozimov.springboot.mail.UnitTest;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static junit.framework.TestCase.fail;
+
+public class RoutingPropertiesTest implements UnitTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldReturnDefaultPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        RoutingProperties routingProperties = new RoutingProperties();
+
+        //Act
+        boolean givenValidation = routingProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+        assertions.assertThat(routingProperties.isEnabled()).isFalse();
+        assertions.assertThat(routingProperties.getStrategy()).isEqualTo(RoutingProperties.Strategy.LEAST_OUTSTANDING);
+        assertions.assertThat(routingProperties.getRelays()).isEmpty();
+        assertions.assertThat(routingProperties.getCircuitBreaker().getFailureThreshold()).isEqualTo(5);
+        assertions.assertThat(routingProperties.getCircuitBreaker().getOpenMillis()).isEqualTo(30_000);
+        assertions.assertThat(new RoutingProperties.Relay().getWeight()).isEqualTo(1);
+        assertions.assertThat(new RoutingProperties.Relay().getPriorities()).isEmpty();
+    }
+
+    @Test
+    public void shouldBuilderReturnDefaultPropertiesWhenNotProvided() throws Exception {
+        //Act
+        RoutingProperties routingProperties = RoutingProperties.builder().build();
+        RoutingProperties.Relay relay = RoutingProperties.Relay.builder().host("localhost").build();
+
+        //Assert
+        assertions.assertThat(routingProperties).isEqualTo(new RoutingProperties());
+        assertions.assertThat(relay.getWeight()).isEqualTo(1);
+        assertions.assertThat(relay.getPriorities()).isEmpty();
+        assertions.assertThat(relay.getProperties()).isEmpty();
+        assertions.assertThat(RoutingProperties.CircuitBreaker.builder().build()).isEqualTo(new RoutingProperties.CircuitBreaker());
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenNoRelayIsGivenAndRoutingIsEnabled() throws Exception {
+        //Arrange
+        RoutingProperties routingProperties = new RoutingProperties();
+        routingProperties.setEnabled(true);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one relay. Review property 'spring.mail.routing.relays'.");
+
+        //Act
+        routingProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenTheWeightOfARelayIsNotPositiveAndRoutingIsEnabled() throws Exception {
+        //Arrange
+        RoutingProperties routingProperties = new RoutingProperties();
+        routingProperties.setEnabled(true);
+        final RoutingProperties.Relay relay = new RoutingProperties.Relay();
+        relay.setHost("smtp.mala-tempora.currunt");
+        relay.setWeight(0);
+        routingProperties.getRelays().put("primary", relay);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected a positive weight. Review property 'spring.mail.routing.relays[primary].weight'.");
+
+        //Act
+        routingProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenTheHostOfARelayIsMissingAndRoutingIsEnabled() throws Exception {
+        //Arrange
+        RoutingProperties routingProperties = new RoutingProperties();
+        routingProperties.setEnabled(true);
+        routingProperties.getRelays().put("primary", new RoutingProperties.Relay());
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected the host of the relay. Review property 'spring.mail.routing.relays[primary].host'.");
+
+        //Act
+        routingProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldNotValidateWhenRoutingIsDisabled() throws Exception {
+        //Arrange
+        RoutingProperties routingProperties = new RoutingProperties();
+        routingProperties.getCircuitBreaker().setOpenMillis(-1);
+
+        //Act
+        boolean givenValidation = routingProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.configuration;
+
+import it.ozimov.springboot.mail.UnitTest;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static junit.framework.TestCase.fail;
+
+public class TransportPoolPropertiesTest implements UnitTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldReturnDefaultPropertiesWhenNotProvided() throws Exception {
+        //Arrange
+        TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+
+        //Act
+        boolean givenValidation = transportPoolProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+        assertions.assertThat(transportPoolProperties.isEnabled()).isFalse();
+        assertions.assertThat(transportPoolProperties.getMaxConnections()).isEqualTo(4);
+        assertions.assertThat(transportPoolProperties.getMaxMessagesPerConnection()).isEqualTo(100);
+        assertions.assertThat(transportPoolProperties.getMaxIdleMillis()).isEqualTo(30_000);
+        assertions.assertThat(transportPoolProperties.getValidationIntervalMillis()).isEqualTo(5_000);
+        assertions.assertThat(transportPoolProperties.getBorrowTimeoutMillis()).isEqualTo(10_000);
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenMaxConnectionsIsNotPositiveAndPoolIsEnabled() throws Exception {
+        //Arrange
+        TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+        transportPoolProperties.setEnabled(true);
+        transportPoolProperties.setMaxConnections(0);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one SMTP connection in the pool. Review property 'spring.mail.pool.maxConnections'.");
+
+        //Act
+        transportPoolProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldValidateThrowExceptionWhenMaxMessagesPerConnectionIsNotPositiveAndPoolIsEnabled() throws Exception {
+        //Arrange
+        TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+        transportPoolProperties.setEnabled(true);
+        transportPoolProperties.setMaxMessagesPerConnection(0);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Expected at least one email to be sent on each connection. Review property 'spring.mail.pool.maxMessagesPerConnection'.");
+
+        //Act
+        transportPoolProperties.validate();
+
+        //Assert
+        fail("IllegalStateException expected");
+    }
+
+    @Test
+    public void shouldNotValidateWhenPoolIsDisabled() throws Exception {
+        //Arrange
+        TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+        transportPoolProperties.setMaxIdleMillis(-1);
+
+        //Act
+        boolean givenValidation = transportPoolProperties.validate();
+
+        //Assert
+        assertions.assertThat(givenValidation).isTrue();
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.AdaptiveConcurrencyProperties;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+
+import jakarta.mail.Address;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.fail;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, SECONDS);
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final AtomicLong nanoClock = new AtomicLong(SECONDS.toNanos(1));
+
+    private static AdaptiveConcurrencyProperties properties(final int initialLimit) {
+        return AdaptiveConcurrencyProperties.builder()
+                .enabled(true)
+                .initialLimit(initialLimit)
+                .minLimit(1)
+                .maxLimit(10)
+                .latencyTolerance(1.5)
+                .backoffRatio(0.5)
+                .acquireTimeoutMillis(0)
+                .build();
+    }
+
+    private AdaptiveConcurrencyLimiter limiter(final int initialLimit) {
+        return new AdaptiveConcurrencyLimiter(properties(initialLimit), nanoClock::get);
+    }
+
+    private static MailSendException smtpFailure(final int replyCode) {
+        return new MailSendException("Failed messages",
+                new SMTPSendFailedException("DATA", replyCode, replyCode + " error", null, new Address[]{}, null, null));
+    }
+
+    // Sends as many emails as the limit at the same time, each one taking the given latency
+    private void sendRound(final AdaptiveConcurrencyLimiter limiter, final long latencyMillis) {
+        final int limit = limiter.statistics().getLimit();
+        final long[] starts = new long[limit];
+        for (int i = 0; i < limit; i++) {
+            starts[i] = limiter.acquire();
+        }
+        nanoClock.addAndGet(MILLISECONDS.toNanos(latencyMillis));
+        for (final long start : starts) {
+            limiter.release(start, null);
+        }
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenInitialLimitAboveMaxLimit() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Initial limit should be between 1 and 10, while 11 was given");
+
+        //Act
+        limiter(11);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldRaiseTheLimitWhileTheLatencyStaysFlat() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter limiter = limiter(2);
+
+        //Act
+        for (int round = 0; round < 10; round++) {
+            sendRound(limiter, 100);
+        }
+
+        //Assert
+        assertions.assertThat(limiter.statistics().getLimit()).isEqualTo(7);
+        assertions.assertThat(limiter.statistics().getBackoffs()).isZero();
+        assertions.assertThat(limiter.statistics().getInFlight()).isZero();
+        assertions.assertThat(limiter.statistics().getBaselineLatencyMillis()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldNotRaiseTheLimitWhenNotReached() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter limiter = limiter(4);
+
+        //Act
+        for (int i = 0; i < 10; i++) {
+            final long start = limiter.acquire();
+            nanoClock.addAndGet(MILLISECONDS.toNanos(100));
+            limiter.release(start, null);
+        }
+
+        //Assert
+        assertions.assertThat(limiter.statistics().getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldCutTheLimitOnRisingLatency() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter limiter = limiter(8);
+        sendRound(limiter, 100);
+
+        //Act
+        sendRound(limiter, 1_000);
+
+        //Assert
+        assertions.assertThat(limiter.statistics().getLimit()).isEqualTo(4);
+        assertions.assertThat(limiter.statistics().getBackoffs()).isEqualTo(1);
+        assertions.assertThat(limiter.statistics().getRecentLatencyMillis())
+                .isGreaterThan(limiter.statistics().getBaselineLatencyMillis() * 1.5);
+    }
+
+    @Test
+    public void shouldCutTheLimitOnTemporaryFailuresOnly() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter limiter = limiter(8);
+
+        //Act
+        limiter.release(limiter.acquire(), smtpFailure(550));
+        final int limitAfterPermanentFailure = limiter.statistics().getLimit();
+        limiter.release(limiter.acquire(), smtpFailure(451));
+
+        //Assert
+        assertions.assertThat(limitAfterPermanentFailure).isEqualTo(8);
+        assertions.assertThat(limiter.statistics().getLimit()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldFailTheSendWhenTheLimitIsNotFreedInTime() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter limiter = limiter(1);
+        limiter.acquire();
+
+        //Act
+        try {
+            limiter.acquire();
+            fail("MailSendException expected");
+        } catch (final MailSendException e) {
+
+            //Assert
+            assertions.assertThat(e).hasMessageContaining("below the limit of 1");
+        }
+        assertions.assertThat(limiter.statistics().getAcquireTimeouts()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.service.exception.EmailSchedulingRejectedException;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.fail;
+
+public class AdmissionControllerTest {
+
+    private static final int HIGH_WATERMARK = 10;
+    private static final int LOW_WATERMARK = 5;
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, SECONDS);
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final AtomicInteger heldInMemory = new AtomicInteger();
+
+    private static EmailSchedulerProperties.Admission admission(final EmailSchedulerProperties.Admission.Policy policy,
+                                                                final long blockTimeoutMillis) {
+        return EmailSchedulerProperties.Admission.builder()
+                .enabled(true)
+                .policy(policy)
+                .highWatermark(HIGH_WATERMARK)
+                .lowWatermark(LOW_WATERMARK)
+                .blockTimeoutMillis(blockTimeoutMillis)
+                .build();
+    }
+
+    private AdmissionController admissionController(final EmailSchedulerProperties.Admission.Policy policy) {
+        return new AdmissionController(admission(policy, 1_000), heldInMemory::get);
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenLowWatermarkGreaterThanHighWatermark() throws Exception {
+        //Arrange
+        final EmailSchedulerProperties.Admission admission = admission(EmailSchedulerProperties.Admission.Policy.BLOCK, 1_000);
+        admission.setLowWatermark(HIGH_WATERMARK + 1);
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Low watermark should be between 0 and 10, while 11 was given");
+
+        //Act
+        new AdmissionController(admission, heldInMemory::get);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldUseBlockPolicyWhenNotProvided() throws Exception {
+        //Act
+        final AdmissionController admissionController = admissionController(null);
+
+        //Assert
+        assertions.assertThat(admissionController.policy()).isEqualTo(EmailSchedulerProperties.Admission.Policy.BLOCK);
+    }
+
+    @Test
+    public void shouldAdmitBelowHighWatermark() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = admissionController(EmailSchedulerProperties.Admission.Policy.REJECT);
+        heldInMemory.set(HIGH_WATERMARK - 1);
+
+        //Act
+        final boolean admitted = admissionController.admit();
+
+        //Assert
+        assertions.assertThat(admitted).isTrue();
+        assertions.assertThat(admissionController.statistics().getAdmittedEmails()).isEqualTo(1);
+        assertions.assertThat(admissionController.statistics().isSaturated()).isFalse();
+    }
+
+    @Test
+    public void shouldRejectWhenHighWatermarkIsReached() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = admissionController(EmailSchedulerProperties.Admission.Policy.REJECT);
+        heldInMemory.set(HIGH_WATERMARK);
+
+        expectedException.expect(EmailSchedulingRejectedException.class);
+        expectedException.expectMessage("Email rejected since 10 scheduled emails are held in memory");
+
+        //Act
+        admissionController.admit();
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldKeepRejectingUntilLowWatermarkIsReached() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = admissionController(EmailSchedulerProperties.Admission.Policy.CALLER_RUNS);
+        heldInMemory.set(HIGH_WATERMARK);
+        assertions.assertThat(admissionController.admit()).isFalse();
+
+        //Act
+        heldInMemory.set(LOW_WATERMARK + 1);
+        final boolean admittedAboveLowWatermark = admissionController.admit();
+        heldInMemory.set(LOW_WATERMARK);
+        final boolean admittedAtLowWatermark = admissionController.admit();
+
+        //Assert
+        assertions.assertThat(admittedAboveLowWatermark).isFalse();
+        assertions.assertThat(admittedAtLowWatermark).isTrue();
+        final AdmissionStatistics admissionStatistics = admissionController.statistics();
+        assertions.assertThat(admissionStatistics.getHighWatermarkCrossings()).isEqualTo(1);
+        assertions.assertThat(admissionStatistics.getCallerRunsEmails()).isEqualTo(2);
+        assertions.assertThat(admissionStatistics.getAdmittedEmails()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCountEmailsNotYetInMemory() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = admissionController(EmailSchedulerProperties.Admission.Policy.CALLER_RUNS);
+        heldInMemory.set(HIGH_WATERMARK - 3);
+
+        //Act
+        final boolean admitted = admissionController.admit(3, () -> {
+        });
+
+        //Assert
+        assertions.assertThat(admitted).isFalse();
+    }
+
+    @Test
+    public void shouldBlockUntilLowWatermarkIsReached() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = admissionController(EmailSchedulerProperties.Admission.Policy.BLOCK);
+        heldInMemory.set(HIGH_WATERMARK);
+        final AtomicBoolean handedOver = new AtomicBoolean();
+
+        //Act
+        final CompletableFuture<Boolean> admitted = CompletableFuture.supplyAsync(
+                () -> admissionController.admit(0, () -> handedOver.set(true)));
+        TimeUnit.MILLISECONDS.sleep(100);
+        final boolean admittedWhileAboveLowWatermark = admitted.isDone();
+        heldInMemory.set(LOW_WATERMARK);
+        admissionController.onReleased();
+
+        //Assert
+        assertions.assertThat(admittedWhileAboveLowWatermark).isFalse();
+        assertions.assertThat(admitted.get(1, SECONDS)).isTrue();
+        assertions.assertThat(handedOver).isTrue();
+        assertions.assertThat(admissionController.statistics().getBlockedEmails()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRejectWhenBlockedLongerThanTimeout() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = new AdmissionController(
+                admission(EmailSchedulerProperties.Admission.Policy.BLOCK, 50), heldInMemory::get);
+        heldInMemory.set(HIGH_WATERMARK);
+
+        expectedException.expect(EmailSchedulingRejectedException.class);
+        expectedException.expectMessage("Email rejected after waiting 50 ms to be admitted");
+
+        //Act
+        admissionController.admit();
+
+        //Assert
+        fail();
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.service.BulkSchedulingResult;
+import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.slf4j.Logger;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares scheduling a campaign with one {@code schedule(...)} call per email against a single
+ * {@code scheduleAll(...)} call. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.BulkSchedulingBenchmark [emails]
+ * </pre>
+ */
+public class BulkSchedulingBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+
+        //the emails are due far in the future, so that only the scheduling is measured
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+        final List<EmailSchedulingData> campaign = new ArrayList<>(emails);
+        for (int i = 0; i < emails; i++) {
+            final DefaultEmail email = (DefaultEmail) getSimpleMail();
+            email.setSubject("Email " + i);
+            campaign.add(DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                    .email(email)
+                    .scheduledDateTime(scheduledDateTime.plusNanos(i))
+                    .desiredPriority(1 + i % 3)
+                    .assignedPriority(1 + i % 3)
+                    .build());
+        }
+
+        final PriorityQueueEmailSchedulerService loopScheduler = scheduler();
+        try {
+            final long start = System.nanoTime();
+            for (final EmailSchedulingData emailSchedulingData : campaign) {
+                loopScheduler.schedule(emailSchedulingData.getEmail(), emailSchedulingData.getScheduledDateTime(),
+                        emailSchedulingData.getDesiredPriority());
+            }
+            System.out.printf("schedule(...) loop: emails = %d, elapsed = %.1f ms%n", emails, (System.nanoTime() - start) / 1e6);
+        } finally {
+            loopScheduler.cleanUp();
+        }
+
+        final PriorityQueueEmailSchedulerService bulkScheduler = scheduler();
+        try {
+            final long start = System.nanoTime();
+            final BulkSchedulingResult bulkSchedulingResult = bulkScheduler.scheduleAll(campaign);
+            System.out.printf("scheduleAll(...):   emails = %d, elapsed = %.1f ms%n",
+                    bulkSchedulingResult.scheduled(), (System.nanoTime() - start) / 1e6);
+        } finally {
+            bulkScheduler.cleanUp();
+        }
+    }
+
+    private static PriorityQueueEmailSchedulerService scheduler() throws InterruptedException {
+        final EmailLogRenderer emailLogRenderer = mock(EmailLogRenderer.class, withSettings().stubOnly());
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        final EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .priorityLevels(3)
+                .build();
+        return new PriorityQueueEmailSchedulerService(mock(EmailService.class, withSettings().stubOnly()),
+                emailSchedulerProperties, Optional.empty(), emailLogRenderer);
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.CircuitBreakerProperties;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.mail.MailParseException;
+import org.springframework.mail.MailSendException;
+
+import jakarta.mail.Address;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    private static final long FAST = MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = MILLISECONDS.toNanos(500);
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final AtomicLong nanoClock = new AtomicLong();
+
+    private final CircuitBreaker circuitBreaker = CircuitBreaker.consecutiveFailures(2, 1_000, nanoClock::get);
+
+    private static CircuitBreakerProperties properties() {
+        return CircuitBreakerProperties.builder()
+                .enabled(true)
+                .slidingWindowSize(10)
+                .minimumCalls(4)
+                .failureRateThreshold(50)
+                .slowCallRateThreshold(75)
+                .slowCallDurationMillis(100)
+                .openMillis(1_000)
+                .halfOpenCalls(2)
+                .build();
+    }
+
+    private static MailSendException smtpFailure(final int replyCode) {
+        return new MailSendException("Failed messages",
+                new SMTPSendFailedException("DATA", replyCode, replyCode + " error", null, new Address[]{}, null, null));
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenZeroFailureThreshold() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Sliding window size should be a positive number, while 0 was given");
+
+        //Act
+        CircuitBreaker.consecutiveFailures(0, 1_000);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenMinimumCallsAboveTheSlidingWindow() throws Exception {
+        //Arrange
+        final CircuitBreakerProperties circuitBreakerProperties = properties();
+        circuitBreakerProperties.setMinimumCalls(11);
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Minimum calls should be between 1 and 10, while 11 was given");
+
+        //Act
+        new CircuitBreaker(circuitBreakerProperties);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldOpenAfterTheConsecutiveFailures() throws Exception {
+        //Arrange
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onSuccess(FAST);
+        circuitBreaker.onFailure(FAST);
+
+        //Act
+        circuitBreaker.onFailure(FAST);
+
+        //Assert
+        assertions.assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        assertions.assertThat(circuitBreaker.openings()).isEqualTo(1);
+        assertions.assertThat(circuitBreaker.statistics().getNotPermittedCalls()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLetASingleTrialThroughOnceOpenForLongEnough() throws Exception {
+        //Arrange
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onFailure(FAST);
+        final long nanosUntilPermitted = circuitBreaker.nanosUntilPermitted();
+        nanoClock.addAndGet(MILLISECONDS.toNanos(1_000));
+
+        //Act
+        final boolean trialPermitted = circuitBreaker.tryAcquirePermission();
+
+        //Assert
+        assertions.assertThat(nanosUntilPermitted).isEqualTo(MILLISECONDS.toNanos(1_000));
+        assertions.assertThat(trialPermitted).isTrue();
+        assertions.assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertions.assertThat(circuitBreaker.isCallPermitted()).isFalse();
+        assertions.assertThat(circuitBreaker.nanosUntilPermitted()).isEqualTo(CircuitBreaker.HALF_OPEN_RECHECK_NANOS);
+        assertions.assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+    }
+
+    @Test
+    public void shouldCloseWhenTheTrialSucceeds() throws Exception {
+        //Arrange
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onFailure(FAST);
+        nanoClock.addAndGet(MILLISECONDS.toNanos(1_000));
+        circuitBreaker.tryAcquirePermission();
+
+        //Act
+        circuitBreaker.onSuccess(FAST);
+
+        //Assert
+        assertions.assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertions.assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    public void shouldOpenAgainWhenTheTrialFails() throws Exception {
+        //Arrange
+        circuitBreaker.onFailure(FAST);
+        circuitBreaker.onFailure(FAST);
+        nanoClock.addAndGet(MILLISECONDS.toNanos(1_000));
+        circuitBreaker.tryAcquirePermission();
+
+        //Act
+        circuitBreaker.onFailure(FAST);
+
+        //Assert
+        assertions.assertThat(circuitBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(circuitBreaker.isCallPermitted()).isFalse();
+        assertions.assertThat(circuitBreaker.openings()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotOpenBeforeTheMinimumCalls() throws Exception {
+        //Arrange
+        final CircuitBreaker rateBreaker = new CircuitBreaker(properties(), nanoClock::get);
+
+        //Act
+        for (int i = 0; i < 3; i++) {
+            rateBreaker.onFailure(FAST);
+        }
+
+        //Assert
+        assertions.assertThat(rateBreaker.state()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(rateBreaker.statistics().getFailureRate()).isEqualTo(100);
+        assertions.assertThat(rateBreaker.statistics().getRecordedCalls()).isEqualTo(3);
+    }
+
+    @Test
+    public void shouldOpenWhenTheFailureRateReachesTheThreshold() throws Exception {
+        //Arrange
+        final CircuitBreaker rateBreaker = new CircuitBreaker(properties(), nanoClock::get);
+        rateBreaker.onSuccess(FAST);
+        rateBreaker.onFailure(FAST);
+        rateBreaker.onSuccess(FAST);
+
+        //Act
+        rateBreaker.onFailure(FAST);
+
+        //Assert
+        assertions.assertThat(rateBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(rateBreaker.isCallPermitted()).isFalse();
+    }
+
+    @Test
+    public void shouldOpenWhenTheSlowCallRateReachesTheThreshold() throws Exception {
+        //Arrange
+        final CircuitBreaker rateBreaker = new CircuitBreaker(properties(), nanoClock::get);
+        rateBreaker.onSuccess(FAST);
+        rateBreaker.onSuccess(SLOW);
+        rateBreaker.onSuccess(SLOW);
+        final CircuitBreaker.State stateBeforeTheLastSlowCall = rateBreaker.state();
+
+        //Act
+        rateBreaker.onSuccess(SLOW);
+
+        //Assert
+        assertions.assertThat(stateBeforeTheLastSlowCall).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(rateBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+    }
+
+    @Test
+    public void shouldForgetTheCallsOutOfTheSlidingWindow() throws Exception {
+        //Arrange
+        final CircuitBreaker rateBreaker = new CircuitBreaker(properties(), nanoClock::get);
+        for (int i = 0; i < 4; i++) {
+            rateBreaker.onSuccess(FAST);
+            rateBreaker.onSuccess(FAST);
+            rateBreaker.onFailure(FAST);
+        }
+
+        //Act
+        final CircuitBreakerStatistics statistics = rateBreaker.statistics();
+
+        //Assert
+        assertions.assertThat(statistics.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertions.assertThat(statistics.getRecordedCalls()).isEqualTo(10);
+        assertions.assertThat(statistics.getFailureRate()).isEqualTo(40);
+    }
+
+    @Test
+    public void shouldDecideOnTheRatesOfAllTheTrialCalls() throws Exception {
+        //Arrange
+        final CircuitBreaker rateBreaker = new CircuitBreaker(properties(), nanoClock::get);
+        for (int i = 0; i < 4; i++) {
+            rateBreaker.onFailure(FAST);
+        }
+        nanoClock.addAndGet(MILLISECONDS.toNanos(1_000));
+        final boolean firstTrialPermitted = rateBreaker.tryAcquirePermission();
+        final boolean secondTrialPermitted = rateBreaker.tryAcquirePermission();
+        final boolean thirdTrialPermitted = rateBreaker.tryAcquirePermission();
+
+        //Act
+        rateBreaker.onSuccess(FAST);
+        final CircuitBreaker.State stateAfterTheFirstTrial = rateBreaker.state();
+        rateBreaker.onFailure(FAST);
+
+        //Assert
+        assertions.assertThat(firstTrialPermitted).isTrue();
+        assertions.assertThat(secondTrialPermitted).isTrue();
+        assertions.assertThat(thirdTrialPermitted).isFalse();
+        assertions.assertThat(stateAfterTheFirstTrial).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertions.assertThat(rateBreaker.state()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(rateBreaker.openings()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldTellTheRejectionsOfTheEmailFromTheFailuresOfTheServer() throws Exception {
+        //Arrange
+        final MailSendException temporaryFailure = smtpFailure(451);
+        final MailSendException permanentFailure = smtpFailure(550);
+
+        //Act
+        final boolean isTemporaryFailureARejection = CircuitBreaker.isRejection(temporaryFailure);
+
+        //Assert
+        assertions.assertThat(isTemporaryFailureARejection).isFalse();
+        assertions.assertThat(CircuitBreaker.isRejection(permanentFailure)).isTrue();
+        assertions.assertThat(CircuitBreaker.isRejection(new MailParseException("Unparsable"))).isTrue();
+        assertions.assertThat(CircuitBreaker.isRejection(new MailSendException("Connection refused"))).isFalse();
+    }
+
+}
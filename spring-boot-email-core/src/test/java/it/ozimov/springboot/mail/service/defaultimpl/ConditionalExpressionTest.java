@@ -76,6 +76,27 @@ public class ConditionalExpressionTest {
                         " && '${spring.mail.scheduler.persistence.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.redis.enabled:false}' == 'true'" +
                         " && '${spring.mail.scheduler.persistence.redis.embedded:false}' == 'true'");
+
+        assertions.assertThat(TRANSPORT_POOL_IS_ENABLED)
+                .as("The condition for enabling the pool of SMTP connections should not change")
+                .isEqualTo("'${spring.mail.pool.enabled:false}' == 'true'");
+
+        assertions.assertThat(ROUTING_IS_ENABLED)
+                .as("The condition for enabling the routing among many relays should not change")
+                .isEqualTo("'${spring.mail.routing.enabled:false}' == 'true'");
+
+        assertions.assertThat(TRANSPORT_POOL_IS_ENABLED_WITHOUT_ROUTING)
+                .as("The condition for replacing the mail sender with a pooled one should not change")
+                .isEqualTo("'${spring.mail.pool.enabled:false}' == 'true'" +
+                        " && '${spring.mail.routing.enabled:false}' != 'true'");
+
+        assertions.assertThat(ADAPTIVE_CONCURRENCY_IS_ENABLED)
+                .as("The condition for enabling the adaptive concurrency limit should not change")
+                .isEqualTo("'${spring.mail.concurrency.enabled:false}' == 'true'");
+
+        assertions.assertThat(CIRCUIT_BREAKER_IS_ENABLED)
+                .as("The condition for enabling the circuit breaker around the sends should not change")
+                .isEqualTo("'${spring.mail.circuit-breaker.enabled:false}' == 'true'");
     }
 
 }
\ No newline at end of file
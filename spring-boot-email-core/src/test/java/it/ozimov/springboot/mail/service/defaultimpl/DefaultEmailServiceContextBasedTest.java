@@ -18,6 +18,7 @@ package it.ozimov.springboot.mail.service.defaultimpl;
 
 
 import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.GreenMailUtil;
 import com.icegreen.greenmail.util.ServerSetup;
 import it.ozimov.springboot.mail.ContextBasedTest;
 import it.ozimov.springboot.mail.model.Email;
@@ -38,7 +39,10 @@ import org.springframework.mail.javamail.JavaMailSenderImpl;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -47,10 +51,13 @@ import static it.ozimov.springboot.mail.service.defaultimpl.DefaultEmailServiceC
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMailWithAttachments;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -154,4 +161,25 @@ public class DefaultEmailServiceContextBasedTest implements ContextBasedTest {
         verify(javaMailSender).send(givenMessage);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void sendFanOutMailShouldDeliverOneTransactionToEachRecipient() throws Exception {
+        //Arrange
+        final Email email = getSimpleMail();
+        final List<InternetAddress> recipients = Arrays.asList(new InternetAddress("lucilius@de-rerum.natura"),
+                new InternetAddress("atticus@de-rerum.natura"), new InternetAddress("brutus@de-rerum.natura"));
+
+        //Act
+        MimeMessage givenMessage = emailService.sendFanOut(email, recipients);
+
+        //Assert
+        assertThat(givenMessage, not(nullValue()));
+        verify(javaMailSender, times(1)).send(any(MimeMessage.class));
+        assertThat(testSmtp.getReceivedMessages().length, is(recipients.size()));
+        final String receivedHeaders = GreenMailUtil.getHeaders(testSmtp.getReceivedMessages()[0]);
+        //neither the recipients of the email nor the other recipients of the fan out are disclosed
+        assertThat(receivedHeaders, not(containsString("roberto.trunfio@gmail.com")));
+        assertThat(receivedHeaders, not(containsString("tito55@de-rerum.natura")));
+        assertThat(receivedHeaders, not(containsString("atticus@de-rerum.natura")));
+    }
+
+}
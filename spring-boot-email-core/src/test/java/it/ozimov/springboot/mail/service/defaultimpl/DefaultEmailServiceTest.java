@@ -17,6 +17,7 @@
 package it.ozimov.springboot.mail.service.defaultimpl;
 
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import it.ozimov.springboot.mail.UnitTest;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
@@ -25,6 +26,8 @@ import it.ozimov.springboot.mail.model.ImageType;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultInlinePicture;
 import it.ozimov.springboot.mail.service.TemplateService;
 import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import it.ozimov.springboot.mail.service.exception.CircuitBreakerOpenException;
+import it.ozimov.springboot.mail.service.exception.FanOutException;
 import it.ozimov.springboot.mail.service.exception.TemplateException;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessage;
 import it.ozimov.springboot.mail.utils.EmailToMimeMessageValidators;
@@ -32,14 +35,20 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.slf4j.Logger;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import jakarta.mail.Address;
+import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
@@ -47,7 +56,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -82,7 +96,7 @@ public class DefaultEmailServiceTest extends EmailToMimeMessageValidators implem
 
         mailService = new DefaultEmailService(javaMailSender, templateService, emailToMimeMessage, emailLogRenderer);
 
-        when(javaMailSender.createMimeMessage()).thenReturn(new MimeMessage((Session) null));
+        when(javaMailSender.createMimeMessage()).thenReturn(new MimeMessage(Session.getInstance(new Properties())));
         doNothing().when(javaMailSender).send(any(MimeMessage.class));
     }
 
@@ -187,6 +201,236 @@ public class DefaultEmailServiceTest extends EmailToMimeMessageValidators implem
         fail();
     }
 
+    @Test
+    public void sendFanOutMailWithOneTransactionPerBatchOfRecipients() throws Exception {
+        //Arrange
+        final Email email = getSimpleMail();
+        final List<InternetAddress> recipients = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            recipients.add(new InternetAddress("reader-" + i + "@de-rerum.natura"));
+        }
+        final List<MimeMessage> transactionMessages = new ArrayList<>();
+        final List<Integer> recipientsPerTransaction = new ArrayList<>();
+        doAnswer(invocation -> {
+            final MimeMessage mimeMessage = invocation.getArgument(0);
+            assertThat(mimeMessage.getRecipients(Message.RecipientType.TO), is(nullValue()));
+            assertThat(mimeMessage.getRecipients(Message.RecipientType.CC), is(nullValue()));
+            transactionMessages.add(mimeMessage);
+            recipientsPerTransaction.add(mimeMessage.getAllRecipients().length);
+            return null;
+        }).when(javaMailSender).send(any(MimeMessage.class));
+
+        //Act
+        final MimeMessage sentMessage = mailService.sendFanOut(email, recipients);
+
+        //Assert
+        assertThat(email.getSentAt(), not(is(nullValue())));
+        validateFrom(email, sentMessage);
+        validateSubject(email, sentMessage);
+        validateBody(email, sentMessage);
+        assertThat(recipientsPerTransaction, contains(100, 100, 50));
+        //each transaction is sent a copy of its own, the message returned being left without recipients
+        assertThat(transactionMessages, everyItem(not(sameInstance(sentMessage))));
+        assertThat(transactionMessages.get(0).getRecipients(Message.RecipientType.BCC)[0], is(recipients.get(0)));
+        assertThat(transactionMessages.get(1).getRecipients(Message.RecipientType.BCC)[0], is(recipients.get(100)));
+        assertThat(sentMessage.getAllRecipients(), is(nullValue()));
+
+        verify(javaMailSender, times(1)).createMimeMessage();
+        verify(javaMailSender, times(3)).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void sendFanOutMailAttemptEveryTransactionAndReportTheFailedRecipients() throws Exception {
+        //Arrange
+        final Email email = getSimpleMail();
+        final List<InternetAddress> recipients = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            recipients.add(new InternetAddress("reader-" + i + "@de-rerum.natura"));
+        }
+        final MailSendException failure = new MailSendException("Connection reset");
+        doNothing().doThrow(failure).doNothing().when(javaMailSender).send(any(MimeMessage.class));
+
+        //Act
+        try {
+            mailService.sendFanOut(email, recipients);
+            fail();
+        } catch (final FanOutException e) {
+            //Assert
+            assertThat(e.getCause(), is(failure));
+            assertThat(e.getDeliveredRecipients(), contains(Iterables.toArray(
+                    Iterables.concat(recipients.subList(0, 100), recipients.subList(200, 250)), InternetAddress.class)));
+            assertThat(e.getFailedRecipients(), contains(recipients.subList(100, 200).toArray()));
+        }
+        verify(javaMailSender, times(3)).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void sendMailWithinTheConcurrencyLimit() throws MessagingException, IOException {
+        //Arrange
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = mock(AdaptiveConcurrencyLimiter.class);
+        when(concurrencyLimiter.acquire()).thenReturn(42L);
+        mailService.setConcurrencyLimiter(concurrencyLimiter);
+
+        //Act
+        mailService.send(getSimpleMail());
+
+        //Assert
+        final InOrder inOrder = inOrder(concurrencyLimiter, javaMailSender);
+        inOrder.verify(concurrencyLimiter).acquire();
+        inOrder.verify(javaMailSender).send(any(MimeMessage.class));
+        inOrder.verify(concurrencyLimiter).release(42L, null);
+    }
+
+    @Test
+    public void sendMailReleasesTheConcurrencyLimitWithTheFailure() throws MessagingException, IOException {
+        //Arrange
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = mock(AdaptiveConcurrencyLimiter.class);
+        when(concurrencyLimiter.acquire()).thenReturn(42L);
+        mailService.setConcurrencyLimiter(concurrencyLimiter);
+        final MailSendException failure = new MailSendException("451 Try again later");
+        doThrow(failure).when(javaMailSender).send(any(MimeMessage.class));
+
+        //Act
+        try {
+            mailService.send(getSimpleMail());
+            fail("MailSendException expected");
+        } catch (final MailSendException e) {
+
+            //Assert
+            assertThat(e, is(sameInstance(failure)));
+        }
+        verify(concurrencyLimiter).release(42L, failure);
+    }
+
+    @Test
+    public void sendMailFailsFastWhileTheCircuitIsOpen() throws MessagingException, IOException {
+        //Arrange
+        final CircuitBreaker circuitBreaker = CircuitBreaker.consecutiveFailures(1, 60_000);
+        mailService.setCircuitBreaker(circuitBreaker);
+        doThrow(new MailSendException("Connection refused")).when(javaMailSender).send(any(MimeMessage.class));
+        try {
+            mailService.send(getSimpleMail());
+            fail("MailSendException expected");
+        } catch (final MailSendException e) {
+            assertThat(e, is(not(instanceOf(CircuitBreakerOpenException.class))));
+        }
+
+        //Act
+        try {
+            mailService.send(getSimpleMail());
+            fail("CircuitBreakerOpenException expected");
+        } catch (final CircuitBreakerOpenException e) {
+
+            //Assert
+            assertThat(e.getRetryAfterMillis(), is(both(greaterThan(0L)).and(lessThanOrEqualTo(60_000L))));
+        }
+        assertThat(circuitBreaker.state(), is(CircuitBreaker.State.OPEN));
+        verify(javaMailSender, times(1)).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void sendMailSettlesTheTrialCallWhenTheSenderThrowsAnError() throws MessagingException, IOException {
+        //Arrange
+        final AtomicLong nanoClock = new AtomicLong();
+        final CircuitBreaker circuitBreaker = CircuitBreaker.consecutiveFailures(1, 1_000, nanoClock::get);
+        mailService.setCircuitBreaker(circuitBreaker);
+        final LinkageError error = new LinkageError("Broken mail sender");
+        doThrow(new MailSendException("Connection refused")).doThrow(error).doNothing()
+                .when(javaMailSender).send(any(MimeMessage.class));
+        try {
+            mailService.send(getSimpleMail());
+            fail("MailSendException expected");
+        } catch (final MailSendException e) {
+            assertThat(circuitBreaker.state(), is(CircuitBreaker.State.OPEN));
+        }
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+        //Act
+        try {
+            mailService.send(getSimpleMail());
+            fail("LinkageError expected");
+        } catch (final LinkageError e) {
+
+            //Assert
+            assertThat(e, is(sameInstance(error)));
+        }
+        assertThat(circuitBreaker.state(), is(CircuitBreaker.State.OPEN));
+        nanoClock.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        mailService.send(getSimpleMail());
+        assertThat(circuitBreaker.state(), is(CircuitBreaker.State.CLOSED));
+        verify(javaMailSender, times(3)).send(any(MimeMessage.class));
+    }
+
+    @Test
+    public void sendMailDoesNotOpenTheCircuitWhenTheEmailIsRejected() throws MessagingException, IOException {
+        //Arrange
+        final CircuitBreaker circuitBreaker = CircuitBreaker.consecutiveFailures(1, 60_000);
+        mailService.setCircuitBreaker(circuitBreaker);
+        final MailSendException rejection = new MailSendException("Failed messages",
+                new SMTPSendFailedException("RCPT", 550, "550 No such user", null, new Address[]{}, null, null));
+        doThrow(rejection).when(javaMailSender).send(any(MimeMessage.class));
+
+        //Act
+        try {
+            mailService.send(getSimpleMail());
+            fail("MailSendException expected");
+        } catch (final MailSendException e) {
+
+            //Assert
+            assertThat(e, is(sameInstance(rejection)));
+        }
+        assertThat(circuitBreaker.state(), is(CircuitBreaker.State.CLOSED));
+    }
+
+    @Test
+    public void sendPreparedMailWithoutTemplate() throws Exception {
+        //Arrange
+        final Email email = getSimpleMail();
+        final MimeMessage preparedMessage = mailService.prepare(email);
+        assertThat(email.getSentAt(), is(nullValue()));
+        verify(javaMailSender, never()).send(any(MimeMessage.class));
+
+        //Act
+        final MimeMessage sentMessage = mailService.sendPrepared(email, preparedMessage);
+
+        //Assert
+        assertThat(sentMessage, is(sameInstance(preparedMessage)));
+        assertThat(email.getSentAt(), not(is(nullValue())));
+        assertThat(sentMessage.getSentDate(), not(is(nullValue())));
+        validateFrom(email, sentMessage);
+        validateTo(email, sentMessage);
+        validateSubject(email, sentMessage);
+        validateBody(email, sentMessage);
+
+        verify(javaMailSender, times(1)).send(preparedMessage);
+    }
+
+    @Test
+    public void sendPreparedMailWithTemplate() throws MessagingException, IOException, TemplateException, CannotSendEmailException {
+        //Arrange
+        final Email email = getSimpleMail();
+        final String bodyToBeReturned = "Ciao Tito";
+        when(templateService.mergeTemplateIntoString(any(String.class), any(Map.class))).thenReturn(bodyToBeReturned);
+        final MimeMessage preparedMessage = mailService.prepare(email, "never_called.ftl", Maps.newHashMap());
+        assertThat(email.getSentAt(), is(nullValue()));
+        verify(javaMailSender, never()).send(any(MimeMessage.class));
+
+        //Act
+        final MimeMessage sentMessage = mailService.sendPrepared(email, preparedMessage);
+
+        //Assert
+        assertThat(sentMessage, is(sameInstance(preparedMessage)));
+        assertThat(email.getSentAt(), not(is(nullValue())));
+        assertThat(sentMessage.getSentDate(), not(is(nullValue())));
+        validateFrom(email, sentMessage);
+        validateTo(email, sentMessage);
+        validateSubject(email, sentMessage);
+        assertThat(((MimeMultipart) sentMessage.getContent()).getBodyPart(0).getContent(), is(bodyToBeReturned));
+
+        verify(templateService, times(1)).mergeTemplateIntoString(any(String.class), any(Map.class));
+        verify(javaMailSender, times(1)).send(preparedMessage);
+    }
+
     @Test
     public void sendMailWithTemplateShouldThrowExceptionWhenEmailIsNull() throws CannotSendEmailException {
         //Arrange
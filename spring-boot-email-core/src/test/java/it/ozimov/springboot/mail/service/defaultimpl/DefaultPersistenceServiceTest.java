@@ -21,6 +21,7 @@ import it.ozimov.springboot.mail.BaseRedisTest;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.DeadLetter;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Rule;
@@ -41,12 +42,16 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import java.time.Duration;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static com.danhaywood.java.assertjext.Conditions.matchedBy;
 import static it.ozimov.cirneco.hamcrest.java7.javautils.IsUUID.UUID;
@@ -498,6 +503,93 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
                 .containsOnlyElementsOf(emailSchedulingDataCollection);
     }
 
+    @Test
+    public void shouldGetNextBatchAfterReturnTheEmailsFollowingTheGivenOne() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        TimeUnit.MILLISECONDS.sleep(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        TimeUnit.MILLISECONDS.sleep(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_3 = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        final DefaultEmailSchedulingData defaultEmailSchedulingDataOfOtherLevel = createDefaultEmailSchedulingDataWithPriority(2);
+
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData_3, defaultEmailSchedulingData_1,
+                defaultEmailSchedulingData_2, defaultEmailSchedulingDataOfOtherLevel));
+
+        //Act
+        List<EmailSchedulingData> givenFirstBatch = defaultPersistenceService.getNextBatchAfter(assignedPriority, 1, null);
+        List<EmailSchedulingData> givenNextBatch = defaultPersistenceService.getNextBatchAfter(assignedPriority, 10, defaultEmailSchedulingData_1);
+        List<EmailSchedulingData> givenLastBatch = defaultPersistenceService.getNextBatchAfter(assignedPriority, 10, defaultEmailSchedulingData_3);
+
+        //Assert
+        assertions.assertThat(givenFirstBatch).containsExactly(defaultEmailSchedulingData_1);
+        assertions.assertThat(givenNextBatch).containsExactly(defaultEmailSchedulingData_2, defaultEmailSchedulingData_3);
+        assertions.assertThat(givenLastBatch).isEmpty();
+    }
+
+    @Test
+    public void shouldGetNextBatchAfterBreakTiesById() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData template = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        final List<EmailSchedulingData> sameTimeEmails = ImmutableList.of("a", "b", "c", "d", "e").stream()
+                .map(id -> new DefaultEmailSchedulingData(id, template.getEmail(), template.getScheduledDateTime(),
+                        assignedPriority, assignedPriority))
+                .collect(Collectors.toList());
+        defaultPersistenceService.addAll(sameTimeEmails);
+
+        //Act
+        List<EmailSchedulingData> givenBatch = defaultPersistenceService.getNextBatchAfter(assignedPriority, 2, sameTimeEmails.get(1));
+
+        //Assert
+        assertions.assertThat(givenBatch).containsExactly(sameTimeEmails.get(2), sameTimeEmails.get(3));
+    }
+
+    @Test
+    public void shouldMigrateSchemaRescoreEmailSchedulingDataPersistedWithTheNanoOfSecond() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(assignedPriority);
+        final DefaultEmailSchedulingData defaultEmailSchedulingDataLater = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.DAYS.toNanos(1));
+        final DefaultEmailSchedulingData defaultEmailSchedulingDataSooner = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.HOURS.toNanos(1));
+        //the nano-of-second of the scheduled time, as the first schema version scored the emails
+        orderingTemplate.opsForZSet().add(orderingKey, defaultEmailSchedulingDataLater.getId(), 1.0);
+        orderingTemplate.opsForZSet().add(orderingKey, defaultEmailSchedulingDataSooner.getId(), 999_999_999.0);
+        valueTemplate.opsForValue().set(defaultEmailSchedulingDataLater.getId(), defaultEmailSchedulingDataLater);
+        valueTemplate.opsForValue().set(defaultEmailSchedulingDataSooner.getId(), defaultEmailSchedulingDataSooner);
+
+        //Act
+        defaultPersistenceService.migrateSchema();
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.getNextBatchAfter(assignedPriority, 10, null))
+                .containsExactly(defaultEmailSchedulingDataSooner, defaultEmailSchedulingDataLater);
+        assertions.assertThat(defaultPersistenceService.getNextBatchAfter(assignedPriority, 10, defaultEmailSchedulingDataSooner))
+                .containsExactly(defaultEmailSchedulingDataLater);
+        assertions.assertThat(orderingTemplate.opsForValue().get(RedisBasedPersistenceServiceConstants.schemaVersionKey()))
+                .isEqualTo("2");
+    }
+
+    @Test
+    public void shouldMigrateSchemaLeaveMigratedStoreUntouched() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final String orderingKey = RedisBasedPersistenceServiceConstants.orderingKey(assignedPriority);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        orderingTemplate.opsForValue().set(RedisBasedPersistenceServiceConstants.schemaVersionKey(), "2");
+        orderingTemplate.opsForZSet().add(orderingKey, defaultEmailSchedulingData.getId(), 1.0);
+        valueTemplate.opsForValue().set(defaultEmailSchedulingData.getId(), defaultEmailSchedulingData);
+
+        //Act
+        defaultPersistenceService.migrateSchema();
+
+        //Assert
+        assertions.assertThat(orderingTemplate.opsForZSet().score(orderingKey, defaultEmailSchedulingData.getId())).isEqualTo(1.0);
+    }
+
     @Test
     public void shouldGetNextBatchThrowExceptionGivenNonPositiveBatchSize() throws Exception {
         //Arrange
@@ -745,4 +837,318 @@ public class DefaultPersistenceServiceTest extends BaseRedisTest {
         defaultPersistenceService.removeAll(ImmutableList.of(unmappedKey));
     }
 
+    @Test
+    public void shouldAddDeadLetterMoveEmailSchedulingDataOutOfItsPriorityLevel() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+
+        final DeadLetter deadLetter = DeadLetter.builder()
+                .emailSchedulingData(defaultEmailSchedulingData)
+                .reason(DeadLetter.Reason.ATTEMPTS_EXHAUSTED)
+                .attempts(3)
+                .lastError("421 Service not available | try later")
+                .failedAt(Instant.ofEpochMilli(TimeUtils.now()))
+                .build();
+
+        //Act
+        defaultPersistenceService.addDeadLetter(deadLetter);
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.getNextBatch(assignedPriority, 10)).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(defaultPersistenceService.countDeadLetters()).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.getNextDeadLetterBatch(10)).containsExactly(deadLetter);
+    }
+
+    @Test
+    public void shouldGetNextDeadLetterBatchReturnOldestFailuresFirst() throws Exception {
+        //Arrange
+        final Instant now = Instant.ofEpochMilli(TimeUtils.now());
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_3 = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2, defaultEmailSchedulingData_3));
+
+        defaultPersistenceService.addDeadLetter(deadLetter(defaultEmailSchedulingData_1, now.plusMillis(2)));
+        defaultPersistenceService.addDeadLetter(deadLetter(defaultEmailSchedulingData_2, now));
+        defaultPersistenceService.addDeadLetter(deadLetter(defaultEmailSchedulingData_3, now.plusMillis(1)));
+
+        //Act
+        final Collection<DeadLetter> givenBatch = defaultPersistenceService.getNextDeadLetterBatch(2);
+
+        //Assert
+        assertions.assertThat(givenBatch)
+                .extracting(DeadLetter::getEmailSchedulingData)
+                .containsExactly(defaultEmailSchedulingData_2, defaultEmailSchedulingData_3);
+    }
+
+    @Test
+    public void shouldRemoveDeadLettersKeepEmailSchedulingData() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.addDeadLetter(deadLetter(defaultEmailSchedulingData, Instant.ofEpochMilli(TimeUtils.now())));
+
+        //Act
+        defaultPersistenceService.removeDeadLetters(ImmutableList.of(defaultEmailSchedulingData.getId()));
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.countDeadLetters()).isZero();
+        assertions.assertThat(defaultPersistenceService.getNextDeadLetterBatch(10)).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldClaimNextBatchMoveEmailSchedulingDataOutOfTheirPriorityLevel() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(2);
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2));
+
+        //Act
+        final Collection<EmailSchedulingData> givenClaimed = defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(givenClaimed).containsOnly(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+        assertions.assertThat(defaultPersistenceService.claimNextBatch("node-2", 10, Duration.ofMinutes(1))).isEmpty();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData_1.getId())).contains(defaultEmailSchedulingData_1);
+    }
+
+    @Test
+    public void shouldClaimNextBatchSkipEmailSchedulingDataScheduledAfterTheVisibilityTimeout() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.HOURS.toNanos(1));
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2));
+
+        //Act
+        final Collection<EmailSchedulingData> givenClaimed = defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(givenClaimed).containsExactly(defaultEmailSchedulingData_1);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData_2);
+    }
+
+    @Test
+    public void shouldClaimNextBatchTakeTheEarliestEmailSchedulingDataAcrossPriorityLevels() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(2, TimeUnit.SECONDS.toNanos(1));
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(1, TimeUnit.SECONDS.toNanos(2));
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_3 = createDefaultEmailSchedulingDataWithPriority(2, TimeUnit.SECONDS.toNanos(3));
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2, defaultEmailSchedulingData_3));
+
+        //Act
+        final Collection<EmailSchedulingData> givenClaimed = defaultPersistenceService.claimNextBatch("node-1", 2, Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(givenClaimed).containsExactly(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData_3);
+    }
+
+    @Test
+    public void shouldRestoreExpiredClaimsPutEmailSchedulingDataBackInTheirPriorityLevel() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(2);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMillis(50));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        //Act
+        final long givenRestored = defaultPersistenceService.restoreExpiredClaims();
+
+        //Assert
+        assertions.assertThat(givenRestored).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(2, 10)).containsExactly(defaultEmailSchedulingData);
+        assertions.assertThat(defaultPersistenceService.claimNextBatch("node-2", 10, Duration.ofMinutes(1)))
+                .containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldRestoreExpiredClaimsOfEveryOwnerInEveryPriorityLevel() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(3);
+        defaultPersistenceService.add(defaultEmailSchedulingData_1);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMillis(50));
+        defaultPersistenceService.add(defaultEmailSchedulingData_2);
+        defaultPersistenceService.claimNextBatch("node-2", 10, Duration.ofMillis(50));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        //Act
+        final long givenRestored = defaultPersistenceService.restoreExpiredClaims();
+
+        //Assert
+        assertions.assertThat(givenRestored).isEqualTo(2);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(1, 10)).containsExactly(defaultEmailSchedulingData_1);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(3, 10)).containsExactly(defaultEmailSchedulingData_2);
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOriginKey())).isFalse();
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOwnersKey())).isFalse();
+    }
+
+    @Test
+    public void shouldRestoreExpiredClaimsKeepClaimsNotExpired() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+
+        //Act
+        final long givenRestored = defaultPersistenceService.restoreExpiredClaims();
+
+        //Assert
+        assertions.assertThat(givenRestored).isZero();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldRenewClaimsKeepThemFromExpiring() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMillis(50));
+
+        //Act
+        final long givenRenewed = defaultPersistenceService.renewClaims("node-1", Duration.ofMinutes(1));
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        //Assert
+        assertions.assertThat(givenRenewed).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.restoreExpiredClaims()).isZero();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+    }
+
+    @Test
+    public void shouldRenewClaimsSkipClaimsAlreadyRestored() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMillis(50));
+        TimeUnit.MILLISECONDS.sleep(100);
+        defaultPersistenceService.restoreExpiredClaims();
+
+        //Act
+        final long givenRenewed = defaultPersistenceService.renewClaims("node-1", Duration.ofMinutes(1));
+
+        //Assert
+        assertions.assertThat(givenRenewed).isZero();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldAcknowledgeClaimsForgetThem() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+        defaultPersistenceService.remove(defaultEmailSchedulingData.getId());
+
+        //Act
+        defaultPersistenceService.acknowledgeClaims("node-1", ImmutableList.of(defaultEmailSchedulingData.getId()));
+
+        //Assert
+        assertions.assertThat(defaultPersistenceService.returnClaims("node-1")).isZero();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOriginKey())).isFalse();
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOwnersKey())).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveUnlessClaimedByOthersRemoveTheEmailSchedulingDataNotClaimed() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+
+        //Act
+        final boolean givenRemoved = defaultPersistenceService.removeUnlessClaimedByOthers("node-1", defaultEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(givenRemoved).isTrue();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).isEmpty();
+        assertions.assertThat(defaultPersistenceService.removeUnlessClaimedByOthers("node-1", defaultEmailSchedulingData.getId())).isFalse();
+    }
+
+    @Test
+    public void shouldRemoveUnlessClaimedByOthersRemoveTheEmailSchedulingDataClaimedByTheOwner() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+
+        //Act
+        final boolean givenRemoved = defaultPersistenceService.removeUnlessClaimedByOthers("node-1", defaultEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(givenRemoved).isTrue();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData.getId())).isEmpty();
+        assertions.assertThat(defaultPersistenceService.returnClaims("node-1")).isZero();
+    }
+
+    @Test
+    public void shouldRemoveUnlessClaimedByOthersKeepTheEmailSchedulingDataClaimedByAnotherOwner() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+
+        //Act
+        final boolean givenRemoved = defaultPersistenceService.removeUnlessClaimedByOthers("node-2", defaultEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(givenRemoved).isFalse();
+        assertions.assertThat(defaultPersistenceService.get(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(defaultPersistenceService.returnClaims("node-1")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReturnClaimsPutBackOnlyTheEmailSchedulingDataOfTheOwner() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(1);
+        defaultPersistenceService.add(defaultEmailSchedulingData_1);
+        defaultPersistenceService.claimNextBatch("node-1", 10, Duration.ofMinutes(1));
+        defaultPersistenceService.add(defaultEmailSchedulingData_2);
+        defaultPersistenceService.claimNextBatch("node-2", 10, Duration.ofMinutes(1));
+
+        //Act
+        final long givenReturned = defaultPersistenceService.returnClaims("node-1");
+
+        //Assert
+        assertions.assertThat(givenReturned).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(10)).containsExactly(defaultEmailSchedulingData_1);
+    }
+
+    @Test
+    public void shouldAddAllNotifyTheSubscribersOnceCommitted() throws Exception {
+        //Arrange
+        final AtomicInteger notifications = new AtomicInteger();
+        final AutoCloseable subscription = defaultPersistenceService.subscribeToAdditions(notifications::incrementAndGet);
+
+        //Act
+        defaultPersistenceService.addAll(ImmutableList.of(createDefaultEmailSchedulingDataWithPriority(1),
+                createDefaultEmailSchedulingDataWithPriority(1),
+                createDefaultEmailSchedulingDataWithPriority(2)));
+
+        //Assert
+        while (notifications.get() == 0) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        TimeUnit.MILLISECONDS.sleep(200);
+        subscription.close();
+        assertions.assertThat(notifications.get()).isEqualTo(1);
+    }
+
+    private static DeadLetter deadLetter(final EmailSchedulingData emailSchedulingData, final Instant failedAt) {
+        return DeadLetter.builder()
+                .emailSchedulingData(emailSchedulingData)
+                .reason(DeadLetter.Reason.PERMANENT_FAILURE)
+                .attempts(1)
+                .lastError("550 No such user")
+                .failedAt(failedAt)
+                .build();
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import jakarta.mail.internet.InternetAddress;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DeficitRoundRobinDequeuePolicyTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldBehaveAsWeightedRoundRobinGivenSingleRecipients() throws Exception {
+        //Arrange
+        final DeficitRoundRobinDequeuePolicy dequeuePolicy = new DeficitRoundRobinDequeuePolicy(new int[]{2, 1});
+        final DequeuePolicy.Levels levels = new FixedLevels(new boolean[]{true, true},
+                new EmailSchedulingData[]{withRecipients(1), withRecipients(1)});
+
+        //Act
+        final int[] selected = IntStream.range(0, 6).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(selected).containsExactly(0, 0, 1, 0, 0, 1);
+    }
+
+    @Test
+    public void shouldShareTheRecipientsRatherThanTheEmails() throws Exception {
+        //Arrange
+        final DeficitRoundRobinDequeuePolicy dequeuePolicy = new DeficitRoundRobinDequeuePolicy(new int[]{1, 1});
+        final DequeuePolicy.Levels levels = new FixedLevels(new boolean[]{true, true},
+                new EmailSchedulingData[]{withRecipients(4), withRecipients(1)});
+
+        //Act
+        final int[] selected = IntStream.range(0, 10).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(IntStream.of(selected).filter(level -> level == 0).count()).isEqualTo(2);
+        assertions.assertThat(IntStream.of(selected).filter(level -> level == 1).count()).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldResetTheDeficitOfLevelsWithoutDueEmails() throws Exception {
+        //Arrange
+        final DeficitRoundRobinDequeuePolicy dequeuePolicy = new DeficitRoundRobinDequeuePolicy(new int[]{1, 1});
+        final FixedLevels levels = new FixedLevels(new boolean[]{true, true},
+                new EmailSchedulingData[]{withRecipients(1), withRecipients(3)});
+        IntStream.range(0, 3).forEach(i -> dequeuePolicy.select(levels)); //level 1 earns two credits out of three
+        levels.setDue(1, false);
+        dequeuePolicy.select(levels);
+        levels.setDue(1, true);
+
+        //Act
+        final int[] selected = IntStream.range(0, 3).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(selected).containsExactly(0, 0, 1);
+    }
+
+    @Test
+    public void shouldCostOneGivenNoRecipients() throws Exception {
+        //Act
+        final long cost = DeficitRoundRobinDequeuePolicy.cost(withRecipients(0));
+
+        //Assert
+        assertions.assertThat(cost).isEqualTo(1);
+    }
+
+    private static EmailSchedulingData withRecipients(final int recipients) throws Exception {
+        final Email email = mock(Email.class);
+        when(email.getTo()).thenReturn(Collections.nCopies(recipients, new InternetAddress("recipient@example.com")));
+        final EmailSchedulingData emailSchedulingData = mock(EmailSchedulingData.class);
+        when(emailSchedulingData.getEmail()).thenReturn(email);
+        return emailSchedulingData;
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.springframework.lang.Nullable;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import jakarta.mail.internet.MimeMessage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@linkplain JavaMailSenderImpl} waiting before each send, standing for a relay slowed down by its load.
+ */
+class DelayedJavaMailSender extends JavaMailSenderImpl {
+
+    private final long delayMillis;
+
+    DelayedJavaMailSender(final String host, final int port, final long delayMillis) {
+        this.delayMillis = delayMillis;
+        setHost(host);
+        setPort(port);
+    }
+
+    @Override
+    protected void doSend(final MimeMessage[] mimeMessages, final @Nullable Object[] originalMessages) throws MailException {
+        try {
+            TimeUnit.MILLISECONDS.sleep(delayMillis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MailSendException("Interrupted while slowed down", e);
+        }
+        super.doSend(mimeMessages, originalMessages);
+    }
+
+}
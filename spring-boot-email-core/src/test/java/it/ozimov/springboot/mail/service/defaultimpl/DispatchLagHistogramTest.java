@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class DispatchLagHistogramTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final DispatchLagHistogram histogram = new DispatchLagHistogram(2);
+
+    @Test
+    public void shouldReturnEmptyStatisticsWhenNothingWasRecorded() throws Exception {
+        //Act
+        final DispatchLagStatistics statistics = histogram.statistics();
+
+        //Assert
+        assertions.assertThat(statistics.getPriorityLevel()).isEqualTo(2);
+        assertions.assertThat(statistics.getDispatchedEmails()).isZero();
+        assertions.assertThat(statistics.getP99Millis()).isZero();
+        assertions.assertThat(statistics.getHistogram()).isEmpty();
+    }
+
+    @Test
+    public void shouldApproximatePercentilesWithPowerOfTwoBuckets() throws Exception {
+        //Arrange
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3);
+        }
+        histogram.record(100);
+        histogram.record(700);
+
+        //Act
+        final DispatchLagStatistics statistics = histogram.statistics();
+
+        //Assert
+        assertions.assertThat(statistics.getDispatchedEmails()).isEqualTo(100);
+        assertions.assertThat(statistics.getP50Millis()).isEqualTo(4);
+        assertions.assertThat(statistics.getP90Millis()).isEqualTo(4);
+        assertions.assertThat(statistics.getP99Millis()).isEqualTo(128);
+        assertions.assertThat(statistics.getMaxMillis()).isEqualTo(700);
+        assertions.assertThat(statistics.getMeanMillis()).isEqualTo((98 * 3 + 100 + 700) / 100);
+        assertions.assertThat(statistics.getHistogram()).containsEntry(4L, 98L).containsEntry(128L, 1L).containsEntry(1024L, 1L);
+    }
+
+    @Test
+    public void shouldRecordNegativeLagsAsZero() throws Exception {
+        //Act
+        histogram.record(-50);
+
+        //Assert
+        assertions.assertThat(histogram.statistics().getHistogram()).containsEntry(1L, 1L);
+        assertions.assertThat(histogram.statistics().getMaxMillis()).isZero();
+    }
+
+    @Test
+    public void shouldCapPercentilesAtTheMaximum() throws Exception {
+        //Arrange
+        histogram.record(600);
+
+        //Act
+        final DispatchLagStatistics statistics = histogram.statistics();
+
+        //Assert
+        assertions.assertThat(statistics.getP50Millis()).isEqualTo(600);
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
+import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.slf4j.Logger;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the lag between the scheduled time of the emails and the moment they are handed over to the
+ * {@linkplain EmailService}. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.DispatchLatencyBenchmark [emails] [windowSeconds] [consumers]
+ * </pre>
+ */
+public class DispatchLatencyBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        final int windowSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final int consumers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        final CountDownLatch sent = new CountDownLatch(emails);
+        final Map<Email, Long> lagInNanos = new ConcurrentHashMap<>();
+        final Map<Email, OffsetDateTime> scheduledAt = new ConcurrentHashMap<>();
+
+        final EmailService emailService = mock(EmailService.class);
+        doAnswer(invocation -> {
+            final Email email = invocation.getArgument(0);
+            lagInNanos.put(email, Duration.between(scheduledAt.get(email), TimeUtils.offsetDateTimeNow()).toNanos());
+            sent.countDown();
+            return null;
+        }).when(emailService).send(any(Email.class));
+
+        final EmailLogRenderer emailLogRenderer = mock(EmailLogRenderer.class);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        final EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .priorityLevels(3)
+                .dispatcher(EmailSchedulerProperties.Dispatcher.builder().consumers(consumers).build())
+                .build();
+        final PriorityQueueEmailSchedulerService schedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.empty(), emailLogRenderer);
+        try {
+            //leave time to schedule all the emails before the first one is due
+            final OffsetDateTime start = TimeUtils.offsetDateTimeNow().plusSeconds(2);
+            for (int i = 0; i < emails; i++) {
+                final DefaultEmail email = (DefaultEmail) getSimpleMail();
+                email.setSubject("Email " + i); //emails are compared by value
+                final OffsetDateTime scheduledDateTime = start.plusNanos(
+                        ThreadLocalRandom.current().nextLong(Duration.ofSeconds(windowSeconds).toNanos()));
+                scheduledAt.put(email, scheduledDateTime);
+                schedulerService.schedule(email, scheduledDateTime, 1 + i % 3);
+            }
+            sent.await();
+        } finally {
+            schedulerService.cleanUp();
+        }
+
+        final long[] lags = lagInNanos.values().stream().mapToLong(Long::longValue).sorted().toArray();
+        final long early = Arrays.stream(lags).filter(lag -> lag < 0).count();
+        System.out.printf("emails = %d, early = %d, p50 = %.3f ms, p99 = %.3f ms, max = %.3f ms%n",
+                lags.length, early, percentile(lags, 0.50), percentile(lags, 0.99), lags[lags.length - 1] / 1e6);
+    }
+
+    private static double percentile(final long[] sortedValues, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)] / 1e6;
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class DispatchStageTest {
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    private DispatchStage<Integer> dispatchStage;
+
+    @After
+    public void tearDown() throws Exception {
+        released.countDown();
+        if (dispatchStage != null) {
+            dispatchStage.close();
+        }
+    }
+
+    @Test
+    public void shouldHandleTheItemsOnAllTheThreadsOfTheStage() throws Exception {
+        //Arrange
+        final Set<String> threadNames = ConcurrentHashMap.newKeySet();
+        final CountDownLatch handled = new CountDownLatch(4);
+        dispatchStage = stage(2, 10, item -> {
+            threadNames.add(Thread.currentThread().getName());
+            handled.countDown();
+            released.await();
+        });
+        dispatchStage.start();
+
+        //Act
+        for (int item = 0; item < 4; item++) {
+            dispatchStage.put(item);
+        }
+        while (dispatchStage.queueDepth() > 2) {
+            MILLISECONDS.sleep(1);
+        }
+        final int queueDepthWhileBusy = dispatchStage.queueDepth();
+        released.countDown();
+        handled.await();
+
+        //Assert
+        assertions.assertThat(queueDepthWhileBusy).as("Two items wait while the two threads are busy").isEqualTo(2);
+        assertions.assertThat(threadNames).containsExactlyInAnyOrder(
+                "PriorityQueueEmailSchedulerService -- DispatchStage-test-1",
+                "PriorityQueueEmailSchedulerService -- DispatchStage-test-2");
+    }
+
+    @Test
+    public void shouldBlockThePreviousStageWhileTheQueueIsFull() throws Exception {
+        //Arrange
+        dispatchStage = stage(1, 1, item -> released.await());
+        dispatchStage.start();
+        dispatchStage.put(1);
+        while (dispatchStage.queueDepth() > 0) {
+            MILLISECONDS.sleep(1);
+        }
+        dispatchStage.put(2);
+        final Thread producer = new Thread(() -> {
+            try {
+                dispatchStage.put(3);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        //Act
+        producer.start();
+        producer.join(200);
+        final boolean blockedWhileFull = producer.isAlive();
+        released.countDown();
+        producer.join();
+
+        //Assert
+        assertions.assertThat(blockedWhileFull).isTrue();
+    }
+
+    @Test
+    public void shouldCollectTheStatisticsOfTheStage() throws Exception {
+        //Arrange
+        final CountDownLatch handled = new CountDownLatch(3);
+        dispatchStage = stage(1, 5, item -> {
+            TimeUnit.MILLISECONDS.sleep(10);
+            handled.countDown();
+        });
+        dispatchStage.start();
+
+        //Act
+        for (int item = 0; item < 3; item++) {
+            dispatchStage.put(item);
+        }
+        handled.await();
+        dispatchStage.close();
+        final StageStatistics stageStatistics = dispatchStage.statistics();
+
+        //Assert
+        assertions.assertThat(stageStatistics.getStageName()).isEqualTo("test");
+        assertions.assertThat(stageStatistics.getThreads()).isEqualTo(1);
+        assertions.assertThat(stageStatistics.getQueueCapacity()).isEqualTo(5);
+        assertions.assertThat(stageStatistics.getQueueDepth()).isZero();
+        assertions.assertThat(stageStatistics.getProcessedEmails()).isEqualTo(3);
+        assertions.assertThat(stageStatistics.getBusyTimeMillis()).isGreaterThanOrEqualTo(30);
+    }
+
+    @Test
+    public void shouldKeepHandlingAfterAnUnexpectedError() throws Exception {
+        //Arrange
+        final CountDownLatch handled = new CountDownLatch(1);
+        dispatchStage = stage(1, 5, item -> {
+            if (item == 0) {
+                throw new IllegalStateException("Unexpected");
+            }
+            handled.countDown();
+        });
+        dispatchStage.start();
+
+        //Act
+        dispatchStage.put(0);
+        dispatchStage.put(1);
+
+        //Assert
+        assertions.assertThat(handled.await(1, SECONDS)).isTrue();
+    }
+
+    private DispatchStage<Integer> stage(final int threads, final int queueCapacity,
+                                         final DispatchStage.Handler<Integer> handler) {
+        return new DispatchStage<>("test", threads, queueCapacity, SchedulerThreadFactory.platformThreads(),
+                SchedulerMetrics.NOOP, handler);
+    }
+
+}
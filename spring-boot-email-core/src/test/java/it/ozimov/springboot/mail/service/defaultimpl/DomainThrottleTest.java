@@ -0,0 +1,239 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableMap;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataTo;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DomainThrottleTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final AtomicLong nanoClock = new AtomicLong();
+
+    private static EmailSchedulerProperties.Throttle throttle(final int maxConcurrent, final double ratePerSecond, final int burst) {
+        return EmailSchedulerProperties.Throttle.builder()
+                .enabled(true)
+                .maxConcurrent(maxConcurrent)
+                .ratePerSecond(ratePerSecond)
+                .burst(burst)
+                .lookahead(10)
+                .build();
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenZeroBurst() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Burst per domain should be a positive number, while 0 was given");
+
+        //Act
+        new DomainThrottle(throttle(1, 0, 0));
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldTakeTheDomainsFromAllTheRecipients() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        final String[] domains = DomainThrottle.domainsOf(emailSchedulingData.getEmail());
+
+        //Assert
+        assertions.assertThat(domains).containsExactly("de-rerum.natura", "gmail.com", "urbs.aeterna");
+    }
+
+    @Test
+    public void shouldCapTheEmailsBeingSentTowardsADomain() throws Exception {
+        //Arrange
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle(1, 0, 1), nanoClock::get);
+        final DefaultEmailSchedulingData first = createDefaultEmailSchedulingDataTo("titus@gmail.com", 0);
+        final DefaultEmailSchedulingData second = createDefaultEmailSchedulingDataTo("pomponius@GMAIL.com", 0);
+        final DefaultEmailSchedulingData otherDomain = createDefaultEmailSchedulingDataTo("caius@libero.it", 0);
+
+        //Act
+        domainThrottle.acquire(first);
+
+        //Assert
+        assertions.assertThat(domainThrottle.canDispatch(second)).isFalse();
+        assertions.assertThat(domainThrottle.canDispatch(otherDomain)).isTrue();
+        assertions.assertThat(domainThrottle.inFlight("gmail.com")).isEqualTo(1);
+        assertions.assertThat(domainThrottle.release(first)).isTrue();
+        assertions.assertThat(domainThrottle.release(first)).isFalse();
+        assertions.assertThat(domainThrottle.canDispatch(second)).isTrue();
+        assertions.assertThat(domainThrottle.inFlight("gmail.com")).isZero();
+    }
+
+    @Test
+    public void shouldReadTheRecipientsOfAnEmailOnceWhileChecked() throws Exception {
+        //Arrange
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle(1, 0, 1), nanoClock::get);
+        final DefaultEmailSchedulingData first = createDefaultEmailSchedulingDataTo("titus@gmail.com", 0);
+        final DefaultEmailSchedulingData throttled = createDefaultEmailSchedulingDataTo("pomponius@gmail.com", 0);
+        final Email email = spy(throttled.getEmail());
+        ReflectionTestUtils.setField(throttled, "email", email);
+        domainThrottle.acquire(first);
+
+        //Act
+        for (int i = 0; i < 10; i++) {
+            domainThrottle.canDispatch(throttled);
+        }
+        domainThrottle.release(first);
+        domainThrottle.acquire(throttled);
+
+        //Assert
+        verify(email, times(1)).getTo();
+        assertions.assertThat(domainThrottle.inFlight("gmail.com")).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRefillTheTokensOfADomainAtItsRate() throws Exception {
+        //Arrange
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle(0, 10, 2), nanoClock::get);
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataTo("titus@gmail.com", 0);
+        domainThrottle.acquire(emailSchedulingData);
+        domainThrottle.release(emailSchedulingData);
+        domainThrottle.acquire(emailSchedulingData);
+        domainThrottle.release(emailSchedulingData);
+
+        //Act
+        final boolean canDispatchWithoutTokens = domainThrottle.canDispatch(emailSchedulingData);
+        final long nanosUntilAvailable = domainThrottle.nanosUntilAvailable();
+        nanoClock.addAndGet(MILLISECONDS.toNanos(150));
+
+        //Assert
+        assertions.assertThat(canDispatchWithoutTokens).isFalse();
+        assertions.assertThat(nanosUntilAvailable).isEqualTo(DomainThrottle.MAX_RECHECK_NANOS);
+        assertions.assertThat(domainThrottle.canDispatch(emailSchedulingData)).isTrue();
+    }
+
+    @Test
+    public void shouldWaitUntilTheEarliestTokenOfTheThrottledDomains() throws Exception {
+        //Arrange
+        final EmailSchedulerProperties.Throttle throttle = throttle(0, 50, 1);
+        throttle.setDomains(ImmutableMap.of("libero.it", EmailSchedulerProperties.DomainLimit.builder()
+                .ratePerSecond(100.0)
+                .build()));
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle, nanoClock::get);
+        domainThrottle.acquire(createDefaultEmailSchedulingDataTo("titus@gmail.com", 0));
+        domainThrottle.acquire(createDefaultEmailSchedulingDataTo("caius@libero.it", 0));
+
+        //Act
+        final long nanosUntilLiberoToken = domainThrottle.nanosUntilAvailable();
+        nanoClock.addAndGet(MILLISECONDS.toNanos(10));
+        final long nanosUntilGmailToken = domainThrottle.nanosUntilAvailable();
+
+        //Assert
+        assertions.assertThat(nanosUntilLiberoToken).isEqualTo(MILLISECONDS.toNanos(10));
+        assertions.assertThat(nanosUntilGmailToken).isEqualTo(MILLISECONDS.toNanos(10));
+    }
+
+    @Test
+    public void shouldForgetTheDomainsWithoutEmailsBeingSentAndWithAFullBucket() throws Exception {
+        //Arrange
+        final EmailSchedulerProperties.Throttle throttle = throttle(1, 10, 1);
+        throttle.setDomains(ImmutableMap.of("libero.it", EmailSchedulerProperties.DomainLimit.builder()
+                .ratePerSecond(0.0)
+                .build()));
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle, nanoClock::get);
+        final DefaultEmailSchedulingData toGmail = createDefaultEmailSchedulingDataTo("titus@gmail.com", 0);
+        final DefaultEmailSchedulingData toLibero = createDefaultEmailSchedulingDataTo("caius@libero.it", 0);
+        domainThrottle.acquire(toGmail);
+        domainThrottle.acquire(toLibero);
+
+        //Act
+        domainThrottle.release(toGmail);
+        domainThrottle.release(toLibero);
+
+        //Assert
+        assertions.assertThat(domains(domainThrottle)).as("A bucket being refilled is kept").containsOnlyKeys("gmail.com");
+        assertions.assertThat(domainThrottle.canDispatch(toGmail)).isFalse();
+        assertions.assertThat(domainThrottle.canDispatch(toLibero)).isTrue();
+    }
+
+    @Test
+    public void shouldEvictTheRefilledDomainsWhenTooManyAreKept() throws Exception {
+        //Arrange
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle(1, 10, 1), nanoClock::get);
+        for (int i = 0; i < 1024; i++) {
+            final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataTo("titus@domain-" + i + ".com", 0);
+            domainThrottle.acquire(emailSchedulingData);
+            domainThrottle.release(emailSchedulingData);
+        }
+        final int givenDomainsWhileRefilling = domains(domainThrottle).size();
+        nanoClock.addAndGet(MILLISECONDS.toNanos(100));
+
+        //Act
+        domainThrottle.acquire(createDefaultEmailSchedulingDataTo("caius@libero.it", 0));
+
+        //Assert
+        assertions.assertThat(givenDomainsWhileRefilling).isEqualTo(1024);
+        assertions.assertThat(domains(domainThrottle)).containsOnlyKeys("libero.it");
+    }
+
+    @Test
+    public void shouldOverrideTheLimitsOfTheGivenDomains() throws Exception {
+        //Arrange
+        final EmailSchedulerProperties.Throttle throttle = throttle(1, 0, 1);
+        throttle.setDomains(ImmutableMap.of("Libero.it", EmailSchedulerProperties.DomainLimit.builder()
+                .maxConcurrent(2)
+                .build()));
+        final DomainThrottle domainThrottle = new DomainThrottle(throttle, nanoClock::get);
+        final DefaultEmailSchedulingData first = createDefaultEmailSchedulingDataTo("caius@libero.it", 0);
+        final DefaultEmailSchedulingData second = createDefaultEmailSchedulingDataTo("titus@libero.it", 0);
+        final DefaultEmailSchedulingData third = createDefaultEmailSchedulingDataTo("pomponius@libero.it", 0);
+
+        //Act
+        domainThrottle.acquire(first);
+        final boolean canDispatchSecond = domainThrottle.canDispatch(second);
+        domainThrottle.acquire(second);
+
+        //Assert
+        assertions.assertThat(canDispatchSecond).isTrue();
+        assertions.assertThat(domainThrottle.canDispatch(third)).isFalse();
+    }
+
+    private static Map<String, ?> domains(final DomainThrottle domainThrottle) {
+        return (Map<String, ?>) ReflectionTestUtils.getField(domainThrottle, "domains");
+    }
+
+}
@@ -17,11 +17,14 @@
 package it.ozimov.springboot.mail.service.defaultimpl;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import it.ozimov.springboot.mail.model.InlinePicture;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 
+import jakarta.mail.internet.InternetAddress;
 import java.io.UnsupportedEncodingException;
 import java.time.OffsetDateTime;
 import java.util.concurrent.TimeUnit;
@@ -47,6 +50,23 @@ public class EmailSchedulingDataUtils {
         return defaultEmailSchedulingData;
     }
 
+    public static DefaultEmailSchedulingData createDefaultEmailSchedulingDataTo(final String recipient, final long nanosFromNow) throws UnsupportedEncodingException, InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(1);
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow().plusNanos(nanosFromNow);
+
+        return DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                .email(DefaultEmail.builder()
+                        .from(new InternetAddress("cicero@mala-tempora.currunt", "Marco Tullio Cicerone"))
+                        .to(Lists.newArrayList(new InternetAddress(recipient, recipient)))
+                        .subject("Laelius de amicitia")
+                        .body("Firmamentum autem stabilitatis constantiaeque eius, quam in amicitia quaerimus, fides est.")
+                        .build())
+                .scheduledDateTime(dateTime)
+                .assignedPriority(1)
+                .desiredPriority(1)
+                .build();
+    }
+
     public static TemplateEmailSchedulingData createTemplateEmailSchedulingDataWithPriority(final int assignedPriority) throws UnsupportedEncodingException {
         return createTemplateEmailSchedulingDataWithPriority(assignedPriority, 0);
     }
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.Lists;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.TransportPoolProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
+import it.ozimov.springboot.mail.utils.EmailToMimeMessage;
+import org.slf4j.Logger;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import jakarta.mail.internet.InternetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the recipients per second reached through a local GreenMail server when the same email is sent once per
+ * recipient, with and without pooled connections, and when it is fanned out to all of them, one transaction per batch
+ * of recipients. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.FanOutBenchmark [recipients] [port]
+ * </pre>
+ */
+public class FanOutBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int numberOfRecipients = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        final int port = args.length > 1 ? Integer.parseInt(args[1]) : 3029;
+
+        final List<InternetAddress> recipients = new ArrayList<>();
+        for (int i = 0; i < numberOfRecipients; i++) {
+            recipients.add(new InternetAddress("reader-" + i + "@de-rerum.natura"));
+        }
+
+        final GreenMail greenMail = new GreenMail(new ServerSetup(port, (String) null, "smtp"));
+        greenMail.start();
+        try {
+            System.out.printf("%-22s %10s %14s %14s%n", "mode", "recipients", "transactions", "recipients/s");
+
+            final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+            configure(javaMailSender, port);
+            final DefaultEmailService emailService = emailService(javaMailSender);
+            long start = System.nanoTime();
+            for (final InternetAddress recipient : recipients) {
+                emailService.send(email(recipient));
+            }
+            print("one email each", numberOfRecipients, numberOfRecipients, System.nanoTime() - start);
+            greenMail.purgeEmailFromAllMailboxes();
+
+            final TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+            transportPoolProperties.setEnabled(true);
+            try (final PooledJavaMailSender pooledJavaMailSender = new PooledJavaMailSender(transportPoolProperties)) {
+                configure(pooledJavaMailSender, port);
+                final DefaultEmailService pooledEmailService = emailService(pooledJavaMailSender);
+                start = System.nanoTime();
+                for (final InternetAddress recipient : recipients) {
+                    pooledEmailService.send(email(recipient));
+                }
+                print("one email each, pooled", numberOfRecipients, numberOfRecipients, System.nanoTime() - start);
+            }
+            greenMail.purgeEmailFromAllMailboxes();
+
+            start = System.nanoTime();
+            emailService.sendFanOut(email(recipients.get(0)), recipients);
+            print("fan out", numberOfRecipients,
+                    Lists.partition(recipients, DefaultEmailService.MAX_RECIPIENTS_PER_TRANSACTION).size(),
+                    System.nanoTime() - start);
+        } finally {
+            greenMail.stop();
+        }
+    }
+
+    private static void configure(final JavaMailSenderImpl javaMailSender, final int port) {
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(port);
+    }
+
+    private static DefaultEmailService emailService(final JavaMailSenderImpl javaMailSender) {
+        final EmailLogRenderer emailLogRenderer = mock(EmailLogRenderer.class);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        return new DefaultEmailService(javaMailSender, new EmailToMimeMessage(javaMailSender), emailLogRenderer);
+    }
+
+    private static Email email(final InternetAddress recipient) throws Exception {
+        return DefaultEmail.builder()
+                .from(new InternetAddress("cicero@mala-tempora.currunt"))
+                .to(Lists.newArrayList(recipient))
+                .subject("Laelius de amicitia")
+                .body("Firmamentum autem stabilitatis constantiaeque eius, quam in amicitia quaerimus, fides est.")
+                .build();
+    }
+
+    private static void print(final String mode, final int recipients, final int transactions, final long elapsedNanos) {
+        System.out.printf("%-22s %10d %14d %14.0f%n", mode, recipients, transactions,
+                recipients / (elapsedNanos / 1_000_000_000d));
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+/**
+ * Candidate relays whose weights, outstanding emails and latencies are set by the test.
+ */
+class FixedCandidates implements RelaySelectionPolicy.Candidates {
+
+    private final int[] weights;
+    private final int[] outstanding;
+    private final double[] latencyNanos;
+
+    FixedCandidates(final int[] weights, final int[] outstanding, final double[] latencyNanos) {
+        this.weights = weights;
+        this.outstanding = outstanding;
+        this.latencyNanos = latencyNanos;
+    }
+
+    static FixedCandidates weighing(final int... weights) {
+        return new FixedCandidates(weights, new int[weights.length], new double[weights.length]);
+    }
+
+    FixedCandidates outstanding(final int... outstanding) {
+        System.arraycopy(outstanding, 0, this.outstanding, 0, outstanding.length);
+        return this;
+    }
+
+    FixedCandidates latencyNanos(final double... latencyNanos) {
+        System.arraycopy(latencyNanos, 0, this.latencyNanos, 0, latencyNanos.length);
+        return this;
+    }
+
+    @Override
+    public int count() {
+        return weights.length;
+    }
+
+    @Override
+    public String name(final int candidate) {
+        return "relay-" + candidate;
+    }
+
+    @Override
+    public int weight(final int candidate) {
+        return weights[candidate];
+    }
+
+    @Override
+    public int outstanding(final int candidate) {
+        return outstanding[candidate];
+    }
+
+    @Override
+    public double latencyNanos(final int candidate) {
+        return latencyNanos[candidate];
+    }
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+
+/**
+ * Priority levels whose due state and heads are set by the test.
+ */
+class FixedLevels implements DequeuePolicy.Levels {
+
+    private final boolean[] due;
+    private final EmailSchedulingData[] heads;
+
+    FixedLevels(final boolean[] due, final EmailSchedulingData[] heads) {
+        this.due = due;
+        this.heads = heads;
+    }
+
+    static FixedLevels due(final boolean... due) {
+        return new FixedLevels(due, new EmailSchedulingData[due.length]);
+    }
+
+    void setDue(final int level, final boolean isDue) {
+        due[level] = isDue;
+    }
+
+    @Override
+    public int count() {
+        return due.length;
+    }
+
+    @Override
+    public boolean isDue(final int level) {
+        return due[level];
+    }
+
+    @Override
+    public EmailSchedulingData head(final int level) {
+        return heads[level];
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.fail;
+
+public class HierarchicalTimingWheelTest {
+
+    private static final long TICK = 10;
+    private static final int WHEEL_SIZE = 4;
+    private static final int LEVELS = 3;
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final HierarchicalTimingWheel<Long> timingWheel =
+            new HierarchicalTimingWheel<>(TICK, WHEEL_SIZE, LEVELS, 0, deadline -> deadline);
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenWheelSizeSmallerThanTwo() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Wheel size should be greater than one, while 1 was given");
+
+        //Act
+        new HierarchicalTimingWheel<Long>(TICK, 1, LEVELS, 0, deadline -> deadline);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldNotAddItemsWithinTheCurrentTick() throws Exception {
+        //Act
+        final long givenBucketTime = timingWheel.add(TICK - 1);
+
+        //Assert
+        assertions.assertThat(givenBucketTime).isEqualTo(-1);
+        assertions.assertThat(timingWheel.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void shouldExpireEachItemAtItsTickAcrossAllTheLevels() throws Exception {
+        //Arrange
+        final long[] deadlines = {15, 39, 40, 75, 163, 320, 639, 640, 1999, 5000};
+        for (final long deadline : deadlines) {
+            timingWheel.add(deadline);
+        }
+        assertions.assertThat(timingWheel.size()).isEqualTo(deadlines.length);
+
+        //Act
+        final Map<Long, Long> expiredAt = new HashMap<>();
+        for (long time = 0; time <= 6000; time += TICK) {
+            final long now = time;
+            timingWheel.advanceTo(now, deadline -> expiredAt.put(deadline, now));
+        }
+
+        //Assert
+        assertions.assertThat(timingWheel.isEmpty()).isTrue();
+        for (final long deadline : deadlines) {
+            assertions.assertThat(expiredAt.get(deadline)).isEqualTo(deadline / TICK * TICK);
+        }
+    }
+
+    @Test
+    public void shouldExpireAllTheItemsWhenAdvancingWithLargeSteps() throws Exception {
+        //Arrange
+        timingWheel.add(25L);
+        timingWheel.add(600L);
+        timingWheel.add(7000L);
+
+        //Act
+        final List<Long> expired = new ArrayList<>();
+        timingWheel.advanceTo(1000, expired::add);
+
+        //Assert
+        assertions.assertThat(expired).containsExactly(25L, 600L);
+        assertions.assertThat(timingWheel.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReturnTheNextExpirationOfTheEarliestNonEmptyBucket() throws Exception {
+        //Arrange
+        assertions.assertThat(timingWheel.nextExpirationInMillis()).isEqualTo(Long.MAX_VALUE);
+
+        //Act
+        final long givenFarBucketTime = timingWheel.add(175L);
+        final long givenNearBucketTime = timingWheel.add(25L);
+
+        //Assert
+        assertions.assertThat(givenFarBucketTime).isEqualTo(160);
+        assertions.assertThat(givenNearBucketTime).isEqualTo(20);
+        assertions.assertThat(timingWheel.nextExpirationInMillis()).isEqualTo(20);
+    }
+
+    @Test
+    public void shouldRemoveItemsFromAnyLevel() throws Exception {
+        //Arrange
+        final long[] deadlines = {15, 75, 639, 5000};
+        for (final long deadline : deadlines) {
+            timingWheel.add(deadline);
+        }
+
+        //Act
+        final boolean removedFromFirstLevel = timingWheel.remove(15L);
+        final boolean removedFromLastLevel = timingWheel.remove(639L);
+        final boolean removedFromOverflow = timingWheel.remove(5000L);
+        final boolean removedTwice = timingWheel.remove(15L);
+
+        //Assert
+        assertions.assertThat(removedFromFirstLevel).isTrue();
+        assertions.assertThat(removedFromLastLevel).isTrue();
+        assertions.assertThat(removedFromOverflow).isTrue();
+        assertions.assertThat(removedTwice).isFalse();
+        assertions.assertThat(timingWheel.size()).isEqualTo(1);
+
+        final List<Long> expired = new ArrayList<>();
+        timingWheel.advanceTo(6000, expired::add);
+        assertions.assertThat(expired).containsExactly(75L);
+    }
+
+}
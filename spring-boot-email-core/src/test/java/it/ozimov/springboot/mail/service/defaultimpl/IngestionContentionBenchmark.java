@@ -0,0 +1,150 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmail;
+import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+import org.slf4j.Logger;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures how long producers wait in {@code schedule(...)} when several threads schedule emails concurrently and every
+ * write to the persistence layer costs a network round trip. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.IngestionContentionBenchmark [emailsPerRun] [roundTripMicros]
+ * </pre>
+ */
+public class IngestionContentionBenchmark {
+
+    private static final int[] PRODUCERS = {1, 8, 64};
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 64_000;
+        final long roundTripMicros = args.length > 1 ? Long.parseLong(args[1]) : 500;
+
+        for (final int producers : PRODUCERS) {
+            run(producers, emails / producers, roundTripMicros);
+        }
+    }
+
+    private static void run(final int producers, final int emailsPerProducer, final long roundTripMicros) throws Exception {
+        final PersistenceService persistenceService = mock(PersistenceService.class, withSettings().stubOnly());
+        doAnswer(invocation -> {
+            TimeUnit.MICROSECONDS.sleep(roundTripMicros);
+            return null;
+        }).when(persistenceService).addAll(anyCollection());
+        when(persistenceService.getNextBatchAfter(anyInt(), anyInt(), any())).thenReturn(Collections.emptyList());
+
+        final EmailLogRenderer emailLogRenderer = mock(EmailLogRenderer.class, withSettings().stubOnly());
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        final EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .priorityLevels(3)
+                .persistence(EmailSchedulerProperties.Persistence.builder()
+                        .desiredBatchSize(1)
+                        .minKeptInMemory(1)
+                        .maxKeptInMemory(Integer.MAX_VALUE)
+                        .build())
+                .build();
+        final PriorityQueueEmailSchedulerService schedulerService = new PriorityQueueEmailSchedulerService(
+                mock(EmailService.class, withSettings().stubOnly()), emailSchedulerProperties,
+                Optional.of(persistenceService), emailLogRenderer);
+
+        //the emails are due far in the future, so that only the ingestion is measured
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+        final List<Email> emails = new ArrayList<>();
+        for (int i = 0; i < producers * emailsPerProducer; i++) {
+            final DefaultEmail email = (DefaultEmail) getSimpleMail();
+            email.setSubject("Email " + i);
+            emails.add(email);
+        }
+
+        final long[] waitInNanos = new long[emails.size()];
+        final CountDownLatch ready = new CountDownLatch(producers);
+        final CountDownLatch go = new CountDownLatch(1);
+        final List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * emailsPerProducer;
+            final Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    for (int i = offset; i < offset + emailsPerProducer; i++) {
+                        final long start = System.nanoTime();
+                        schedulerService.schedule(emails.get(i), scheduledDateTime.plusNanos(i), 1 + i % 3);
+                        waitInNanos[i] = System.nanoTime() - start;
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        try {
+            ready.await();
+            final long start = System.nanoTime();
+            go.countDown();
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+            final long producedNanos = System.nanoTime() - start;
+            while (schedulerService.pendingIngestion() > 0) {
+                TimeUnit.MILLISECONDS.sleep(1);
+            }
+            final long appliedNanos = System.nanoTime() - start;
+
+            final long[] sortedWaits = waitInNanos.clone();
+            Arrays.sort(sortedWaits);
+            System.out.printf("producers = %2d, emails = %d, produced in %.1f ms, applied in %.1f ms, " +
+                            "schedule() p50 = %.1f us, p99 = %.1f us%n",
+                    producers, emails.size(), producedNanos / 1e6, appliedNanos / 1e6,
+                    percentile(sortedWaits, 0.50), percentile(sortedWaits, 0.99));
+        } finally {
+            schedulerService.cleanUp();
+        }
+    }
+
+    private static double percentile(final long[] sortedValues, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sortedValues.length) - 1;
+        return sortedValues[Math.max(0, index)] / 1e3;
+    }
+
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+public class LeastOutstandingRelaySelectionPolicyTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final LeastOutstandingRelaySelectionPolicy relaySelectionPolicy = new LeastOutstandingRelaySelectionPolicy();
+
+    @Test
+    public void shouldSelectTheRelayWithTheFewestOutstandingEmails() throws Exception {
+        //Arrange
+        final RelaySelectionPolicy.Candidates candidates = FixedCandidates.weighing(1, 1, 1).outstanding(2, 0, 1);
+
+        //Act
+        final int selected = relaySelectionPolicy.select(candidates);
+
+        //Assert
+        assertions.assertThat(selected).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldWeighTheOutstandingEmails() throws Exception {
+        //Arrange
+        final RelaySelectionPolicy.Candidates candidates = FixedCandidates.weighing(4, 1).outstanding(2, 0);
+
+        //Act
+        final int selected = relaySelectionPolicy.select(candidates);
+
+        //Assert
+        assertions.assertThat(selected).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldBreakTheTiesInTurn() throws Exception {
+        //Arrange
+        final RelaySelectionPolicy.Candidates candidates = FixedCandidates.weighing(1, 1, 1);
+
+        //Act
+        final int[] selected = IntStream.range(0, 4).map(i -> relaySelectionPolicy.select(candidates)).toArray();
+
+        //Assert
+        assertions.assertThat(selected).containsExactly(0, 1, 2, 0);
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.MicrometerCircuitBreakerMetrics.PREFIX;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MicrometerCircuitBreakerMetricsTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldRegisterTheMetersOfTheCircuitBreaker() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = mock(CircuitBreaker.class);
+        when(circuitBreaker.state()).thenReturn(CircuitBreaker.State.OPEN);
+        when(circuitBreaker.statistics()).thenReturn(CircuitBreakerStatistics.builder()
+                .state(CircuitBreaker.State.OPEN)
+                .failureRate(60)
+                .slowCallRate(25)
+                .recordedCalls(20)
+                .openings(2)
+                .notPermittedCalls(7)
+                .build());
+
+        //Act
+        new MicrometerCircuitBreakerMetrics(circuitBreaker).bindTo(meterRegistry);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "state").tag("state", "open").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "state").tag("state", "closed").gauge().value()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "state").tag("state", "half_open").gauge().value()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "failure.rate").gauge().value()).isEqualTo(60);
+        assertions.assertThat(meterRegistry.get(PREFIX + "slow.call.rate").gauge().value()).isEqualTo(25);
+        assertions.assertThat(meterRegistry.get(PREFIX + "openings").functionCounter().count()).isEqualTo(2);
+        assertions.assertThat(meterRegistry.get(PREFIX + "not.permitted").functionCounter().count()).isEqualTo(7);
+    }
+
+}
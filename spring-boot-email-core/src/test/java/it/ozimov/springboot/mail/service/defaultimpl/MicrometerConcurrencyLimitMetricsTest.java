@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.MicrometerConcurrencyLimitMetrics.PREFIX;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MicrometerConcurrencyLimitMetricsTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldRegisterTheMetersOfTheLimiter() throws Exception {
+        //Arrange
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = mock(AdaptiveConcurrencyLimiter.class);
+        when(concurrencyLimiter.statistics()).thenReturn(ConcurrencyLimitStatistics.builder()
+                .limit(12)
+                .inFlight(9)
+                .recentLatencyMillis(180)
+                .baselineLatencyMillis(120)
+                .backoffs(3)
+                .acquireTimeouts(1)
+                .build());
+
+        //Act
+        new MicrometerConcurrencyLimitMetrics(concurrencyLimiter).bindTo(meterRegistry);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "limit").gauge().value()).isEqualTo(12);
+        assertions.assertThat(meterRegistry.get(PREFIX + "in.flight").gauge().value()).isEqualTo(9);
+        assertions.assertThat(meterRegistry.get(PREFIX + "latency").tag("window", "recent").gauge().value()).isEqualTo(180);
+        assertions.assertThat(meterRegistry.get(PREFIX + "latency").tag("window", "baseline").gauge().value()).isEqualTo(120);
+        assertions.assertThat(meterRegistry.get(PREFIX + "backoffs").functionCounter().count()).isEqualTo(3);
+        assertions.assertThat(meterRegistry.get(PREFIX + "acquire.timeouts").functionCounter().count()).isEqualTo(1);
+    }
+
+}
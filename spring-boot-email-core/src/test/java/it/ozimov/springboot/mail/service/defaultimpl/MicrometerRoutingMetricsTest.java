@@ -0,0 +1,74 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.MicrometerRoutingMetrics.PREFIX;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MicrometerRoutingMetricsTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldRegisterTheMetersOfEachRelay() throws Exception {
+        //Arrange
+        final RoutingJavaMailSender routingJavaMailSender = mock(RoutingJavaMailSender.class);
+        when(routingJavaMailSender.statistics()).thenReturn(ImmutableList.of(
+                RelayStatistics.builder()
+                        .relay("primary")
+                        .circuitState(CircuitBreaker.State.CLOSED)
+                        .outstanding(3)
+                        .latencyMillis(40)
+                        .sentMessages(42)
+                        .failedMessages(1)
+                        .circuitOpenings(0)
+                        .build(),
+                RelayStatistics.builder()
+                        .relay("secondary")
+                        .circuitState(CircuitBreaker.State.OPEN)
+                        .outstanding(0)
+                        .latencyMillis(900)
+                        .sentMessages(7)
+                        .failedMessages(5)
+                        .circuitOpenings(2)
+                        .build()));
+
+        //Act
+        new MicrometerRoutingMetrics(routingJavaMailSender).bindTo(meterRegistry);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "outstanding").tag("relay", "primary").gauge().value()).isEqualTo(3);
+        assertions.assertThat(meterRegistry.get(PREFIX + "latency").tag("relay", "secondary").gauge().value()).isEqualTo(900);
+        assertions.assertThat(meterRegistry.get(PREFIX + "circuit").tag("relay", "primary").tag("state", "closed").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "circuit").tag("relay", "secondary").tag("state", "closed").gauge().value()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "circuit").tag("relay", "secondary").tag("state", "open").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "sent").tag("relay", "primary").functionCounter().count()).isEqualTo(42);
+        assertions.assertThat(meterRegistry.get(PREFIX + "failed").tag("relay", "secondary").functionCounter().count()).isEqualTo(5);
+        assertions.assertThat(meterRegistry.get(PREFIX + "circuit.openings").tag("relay", "secondary").functionCounter().count()).isEqualTo(2);
+    }
+
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.service.PersistenceService;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.MicrometerSchedulerMetrics.PREFIX;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.*;
+
+public class MicrometerSchedulerMetricsTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final MicrometerSchedulerMetrics schedulerMetrics = new MicrometerSchedulerMetrics(meterRegistry);
+
+    @Test
+    public void shouldRegisterQueueGaugesPerPriorityLevel() throws Exception {
+        //Arrange
+        final PriorityQueueManager priorityQueueManager = new PriorityQueueManager(2, false, Integer.MAX_VALUE, Duration.ZERO);
+        priorityQueueManager.enqueue(createDefaultEmailSchedulingDataWithPriority(2, TimeUnit.HOURS.toNanos(1)), false);
+        priorityQueueManager.completeEnqueue();
+
+        //Act
+        schedulerMetrics.bind(priorityQueueManager, () -> 7);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "queue.size").tag("priority", "1").gauge().value()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "queue.size").tag("priority", "2").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "in.memory").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "ingestion.pending").gauge().value()).isEqualTo(7);
+    }
+
+    @Test
+    public void shouldRegisterAdmissionMeters() throws Exception {
+        //Arrange
+        final AdmissionController admissionController = new AdmissionController(EmailSchedulerProperties.Admission.builder()
+                .enabled(true)
+                .policy(EmailSchedulerProperties.Admission.Policy.CALLER_RUNS)
+                .highWatermark(2)
+                .lowWatermark(1)
+                .blockTimeoutMillis(1)
+                .build(), () -> 2);
+
+        //Act
+        schedulerMetrics.bindAdmission(admissionController::statistics);
+        admissionController.admit();
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.held").gauge().value()).isEqualTo(2);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.high.watermark").gauge().value()).isEqualTo(2);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.low.watermark").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.saturated").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.high.watermark.crossings").functionCounter().count()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.admitted").functionCounter().count()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.blocked").functionCounter().count()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.rejected").functionCounter().count()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "admission.caller.runs").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldRecordSendingByOutcome() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        schedulerMetrics.recordSend(emailSchedulingData, 30, TimeUnit.MILLISECONDS.toNanos(5), true);
+        schedulerMetrics.recordSend(emailSchedulingData, -10, TimeUnit.MILLISECONDS.toNanos(8), false);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "send.lag").tag("outcome", "sent").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(30);
+        assertions.assertThat(meterRegistry.get(PREFIX + "send.lag").tag("outcome", "failed").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "send.duration").tag("outcome", "failed").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(8);
+    }
+
+    @Test
+    public void shouldRecordResumerBatches() throws Exception {
+        //Act
+        schedulerMetrics.recordResumerBatch(500, TimeUnit.MILLISECONDS.toNanos(12));
+        schedulerMetrics.recordPersistedEmails(4_000);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "resumer.batch.size").summary().totalAmount()).isEqualTo(500);
+        assertions.assertThat(meterRegistry.get(PREFIX + "resumer.batch.duration").timer().count()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "persisted").gauge().value()).isEqualTo(4_000);
+    }
+
+    @Test
+    public void shouldRecordTheStagesOfTheDispatchPipeline() throws Exception {
+        //Arrange
+        schedulerMetrics.bindStage("prepare", () -> 3);
+        schedulerMetrics.bindStage("transport", () -> 0);
+
+        //Act
+        schedulerMetrics.recordStageService("prepare", TimeUnit.MILLISECONDS.toNanos(4));
+        schedulerMetrics.recordStageService("prepare", TimeUnit.MILLISECONDS.toNanos(6));
+        schedulerMetrics.recordStageService("transport", TimeUnit.MILLISECONDS.toNanos(20));
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "stage.queue.depth").tag("stage", "prepare").gauge().value()).isEqualTo(3);
+        assertions.assertThat(meterRegistry.get(PREFIX + "stage.queue.depth").tag("stage", "transport").gauge().value()).isEqualTo(0);
+        assertions.assertThat(meterRegistry.get(PREFIX + "stage.service.time").tag("stage", "prepare").timer().count()).isEqualTo(2);
+        assertions.assertThat(meterRegistry.get(PREFIX + "stage.service.time").tag("stage", "prepare").timer().totalTime(TimeUnit.MILLISECONDS)).isEqualTo(10);
+        assertions.assertThat(meterRegistry.get(PREFIX + "stage.service.time").tag("stage", "transport").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTimeTheQueueLock() throws Exception {
+        //Arrange
+        final Lock queueLock = schedulerMetrics.instrument(new ReentrantLock());
+
+        //Act
+        queueLock.lock();
+        queueLock.unlock();
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "queue.lock.held").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTimeEachPersistenceOperation() throws Exception {
+        //Arrange
+        final PersistenceService persistenceService = mock(PersistenceService.class);
+        when(persistenceService.remove("id")).thenReturn(true);
+        final PersistenceService timedPersistenceService = schedulerMetrics.instrument(persistenceService);
+
+        //Act
+        final boolean removed = timedPersistenceService.remove("id");
+
+        //Assert
+        assertions.assertThat(removed).isTrue();
+        assertions.assertThat(meterRegistry.get(PREFIX + "persistence.duration").tag("operation", "remove").timer().count()).isEqualTo(1);
+        verify(persistenceService).remove("id");
+    }
+
+    @Test
+    public void shouldLetTheExceptionsOfThePersistenceLayerThrough() throws Exception {
+        //Arrange
+        final PersistenceService persistenceService = mock(PersistenceService.class);
+        doThrow(new IllegalStateException("Redis is down")).when(persistenceService).addAll(anyCollection());
+        final PersistenceService timedPersistenceService = schedulerMetrics.instrument(persistenceService);
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Redis is down");
+
+        //Act
+        timedPersistenceService.addAll(Collections.emptyList());
+
+        //Assert
+        fail();
+    }
+
+}
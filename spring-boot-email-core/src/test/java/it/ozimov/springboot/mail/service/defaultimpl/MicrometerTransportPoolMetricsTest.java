@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.MicrometerTransportPoolMetrics.PREFIX;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MicrometerTransportPoolMetricsTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void shouldRegisterTheMetersOfThePool() throws Exception {
+        //Arrange
+        final PooledJavaMailSender pooledJavaMailSender = mock(PooledJavaMailSender.class);
+        when(pooledJavaMailSender.statistics()).thenReturn(TransportPoolStatistics.builder()
+                .maxConnections(4)
+                .activeConnections(3)
+                .idleConnections(1)
+                .createdConnections(6)
+                .closedConnections(2)
+                .borrowTimeouts(5)
+                .sentMessages(42)
+                .build());
+
+        //Act
+        new MicrometerTransportPoolMetrics(pooledJavaMailSender).bindTo(meterRegistry);
+
+        //Assert
+        assertions.assertThat(meterRegistry.get(PREFIX + "connections").tag("state", "active").gauge().value()).isEqualTo(3);
+        assertions.assertThat(meterRegistry.get(PREFIX + "connections").tag("state", "idle").gauge().value()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get(PREFIX + "max.connections").gauge().value()).isEqualTo(4);
+        assertions.assertThat(meterRegistry.get(PREFIX + "created").functionCounter().count()).isEqualTo(6);
+        assertions.assertThat(meterRegistry.get(PREFIX + "closed").functionCounter().count()).isEqualTo(2);
+        assertions.assertThat(meterRegistry.get(PREFIX + "borrow.timeouts").functionCounter().count()).isEqualTo(5);
+        assertions.assertThat(meterRegistry.get(PREFIX + "sent").functionCounter().count()).isEqualTo(42);
+    }
+
+}
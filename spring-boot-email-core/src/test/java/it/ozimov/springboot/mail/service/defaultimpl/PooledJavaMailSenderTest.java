@@ -0,0 +1,306 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.TransportPoolProperties;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.eclipse.angus.mail.smtp.SMTPTransport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PooledJavaMailSenderTest {
+
+    private static final int MAIL_PORT = 3027;
+
+    //GreenMail stores a message after replying to the client, thus a send may return before it is received
+    private static final long RECEIVE_TIMEOUT_MILLIS = 5_000;
+
+    @Rule
+    public final Timeout timeout = new Timeout(20, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private GreenMail testSmtp;
+
+    private PooledJavaMailSender pooledJavaMailSender;
+
+    @Before
+    public void setUp() throws Exception {
+        testSmtp = new GreenMail(new ServerSetup(MAIL_PORT, (String) null, "smtp"));
+        testSmtp.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (pooledJavaMailSender != null) {
+            pooledJavaMailSender.close();
+        }
+        testSmtp.stop();
+    }
+
+    @Test
+    public void shouldReuseTheConnectionForConsecutiveEmails() throws Exception {
+        //Arrange
+        pooledJavaMailSender = createSender(properties());
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            pooledJavaMailSender.send(createMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(RECEIVE_TIMEOUT_MILLIS, 5)).isTrue();
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(testSmtp.getReceivedMessages()).hasSize(5);
+        assertions.assertThat(statistics.getCreatedConnections()).isEqualTo(1);
+        assertions.assertThat(statistics.getClosedConnections()).isEqualTo(0);
+        assertions.assertThat(statistics.getIdleConnections()).isEqualTo(1);
+        assertions.assertThat(statistics.getActiveConnections()).isEqualTo(0);
+        assertions.assertThat(statistics.getSentMessages()).isEqualTo(5);
+    }
+
+    @Test
+    public void shouldOpenANewConnectionOnceTheMaxMessagesPerConnectionAreSent() throws Exception {
+        //Arrange
+        final TransportPoolProperties transportPoolProperties = properties();
+        transportPoolProperties.setMaxMessagesPerConnection(2);
+        pooledJavaMailSender = createSender(transportPoolProperties);
+
+        //Act
+        for (int i = 0; i < 5; i++) {
+            pooledJavaMailSender.send(createMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(RECEIVE_TIMEOUT_MILLIS, 5)).isTrue();
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(testSmtp.getReceivedMessages()).hasSize(5);
+        assertions.assertThat(statistics.getCreatedConnections()).isEqualTo(3);
+        assertions.assertThat(statistics.getClosedConnections()).isEqualTo(2);
+        assertions.assertThat(statistics.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldCloseTheConnectionsIdleForTooLong() throws Exception {
+        //Arrange
+        final TransportPoolProperties transportPoolProperties = properties();
+        transportPoolProperties.setMaxIdleMillis(100);
+        pooledJavaMailSender = createSender(transportPoolProperties);
+        pooledJavaMailSender.send(createMessage(1));
+
+        //Act
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        //Assert
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(statistics.getIdleConnections()).isEqualTo(0);
+        assertions.assertThat(statistics.getClosedConnections()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReplaceTheConnectionsDroppedByTheServer() throws Exception {
+        //Arrange
+        final TransportPoolProperties transportPoolProperties = properties();
+        transportPoolProperties.setValidationIntervalMillis(0);
+        pooledJavaMailSender = createSender(transportPoolProperties);
+        pooledJavaMailSender.send(createMessage(1));
+        testSmtp.stop();
+        testSmtp = new GreenMail(new ServerSetup(MAIL_PORT, (String) null, "smtp"));
+        testSmtp.start();
+
+        //Act
+        pooledJavaMailSender.send(createMessage(2));
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(RECEIVE_TIMEOUT_MILLIS, 1)).isTrue();
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(testSmtp.getReceivedMessages()).hasSize(1);
+        assertions.assertThat(statistics.getCreatedConnections()).isEqualTo(2);
+        assertions.assertThat(statistics.getClosedConnections()).isEqualTo(1);
+        assertions.assertThat(statistics.getSentMessages()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldNotOpenMoreThanTheMaxConnections() throws Exception {
+        //Arrange
+        final int threads = 6;
+        final int emailsPerThread = 5;
+        final TransportPoolProperties transportPoolProperties = properties();
+        transportPoolProperties.setMaxConnections(2);
+        pooledJavaMailSender = createSender(transportPoolProperties);
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+
+        //Act
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < emailsPerThread; i++) {
+                    pooledJavaMailSender.send(createMessage(i));
+                }
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            future.get();
+        }
+        executorService.shutdown();
+
+        //Assert
+        assertions.assertThat(testSmtp.waitForIncomingEmail(RECEIVE_TIMEOUT_MILLIS, threads * emailsPerThread)).isTrue();
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(testSmtp.getReceivedMessages()).hasSize(threads * emailsPerThread);
+        assertions.assertThat(statistics.getCreatedConnections()).isBetween(1L, 2L);
+        assertions.assertThat(statistics.getSentMessages()).isEqualTo(threads * emailsPerThread);
+    }
+
+    @Test
+    public void shouldFailTheSendWhenNoConnectionBecomesFree() throws Exception {
+        //Arrange
+        final TransportPoolProperties transportPoolProperties = properties();
+        transportPoolProperties.setMaxConnections(1);
+        transportPoolProperties.setBorrowTimeoutMillis(50);
+        pooledJavaMailSender = createSender(transportPoolProperties);
+        //a connection held by another sender
+        ((Semaphore) ReflectionTestUtils.getField(pooledJavaMailSender, "permits")).acquire();
+        final MimeMessage mimeMessage = createMessage(1);
+
+        //Act
+        assertThatThrownBy(() -> pooledJavaMailSender.send(mimeMessage))
+
+                //Assert
+                .isInstanceOf(MailSendException.class);
+        assertions.assertThat(pooledJavaMailSender.statistics().getBorrowTimeouts()).isEqualTo(1);
+        assertions.assertThat(testSmtp.getReceivedMessages()).isEmpty();
+    }
+
+    @Test
+    public void shouldKeepTheConnectionAfterAFailedTransactionWhenTheServerAcceptsTheReset() throws Exception {
+        //Arrange
+        final SMTPTransport transport = failingTransport(250);
+        pooledJavaMailSender = createSender(properties(), transport);
+        final MimeMessage mimeMessage = createMessage(1);
+
+        //Act
+        assertThatThrownBy(() -> pooledJavaMailSender.send(mimeMessage))
+
+                //Assert
+                .isInstanceOf(MailSendException.class);
+        verify(transport).simpleCommand("RSET");
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(statistics.getIdleConnections()).isEqualTo(1);
+        assertions.assertThat(statistics.getClosedConnections()).isZero();
+    }
+
+    @Test
+    public void shouldCloseTheConnectionAfterAFailedTransactionWhenTheServerRejectsTheReset() throws Exception {
+        //Arrange
+        final SMTPTransport transport = failingTransport(421);
+        pooledJavaMailSender = createSender(properties(), transport);
+        final MimeMessage mimeMessage = createMessage(1);
+
+        //Act
+        assertThatThrownBy(() -> pooledJavaMailSender.send(mimeMessage))
+
+                //Assert
+                .isInstanceOf(MailSendException.class);
+        verify(transport).close();
+        final TransportPoolStatistics statistics = pooledJavaMailSender.statistics();
+        assertions.assertThat(statistics.getIdleConnections()).isZero();
+        assertions.assertThat(statistics.getClosedConnections()).isEqualTo(1);
+    }
+
+    private static SMTPTransport failingTransport(final int resetReplyCode) throws Exception {
+        final SMTPTransport transport = mock(SMTPTransport.class);
+        when(transport.isConnected()).thenReturn(true);
+        doThrow(new SMTPSendFailedException("DATA", 554, "554 Transaction failed", null,
+                new Address[0], new Address[0], new Address[0]))
+                .when(transport).sendMessage(any(Message.class), any(Address[].class));
+        when(transport.simpleCommand("RSET")).thenReturn(resetReplyCode);
+        return transport;
+    }
+
+    private static TransportPoolProperties properties() {
+        return TransportPoolProperties.builder()
+                .enabled(true)
+                .maxConnections(4)
+                .maxMessagesPerConnection(100)
+                .maxIdleMillis(30_000)
+                .validationIntervalMillis(5_000)
+                .borrowTimeoutMillis(10_000)
+                .build();
+    }
+
+    private static PooledJavaMailSender createSender(final TransportPoolProperties transportPoolProperties) {
+        final PooledJavaMailSender pooledJavaMailSender = new PooledJavaMailSender(transportPoolProperties);
+        pooledJavaMailSender.setHost("localhost");
+        pooledJavaMailSender.setPort(MAIL_PORT);
+        return pooledJavaMailSender;
+    }
+
+    private static PooledJavaMailSender createSender(final TransportPoolProperties transportPoolProperties,
+                                                     final Transport transport) {
+        final PooledJavaMailSender pooledJavaMailSender = new PooledJavaMailSender(transportPoolProperties) {
+            @Override
+            protected Transport connectTransport() {
+                return transport;
+            }
+        };
+        pooledJavaMailSender.setHost("localhost");
+        pooledJavaMailSender.setPort(MAIL_PORT);
+        return pooledJavaMailSender;
+    }
+
+    private MimeMessage createMessage(final int index) throws Exception {
+        final MimeMessage mimeMessage = pooledJavaMailSender.createMimeMessage();
+        final MimeMessageHelper helper = new MimeMessageHelper(mimeMessage);
+        helper.setFrom("cicero@mala-tempora.currunt");
+        helper.setTo("titus@de-rerum.natura");
+        helper.setSubject("Pooled email " + index);
+        helper.setText("Sent through a pooled SMTP connection");
+        return mimeMessage;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.service.exception.CannotSendEmailException;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createTemplateEmailSchedulingDataWithPriority;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PreRendererTest {
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final EmailService emailService = mock(EmailService.class);
+
+    private final MimeMessage preparedMessage = new MimeMessage((Session) null);
+
+    private PreRenderer preRenderer;
+
+    @After
+    public void tearDown() {
+        if (preRenderer != null) {
+            preRenderer.close();
+        }
+    }
+
+    @Test
+    public void shouldTakeTheMessageRenderedInAdvance() throws Exception {
+        //Arrange
+        when(emailService.prepare(any(Email.class), anyString(), anyMap())).thenReturn(preparedMessage);
+        preRenderer = new PreRenderer(emailService, 1, 10);
+        final TemplateEmailSchedulingData templateEmailSchedulingData = createTemplateEmailSchedulingDataWithPriority(1);
+        preRenderer.submit(templateEmailSchedulingData);
+        waitUntilRendered(templateEmailSchedulingData);
+
+        //Act
+        final Optional<MimeMessage> givenMessage = preRenderer.take(templateEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(givenMessage).containsSame(preparedMessage);
+        assertions.assertThat(preRenderer.size()).isZero();
+        assertions.assertThat(preRenderer.statistics().getHits()).isEqualTo(1);
+        assertions.assertThat(preRenderer.statistics().getMisses()).isZero();
+        verify(emailService).prepare(templateEmailSchedulingData.getEmail(), templateEmailSchedulingData.getTemplate(),
+                templateEmailSchedulingData.getModelObject());
+    }
+
+    @Test
+    public void shouldNotPrepareEmailsWithoutTemplate() throws Exception {
+        //Arrange
+        preRenderer = new PreRenderer(emailService, 1, 10);
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        preRenderer.submit(emailSchedulingData);
+
+        //Assert
+        assertions.assertThat(preRenderer.size()).isZero();
+        assertions.assertThat(preRenderer.take(emailSchedulingData)).isEmpty();
+        assertions.assertThat(preRenderer.statistics().getMisses()).isEqualTo(1);
+        verify(emailService, never()).prepare(any(Email.class), anyString(), anyMap());
+    }
+
+    @Test
+    public void shouldEvictTheLatestPreparedEmailWhenAnEarlierOneArrives() throws Exception {
+        //Arrange
+        when(emailService.prepare(any(Email.class), anyString(), anyMap())).thenReturn(preparedMessage);
+        preRenderer = new PreRenderer(emailService, 1, 2);
+        final TemplateEmailSchedulingData first = createTemplateEmailSchedulingDataWithPriority(1, SECONDS.toNanos(1));
+        final TemplateEmailSchedulingData second = createTemplateEmailSchedulingDataWithPriority(1, SECONDS.toNanos(2));
+        final TemplateEmailSchedulingData third = createTemplateEmailSchedulingDataWithPriority(1, SECONDS.toNanos(3));
+        final TemplateEmailSchedulingData fourth = createTemplateEmailSchedulingDataWithPriority(1, SECONDS.toNanos(4));
+        preRenderer.submit(second);
+        preRenderer.submit(third);
+
+        //Act
+        preRenderer.submit(first);
+        preRenderer.submit(fourth);
+
+        //Assert
+        assertions.assertThat(preRenderer.size()).isEqualTo(2);
+        assertions.assertThat(preRenderer.statistics().getEvictedEmails()).isEqualTo(1);
+        assertions.assertThat(preparedFutures()).containsOnlyKeys(first, second);
+    }
+
+    @Test
+    public void shouldFallBackToTheConsumerWhenTheRenderingFailed() throws Exception {
+        //Arrange
+        when(emailService.prepare(any(Email.class), anyString(), anyMap()))
+                .thenThrow(new CannotSendEmailException("Broken template", new RuntimeException()));
+        preRenderer = new PreRenderer(emailService, 1, 10);
+        final TemplateEmailSchedulingData templateEmailSchedulingData = createTemplateEmailSchedulingDataWithPriority(1);
+        preRenderer.submit(templateEmailSchedulingData);
+        waitUntilRendered(templateEmailSchedulingData);
+
+        //Act
+        final Optional<MimeMessage> givenMessage = preRenderer.take(templateEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(givenMessage).isEmpty();
+        assertions.assertThat(preRenderer.statistics().getHits()).isZero();
+        assertions.assertThat(preRenderer.statistics().getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldStopPreparingWhenTheEmailServiceCannotPrepare() throws Exception {
+        //Arrange
+        when(emailService.prepare(any(Email.class), anyString(), anyMap()))
+                .thenThrow(new UnsupportedOperationException("Not supported"));
+        preRenderer = new PreRenderer(emailService, 1, 10);
+        final TemplateEmailSchedulingData templateEmailSchedulingData = createTemplateEmailSchedulingDataWithPriority(1);
+        preRenderer.submit(templateEmailSchedulingData);
+        waitUntilRendered(templateEmailSchedulingData);
+
+        //Act
+        preRenderer.submit(createTemplateEmailSchedulingDataWithPriority(1));
+
+        //Assert
+        assertions.assertThat(preRenderer.size()).isEqualTo(1);
+        verify(emailService).prepare(any(Email.class), anyString(), anyMap());
+    }
+
+    @Test
+    public void shouldDiscardThePreparedMessage() throws Exception {
+        //Arrange
+        when(emailService.prepare(any(Email.class), anyString(), anyMap())).thenReturn(preparedMessage);
+        preRenderer = new PreRenderer(emailService, 1, 10);
+        final TemplateEmailSchedulingData templateEmailSchedulingData = createTemplateEmailSchedulingDataWithPriority(1);
+        preRenderer.submit(templateEmailSchedulingData);
+
+        //Act
+        preRenderer.discard(templateEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(preRenderer.size()).isZero();
+        assertions.assertThat(preRenderer.take(templateEmailSchedulingData)).isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<EmailSchedulingData, CompletableFuture<MimeMessage>> preparedFutures() {
+        return (Map<EmailSchedulingData, CompletableFuture<MimeMessage>>) ReflectionTestUtils.getField(preRenderer, "prepared");
+    }
+
+    private void waitUntilRendered(final EmailSchedulingData emailSchedulingData) throws InterruptedException {
+        try {
+            preparedFutures().get(emailSchedulingData).get();
+        } catch (final ExecutionException e) {
+            //the rendering failed, the consumer renders the email again
+        }
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.util.concurrent.Uninterruptibles;
+import it.ozimov.springboot.mail.BaseRedisTest;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.service.EmailService;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static it.ozimov.springboot.mail.service.defaultimpl.PriorityQueueEmailSchedulerService.RESUMER_CYCLE_LENGTH;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static java.util.stream.Collectors.toSet;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@RunWith(SpringRunner.class)
+@ContextConfiguration(classes = BaseRedisTest.ContextConfiguration.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class PriorityQueueEmailSchedulerServiceClusterTest extends BaseRedisTest {
+
+    private static final int PRIORITY_LEVELS = 3;
+    private static final int BATCH_SIZE = 100;
+    private static final long VISIBILITY_TIMEOUT_MILLIS = 1000;
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 200;
+
+    @Rule
+    public final Timeout timeout = new Timeout(30, SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @MockBean
+    private EmailService emailService;
+
+    @MockBean
+    private EmailLogRenderer emailLogRenderer;
+
+    @SpyBean
+    @Qualifier("defaultEmailPersistenceService")
+    private DefaultPersistenceService defaultPersistenceService;
+
+    @SpyBean
+    @Qualifier("orderingTemplate")
+    private StringRedisTemplate orderingTemplate;
+
+    @MockBean
+    private PriorityQueueEmailSchedulerService neverUsedSchedulerService;
+
+    private final List<PriorityQueueEmailSchedulerService> schedulers = new ArrayList<>();
+
+    // The emails are removed from the persistence layer once sent, so that each removal is a delivery
+    private final Multiset<String> sentIds = ConcurrentHashMultiset.create();
+
+    // Holds the consumers of a killed node, which never complete a send
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @After
+    public void tearDown() throws Exception {
+        released.countDown();
+        for (final PriorityQueueEmailSchedulerService scheduler : schedulers) {
+            scheduler.cleanUp();
+        }
+    }
+
+    @Test
+    public void shouldSendEachEmailExactlyOnceWhenSeveralSchedulersShareTheBacklog() throws Exception {
+        //Arrange
+        trackSentEmails();
+        final Set<String> ids = persistDueEmails(BATCH_SIZE * 3 / 2);
+
+        //Act
+        for (int node = 1; node <= 3; node++) {
+            createScheduler("node-" + node, emailService);
+        }
+        waitUntilSent(ids);
+
+        //Assert
+        assertions.assertThat(sentIds.elementSet()).containsOnlyElementsOf(ids);
+        assertions.assertThat(sentIds.size()).as("Each email is sent exactly once").isEqualTo(ids.size());
+        assertions.assertThat(schedulers.stream().filter(scheduler -> sentBy(scheduler) > 0).count())
+                .as("No node can claim more than its memory allows, so the backlog is split")
+                .isGreaterThan(1);
+        assertions.assertThat(schedulers.stream().mapToLong(this::sentBy).sum()).isEqualTo(ids.size());
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOriginKey()))
+                .as("Every claim is acknowledged once the email is sent")
+                .isFalse();
+    }
+
+    @Test
+    public void shouldClaimAgainTheEmailsOfANodeWhoseClaimsExpired() throws Exception {
+        //Arrange
+        trackSentEmails();
+        final Set<String> ids = persistDueEmails(10);
+        //a node claiming the whole backlog and then disappearing
+        defaultPersistenceService.claimNextBatch("crashed-node", BATCH_SIZE, Duration.ofMillis(200));
+        assertions.assertThat(defaultPersistenceService.getNextBatch(BATCH_SIZE)).isEmpty();
+
+        //Act
+        final long startTime = System.nanoTime();
+        final PriorityQueueEmailSchedulerService scheduler = createScheduler("node-1", emailService);
+        waitUntilSent(ids);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        //Assert
+        assertions.assertThat(sentIds.elementSet()).containsOnlyElementsOf(ids);
+        assertions.assertThat(sentBy(scheduler)).isEqualTo(ids.size());
+        assertions.assertThat(elapsedMillis)
+                .as("The expired claims are restored by the claim keeper, without waiting for the resumer cycle")
+                .isLessThan(RESUMER_CYCLE_LENGTH.toMillis());
+    }
+
+    @Test
+    public void shouldRedeliverTheEmailsOfANodeKilledMidBatchOnceItsClaimsExpire() throws Exception {
+        //Arrange
+        trackSentEmails();
+        final Set<String> ids = persistDueEmails(20);
+        final int sentBeforeDying = 5;
+        final int consumers = 2;
+        final AtomicInteger attemptsOfKilledNode = new AtomicInteger();
+        final EmailService dyingEmailService = mock(EmailService.class);
+        doAnswer(invocation -> {
+            if (attemptsOfKilledNode.incrementAndGet() > sentBeforeDying) {
+                Uninterruptibles.awaitUninterruptibly(released);
+            }
+            return null;
+        }).when(dyingEmailService).send(any(Email.class));
+
+        final PriorityQueueEmailSchedulerService killedScheduler = createScheduler("node-1", dyingEmailService);
+        while (attemptsOfKilledNode.get() < sentBeforeDying + consumers) {
+            MILLISECONDS.sleep(1);
+        }
+
+        //Act
+        kill(killedScheduler);
+        final long killedAt = System.nanoTime();
+        final PriorityQueueEmailSchedulerService survivingScheduler = createScheduler("node-2", emailService);
+        waitUntilSent(ids);
+        final long timeToRedeliveryMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - killedAt) - 200;
+
+        //Assert
+        assertions.assertThat(sentIds.elementSet()).containsOnlyElementsOf(ids);
+        assertions.assertThat(sentBy(survivingScheduler))
+                .as("The emails queued or being sent by the killed node are redelivered")
+                .isEqualTo(ids.size() - sentBeforeDying);
+        assertions.assertThat(timeToRedeliveryMillis)
+                .as("Redelivered within the visibility timeout plus a couple of heartbeats")
+                .isBetween(VISIBILITY_TIMEOUT_MILLIS - HEARTBEAT_INTERVAL_MILLIS, VISIBILITY_TIMEOUT_MILLIS + 3 * HEARTBEAT_INTERVAL_MILLIS);
+    }
+
+    @Test
+    public void shouldClaimTheEmailsScheduledLaterThanTheVisibilityTimeoutWithoutWaitingForTheIdleCycle() throws Exception {
+        //Arrange
+        trackSentEmails();
+        final long scheduledInMillis = 3 * VISIBILITY_TIMEOUT_MILLIS;
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1,
+                MILLISECONDS.toNanos(scheduledInMillis));
+        defaultPersistenceService.add(emailSchedulingData);
+
+        //Act
+        final long startTime = System.nanoTime();
+        final PriorityQueueEmailSchedulerService scheduler = createScheduler("node-1", emailService);
+        waitUntilSent(ImmutableSet.of(emailSchedulingData.getId()));
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+        //Assert
+        assertions.assertThat(sentBy(scheduler)).isEqualTo(1);
+        assertions.assertThat(elapsedMillis)
+                .as("The resumer wakes up when the email can be claimed, well before its idle cycle")
+                .isLessThan(scheduledInMillis + RESUMER_CYCLE_LENGTH.toMillis());
+    }
+
+    @Test
+    public void shouldReturnTheClaimOfAnEmailEvictedFromTheQueuesToTheOtherNodes() throws Exception {
+        //Arrange
+        trackSentEmails();
+        //due late enough to be evicted before being sent, early enough to be claimed at once
+        final EmailSchedulingData claimedEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1,
+                MILLISECONDS.toNanos(VISIBILITY_TIMEOUT_MILLIS * 9 / 10));
+        defaultPersistenceService.add(claimedEmailSchedulingData);
+        final PriorityQueueEmailSchedulerService evictingScheduler = createScheduler("node-1", emailService, 1);
+        final PriorityQueueManager priorityQueueManager =
+                (PriorityQueueManager) ReflectionTestUtils.getField(evictingScheduler, "priorityQueueManager");
+        while (priorityQueueManager.currentlyInQueue() < 1) {
+            MILLISECONDS.sleep(1);
+        }
+        //the node claims nothing else, so that only another node can send the evicted email
+        ReflectionTestUtils.invokeMethod(ReflectionTestUtils.getField(evictingScheduler, "resumer"), "close");
+        final EmailSchedulingData earlierEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        priorityQueueManager.enqueueAll(ImmutableList.of(earlierEmailSchedulingData), true);
+        final PriorityQueueEmailSchedulerService otherScheduler = createScheduler("node-2", emailService);
+        waitUntilSent(ImmutableSet.of(earlierEmailSchedulingData.getId(), claimedEmailSchedulingData.getId()));
+
+        //Assert
+        assertions.assertThat(sentIds.count(claimedEmailSchedulingData.getId())).isEqualTo(1);
+        assertions.assertThat(sentBy(evictingScheduler)).isEqualTo(1);
+        assertions.assertThat(sentBy(otherScheduler))
+                .as("The evicted email is claimed by the other node instead of being renewed forever")
+                .isEqualTo(1);
+        assertions.assertThat(orderingTemplate.hasKey(RedisBasedPersistenceServiceConstants.claimOriginKey())).isFalse();
+    }
+
+    @Test
+    public void shouldNotCancelNorRescheduleAnEmailClaimedByAnotherNode() throws Exception {
+        //Arrange
+        trackSentEmails();
+        //due late enough to be cancelled before being sent, early enough to be claimed at once
+        final EmailSchedulingData emailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1,
+                MILLISECONDS.toNanos(VISIBILITY_TIMEOUT_MILLIS * 9 / 10));
+        defaultPersistenceService.add(emailSchedulingData);
+        final PriorityQueueEmailSchedulerService claimingScheduler = createScheduler("node-1", emailService);
+        final PriorityQueueManager priorityQueueManager =
+                (PriorityQueueManager) ReflectionTestUtils.getField(claimingScheduler, "priorityQueueManager");
+        while (priorityQueueManager.currentlyInQueue() < 1) {
+            MILLISECONDS.sleep(1);
+        }
+        final PriorityQueueEmailSchedulerService otherScheduler = createScheduler("node-2", emailService);
+
+        //Act
+        final boolean givenRescheduled = otherScheduler.reschedule(emailSchedulingData.getId(),
+                OffsetDateTime.now().plusDays(1), 2);
+        final boolean givenCancelled = otherScheduler.cancel(emailSchedulingData.getId());
+        waitUntilSent(ImmutableSet.of(emailSchedulingData.getId()));
+
+        //Assert
+        assertions.assertThat(givenRescheduled).isFalse();
+        assertions.assertThat(givenCancelled).isFalse();
+        assertions.assertThat(sentIds.count(emailSchedulingData.getId())).isEqualTo(1);
+        assertions.assertThat(sentBy(claimingScheduler)).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.getNextBatch(BATCH_SIZE))
+                .as("The rescheduling left no copy of the email behind")
+                .isEmpty();
+    }
+
+    // The node stops renewing its claims and claiming new emails, while its consumers hang as in a dead JVM
+    private void kill(final PriorityQueueEmailSchedulerService scheduler) {
+        ReflectionTestUtils.invokeMethod(ReflectionTestUtils.getField(scheduler, "claimKeeper"), "close");
+        ReflectionTestUtils.invokeMethod(ReflectionTestUtils.getField(scheduler, "resumer"), "close");
+    }
+
+    private void trackSentEmails() {
+        doAnswer(invocation -> {
+            sentIds.add(invocation.getArgument(0));
+            return invocation.callRealMethod();
+        }).when(spiedPersistenceService()).remove(anyString());
+    }
+
+    private Set<String> persistDueEmails(final int count) throws Exception {
+        final List<EmailSchedulingData> emailSchedulingDataList = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(1 + i % PRIORITY_LEVELS));
+        }
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+        return emailSchedulingDataList.stream().map(EmailSchedulingData::getId).collect(toSet());
+    }
+
+    private void waitUntilSent(final Set<String> ids) throws InterruptedException {
+        while (!sentIds.elementSet().containsAll(ids)) {
+            MILLISECONDS.sleep(10);
+        }
+        //leaves time for a duplicate delivery, if any, to show up
+        MILLISECONDS.sleep(200);
+    }
+
+    private long sentBy(final PriorityQueueEmailSchedulerService scheduler) {
+        return scheduler.consumerStatistics().stream().mapToLong(ConsumerStatistics::getSentEmails).sum();
+    }
+
+    private PriorityQueueEmailSchedulerService createScheduler(final String nodeId, final EmailService emailService) throws InterruptedException {
+        return createScheduler(nodeId, emailService, BATCH_SIZE);
+    }
+
+    private PriorityQueueEmailSchedulerService createScheduler(final String nodeId, final EmailService emailService,
+                                                               final int keptInMemory) throws InterruptedException {
+        final EmailSchedulerProperties emailSchedulerProperties = mock(EmailSchedulerProperties.class);
+        when(emailSchedulerProperties.getPriorityLevels()).thenReturn(PRIORITY_LEVELS);
+        when(emailSchedulerProperties.getPersistence()).thenReturn(EmailSchedulerProperties.Persistence.builder()
+                .desiredBatchSize(keptInMemory)
+                .minKeptInMemory(keptInMemory)
+                .maxKeptInMemory(keptInMemory)
+                .build());
+        when(emailSchedulerProperties.getDispatcher()).thenReturn(EmailSchedulerProperties.Dispatcher.builder()
+                .consumers(2)
+                .build());
+        when(emailSchedulerProperties.getCluster()).thenReturn(EmailSchedulerProperties.Cluster.builder()
+                .enabled(true)
+                .nodeId(nodeId)
+                .visibilityTimeoutMillis(VISIBILITY_TIMEOUT_MILLIS)
+                .heartbeatIntervalMillis(HEARTBEAT_INTERVAL_MILLIS)
+                .build());
+        EmailSchedulerProperties.checkIsValid(emailSchedulerProperties);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        final PriorityQueueEmailSchedulerService scheduler = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.of(defaultPersistenceService), emailLogRenderer);
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    // Stubbed behind the transactional proxy, which would otherwise open a transaction while stubbing
+    private DefaultPersistenceService spiedPersistenceService() {
+        return AopTestUtils.getUltimateTargetObject(defaultPersistenceService);
+    }
+
+}
@@ -24,8 +24,10 @@ import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.service.DeadLetter;
 import it.ozimov.springboot.mail.service.EmailService;
 import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -37,12 +39,14 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.mail.MailSendException;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import jakarta.mail.internet.MimeMessage;
-import java.util.Collection;
+import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
 import java.util.TreeSet;
@@ -51,8 +55,10 @@ import java.util.concurrent.TimeUnit;
 import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
 import static it.ozimov.springboot.mail.service.defaultimpl.PriorityQueueEmailSchedulerService.CONSUMER_CYCLE_LENGTH;
 import static it.ozimov.springboot.mail.service.defaultimpl.PriorityQueueEmailSchedulerService.RESUMER_CYCLE_LENGTH;
+import static it.ozimov.springboot.mail.service.defaultimpl.PriorityQueueEmailSchedulerService.RESUMER_IDLE_CYCLE_LENGTH;
 import static java.lang.Math.max;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.Objects.nonNull;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.*;
@@ -100,12 +106,22 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
     private int desiredBatchSize = 10_000;
     private int minKeptInMemory = desiredBatchSize;
     private int maxKeptInMemory = Integer.MAX_VALUE;
+    private boolean deadLetters = false;
+    private boolean notifications = false;
 
-    public ResultCaptor<Collection<EmailSchedulingData>> nextBatchResultCaptor;
+    public ResultCaptor<List<EmailSchedulingData>> nextBatchResultCaptor;
+
+    // The spied persistence service is shared by the tests, so that the threads of a scheduler must not outlive its test
+    @After
+    public void tearDown() throws Exception {
+        if (nonNull(priorityQueueSchedulerService)) {
+            priorityQueueSchedulerService.cleanUp();
+        }
+    }
 
     public void mockSetUp() {
         nextBatchResultCaptor = new ResultCaptor<>();
-        doAnswer(nextBatchResultCaptor).when(defaultPersistenceService).getNextBatch(anyInt());
+        doAnswer(nextBatchResultCaptor).when(spiedPersistenceService()).getNextBatchAfter(anyInt(), anyInt(), any());
     }
 
     @Test
@@ -125,10 +141,11 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         SECONDS.sleep(1);
 
         //Assert
-        verify(defaultPersistenceService).getNextBatch(anyInt()); //Resumer at startup tries to load and then wait
+        //Resumer at startup tries to load from each priority level and then wait
+        verify(defaultPersistenceService, times(priorityLevels)).getNextBatchAfter(anyInt(), anyInt(), isNull());
 
-        final List<Collection<EmailSchedulingData>> results = ImmutableList.copyOf(nextBatchResultCaptor.results());
-        assertions.assertThat(results.get(0)).containsOnlyElementsOf(emailSchedulingDataList);
+        final List<List<EmailSchedulingData>> results = ImmutableList.copyOf(nextBatchResultCaptor.results());
+        assertions.assertThat(results.get(assignedPriority - 1)).containsExactlyElementsOf(emailSchedulingDataList);
     }
 
     @Test
@@ -151,7 +168,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         MILLISECONDS.sleep(HALF_RESUMER_CYCLE_LENGTH_IN_MILLIS);
 
         //Assert
-        verify(defaultPersistenceService).getNextBatch(desiredBatchSize); //Just on load
+        verify(defaultPersistenceService, times(priorityLevels)).getNextBatchAfter(anyInt(), eq(desiredBatchSize), isNull()); //Just on load
 
         TreeSet<EmailSchedulingData>[] queues = getPriorityQueues();
         assertions.assertThat(queues[assignedPriority - 1]).containsOnly(defaultEmailSchedulingData);
@@ -172,7 +189,92 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         MILLISECONDS.sleep(RESUMER_CYCLE_LENGTH_PLUS_HALF_IN_MILLIS);
 
         //Assert
-        verify(defaultPersistenceService, times(2)).getNextBatch(desiredBatchSize); //On load and after
+        verify(defaultPersistenceService, times(2 * priorityLevels)).getNextBatchAfter(anyInt(), eq(desiredBatchSize), isNull()); //On load and after
+    }
+
+    @Test
+    public void shouldGetNextBatchAfterTheLastLoaded() throws Exception {
+        //Arrange
+        minKeptInMemory = 10;
+        maxKeptInMemory = 10;
+        desiredBatchSize = 2;
+        mockSetUp();
+
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData1 = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.MINUTES.toNanos(10));
+        final DefaultEmailSchedulingData defaultEmailSchedulingData2 = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.HOURS.toNanos(1));
+        final DefaultEmailSchedulingData defaultEmailSchedulingData3 = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.DAYS.toNanos(1));
+        defaultPersistenceService.addAll(ImmutableList.of(defaultEmailSchedulingData1, defaultEmailSchedulingData2, defaultEmailSchedulingData3));
+
+        //Act
+        createScheduler();
+        MILLISECONDS.sleep(RESUMER_CYCLE_LENGTH_PLUS_HALF_IN_MILLIS);
+
+        //Assert
+        verify(defaultPersistenceService).getNextBatchAfter(eq(assignedPriority), eq(desiredBatchSize), isNull());
+        verify(defaultPersistenceService).getNextBatchAfter(assignedPriority, desiredBatchSize, defaultEmailSchedulingData2);
+        verify(defaultPersistenceService, never()).getNextBatch(anyInt());
+
+        TreeSet<EmailSchedulingData>[] queues = getPriorityQueues();
+        assertions.assertThat(queues[assignedPriority - 1])
+                .containsExactly(defaultEmailSchedulingData1, defaultEmailSchedulingData2, defaultEmailSchedulingData3);
+    }
+
+    @Test
+    public void shouldRefillOnLowWatermarkWithoutWaitingForTheResumerCycle() throws Exception {
+        //Arrange
+        minKeptInMemory = 2;
+        maxKeptInMemory = 2;
+        desiredBatchSize = 2;
+        //the resumer then polls once per idle cycle, longer than the test may last, so that only the low watermark can
+        //trigger the refills, however slow the machine
+        notifications = true;
+        mockSetUp();
+
+        final int assignedPriority = 1;
+        final ImmutableList.Builder<EmailSchedulingData> emailSchedulingDataList = ImmutableList.builder();
+        for (int i = 0; i < 6; i++) {
+            emailSchedulingDataList.add(createDefaultEmailSchedulingDataWithPriority(assignedPriority));
+        }
+        defaultPersistenceService.addAll(emailSchedulingDataList.build());
+
+        //Act
+        createScheduler();
+
+        //Assert
+        verify(emailService, timeout(RESUMER_IDLE_CYCLE_LENGTH.toMillis() / 3).times(6)).send(any());
+    }
+
+    @Test
+    public void shouldLoadTheEmailsAddedByAnotherNodeWhenNotified() throws Exception {
+        //Arrange
+        minKeptInMemory = 10;
+        maxKeptInMemory = 10;
+        desiredBatchSize = 10;
+        notifications = true;
+        mockSetUp();
+
+        final int assignedPriority = 1;
+        createScheduler();
+        MILLISECONDS.sleep(200);
+        final List<EmailSchedulingData> emailSchedulingDataList = ImmutableList.of(
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)),
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(2)));
+
+        //Act
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+        final long deadline = System.currentTimeMillis() + HALF_RESUMER_CYCLE_LENGTH_IN_MILLIS;
+        while (getPriorityQueues()[assignedPriority - 1].size() < emailSchedulingDataList.size() && System.currentTimeMillis() < deadline) {
+            MILLISECONDS.sleep(10);
+        }
+
+        //Assert
+        assertions.assertThat(getPriorityQueues()[assignedPriority - 1])
+                .as("Loaded as soon as added, well before the next poll")
+                .containsExactlyElementsOf(emailSchedulingDataList);
     }
 
     @Test
@@ -210,7 +312,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
                 .as("It was scheduled after the start, but it must fire before the second loaded").contains(defaultEmailSchedulingData2)
                 .as("It was in the queue, but should be kicked out by the first scheduled in this run").doesNotContain(defaultEmailSchedulingData3);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData2);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData2));
     }
 
     @Test
@@ -248,7 +350,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
                 .contains(defaultEmailSchedulingData2)
                 .as("It was scheduled after the start and is after the last loaded form persistence layer").doesNotContain(defaultEmailSchedulingData3);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData3);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData3));
     }
 
     @Test
@@ -281,7 +383,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         TreeSet<EmailSchedulingData>[] queues = getPriorityQueues();
         assertions.assertThat(queues[assignedPriority - 1]).doesNotContain(defaultEmailSchedulingData2);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData2);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData2));
     }
 
     @Test
@@ -318,7 +420,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
                 .describedAs("Should be kicked out because of the max in memory and the fact that comes later in time").doesNotContain(defaultEmailSchedulingData1)
                 .describedAs("Should be added in because of the max in memory and the fact that comes before in time").contains(defaultEmailSchedulingData2);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData2);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData2));
     }
 
     @Test
@@ -366,7 +468,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         assertions.assertThat(queues[assignedPriority3 - 1])
                 .describedAs("Should be kept in because of the max in memory and the fact that comes later in time, but not as last").contains(defaultEmailSchedulingData3);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData4);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData4));
     }
 
     @Test
@@ -421,7 +523,7 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         assertions.assertThat(queues[assignedPriority4 - 1])
                 .describedAs("Should be added in because of the max in memory and the fact that comes before in time").contains(defaultEmailSchedulingData4);
 
-        verify(defaultPersistenceService).add(defaultEmailSchedulingData4);
+        verify(defaultPersistenceService).addAll(ImmutableList.of(defaultEmailSchedulingData4));
     }
 
     @Test
@@ -452,6 +554,77 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         verify(defaultPersistenceService).remove(defaultEmailSchedulingData.getId());
     }
 
+    @Test
+    public void shouldKeepDeadLetterWhenEmailCannotBeSent() throws Exception {
+        //Arrange
+        minKeptInMemory = 1;
+        desiredBatchSize = 3;
+        maxKeptInMemory = 3;
+        deadLetters = true;
+        mockSetUp();
+        when(emailService.send(any())).thenThrow(new MailSendException("550 No such user"));
+
+        createScheduler();
+
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(assignedPriority,
+                TimeUnit.MICROSECONDS.toNanos(5));
+
+        mockDefaultEmailSchedulingDataCreation(defaultEmailSchedulingData);
+
+        //Act
+        scheduleEmailSchedulingData(defaultEmailSchedulingData);
+
+        SECONDS.sleep(2 * CONSUMER_CYCLE_LENGTH.getSeconds());
+
+        //Assert
+        verify(defaultPersistenceService, never()).remove(defaultEmailSchedulingData.getId());
+        final List<DeadLetter> givenDeadLetters = ImmutableList.copyOf(defaultPersistenceService.getNextDeadLetterBatch(10));
+        assertions.assertThat(givenDeadLetters).hasSize(1);
+        assertions.assertThat(givenDeadLetters.get(0).getEmailSchedulingData()).isEqualTo(defaultEmailSchedulingData);
+        assertions.assertThat(givenDeadLetters.get(0).getReason()).isEqualTo(DeadLetter.Reason.NOT_RETRIED);
+        assertions.assertThat(givenDeadLetters.get(0).getAttempts()).isEqualTo(1);
+        assertions.assertThat(givenDeadLetters.get(0).getLastError()).contains("550 No such user");
+    }
+
+    @Test
+    public void shouldReplayDeadLettersInBatches() throws Exception {
+        //Arrange
+        minKeptInMemory = 1;
+        desiredBatchSize = 2;
+        maxKeptInMemory = 3;
+        deadLetters = true;
+        mockSetUp();
+
+        final int assignedPriority = 1;
+        final List<EmailSchedulingData> emailSchedulingDataList = ImmutableList.of(
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)),
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)),
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)),
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)),
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority, TimeUnit.DAYS.toNanos(1)));
+        defaultPersistenceService.addAll(emailSchedulingDataList);
+        for (final EmailSchedulingData emailSchedulingData : emailSchedulingDataList) {
+            defaultPersistenceService.addDeadLetter(DeadLetter.builder()
+                    .emailSchedulingData(emailSchedulingData)
+                    .reason(DeadLetter.Reason.ATTEMPTS_EXHAUSTED)
+                    .attempts(3)
+                    .failedAt(Instant.now())
+                    .build());
+        }
+
+        createScheduler();
+
+        //Act
+        final long replayed = priorityQueueSchedulerService.replayDeadLetters(4);
+
+        //Assert
+        assertions.assertThat(replayed).isEqualTo(4);
+        assertions.assertThat(defaultPersistenceService.countDeadLetters()).isEqualTo(1);
+        assertions.assertThat(defaultPersistenceService.count()).isEqualTo(4);
+        verify(defaultPersistenceService, times(2)).getNextDeadLetterBatch(2);
+    }
+
     @Test
     public void shouldHaveTheExpectedNumberOfEmailsInMemoryWhenPersistenceIsEmpty() throws Exception {
         //Arrange
@@ -591,8 +764,12 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         return (TreeSet<EmailSchedulingData>[]) ReflectionTestUtils.getField(priorityQueueManager, "queues");
     }
 
-    private void scheduleEmailSchedulingData(DefaultEmailSchedulingData defaultEmailSchedulingData) {
+    private void scheduleEmailSchedulingData(DefaultEmailSchedulingData defaultEmailSchedulingData) throws InterruptedException {
         priorityQueueSchedulerService.schedule(defaultEmailSchedulingData.getEmail(), defaultEmailSchedulingData.getScheduledDateTime(), defaultEmailSchedulingData.getAssignedPriority());
+        //the email is applied to the queues and to the persistence layer by the applier thread
+        while (priorityQueueSchedulerService.pendingIngestion() > 0) {
+            MILLISECONDS.sleep(1);
+        }
     }
 
     private void mockDefaultEmailSchedulingDataCreation(DefaultEmailSchedulingData defaultEmailSchedulingData) {
@@ -607,6 +784,9 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
                 .minKeptInMemory(minKeptInMemory)
                 .maxKeptInMemory(maxKeptInMemory)
                 .desiredBatchSize(desiredBatchSize)
+                .deadLetters(deadLetters)
+                .deadLetterMaxErrorLength(512)
+                .notifications(notifications)
                 .build();
 
         when(emailSchedulerProperties.getPriorityLevels()).thenReturn(priorityLevels);
@@ -616,4 +796,9 @@ public class PriorityQueueEmailSchedulerServicePersistenceTest extends BaseRedis
         priorityQueueSchedulerService = spy(new PriorityQueueEmailSchedulerService(emailService, emailSchedulerProperties, Optional.of(defaultPersistenceService), emailLogRenderer));
     }
 
-}
\ No newline at end of file
+    // Stubbed behind the transactional proxy, which would otherwise open a transaction while stubbing
+    private DefaultPersistenceService spiedPersistenceService() {
+        return AopTestUtils.getUltimateTargetObject(defaultPersistenceService);
+    }
+
+}
@@ -16,13 +16,25 @@
 
 package it.ozimov.springboot.mail.service.defaultimpl;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Uninterruptibles;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import it.ozimov.mockito.helpers.captors.ResultCaptor;
 import it.ozimov.springboot.mail.ContextBasedTest;
 import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.logging.EmailLogRenderer;
 import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.InlinePicture;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.TemplateEmailSchedulingData;
+import it.ozimov.springboot.mail.service.BulkSchedulingResult;
+import it.ozimov.springboot.mail.service.EmailSchedulerService;
 import it.ozimov.springboot.mail.service.EmailService;
+import it.ozimov.springboot.mail.service.PersistenceService;
 import it.ozimov.springboot.mail.service.ServiceStatus;
+import it.ozimov.springboot.mail.service.exception.CircuitBreakerOpenException;
+import it.ozimov.springboot.mail.service.exception.EmailSchedulingRejectedException;
 import it.ozimov.springboot.mail.utils.TimeUtils;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.hamcrest.CoreMatchers;
@@ -35,19 +47,29 @@ import org.junit.runner.RunWith;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.slf4j.Logger;
+import org.springframework.aop.framework.ProxyFactory;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.scheduling.annotation.AsyncAnnotationAdvisor;
 import org.springframework.test.context.junit4.SpringRunner;
 
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import java.io.UnsupportedEncodingException;
+import java.time.Duration;
 import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
 
 import static it.ozimov.cirneco.hamcrest.java7.AssertFluently.given;
 import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
 import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.tuple;
 import static org.mockito.Mockito.*;
 
 @RunWith(SpringRunner.class)
@@ -246,6 +268,623 @@ public class PriorityQueueEmailSchedulerServiceTest implements ContextBasedTest
         assertions.assertThat(normalizedPriorityLevelCaptor.result()).isEqualTo(maxPriorityLevels);
     }
 
+    @Test
+    public void shouldNotSendBeforeTheScheduledTime() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plus(Duration.ofMillis(1_500));
+        final AtomicReference<OffsetDateTime> sentAt = new AtomicReference<>();
+        doAnswer(invocation -> {
+            sentAt.set(TimeUtils.offsetDateTimeNow());
+            return null;
+        }).when(emailService).send(email);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, scheduledDateTime, 1);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+        assertions.assertThat(sentAt.get()).isAfterOrEqualTo(scheduledDateTime);
+        assertions.assertThat(sentAt.get()).isBefore(scheduledDateTime.plus(Duration.ofMillis(250)));
+    }
+
+    @Test
+    public void shouldSendFarFutureEmailWhenTimingWheelIsEnabled() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getTimingWheel()).thenReturn(EmailSchedulerProperties.TimingWheel.builder()
+                .enabled(true)
+                .tickMillis(10)
+                .wheelSize(8)
+                .horizonMillis(100)
+                .build());
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plus(Duration.ofMillis(1_000));
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, scheduledDateTime, 1);
+
+        //Assert
+        verify(emailService, after(500).never()).send(email);
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+    }
+
+    @Test
+    public void shouldSendTheMessageRenderedBeforeTheSendTimeWhenPreRenderIsEnabled() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getPreRender()).thenReturn(EmailSchedulerProperties.PreRender.builder()
+                .enabled(true)
+                .threads(1)
+                .maxPrepared(10)
+                .build());
+        final MimeMessage preparedMessage = mock(MimeMessage.class);
+        final Email email = getSimpleMail();
+        when(emailService.prepare(email, TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT)).thenReturn(preparedMessage);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final OffsetDateTime scheduledDateTime = TimeUtils.offsetDateTimeNow().plus(Duration.ofMillis(500));
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, scheduledDateTime, 1, TemplatingTestUtils.TEMPLATE,
+                TemplatingTestUtils.MODEL_OBJECT);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis())).prepare(email, TemplatingTestUtils.TEMPLATE,
+                TemplatingTestUtils.MODEL_OBJECT);
+        verify(emailService, never()).sendPrepared(email, preparedMessage);
+        verify(emailService, timeout(twoSecondsInMillis())).sendPrepared(email, preparedMessage);
+        verify(emailService, never()).send(email, TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT);
+        assertions.assertThat(priorityQueueSchedulerService.preRenderStatistics()).hasValueSatisfying(preRenderStatistics -> {
+            assertions.assertThat(preRenderStatistics.getHits()).isEqualTo(1);
+            assertions.assertThat(preRenderStatistics.getPreparedEmails()).isZero();
+        });
+    }
+
+    @Test
+    public void shouldPrepareAndTransmitOnTheStagesOfThePipelineWhenEnabled() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getPipeline()).thenReturn(EmailSchedulerProperties.Pipeline.builder()
+                .enabled(true)
+                .prepareThreads(2)
+                .prepareQueueCapacity(10)
+                .transportThreads(1)
+                .transportQueueCapacity(10)
+                .build());
+        final MimeMessage preparedMessage = mock(MimeMessage.class);
+        final MimeMessage preparedTemplateMessage = mock(MimeMessage.class);
+        final Email email = getSimpleMail();
+        final Email emailWithTemplate = midPriority();
+        when(emailService.prepare(email)).thenReturn(preparedMessage);
+        when(emailService.prepare(emailWithTemplate, TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT))
+                .thenReturn(preparedTemplateMessage);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+        priorityQueueSchedulerService.schedule(emailWithTemplate, 1, TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis())).sendPrepared(email, preparedMessage);
+        verify(emailService, timeout(twoSecondsInMillis())).sendPrepared(emailWithTemplate, preparedTemplateMessage);
+        verify(emailService, never()).send(email);
+        verify(emailService, never()).send(emailWithTemplate, TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT);
+        while (priorityQueueSchedulerService.stageStatistics().get(1).getProcessedEmails() < 2) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertions.assertThat(priorityQueueSchedulerService.stageStatistics())
+                .extracting(StageStatistics::getStageName, StageStatistics::getThreads)
+                .containsExactly(tuple("prepare", 2), tuple("transport", 1));
+        assertions.assertThat(priorityQueueSchedulerService.stageStatistics())
+                .allSatisfy(stageStatistics -> assertions.assertThat(stageStatistics.getProcessedEmails()).isEqualTo(2));
+        assertions.assertThat(priorityQueueSchedulerService.consumerStatistics().get(0).getSentEmails()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldTransmitWithTheEmailServiceWhenMessagesCannotBePrepared() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getPipeline()).thenReturn(EmailSchedulerProperties.Pipeline.builder()
+                .enabled(true)
+                .prepareThreads(1)
+                .prepareQueueCapacity(10)
+                .transportThreads(1)
+                .transportQueueCapacity(10)
+                .build());
+        final Email email = getSimpleMail();
+        when(emailService.prepare(email)).thenThrow(new UnsupportedOperationException("Not supported"));
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+        verify(emailService, never()).sendPrepared(any(Email.class), any(MimeMessage.class));
+    }
+
+    @Test
+    public void shouldSendInParallelWhenMoreConsumersAreConfigured() throws Exception {
+        //Arrange
+        final int numberOfConsumers = 3;
+        when(emailSchedulerProperties.getDispatcher()).thenReturn(
+                EmailSchedulerProperties.Dispatcher.builder().consumers(numberOfConsumers).build());
+        doAnswer(invocation -> {
+            TimeUnit.SECONDS.sleep(2);
+            return null;
+        }).when(emailService).send(any(Email.class));
+
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email emailLowPriority = lowPriority();
+        final Email emailMidPriority = midPriority();
+        final Email emailHighPriority = highPriority();
+
+        //Act
+        priorityQueueSchedulerService.schedule(emailLowPriority, 1);
+        priorityQueueSchedulerService.schedule(emailMidPriority, 1);
+        priorityQueueSchedulerService.schedule(emailHighPriority, 1);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis() - 500)).send(emailLowPriority);
+        verify(emailService, timeout(twoSecondsInMillis() - 500)).send(emailMidPriority);
+        verify(emailService, timeout(twoSecondsInMillis() - 500)).send(emailHighPriority);
+
+        TimeUnit.SECONDS.sleep(3);
+        final List<ConsumerStatistics> consumerStatistics = priorityQueueSchedulerService.consumerStatistics();
+        assertions.assertThat(consumerStatistics).hasSize(numberOfConsumers);
+        assertions.assertThat(consumerStatistics)
+                .extracting(ConsumerStatistics::getSentEmails)
+                .containsOnly(1L);
+    }
+
+    @Test
+    public void shouldScheduleAndSendEmailWhenVirtualThreadsAreRequested() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getDispatcher()).thenReturn(
+                EmailSchedulerProperties.Dispatcher.builder().consumers(2).virtualThreads(true).build());
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+
+        //Assert
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+    }
+
+    @Test
+    public void shouldScheduleAllAndRejectInvalidPriorities() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(2);
+        final Email emailLowPriority = lowPriority();
+        final Email emailHighPriority = highPriority();
+        final Email emailWithTemplate = midPriority();
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow();
+
+        final List<EmailSchedulingData> emailSchedulingData = ImmutableList.of(
+                DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                        .email(emailLowPriority).scheduledDateTime(dateTime).desiredPriority(5).assignedPriority(5).build(),
+                DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                        .email(emailHighPriority).scheduledDateTime(dateTime).desiredPriority(0).assignedPriority(1).build(),
+                TemplateEmailSchedulingData.templateEmailSchedulingDataBuilder()
+                        .email(emailWithTemplate).scheduledDateTime(dateTime).desiredPriority(1).assignedPriority(1)
+                        .template(TemplatingTestUtils.TEMPLATE).modelObject(TemplatingTestUtils.MODEL_OBJECT)
+                        .inlinePictures(new InlinePicture[]{}).build());
+
+        //Act
+        final BulkSchedulingResult bulkSchedulingResult = priorityQueueSchedulerService.scheduleAll(emailSchedulingData);
+
+        //Assert
+        assertions.assertThat(bulkSchedulingResult.requested()).isEqualTo(3);
+        assertions.assertThat(bulkSchedulingResult.scheduled()).isEqualTo(2);
+        assertions.assertThat(bulkSchedulingResult.rejectedOutcomes())
+                .extracting(BulkSchedulingResult.Outcome::getIndex)
+                .containsExactly(1);
+        assertions.assertThat(bulkSchedulingResult.getOutcomes().get(0).getAssignedPriority()).isEqualTo(2);
+        assertions.assertThat(bulkSchedulingResult.getOutcomes().get(0).getId()).isNotNull();
+
+        verify(emailService, timeout(twoSecondsInMillis())).send(emailLowPriority);
+        verify(emailService, timeout(twoSecondsInMillis())).send(emailWithTemplate,
+                TemplatingTestUtils.TEMPLATE, TemplatingTestUtils.MODEL_OBJECT);
+        verify(emailService, never()).send(emailHighPriority);
+    }
+
+    @Test
+    public void shouldScheduleAllRejectEverythingWhenClosed() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        priorityQueueSchedulerService.cleanUp();
+        final EmailSchedulingData emailSchedulingData = DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                .email(getSimpleMail()).desiredPriority(1).assignedPriority(1).build();
+
+        //Act
+        final BulkSchedulingResult bulkSchedulingResult =
+                priorityQueueSchedulerService.scheduleAll(Stream.of(emailSchedulingData));
+
+        //Assert
+        assertions.assertThat(bulkSchedulingResult.requested()).isEqualTo(1);
+        assertions.assertThat(bulkSchedulingResult.rejected()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotWaitForPersistenceLayerWhenScheduling() throws Exception {
+        //Arrange
+        final PersistenceService persistenceService = mock(PersistenceService.class);
+        doAnswer(invocation -> {
+            TimeUnit.SECONDS.sleep(1);
+            return null;
+        }).when(persistenceService).addAll(anyCollection());
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.of(persistenceService), emailLogRenderer);
+        final Email email = getSimpleMail();
+
+        //Act
+        final long start = System.nanoTime();
+        priorityQueueSchedulerService.schedule(email, 1);
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        //Assert
+        assertions.assertThat(elapsedMillis).isLessThan(500);
+        verify(persistenceService, timeout(twoSecondsInMillis())).addAll(anyCollection());
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+        priorityQueueSchedulerService.cleanUp();
+    }
+
+    @Test
+    public void shouldApplyTheBatchTakenByTheApplierWhenClosing() throws Exception {
+        //Arrange
+        final PersistenceService persistenceService = mock(PersistenceService.class);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final CountDownLatch batchTaken = new CountDownLatch(1);
+        final CountDownLatch batchReleased = new CountDownLatch(1);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.of(persistenceService), emailLogRenderer) {
+            @Override
+            protected void applyIngested(final List<EmailSchedulingData> emailSchedulingDataList) {
+                //the applier holds the batch it took until the scheduler is closing
+                batchTaken.countDown();
+                Uninterruptibles.awaitUninterruptibly(batchReleased);
+                super.applyIngested(emailSchedulingDataList);
+            }
+        };
+        final Email email = getSimpleMail();
+        priorityQueueSchedulerService.schedule(email, 1);
+        batchTaken.await();
+
+        //Act
+        final CompletableFuture<Void> closing = CompletableFuture.runAsync(() -> {
+            try {
+                priorityQueueSchedulerService.cleanUp();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        batchReleased.countDown();
+        closing.get(twoSeconds(), SECONDS);
+
+        //Assert
+        verify(persistenceService).addAll(argThat(emailSchedulingDataCollection -> emailSchedulingDataCollection.size() == 1
+                && emailSchedulingDataCollection.iterator().next().getEmail().equals(email)));
+        assertions.assertThat(priorityQueueSchedulerService.pendingIngestion()).isZero();
+    }
+
+    @Test
+    public void shouldRejectEmailsAboveHighWatermarkWhenAdmissionControlIsEnabled() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getAdmission()).thenReturn(EmailSchedulerProperties.Admission.builder()
+                .enabled(true)
+                .policy(EmailSchedulerProperties.Admission.Policy.REJECT)
+                .highWatermark(2)
+                .lowWatermark(1)
+                .blockTimeoutMillis(1_000)
+                .build());
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+        priorityQueueSchedulerService.schedule(lowPriority(), dateTime, 1);
+        priorityQueueSchedulerService.schedule(midPriority(), dateTime, 1);
+
+        expectedException.expect(EmailSchedulingRejectedException.class);
+
+        //Act
+        try {
+            priorityQueueSchedulerService.schedule(highPriority(), dateTime, 1);
+        } finally {
+            //Assert
+            final AdmissionStatistics admissionStatistics = priorityQueueSchedulerService.admissionStatistics().get();
+            assertions.assertThat(admissionStatistics.isSaturated()).isTrue();
+            assertions.assertThat(admissionStatistics.getAdmittedEmails()).isEqualTo(2);
+            assertions.assertThat(admissionStatistics.getRejectedEmails()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void shouldRejectEmailsOnTheCallerThreadWhenAsyncIsEnabled() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getAdmission()).thenReturn(EmailSchedulerProperties.Admission.builder()
+                .enabled(true)
+                .policy(EmailSchedulerProperties.Admission.Policy.REJECT)
+                .highWatermark(1)
+                .lowWatermark(0)
+                .blockTimeoutMillis(1_000)
+                .build());
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final ProxyFactory proxyFactory = new ProxyFactory(priorityQueueSchedulerService);
+        proxyFactory.addAdvisor(new AsyncAnnotationAdvisor());
+        final EmailSchedulerService asyncEmailSchedulerService = (EmailSchedulerService) proxyFactory.getProxy();
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+        asyncEmailSchedulerService.schedule(lowPriority(), dateTime, 1);
+
+        expectedException.expect(EmailSchedulingRejectedException.class);
+
+        //Act
+        asyncEmailSchedulerService.schedule(highPriority(), dateTime, 1);
+    }
+
+    @Test
+    public void shouldApplyEmailsOnTheCallerThreadWhenAdmissionPolicyIsCallerRuns() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getAdmission()).thenReturn(EmailSchedulerProperties.Admission.builder()
+                .enabled(true)
+                .policy(EmailSchedulerProperties.Admission.Policy.CALLER_RUNS)
+                .highWatermark(1)
+                .lowWatermark(0)
+                .blockTimeoutMillis(1_000)
+                .build());
+        final PersistenceService persistenceService = mock(PersistenceService.class);
+        final List<Thread> persistingThreads = new CopyOnWriteArrayList<>();
+        doAnswer(invocation -> persistingThreads.add(Thread.currentThread()))
+                .when(persistenceService).addAll(anyCollection());
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.of(persistenceService), emailLogRenderer);
+        final OffsetDateTime dateTime = TimeUtils.offsetDateTimeNow().plusHours(1);
+        priorityQueueSchedulerService.schedule(lowPriority(), dateTime, 1);
+
+        //Act
+        priorityQueueSchedulerService.schedule(highPriority(), dateTime, 1);
+
+        //Assert
+        assertions.assertThat(persistingThreads).contains(Thread.currentThread());
+        priorityQueueSchedulerService.cleanUp();
+    }
+
+    @Test
+    public void shouldScheduleThrowExceptionWhenClosed() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        priorityQueueSchedulerService.cleanUp();
+
+        expectedException.expect(IllegalStateException.class);
+        expectedException.expectMessage("Cannot schedule emails while the scheduler is CLOSED.");
+
+        //Act
+        priorityQueueSchedulerService.schedule(getSimpleMail(), 1);
+    }
+
+    @Test
+    public void shouldReturnNoAdmissionStatisticsWhenAdmissionControlIsDisabled() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Act
+        final Optional<AdmissionStatistics> admissionStatistics = priorityQueueSchedulerService.admissionStatistics();
+
+        //Assert
+        assertions.assertThat(admissionStatistics).isEmpty();
+    }
+
+    @Test
+    public void shouldSubmitCompleteWithTheIdOnceScheduled() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+
+        //Act
+        final CompletableFuture<String> submission = priorityQueueSchedulerService.submit(email, TimeUtils.offsetDateTimeNow(), 1);
+
+        //Assert
+        assertions.assertThat(submission.get(2, SECONDS)).isNotBlank();
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+    }
+
+    @Test
+    public void shouldSubmitFailGivenInvalidPriority() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Act
+        final CompletableFuture<String> submission = priorityQueueSchedulerService.submit(getSimpleMail(), TimeUtils.offsetDateTimeNow(), 0);
+
+        //Assert
+        assertions.assertThat(submission).isCompletedExceptionally();
+    }
+
+    @Test
+    public void shouldCancelPreventSending() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        final String id = priorityQueueSchedulerService
+                .submit(email, TimeUtils.offsetDateTimeNow().plus(Duration.ofMillis(500)), 1)
+                .get(2, SECONDS);
+
+        //Act
+        final boolean cancelled = priorityQueueSchedulerService.cancel(id);
+        final boolean cancelledTwice = priorityQueueSchedulerService.cancel(id);
+
+        //Assert
+        assertions.assertThat(cancelled).isTrue();
+        assertions.assertThat(cancelledTwice).isFalse();
+        verify(emailService, after(twoSecondsInMillis()).never()).send(email);
+    }
+
+    @Test
+    public void shouldRescheduleMoveTheEmailEarlier() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(2);
+        final Email email = getSimpleMail();
+        final String id = priorityQueueSchedulerService
+                .submit(email, TimeUtils.offsetDateTimeNow().plus(Duration.ofHours(1)), 2)
+                .get(2, SECONDS);
+
+        //Act
+        final boolean rescheduled = priorityQueueSchedulerService.reschedule(id, TimeUtils.offsetDateTimeNow(), 1);
+
+        //Assert
+        assertions.assertThat(rescheduled).isTrue();
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+    }
+
+    @Test
+    public void shouldRescheduleMoveTheEmailLater() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        final String id = priorityQueueSchedulerService
+                .submit(email, TimeUtils.offsetDateTimeNow().plus(Duration.ofMillis(500)), 1)
+                .get(2, SECONDS);
+
+        //Act
+        final boolean rescheduled = priorityQueueSchedulerService.reschedule(id, TimeUtils.offsetDateTimeNow().plus(Duration.ofHours(1)), 1);
+
+        //Assert
+        assertions.assertThat(rescheduled).isTrue();
+        verify(emailService, after(twoSecondsInMillis()).never()).send(email);
+    }
+
+    @Test
+    public void shouldRescheduleReturnFalseGivenUnknownId() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+
+        //Act
+        final boolean rescheduled = priorityQueueSchedulerService.reschedule("unknown", TimeUtils.offsetDateTimeNow(), 1);
+
+        //Assert
+        assertions.assertThat(rescheduled).isFalse();
+    }
+
+    @Test
+    public void shouldExposeTheDispatchLagOfEachPriorityLevel() throws Exception {
+        //Arrange
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(2);
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, TimeUtils.offsetDateTimeNow(), 2);
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+        final List<DispatchLagStatistics> dispatchLagStatistics = priorityQueueSchedulerService.dispatchLagStatistics();
+
+        //Assert
+        assertions.assertThat(dispatchLagStatistics).extracting(DispatchLagStatistics::getPriorityLevel).containsExactly(1, 2);
+        assertions.assertThat(dispatchLagStatistics).extracting(DispatchLagStatistics::getDispatchedEmails).containsExactly(0L, 1L);
+    }
+
+    @Test
+    public void shouldRecordMetricsWhenMeterRegistryIsGiven() throws Exception {
+        //Arrange
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.empty(), emailLogRenderer, Optional.of(new MicrometerSchedulerMetrics(meterRegistry)));
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+        verify(emailService, timeout(twoSecondsInMillis())).send(email);
+        Thread.sleep(100);
+        priorityQueueSchedulerService.cleanUp();
+
+        //Assert
+        assertions.assertThat(meterRegistry.get("email.scheduler.send.duration").tag("outcome", "sent").timer().count()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get("email.scheduler.dequeue.wait").timer().count()).isEqualTo(1);
+        assertions.assertThat(meterRegistry.get("email.scheduler.queue.lock.held").timer().count()).isPositive();
+        assertions.assertThat(meterRegistry.get("email.scheduler.queue.size").tag("priority", "1").gauge().value()).isZero();
+    }
+
+    @Test
+    public void shouldSendDueEmailsWhileDrainingOnShutdown() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getShutdown()).thenReturn(
+                EmailSchedulerProperties.Shutdown.builder().drainTimeoutMillis(fiveSecondsInMillis()).build());
+        when(emailService.send(any(Email.class))).thenAnswer(invocation -> {
+            Uninterruptibles.sleepUninterruptibly(200, TimeUnit.MILLISECONDS);
+            return null;
+        });
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        priorityQueueSchedulerService.schedule(email, 1);
+        priorityQueueSchedulerService.schedule(email, 1);
+        priorityQueueSchedulerService.schedule(email, 1);
+
+        //Act
+        priorityQueueSchedulerService.cleanUp();
+
+        //Assert
+        verify(emailService, times(3)).send(email);
+        given(priorityQueueSchedulerService.status()).assertThat(CoreMatchers.is(ServiceStatus.CLOSED));
+    }
+
+    @Test
+    public void shouldStopDrainingOnShutdownOnceTheDrainTimeoutExpires() throws Exception {
+        //Arrange
+        when(emailSchedulerProperties.getShutdown()).thenReturn(
+                EmailSchedulerProperties.Shutdown.builder().drainTimeoutMillis(500).build());
+        when(emailService.send(any(Email.class))).thenAnswer(invocation -> {
+            Uninterruptibles.sleepUninterruptibly(400, TimeUnit.MILLISECONDS);
+            return null;
+        });
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = scheduler(1);
+        final Email email = getSimpleMail();
+        for (int i = 0; i < 5; i++) {
+            priorityQueueSchedulerService.schedule(email, 1);
+        }
+
+        //Act
+        final long startInMillis = System.currentTimeMillis();
+        priorityQueueSchedulerService.cleanUp();
+
+        //Assert
+        assertions.assertThat(System.currentTimeMillis() - startInMillis).isLessThan(twoSecondsInMillis());
+        verify(emailService, atMost(3)).send(email);
+    }
+
+    @Test
+    public void shouldHoldTheDueEmailsWhileTheCircuitBreakerIsOpen() throws Exception {
+        //Arrange
+        final CircuitBreaker circuitBreaker = CircuitBreaker.consecutiveFailures(1, 1_000);
+        circuitBreaker.onFailure(0);
+        when(emailService.send(any(Email.class))).thenAnswer(invocation -> {
+            if (!circuitBreaker.isCallPermitted()) {
+                throw new CircuitBreakerOpenException(TimeUnit.NANOSECONDS.toMillis(circuitBreaker.nanosUntilPermitted()));
+            }
+            return null;
+        });
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+        final PriorityQueueEmailSchedulerService priorityQueueSchedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties,
+                Optional.empty(),
+                emailLogRenderer);
+        priorityQueueSchedulerService.setCircuitBreaker(circuitBreaker);
+        final Email email = getSimpleMail();
+
+        //Act
+        priorityQueueSchedulerService.schedule(email, 1);
+        Thread.sleep(500);
+
+        //Assert
+        verify(emailService, times(1)).send(email);
+        assertions.assertThat(priorityQueueSchedulerService.status()).isEqualTo(ServiceStatus.SUSPENDED);
+        verify(emailService, timeout(twoSecondsInMillis()).times(2)).send(email);
+        assertions.assertThat(priorityQueueSchedulerService.consumerStatistics())
+                .extracting(ConsumerStatistics::getFailedEmails)
+                .containsOnly(0L);
+        assertions.assertThat(priorityQueueSchedulerService.circuitBreakerStatistics())
+                .map(CircuitBreakerStatistics::getOpenings)
+                .contains(1L);
+        priorityQueueSchedulerService.cleanUp();
+    }
+
     @Test
     public void shouldClose() throws Exception {
         //Arrange
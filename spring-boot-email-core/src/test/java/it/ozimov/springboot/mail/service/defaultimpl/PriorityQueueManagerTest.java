@@ -16,22 +16,38 @@
 
 package it.ozimov.springboot.mail.service.defaultimpl;
 
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
 import it.ozimov.springboot.mail.model.EmailSchedulingData;
 import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.utils.TimeUtils;
 import org.assertj.core.api.JUnitSoftAssertions;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.rules.Timeout;
+import org.mockito.MockedStatic;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataTo;
 import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
+import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.spy;
 
 public class PriorityQueueManagerTest {
@@ -132,6 +148,56 @@ public class PriorityQueueManagerTest {
         fail();
     }
 
+    @Test
+    public void shouldEnqueueAllAndReleaseTheLock() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(2);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_3 = createDefaultEmailSchedulingDataWithPriority(2);
+
+        //Act
+        final int enqueued = priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData_1,
+                defaultEmailSchedulingData_2, defaultEmailSchedulingData_3), false);
+
+        //Assert
+        assertions.assertThat(enqueued).isEqualTo(3);
+        assertions.assertThat(priorityQueueManager.isCurrentOperationNone()).isTrue();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(3);
+        assertions.assertThat(getPriorityQueues()[0]).containsExactly(defaultEmailSchedulingData_1);
+        assertions.assertThat(getPriorityQueues()[1]).contains(defaultEmailSchedulingData_2, defaultEmailSchedulingData_3);
+    }
+
+    @Test
+    public void shouldEnqueueAllDoNothingGivenEmptyCollection() throws Exception {
+        //Act
+        final int enqueued = priorityQueueManager.enqueueAll(ImmutableList.of(), false);
+
+        //Assert
+        assertions.assertThat(enqueued).isZero();
+        assertions.assertThat(priorityQueueManager.isCurrentOperationNone()).isTrue();
+    }
+
+    @Test
+    public void shouldEnqueueAllNotWaitGivenInterruptedThread() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData otherEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        Thread.currentThread().interrupt();
+
+        //Act
+        final int enqueued = priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData), false);
+
+        //Assert
+        assertions.assertThat(Thread.interrupted()).isTrue();
+        assertions.assertThat(enqueued).isEqualTo(1);
+        assertions.assertThat(priorityQueueManager.isCurrentOperationNone()).isTrue();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(1);
+
+        final CompletableFuture<Integer> enqueueFromOtherThread = CompletableFuture.supplyAsync(() ->
+                priorityQueueManager.enqueueAll(ImmutableList.of(otherEmailSchedulingData), false));
+        assertions.assertThat(enqueueFromOtherThread.get(1, SECONDS)).isEqualTo(1);
+    }
+
     @Test
     public void shouldEnqueueFromPersistenceLayerGivenCurrentOperationNone() throws Exception {
         //Arrange
@@ -151,6 +217,514 @@ public class PriorityQueueManagerTest {
         assertions.assertThat(getPriorityQueues()[assignedPriority - 1]).contains(defaultEmailSchedulingData);
     }
 
+    @Test
+    public void shouldTakeNextReleaseTheLockBeforeReturning() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        priorityQueueManager.enqueue(defaultEmailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+
+        //Act
+        final Optional<EmailSchedulingData> givenEmailSchedulingData = priorityQueueManager.takeNext();
+
+        //Assert
+        assertions.assertThat(givenEmailSchedulingData).contains(defaultEmailSchedulingData);
+        assertions.assertThat(priorityQueueManager.isCurrentOperationNone()).isTrue();
+        assertions.assertThat(priorityQueueManager.currentlyInFlight()).isEqualTo(1);
+
+        final CompletableFuture<Boolean> enqueueFromOtherThread = CompletableFuture.supplyAsync(() -> {
+            try {
+                return priorityQueueManager.enqueue(createDefaultEmailSchedulingDataWithPriority(assignedPriority), false);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            } finally {
+                priorityQueueManager.completeEnqueue();
+            }
+        });
+        assertions.assertThat(enqueueFromOtherThread.get(1, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldTakeNextReturnTheEmailDueByTheTimeUtilsClock() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                createDefaultEmailSchedulingDataWithPriority(1, HOURS.toNanos(1));
+        priorityQueueManager.enqueue(defaultEmailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+        final long oneHourAheadInMillis = TimeUtils.now() + HOURS.toMillis(1) + SECONDS.toMillis(1);
+
+        //Act
+        final Optional<EmailSchedulingData> givenEmailSchedulingData;
+        try (MockedStatic<TimeUtils> timeUtils = mockStatic(TimeUtils.class, CALLS_REAL_METHODS)) {
+            timeUtils.when(TimeUtils::now).thenReturn(oneHourAheadInMillis);
+            givenEmailSchedulingData = priorityQueueManager.takeNext();
+        }
+
+        //Assert
+        assertions.assertThat(givenEmailSchedulingData).contains(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldNotEnqueueFromPersistenceLayerWhenInFlight() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        priorityQueueManager.enqueue(defaultEmailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.takeNext();
+
+        //Act
+        final boolean givenEnqueuedWhileInFlight = priorityQueueManager.enqueue(defaultEmailSchedulingData, true);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.completeDispatch(defaultEmailSchedulingData);
+        final boolean givenEnqueuedAfterDispatch = priorityQueueManager.enqueue(defaultEmailSchedulingData, true);
+        priorityQueueManager.completeEnqueue();
+
+        //Assert
+        assertions.assertThat(givenEnqueuedWhileInFlight).isFalse();
+        assertions.assertThat(givenEnqueuedAfterDispatch).isTrue();
+        assertions.assertThat(priorityQueueManager.currentlyInFlight()).isZero();
+    }
+
+    @Test
+    public void shouldNotEnqueueFromPersistenceLayerWhenDispatchedDuringBatchLoad() throws Exception {
+        //Arrange
+        final int assignedPriority = 1;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                createDefaultEmailSchedulingDataWithPriority(assignedPriority);
+        priorityQueueManager.enqueue(defaultEmailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.takeNext();
+
+        //Act
+        priorityQueueManager.startBatchLoad();
+        priorityQueueManager.completeDispatch(defaultEmailSchedulingData);
+        final boolean givenEnqueuedDuringBatchLoad = priorityQueueManager.enqueue(defaultEmailSchedulingData, true);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.completeBatchLoad();
+        final boolean givenEnqueuedAfterBatchLoad = priorityQueueManager.enqueue(defaultEmailSchedulingData, true);
+        priorityQueueManager.completeEnqueue();
+
+        //Assert
+        assertions.assertThat(givenEnqueuedDuringBatchLoad).isFalse();
+        assertions.assertThat(givenEnqueuedAfterBatchLoad).isTrue();
+    }
+
+    @Test
+    public void shouldCountTheEmailsLeftToThePersistenceLayer() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, true, 2, queuabilityDelta);
+        final DefaultEmailSchedulingData earliest = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(1));
+        final DefaultEmailSchedulingData middle = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(2));
+        final DefaultEmailSchedulingData latest = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(3));
+        final DefaultEmailSchedulingData scheduledLater = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(4));
+        priorityQueueManager.enqueueAll(ImmutableList.of(middle, latest), true);
+
+        //Act
+        final long givenNoneLeft = priorityQueueManager.leftToPersistenceLayer();
+        priorityQueueManager.enqueueAll(ImmutableList.of(earliest), true);
+        final long givenEvicted = priorityQueueManager.leftToPersistenceLayer();
+        priorityQueueManager.enqueueAll(ImmutableList.of(scheduledLater), false);
+        final long givenNotQueued = priorityQueueManager.leftToPersistenceLayer();
+
+        //Assert
+        assertions.assertThat(givenNoneLeft).isZero();
+        assertions.assertThat(givenEvicted).isEqualTo(1);
+        assertions.assertThat(givenNotQueued).isEqualTo(2);
+        assertions.assertThat(getPriorityQueues()[0]).containsExactly(earliest, middle);
+    }
+
+    @Test
+    public void shouldCallTheQueueListenersWhenEmailsAreEnqueuedAndEvicted() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, true, 2, queuabilityDelta);
+        final List<EmailSchedulingData> enqueued = new ArrayList<>();
+        final List<EmailSchedulingData> evicted = new ArrayList<>();
+        priorityQueueManager.onQueueChanges(enqueued::add, evicted::add);
+        final DefaultEmailSchedulingData earliest = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(1));
+        final DefaultEmailSchedulingData middle = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(2));
+        final DefaultEmailSchedulingData latest = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(3));
+        final DefaultEmailSchedulingData scheduledLater = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(4));
+
+        //Act
+        priorityQueueManager.enqueueAll(ImmutableList.of(middle, latest), true);
+        priorityQueueManager.enqueueAll(ImmutableList.of(earliest), true);
+        priorityQueueManager.enqueueAll(ImmutableList.of(scheduledLater), false);
+
+        //Assert
+        assertions.assertThat(enqueued).containsExactly(middle, latest, earliest);
+        assertions.assertThat(evicted).containsExactly(latest);
+    }
+
+    @Test
+    public void shouldCallTheLowWatermarkListenerOncePerCrossing() throws Exception {
+        //Arrange
+        final AtomicInteger lowWatermarkCalls = new AtomicInteger();
+        priorityQueueManager.onLowWatermark(2, lowWatermarkCalls::incrementAndGet);
+        priorityQueueManager.enqueueAll(ImmutableList.of(createDefaultEmailSchedulingDataWithPriority(1),
+                createDefaultEmailSchedulingDataWithPriority(1), createDefaultEmailSchedulingDataWithPriority(2)), false);
+
+        //Act
+        priorityQueueManager.takeNext();
+        final int givenCallsAboveWatermark = lowWatermarkCalls.get();
+        priorityQueueManager.takeNext();
+        final int givenCallsAtCrossing = lowWatermarkCalls.get();
+        priorityQueueManager.takeNext();
+
+        //Assert
+        assertions.assertThat(givenCallsAboveWatermark).isZero();
+        assertions.assertThat(givenCallsAtCrossing).isEqualTo(1);
+        assertions.assertThat(lowWatermarkCalls.get()).as("No call while already below the watermark").isEqualTo(1);
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isZero();
+    }
+
+    @Test
+    public void shouldCallTheLowWatermarkListenerWhenARemovalCrossesIt() throws Exception {
+        //Arrange
+        final AtomicInteger lowWatermarkCalls = new AtomicInteger();
+        priorityQueueManager.onLowWatermark(2, lowWatermarkCalls::incrementAndGet);
+        final DefaultEmailSchedulingData removedEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(removedEmailSchedulingData, createDefaultEmailSchedulingDataWithPriority(1)), false);
+
+        //Act
+        priorityQueueManager.remove(removedEmailSchedulingData.getId());
+        final int givenCallsAtCrossing = lowWatermarkCalls.get();
+        priorityQueueManager.takeNext();
+
+        //Assert
+        assertions.assertThat(givenCallsAtCrossing).isEqualTo(1);
+        assertions.assertThat(lowWatermarkCalls.get()).as("No call while already below the watermark").isEqualTo(1);
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isZero();
+    }
+
+    @Test
+    public void shouldTakeNextWaitUntilTheEarliestEmailIsDue() throws Exception {
+        //Arrange
+        final long delayInMillis = 300;
+        final DefaultEmailSchedulingData defaultEmailSchedulingData =
+                createDefaultEmailSchedulingDataWithPriority(2, MILLISECONDS.toNanos(delayInMillis));
+        priorityQueueManager.enqueue(defaultEmailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+
+        //Act
+        final Optional<EmailSchedulingData> givenEmailSchedulingData = priorityQueueManager.takeNext();
+        final OffsetDateTime takenAt = TimeUtils.offsetDateTimeNow();
+
+        //Assert
+        assertions.assertThat(givenEmailSchedulingData).contains(defaultEmailSchedulingData);
+        assertions.assertThat(takenAt).isAfterOrEqualTo(defaultEmailSchedulingData.getScheduledDateTime());
+        assertions.assertThat(takenAt).isBefore(defaultEmailSchedulingData.getScheduledDateTime().plus(Duration.ofMillis(delayInMillis)));
+        assertions.assertThat(priorityQueueManager.currentlyInFlight()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldTakeNextReturnHighestPriorityAmongDueEmails() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData lowPriority = createDefaultEmailSchedulingDataWithPriority(3);
+        final DefaultEmailSchedulingData highPriority = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueue(lowPriority, false);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.enqueue(highPriority, false);
+        priorityQueueManager.completeEnqueue();
+
+        //Act
+        final Optional<EmailSchedulingData> givenFirst = priorityQueueManager.takeNext();
+        final Optional<EmailSchedulingData> givenSecond = priorityQueueManager.takeNext();
+
+        //Assert
+        assertions.assertThat(givenFirst).contains(highPriority);
+        assertions.assertThat(givenSecond).contains(lowPriority);
+    }
+
+    @Test
+    public void shouldTakeNextWakeUpWhenAnEarlierEmailIsEnqueued() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData late = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(30));
+        priorityQueueManager.enqueue(late, false);
+        priorityQueueManager.completeEnqueue();
+        final CompletableFuture<Optional<EmailSchedulingData>> taken = takeNextFromOtherThread();
+        MILLISECONDS.sleep(100);
+        final DefaultEmailSchedulingData early = createDefaultEmailSchedulingDataWithPriority(1, MILLISECONDS.toNanos(100));
+
+        //Act
+        priorityQueueManager.enqueue(early, false);
+        priorityQueueManager.completeEnqueue();
+
+        //Assert
+        assertions.assertThat(taken.get(2, SECONDS)).contains(early);
+    }
+
+    @Test
+    public void shouldTakeNextReturnEmptyWhenClosed() throws Exception {
+        //Arrange
+        final CompletableFuture<Optional<EmailSchedulingData>> taken = takeNextFromOtherThread();
+        MILLISECONDS.sleep(100);
+        assertions.assertThat(taken).isNotDone();
+
+        //Act
+        priorityQueueManager.close();
+
+        //Assert
+        assertions.assertThat(taken.get(2, SECONDS)).isEmpty();
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenTimingWheelAndPersistence() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("The timing wheel cannot be used together with the persistence layer");
+
+        //Act
+        new PriorityQueueManager(numberOfPriorityLevels, true, maxInMemory, queuabilityDelta, timingWheel());
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldKeepFarFutureEmailsInTheTimingWheel() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, timingWheel());
+        final DefaultEmailSchedulingData nearFuture = createDefaultEmailSchedulingDataWithPriority(1, MILLISECONDS.toNanos(10));
+        final DefaultEmailSchedulingData farFuture = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(3_600));
+
+        //Act
+        priorityQueueManager.enqueue(nearFuture, false);
+        priorityQueueManager.completeEnqueue();
+        priorityQueueManager.enqueue(farFuture, false);
+        priorityQueueManager.completeEnqueue();
+
+        //Assert
+        assertions.assertThat(getPriorityQueues()[0]).containsExactly(nearFuture);
+        assertions.assertThat(priorityQueueManager.currentlyInTimingWheel()).isEqualTo(1);
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(2);
+    }
+
+    @Test
+    public void shouldTakeNextEmailsCascadedFromTheTimingWheel() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, timingWheel());
+        final DefaultEmailSchedulingData farFuture = createDefaultEmailSchedulingDataWithPriority(1, MILLISECONDS.toNanos(500));
+        priorityQueueManager.enqueue(farFuture, false);
+        priorityQueueManager.completeEnqueue();
+        assertions.assertThat(priorityQueueManager.currentlyInTimingWheel()).isEqualTo(1);
+
+        //Act
+        final Optional<EmailSchedulingData> givenEmailSchedulingData = priorityQueueManager.takeNext();
+        final OffsetDateTime takenAt = TimeUtils.offsetDateTimeNow();
+
+        //Assert
+        assertions.assertThat(givenEmailSchedulingData).contains(farFuture);
+        assertions.assertThat(takenAt).isAfterOrEqualTo(farFuture.getScheduledDateTime());
+        assertions.assertThat(priorityQueueManager.currentlyInTimingWheel()).isZero();
+    }
+
+    @Test
+    public void shouldRemoveQueuedEmailById() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_1 = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData defaultEmailSchedulingData_2 = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData_1, defaultEmailSchedulingData_2), false);
+
+        //Act
+        final Optional<EmailSchedulingData> removed = priorityQueueManager.remove(defaultEmailSchedulingData_1.getId());
+        final Optional<EmailSchedulingData> removedTwice = priorityQueueManager.remove(defaultEmailSchedulingData_1.getId());
+
+        //Assert
+        assertions.assertThat(removed).contains(defaultEmailSchedulingData_1);
+        assertions.assertThat(removedTwice).isEmpty();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(1);
+        assertions.assertThat(getPriorityQueues()[0]).containsExactly(defaultEmailSchedulingData_2);
+    }
+
+    @Test
+    public void shouldRemoveEmailByIdFromTheTimingWheel() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(numberOfPriorityLevels, hasPersistence, maxInMemory, queuabilityDelta, timingWheel());
+        final DefaultEmailSchedulingData farFuture = createDefaultEmailSchedulingDataWithPriority(1, SECONDS.toNanos(3_600));
+        priorityQueueManager.enqueueAll(ImmutableList.of(farFuture), false);
+        assertions.assertThat(priorityQueueManager.currentlyInTimingWheel()).isEqualTo(1);
+
+        //Act
+        final Optional<EmailSchedulingData> removed = priorityQueueManager.remove(farFuture.getId());
+
+        //Assert
+        assertions.assertThat(removed).contains(farFuture);
+        assertions.assertThat(priorityQueueManager.currentlyInTimingWheel()).isZero();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isZero();
+    }
+
+    @Test
+    public void shouldNotRemoveEmailInFlight() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData), false);
+        priorityQueueManager.takeNext();
+
+        //Act
+        final Optional<EmailSchedulingData> removed = priorityQueueManager.remove(defaultEmailSchedulingData.getId());
+
+        //Assert
+        assertions.assertThat(removed).isEmpty();
+        assertions.assertThat(priorityQueueManager.isInFlight(defaultEmailSchedulingData.getId())).isTrue();
+    }
+
+    @Test
+    public void shouldHaveDueElementsOnlyOnceTheEarliestEmailIsDue() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData dueEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        final DefaultEmailSchedulingData futureEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(2, DAYS.toNanos(1));
+        priorityQueueManager.enqueueAll(ImmutableList.of(futureEmailSchedulingData), false);
+
+        //Act & Assert
+        assertions.assertThat(priorityQueueManager.hasDueElements()).isFalse();
+        priorityQueueManager.enqueueAll(ImmutableList.of(dueEmailSchedulingData), false);
+        assertions.assertThat(priorityQueueManager.hasDueElements()).isTrue();
+    }
+
+    @Test
+    public void shouldRequeueEmailInFlight() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData), false);
+        priorityQueueManager.takeNext();
+
+        //Act
+        final boolean requeued = priorityQueueManager.requeue(defaultEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(requeued).isTrue();
+        assertions.assertThat(priorityQueueManager.isInFlight(defaultEmailSchedulingData.getId())).isFalse();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(1);
+        assertions.assertThat(priorityQueueManager.takeNext()).contains(defaultEmailSchedulingData);
+    }
+
+    @Test
+    public void shouldNotRequeueEmailAlreadyLoadedFromPersistenceLayer() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData), false);
+        priorityQueueManager.takeNext();
+        priorityQueueManager.completeDispatch(defaultEmailSchedulingData);
+        priorityQueueManager.enqueueAll(ImmutableList.of(defaultEmailSchedulingData), true);
+
+        //Act
+        final boolean requeued = priorityQueueManager.requeue(defaultEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(requeued).isFalse();
+        assertions.assertThat(priorityQueueManager.currentlyInQueue()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotStarveLowerPrioritiesGivenWeightedRoundRobin() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(2, hasPersistence, maxInMemory, queuabilityDelta, null,
+                EmailSchedulerProperties.Dequeue.builder()
+                        .policy(EmailSchedulerProperties.Dequeue.Policy.WEIGHTED_ROUND_ROBIN)
+                        .weights(ImmutableList.of(2, 1))
+                        .build());
+        final ImmutableList.Builder<EmailSchedulingData> emails = ImmutableList.builder();
+        for (int i = 0; i < 4; i++) {
+            emails.add(createDefaultEmailSchedulingDataWithPriority(1), createDefaultEmailSchedulingDataWithPriority(2));
+        }
+        priorityQueueManager.enqueueAll(emails.build(), false);
+
+        //Act
+        final StringBuilder dequeuedPriorities = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            dequeuedPriorities.append(priorityQueueManager.takeNext().get().getAssignedPriority());
+        }
+
+        //Assert
+        assertions.assertThat(dequeuedPriorities.toString()).isEqualTo("112112");
+    }
+
+    @Test
+    public void shouldServeLevelLaggingBehindItsTargetFirst() throws Exception {
+        //Arrange
+        priorityQueueManager = new PriorityQueueManager(2, hasPersistence, maxInMemory, queuabilityDelta, null,
+                EmailSchedulerProperties.Dequeue.builder()
+                        .maxLagMillis(ImmutableList.of(0L, 10L))
+                        .build());
+        final DefaultEmailSchedulingData lagging = createDefaultEmailSchedulingDataWithPriority(2, -MILLISECONDS.toNanos(50));
+        final DefaultEmailSchedulingData onTime = createDefaultEmailSchedulingDataWithPriority(1);
+        priorityQueueManager.enqueueAll(ImmutableList.of(lagging, onTime), false);
+
+        //Act
+        final Optional<EmailSchedulingData> givenEmailSchedulingData = priorityQueueManager.takeNext();
+
+        //Assert
+        assertions.assertThat(givenEmailSchedulingData).contains(lagging);
+    }
+
+    @Test
+    public void shouldRecordTheDispatchLagOfEachLevel() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData late = createDefaultEmailSchedulingDataWithPriority(3, -MILLISECONDS.toNanos(100));
+        priorityQueueManager.enqueueAll(ImmutableList.of(late), false);
+
+        //Act
+        priorityQueueManager.takeNext();
+        final List<DispatchLagStatistics> dispatchLagStatistics = priorityQueueManager.dispatchLagStatistics();
+
+        //Assert
+        assertions.assertThat(dispatchLagStatistics).hasSize(numberOfPriorityLevels);
+        assertions.assertThat(dispatchLagStatistics.get(0).getDispatchedEmails()).isZero();
+        assertions.assertThat(dispatchLagStatistics.get(2).getPriorityLevel()).isEqualTo(3);
+        assertions.assertThat(dispatchLagStatistics.get(2).getDispatchedEmails()).isEqualTo(1);
+        assertions.assertThat(dispatchLagStatistics.get(2).getMaxMillis()).isGreaterThanOrEqualTo(100);
+    }
+
+    @Test
+    public void shouldSkipDueEmailsTowardsADomainAtItsCap() throws Exception {
+        //Arrange
+        priorityQueueManager.throttle(new DomainThrottle(EmailSchedulerProperties.Throttle.builder()
+                .enabled(true).maxConcurrent(1).burst(1).lookahead(10).build()));
+        final DefaultEmailSchedulingData firstToGmail = createDefaultEmailSchedulingDataTo("titus@gmail.com", -MILLISECONDS.toNanos(30));
+        final DefaultEmailSchedulingData secondToGmail = createDefaultEmailSchedulingDataTo("pomponius@gmail.com", -MILLISECONDS.toNanos(20));
+        final DefaultEmailSchedulingData toLibero = createDefaultEmailSchedulingDataTo("caius@libero.it", -MILLISECONDS.toNanos(10));
+        priorityQueueManager.enqueueAll(ImmutableList.of(firstToGmail, secondToGmail, toLibero), false);
+
+        //Act
+        final Optional<EmailSchedulingData> givenFirst = priorityQueueManager.takeNext();
+        final Optional<EmailSchedulingData> givenSecond = priorityQueueManager.takeNext();
+        final CompletableFuture<Optional<EmailSchedulingData>> givenThird = takeNextFromOtherThread();
+        MILLISECONDS.sleep(100);
+        final boolean givenDoneWhileThrottled = givenThird.isDone();
+        priorityQueueManager.completeDispatch(firstToGmail);
+
+        //Assert
+        assertions.assertThat(givenFirst).contains(firstToGmail);
+        assertions.assertThat(givenSecond).contains(toLibero);
+        assertions.assertThat(givenDoneWhileThrottled).isFalse();
+        assertions.assertThat(givenThird.get(2, SECONDS)).contains(secondToGmail);
+    }
+
+    @Test
+    public void shouldTakeNextWakeUpWhenAThrottledDomainIsReleased() throws Exception {
+        //Arrange
+        priorityQueueManager.throttle(new DomainThrottle(EmailSchedulerProperties.Throttle.builder()
+                .enabled(true).maxConcurrent(1).burst(1).lookahead(10).build()));
+        final DefaultEmailSchedulingData first = createDefaultEmailSchedulingDataTo("titus@gmail.com", -MILLISECONDS.toNanos(20));
+        final DefaultEmailSchedulingData second = createDefaultEmailSchedulingDataTo("pomponius@gmail.com", -MILLISECONDS.toNanos(10));
+        priorityQueueManager.enqueueAll(ImmutableList.of(first, second), false);
+        priorityQueueManager.takeNext();
+        final CompletableFuture<Optional<EmailSchedulingData>> taken = takeNextFromOtherThread();
+        MILLISECONDS.sleep(100);
+        assertions.assertThat(taken).isNotDone();
+
+        //Act
+        priorityQueueManager.completeSend(first);
+
+        //Assert
+        assertions.assertThat(taken.get(2, SECONDS)).contains(second);
+        assertions.assertThat(priorityQueueManager.isInFlight(first.getId())).isTrue();
+    }
+
 //    @Test
 //    public void shouldNotEnqueueFromPersistenceLayerGivenCurrentOperationDequeue() throws Exception {
 //        //Arrange
@@ -170,6 +744,25 @@ public class PriorityQueueManagerTest {
 //        assertions.assertThat(getPriorityQueues()[assignedPriority - 1]).doesNotContain(defaultEmailSchedulingData);
 //    }
 
+    private static EmailSchedulerProperties.TimingWheel timingWheel() {
+        return EmailSchedulerProperties.TimingWheel.builder()
+                .enabled(true)
+                .tickMillis(10)
+                .wheelSize(8)
+                .horizonMillis(100)
+                .build();
+    }
+
+    private CompletableFuture<Optional<EmailSchedulingData>> takeNextFromOtherThread() {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return priorityQueueManager.takeNext();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
     private TreeSet<EmailSchedulingData>[] getPriorityQueues() {
         return (TreeSet<EmailSchedulingData>[]) ReflectionTestUtils.getField(priorityQueueManager, "queues");
     }
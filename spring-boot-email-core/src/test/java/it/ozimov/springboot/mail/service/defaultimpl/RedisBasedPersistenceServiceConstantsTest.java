@@ -111,4 +111,44 @@ public class RedisBasedPersistenceServiceConstantsTest {
                 .isEqualTo(EXPECTED_ORDERING_KEY_PREFIX);
     }
 
+    @Test
+    public void shouldCreateClaimedKeyFromOwner() throws Exception {
+        //Act
+        String givenClaimedKey = RedisBasedPersistenceServiceConstants.claimedKey("node-1");
+
+        //Assert
+        assertions.assertThat(givenClaimedKey).isEqualTo("claimed-by:node-1");
+    }
+
+    @Test
+    public void shouldThrowExceptionWhenClaimedKeyIsConstructedFromEmptyOwner() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("The owner of the claims must be a non empty string");
+
+        //Act
+        RedisBasedPersistenceServiceConstants.claimedKey("");
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldAdditionsChannelNotChange() {
+        //Act
+        final String givenChannel = RedisBasedPersistenceServiceConstants.additionsChannel();
+
+        //Assert
+        assertions.assertThat(givenChannel).isEqualTo("emails:added");
+    }
+
+    @Test
+    public void shouldSchemaVersionKeyNotChange() {
+        //Act
+        final String givenKey = RedisBasedPersistenceServiceConstants.schemaVersionKey();
+
+        //Assert
+        assertions.assertThat(givenKey).isEqualTo("schema:version");
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.eclipse.angus.mail.smtp.SMTPAddressFailedException;
+import org.eclipse.angus.mail.smtp.SMTPSendFailedException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.springframework.mail.MailSendException;
+
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private static EmailSchedulerProperties.Retry retry(final double jitter) {
+        return EmailSchedulerProperties.Retry.builder()
+                .enabled(true)
+                .maxAttempts(5)
+                .initialBackoffMillis(100)
+                .maxBackoffMillis(1_000)
+                .multiplier(2)
+                .jitter(jitter)
+                .transientReplyCodes(ImmutableList.of(554))
+                .permanentReplyCodes(ImmutableList.of(452))
+                .transientExceptions(ImmutableList.of(SocketTimeoutException.class))
+                .build();
+    }
+
+    private static MailSendException smtpFailure(final int replyCode) {
+        final SMTPSendFailedException smtpException = new SMTPSendFailedException("DATA", replyCode, replyCode + " error",
+                null, new Address[0], new Address[0], new Address[0]);
+        return new MailSendException("Failed messages", smtpException);
+    }
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenMultiplierSmallerThanOne() throws Exception {
+        //Arrange
+        final EmailSchedulerProperties.Retry retry = retry(0);
+        retry.setMultiplier(0.5);
+
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Multiplier should not be smaller than one, while 0.5 was given");
+
+        //Act
+        new RetryPolicy(retry);
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldClassifyReplyCodes() throws Exception {
+        //Arrange
+        final RetryPolicy retryPolicy = new RetryPolicy(retry(0));
+
+        //Act & Assert
+        assertions.assertThat(retryPolicy.isTransient(smtpFailure(421))).isTrue();
+        assertions.assertThat(retryPolicy.isTransient(smtpFailure(452))).isFalse();
+        assertions.assertThat(retryPolicy.isTransient(smtpFailure(550))).isFalse();
+        assertions.assertThat(retryPolicy.isTransient(smtpFailure(554))).isTrue();
+    }
+
+    @Test
+    public void shouldClassifyFailureAsPermanentGivenAnyPermanentRecipientFailure() throws Exception {
+        //Arrange
+        final RetryPolicy retryPolicy = new RetryPolicy(retry(0));
+        final MessagingException transientRecipient = new SMTPAddressFailedException(
+                new InternetAddress("a@localhost"), "RCPT TO", 450, "450 mailbox busy");
+        final MessagingException permanentRecipient = new SMTPAddressFailedException(
+                new InternetAddress("b@localhost"), "RCPT TO", 550, "550 no such user");
+        transientRecipient.setNextException(permanentRecipient);
+        final MailSendException failure = new MailSendException("Failed messages",
+                new SMTPSendFailedException("RCPT TO", 450, "450 error", transientRecipient,
+                        new Address[0], new Address[0], new Address[0]));
+
+        //Act
+        final boolean isTransient = retryPolicy.isTransient(failure);
+
+        //Assert
+        assertions.assertThat(isTransient).isFalse();
+    }
+
+    @Test
+    public void shouldClassifyFailureWithoutReplyCodeByException() throws Exception {
+        //Arrange
+        final RetryPolicy retryPolicy = new RetryPolicy(retry(0));
+
+        //Act & Assert
+        assertions.assertThat(retryPolicy.isTransient(
+                new MailSendException("Connection failed", new MessagingException("Timeout", new SocketTimeoutException()))))
+                .isTrue();
+        assertions.assertThat(retryPolicy.isTransient(new IllegalStateException("Broken template"))).isFalse();
+    }
+
+    @Test
+    public void shouldBackoffGrowExponentiallyUpToMaxBackoff() throws Exception {
+        //Arrange
+        final RetryPolicy retryPolicy = new RetryPolicy(retry(0));
+
+        //Act
+        final ArrayList<Long> backoffs = new ArrayList<>();
+        for (int attempt = 1; attempt <= 6; attempt++) {
+            backoffs.add(retryPolicy.backoffMillis(attempt));
+        }
+
+        //Assert
+        assertions.assertThat(backoffs).isEqualTo(Arrays.asList(100L, 200L, 400L, 800L, 1_000L, 1_000L));
+    }
+
+    @Test
+    public void shouldJitterTakeOffAtMostItsFractionOfTheBackoff() throws Exception {
+        //Arrange
+        final RetryPolicy retryPolicy = new RetryPolicy(retry(0.5));
+
+        //Act & Assert
+        for (int i = 0; i < 100; i++) {
+            assertions.assertThat(retryPolicy.backoffMillis(3)).isBetween(200L, 400L);
+        }
+    }
+
+}
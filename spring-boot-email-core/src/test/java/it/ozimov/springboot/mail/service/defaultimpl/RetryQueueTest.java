@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+
+import java.net.SocketTimeoutException;
+
+import static it.ozimov.springboot.mail.service.defaultimpl.EmailSchedulingDataUtils.createDefaultEmailSchedulingDataWithPriority;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class RetryQueueTest {
+
+    private static final MailSendException TRANSIENT_FAILURE = new MailSendException("Timeout", new SocketTimeoutException());
+    private static final MailSendException PERMANENT_FAILURE = new MailSendException("Broken");
+
+    @Rule
+    public final Timeout timeout = new Timeout(10, SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final RetryQueue retryQueue = new RetryQueue(new RetryPolicy(EmailSchedulerProperties.Retry.builder()
+            .enabled(true)
+            .maxAttempts(3)
+            .initialBackoffMillis(10)
+            .maxBackoffMillis(100)
+            .multiplier(2)
+            .jitter(0)
+            .transientReplyCodes(ImmutableList.of())
+            .permanentReplyCodes(ImmutableList.of())
+            .transientExceptions(ImmutableList.of(SocketTimeoutException.class))
+            .build()));
+
+    @Test
+    public void shouldHoldTransientFailureUntilBackoffExpires() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        final boolean retried = retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+
+        //Assert
+        assertions.assertThat(retried).isTrue();
+        assertions.assertThat(retryQueue.failedAttempts(defaultEmailSchedulingData.getId())).isEqualTo(1);
+        assertions.assertThat(retryQueue.take()).isSameAs(defaultEmailSchedulingData);
+        assertions.assertThat(retryQueue.size()).isZero();
+    }
+
+    @Test
+    public void shouldGiveUpPermanentFailure() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+
+        //Act
+        final boolean retried = retryQueue.offer(defaultEmailSchedulingData, PERMANENT_FAILURE);
+
+        //Assert
+        assertions.assertThat(retried).isFalse();
+        assertions.assertThat(retryQueue.size()).isZero();
+        assertions.assertThat(retryQueue.statistics().getPermanentlyFailedEmails()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxAttempts() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+        retryQueue.take();
+        retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+        retryQueue.take();
+
+        //Act
+        final boolean retried = retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+
+        //Assert
+        assertions.assertThat(retried).isFalse();
+        assertions.assertThat(retryQueue.failedAttempts(defaultEmailSchedulingData.getId())).isZero();
+        assertions.assertThat(retryQueue.statistics().getRetriedEmails()).isEqualTo(2);
+        assertions.assertThat(retryQueue.statistics().getExhaustedEmails()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldForgetFailedAttemptsOnceSent() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+        retryQueue.take();
+
+        //Act
+        retryQueue.onSent(defaultEmailSchedulingData);
+
+        //Assert
+        assertions.assertThat(retryQueue.failedAttempts(defaultEmailSchedulingData.getId())).isZero();
+    }
+
+    @Test
+    public void shouldRemoveEmailWaitingForRetry() throws Exception {
+        //Arrange
+        final DefaultEmailSchedulingData defaultEmailSchedulingData = createDefaultEmailSchedulingDataWithPriority(1);
+        retryQueue.offer(defaultEmailSchedulingData, TRANSIENT_FAILURE);
+
+        //Act & Assert
+        assertions.assertThat(retryQueue.remove(defaultEmailSchedulingData.getId())).contains(defaultEmailSchedulingData);
+        assertions.assertThat(retryQueue.remove(defaultEmailSchedulingData.getId())).isEmpty();
+        assertions.assertThat(retryQueue.size()).isZero();
+    }
+
+}
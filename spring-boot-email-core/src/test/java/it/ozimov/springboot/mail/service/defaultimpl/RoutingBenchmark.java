@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.RoutingProperties;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the emails per second sent by the {@linkplain RoutingJavaMailSender} with each strategy over three local
+ * GreenMail servers, the last one slowed down by the given delay per email. The share of each relay shows how much
+ * the strategy steers the emails away from the slow one. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.RoutingBenchmark [emails] [threads] [delayMillis] [firstPort]
+ * </pre>
+ */
+public class RoutingBenchmark {
+
+    private static final String[] RELAYS = {"first", "second", "slow"};
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        final long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 50;
+        final int firstPort = args.length > 3 ? Integer.parseInt(args[3]) : 3033;
+
+        final List<GreenMail> greenMails = new ArrayList<>();
+        for (int relay = 0; relay < RELAYS.length; relay++) {
+            final GreenMail greenMail = new GreenMail(new ServerSetup(firstPort + relay, (String) null, "smtp"));
+            greenMail.start();
+            greenMails.add(greenMail);
+        }
+        try {
+            System.out.printf("%-22s %8s %8s %12s %8s %8s %8s%n", "strategy", "threads", "emails", "emails/s",
+                    RELAYS[0], RELAYS[1], RELAYS[2]);
+            for (final RoutingProperties.Strategy strategy : RoutingProperties.Strategy.values()) {
+                try (final RoutingJavaMailSender routingJavaMailSender = new RoutingJavaMailSender(properties(strategy, firstPort),
+                        relay -> relay.getPort() == firstPort + RELAYS.length - 1 ?
+                                new DelayedJavaMailSender(relay.getHost(), relay.getPort(), delayMillis) : sender(relay))) {
+                    final long elapsedNanos = send(routingJavaMailSender, emails, threads);
+                    final List<RelayStatistics> statistics = routingJavaMailSender.statistics();
+                    System.out.printf("%-22s %8d %8d %12.0f %8d %8d %8d%n", strategy, threads, emails,
+                            emails / (elapsedNanos / 1_000_000_000d), statistics.get(0).getSentMessages(),
+                            statistics.get(1).getSentMessages(), statistics.get(2).getSentMessages());
+                }
+                for (final GreenMail greenMail : greenMails) {
+                    greenMail.purgeEmailFromAllMailboxes();
+                }
+            }
+        } finally {
+            greenMails.forEach(GreenMail::stop);
+        }
+    }
+
+    private static RoutingProperties properties(final RoutingProperties.Strategy strategy, final int firstPort) {
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        for (int relay = 0; relay < RELAYS.length; relay++) {
+            relays.put(RELAYS[relay], RoutingProperties.Relay.builder()
+                    .host("localhost")
+                    .port(firstPort + relay)
+                    .weight(1)
+                    .build());
+        }
+        final RoutingProperties routingProperties = new RoutingProperties();
+        routingProperties.setEnabled(true);
+        routingProperties.setStrategy(strategy);
+        routingProperties.setRelays(relays);
+        return routingProperties;
+    }
+
+    private static JavaMailSenderImpl sender(final RoutingProperties.Relay relay) {
+        final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost(relay.getHost());
+        javaMailSender.setPort(relay.getPort());
+        return javaMailSender;
+    }
+
+    private static long send(final RoutingJavaMailSender routingJavaMailSender, final int emails, final int threads) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(emails);
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executorService.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        routingJavaMailSender.send(createMessage(routingJavaMailSender));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static MimeMessage createMessage(final JavaMailSenderImpl javaMailSender) throws Exception {
+        final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        final MimeMessageHelper helper = new MimeMessageHelper(mimeMessage);
+        helper.setFrom("cicero@mala-tempora.currunt");
+        helper.setTo("titus@de-rerum.natura");
+        helper.setSubject("Benchmark");
+        helper.setText("Sent by the routing benchmark");
+        return mimeMessage;
+    }
+
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.google.common.collect.ImmutableList;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.RoutingProperties;
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import jakarta.mail.internet.MimeMessage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Sends through local GreenMail servers standing for the relays, while a port nothing listens to stands for a relay
+ * which is down.
+ */
+public class RoutingJavaMailSenderTest {
+
+    private static final int PRIMARY_PORT = 3030;
+
+    private static final int SECONDARY_PORT = 3031;
+
+    private static final int DOWN_PORT = 3032;
+
+    @Rule
+    public final Timeout timeout = new Timeout(30, TimeUnit.SECONDS);
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private GreenMail primarySmtp;
+
+    private GreenMail secondarySmtp;
+
+    private RoutingJavaMailSender routingJavaMailSender;
+
+    @Before
+    public void setUp() throws Exception {
+        primarySmtp = new GreenMail(new ServerSetup(PRIMARY_PORT, (String) null, "smtp"));
+        primarySmtp.start();
+        secondarySmtp = new GreenMail(new ServerSetup(SECONDARY_PORT, (String) null, "smtp"));
+        secondarySmtp.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RoutingHints.clearPriority();
+        if (routingJavaMailSender != null) {
+            routingJavaMailSender.close();
+        }
+        primarySmtp.stop();
+        secondarySmtp.stop();
+    }
+
+    @Test
+    public void shouldSpreadTheEmailsOverTheRelaysByWeight() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("primary", relay(PRIMARY_PORT, 2));
+        relays.put("secondary", relay(SECONDARY_PORT, 1));
+        routingJavaMailSender = createSender(properties(RoutingProperties.Strategy.WEIGHTED_ROUND_ROBIN, relays));
+
+        //Act
+        for (int i = 0; i < 6; i++) {
+            routingJavaMailSender.send(createMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(primarySmtp.getReceivedMessages()).hasSize(4);
+        assertions.assertThat(secondarySmtp.getReceivedMessages()).hasSize(2);
+    }
+
+    @Test
+    public void shouldHandTheEmailOverToTheNextRelayAndSkipTheRelayFailingInARow() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("down", relay(DOWN_PORT, 1));
+        relays.put("primary", relay(PRIMARY_PORT, 1));
+        routingJavaMailSender = createSender(properties(RoutingProperties.Strategy.LEAST_OUTSTANDING, relays));
+
+        //Act
+        for (int i = 0; i < 4; i++) {
+            routingJavaMailSender.send(createMessage(i));
+        }
+
+        //Assert
+        final RelayStatistics down = routingJavaMailSender.statistics().get(0);
+        final RelayStatistics primary = routingJavaMailSender.statistics().get(1);
+        assertions.assertThat(primarySmtp.getReceivedMessages()).hasSize(4);
+        assertions.assertThat(down.getFailedMessages()).isEqualTo(2);
+        assertions.assertThat(down.getCircuitState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertions.assertThat(down.getCircuitOpenings()).isEqualTo(1);
+        assertions.assertThat(primary.getSentMessages()).isEqualTo(4);
+        assertions.assertThat(primary.getCircuitState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void shouldPreferTheFastRelayOverTheSlowOne() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("slow", relay(SECONDARY_PORT, 1));
+        relays.put("fast", relay(PRIMARY_PORT, 1));
+        routingJavaMailSender = new RoutingJavaMailSender(properties(RoutingProperties.Strategy.EWMA_LATENCY, relays),
+                relay -> relay.getPort() == SECONDARY_PORT ?
+                        new DelayedJavaMailSender("localhost", SECONDARY_PORT, 200) : sender(relay));
+
+        //Act
+        for (int i = 0; i < 10; i++) {
+            routingJavaMailSender.send(createMessage(i));
+        }
+
+        //Assert
+        assertions.assertThat(secondarySmtp.getReceivedMessages()).hasSize(1);
+        assertions.assertThat(primarySmtp.getReceivedMessages()).hasSize(9);
+        assertions.assertThat(routingJavaMailSender.statistics().get(0).getLatencyMillis()).isGreaterThanOrEqualTo(200);
+    }
+
+    @Test
+    public void shouldPreferTheRelayNamedByTheHeader() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("primary", relay(PRIMARY_PORT, 1));
+        relays.put("secondary", relay(SECONDARY_PORT, 1));
+        routingJavaMailSender = createSender(properties(RoutingProperties.Strategy.LEAST_OUTSTANDING, relays));
+
+        //Act
+        for (int i = 0; i < 3; i++) {
+            final MimeMessage mimeMessage = createMessage(i);
+            mimeMessage.setHeader(RoutingHints.RELAY_HEADER, "secondary");
+            routingJavaMailSender.send(mimeMessage);
+        }
+
+        //Assert
+        assertions.assertThat(primarySmtp.getReceivedMessages()).isEmpty();
+        assertions.assertThat(secondarySmtp.getReceivedMessages()).hasSize(3);
+        assertions.assertThat(secondarySmtp.getReceivedMessages()[0].getHeader(RoutingHints.RELAY_HEADER)).isNull();
+    }
+
+    @Test
+    public void shouldPreferTheRelaysServingThePriorityLevel() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("bulk", relay(PRIMARY_PORT, 1));
+        final RoutingProperties.Relay transactional = relay(SECONDARY_PORT, 1);
+        transactional.setPriorities(ImmutableList.of(1));
+        relays.put("transactional", transactional);
+        relays.get("bulk").setPriorities(ImmutableList.of(2, 3));
+        routingJavaMailSender = createSender(properties(RoutingProperties.Strategy.LEAST_OUTSTANDING, relays));
+
+        //Act
+        RoutingHints.setPriority(1);
+        routingJavaMailSender.send(createMessage(1));
+        routingJavaMailSender.send(createMessage(2));
+        RoutingHints.setPriority(3);
+        routingJavaMailSender.send(createMessage(3));
+
+        //Assert
+        assertions.assertThat(secondarySmtp.getReceivedMessages()).hasSize(2);
+        assertions.assertThat(primarySmtp.getReceivedMessages()).hasSize(1);
+    }
+
+    @Test
+    public void shouldFailTheSendWhenNoRelayCanSendIt() throws Exception {
+        //Arrange
+        final Map<String, RoutingProperties.Relay> relays = new LinkedHashMap<>();
+        relays.put("down", relay(DOWN_PORT, 1));
+        routingJavaMailSender = createSender(properties(RoutingProperties.Strategy.LEAST_OUTSTANDING, relays));
+        final MimeMessage mimeMessage = createMessage(1);
+
+        //Act
+        assertThatThrownBy(() -> routingJavaMailSender.send(mimeMessage))
+
+                //Assert
+                .isInstanceOf(MailSendException.class);
+        assertions.assertThat(routingJavaMailSender.statistics().get(0).getFailedMessages()).isEqualTo(1);
+    }
+
+    private static RoutingProperties properties(final RoutingProperties.Strategy strategy,
+                                                final Map<String, RoutingProperties.Relay> relays) {
+        return RoutingProperties.builder()
+                .enabled(true)
+                .strategy(strategy)
+                .relays(relays)
+                .circuitBreaker(RoutingProperties.CircuitBreaker.builder()
+                        .failureThreshold(2)
+                        .openMillis(60_000)
+                        .build())
+                .build();
+    }
+
+    private static RoutingProperties.Relay relay(final int port, final int weight) {
+        return RoutingProperties.Relay.builder()
+                .host("localhost")
+                .port(port)
+                .weight(weight)
+                .build();
+    }
+
+    private static JavaMailSender sender(final RoutingProperties.Relay relay) {
+        final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+        javaMailSender.setHost(relay.getHost());
+        javaMailSender.setPort(relay.getPort());
+        return javaMailSender;
+    }
+
+    private static RoutingJavaMailSender createSender(final RoutingProperties routingProperties) {
+        return new RoutingJavaMailSender(routingProperties, RoutingJavaMailSenderTest::sender);
+    }
+
+    private MimeMessage createMessage(final int index) throws Exception {
+        final MimeMessage mimeMessage = routingJavaMailSender.createMimeMessage();
+        final MimeMessageHelper helper = new MimeMessageHelper(mimeMessage);
+        helper.setFrom("cicero@mala-tempora.currunt");
+        helper.setTo("titus@de-rerum.natura");
+        helper.setSubject("Routed email " + index);
+        helper.setText("Sent through one of many relays");
+        return mimeMessage;
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SchedulerThreadFactoryTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldCreateNamedPlatformThreadsWhenVirtualThreadsAreNotRequested() throws Exception {
+        //Arrange
+        final SchedulerThreadFactory threadFactory = SchedulerThreadFactory.of(false);
+        final CompletableFuture<String> runOn = new CompletableFuture<>();
+
+        //Act
+        final Thread thread = threadFactory.newThread("worker", () -> runOn.complete(Thread.currentThread().getName()));
+        thread.start();
+
+        //Assert
+        assertions.assertThat(threadFactory.isVirtual()).isFalse();
+        assertions.assertThat(thread.getName()).isEqualTo("worker");
+        assertions.assertThat(runOn.get(1, TimeUnit.SECONDS)).isEqualTo("worker");
+    }
+
+    @Test
+    public void shouldUseVirtualThreadsOnlyWhenSupportedByTheJvm() throws Exception {
+        //Arrange
+        final boolean virtualThreadsSupported = Runtime.version().feature() >= 21;
+
+        //Act
+        final SchedulerThreadFactory threadFactory = SchedulerThreadFactory.of(true);
+        final Thread thread = threadFactory.newThread("worker", () -> {});
+
+        //Assert
+        assertions.assertThat(threadFactory.isVirtual()).isEqualTo(virtualThreadsSupported);
+        assertions.assertThat(thread.getName()).isEqualTo("worker");
+        assertions.assertThat(thread.getState()).isEqualTo(Thread.State.NEW);
+    }
+
+}
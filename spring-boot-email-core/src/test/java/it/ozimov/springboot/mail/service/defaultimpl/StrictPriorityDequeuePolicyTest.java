@@ -0,0 +1,53 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class StrictPriorityDequeuePolicyTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final StrictPriorityDequeuePolicy dequeuePolicy = new StrictPriorityDequeuePolicy();
+
+    @Test
+    public void shouldSelectTheHighestPriorityDueLevel() throws Exception {
+        //Arrange
+        final DequeuePolicy.Levels levels = FixedLevels.due(false, true, true);
+
+        //Act
+        final int first = dequeuePolicy.select(levels);
+        final int second = dequeuePolicy.select(levels);
+
+        //Assert
+        assertions.assertThat(first).isEqualTo(1);
+        assertions.assertThat(second).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldReturnMinusOneWhenNoLevelIsDue() throws Exception {
+        //Act
+        final int selected = dequeuePolicy.select(FixedLevels.due(false, false));
+
+        //Assert
+        assertions.assertThat(selected).isEqualTo(-1);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class TimedLockTest {
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    private final List<Long> holdTimesInNanos = new ArrayList<>();
+
+    private final TimedLock timedLock = new TimedLock(new ReentrantLock(), holdTimesInNanos::add);
+
+    @Test
+    public void shouldRecordTheHoldTimeOnceGivenReentrantAcquisitions() throws Exception {
+        //Arrange
+        timedLock.lock();
+        timedLock.lock();
+        TimeUnit.MILLISECONDS.sleep(20);
+
+        //Act
+        timedLock.unlock();
+        final int recordedWhileStillHeld = holdTimesInNanos.size();
+        timedLock.unlock();
+
+        //Assert
+        assertions.assertThat(recordedWhileStillHeld).isZero();
+        assertions.assertThat(holdTimesInNanos).hasSize(1);
+        assertions.assertThat(holdTimesInNanos.get(0)).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(20));
+    }
+
+    @Test
+    public void shouldNotCountTheTimeWaitedOnACondition() throws Exception {
+        //Arrange
+        final Condition condition = timedLock.newCondition();
+        timedLock.lock();
+
+        //Act
+        try {
+            condition.await(100, TimeUnit.MILLISECONDS);
+        } finally {
+            timedLock.unlock();
+        }
+
+        //Assert
+        assertions.assertThat(holdTimesInNanos).hasSize(2);
+        assertions.assertThat(holdTimesInNanos).allMatch(holdTimeInNanos -> holdTimeInNanos < TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void shouldNotRecordWhenTryLockFails() throws Exception {
+        //Arrange
+        final Thread owner = new Thread(timedLock::lock);
+        owner.start();
+        owner.join();
+
+        //Act
+        final boolean acquired = timedLock.tryLock();
+
+        //Assert
+        assertions.assertThat(acquired).isFalse();
+        assertions.assertThat(holdTimesInNanos).isEmpty();
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.model.EmailSchedulingData;
+import it.ozimov.springboot.mail.model.defaultimpl.DefaultEmailSchedulingData;
+import it.ozimov.springboot.mail.utils.TimeUtils;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+
+/**
+ * Compares the cost of the "send now" hot path of the {@linkplain PriorityQueueManager} when many far-future emails
+ * are kept in the priority queues or in the timing wheel. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.TimingWheelBenchmark [farFutureEmails] [sendNowEmails]
+ * </pre>
+ */
+public class TimingWheelBenchmark {
+
+    private static final int PRIORITY_LEVELS = 3;
+
+    public static void main(final String[] args) throws Exception {
+        final int farFutureEmails = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        final int sendNowEmails = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+        final Email email = getSimpleMail();
+
+        System.out.printf("%-14s %16s %20s %20s%n", "store", "far-future", "far-future ns/op", "send-now ns/op");
+        for (final boolean useTimingWheel : new boolean[]{false, true}) {
+            final PriorityQueueManager priorityQueueManager = new PriorityQueueManager(PRIORITY_LEVELS, false,
+                    Integer.MAX_VALUE, Duration.ofSeconds(1), EmailSchedulerProperties.TimingWheel.builder()
+                    .enabled(useTimingWheel)
+                    .tickMillis(1000)
+                    .wheelSize(64)
+                    .horizonMillis(60000)
+                    .build());
+
+            final OffsetDateTime now = TimeUtils.offsetDateTimeNow();
+            long start = System.nanoTime();
+            for (int i = 0; i < farFutureEmails; i++) {
+                //from one day to three months ahead
+                final long secondsAhead = ThreadLocalRandom.current().nextLong(86_400, 90 * 86_400);
+                enqueue(priorityQueueManager, emailSchedulingData(email, now.plusSeconds(secondsAhead), i));
+            }
+            final double farFutureNanosPerOp = (System.nanoTime() - start) / (double) farFutureEmails;
+
+            start = System.nanoTime();
+            for (int i = 0; i < sendNowEmails; i++) {
+                enqueue(priorityQueueManager, emailSchedulingData(email, TimeUtils.offsetDateTimeNow(), i));
+                final EmailSchedulingData taken = priorityQueueManager.takeNext().get();
+                priorityQueueManager.completeDispatch(taken);
+            }
+            final double sendNowNanosPerOp = (System.nanoTime() - start) / (double) sendNowEmails;
+
+            System.out.printf("%-14s %16d %20.0f %20.0f%n", useTimingWheel ? "timing wheel" : "priority queue",
+                    farFutureEmails, farFutureNanosPerOp, sendNowNanosPerOp);
+            priorityQueueManager.close();
+        }
+    }
+
+    private static void enqueue(final PriorityQueueManager priorityQueueManager, final EmailSchedulingData emailSchedulingData) {
+        priorityQueueManager.enqueue(emailSchedulingData, false);
+        priorityQueueManager.completeEnqueue();
+    }
+
+    private static EmailSchedulingData emailSchedulingData(final Email email, final OffsetDateTime scheduledDateTime, final int index) {
+        final int priority = 1 + index % PRIORITY_LEVELS;
+        return DefaultEmailSchedulingData.defaultEmailSchedulingDataBuilder()
+                .email(email)
+                .scheduledDateTime(scheduledDateTime)
+                .assignedPriority(priority)
+                .desiredPriority(priority)
+                .build();
+    }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetup;
+import it.ozimov.springboot.mail.configuration.TransportPoolProperties;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import jakarta.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the emails per second sent to a local GreenMail server by the {@linkplain JavaMailSenderImpl}, connecting
+ * for every email, and by the {@linkplain PooledJavaMailSender}. GreenMail runs without TLS and authentication, so
+ * the gap only accounts for the TCP and SMTP handshakes: against a remote relay it is wider. Not run by the test
+ * suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.TransportPoolBenchmark [emails] [threads] [port]
+ * </pre>
+ */
+public class TransportPoolBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 2_000;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        final int port = args.length > 2 ? Integer.parseInt(args[2]) : 3028;
+
+        final GreenMail greenMail = new GreenMail(new ServerSetup(port, (String) null, "smtp"));
+        greenMail.start();
+        try {
+            System.out.printf("%-10s %8s %8s %12s %12s%n", "sender", "threads", "emails", "connections", "emails/s");
+
+            final JavaMailSenderImpl javaMailSender = new JavaMailSenderImpl();
+            configure(javaMailSender, port);
+            //one connection per email
+            print("plain", threads, emails, emails, send(javaMailSender, emails, threads));
+            greenMail.purgeEmailFromAllMailboxes();
+
+            final TransportPoolProperties transportPoolProperties = new TransportPoolProperties();
+            transportPoolProperties.setEnabled(true);
+            transportPoolProperties.setMaxConnections(threads);
+            try (final PooledJavaMailSender pooledJavaMailSender = new PooledJavaMailSender(transportPoolProperties)) {
+                configure(pooledJavaMailSender, port);
+                final long elapsedNanos = send(pooledJavaMailSender, emails, threads);
+                print("pooled", threads, emails, pooledJavaMailSender.statistics().getCreatedConnections(), elapsedNanos);
+            }
+        } finally {
+            greenMail.stop();
+        }
+    }
+
+    private static void configure(final JavaMailSenderImpl javaMailSender, final int port) {
+        javaMailSender.setHost("localhost");
+        javaMailSender.setPort(port);
+    }
+
+    private static long send(final JavaMailSenderImpl javaMailSender, final int emails, final int threads) throws Exception {
+        final AtomicInteger remaining = new AtomicInteger(emails);
+        final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final long start = System.nanoTime();
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                futures.add(executorService.submit(() -> {
+                    while (remaining.getAndDecrement() > 0) {
+                        javaMailSender.send(createMessage(javaMailSender));
+                    }
+                    return null;
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static void print(final String name, final int threads, final int emails, final long connections,
+                              final long elapsedNanos) {
+        System.out.printf("%-10s %8d %8d %12d %12.0f%n", name, threads, emails, connections,
+                emails / (elapsedNanos / 1_000_000_000d));
+    }
+
+    private static MimeMessage createMessage(final JavaMailSenderImpl javaMailSender) throws Exception {
+        final MimeMessage mimeMessage = javaMailSender.createMimeMessage();
+        final MimeMessageHelper helper = new MimeMessageHelper(mimeMessage);
+        helper.setFrom("cicero@mala-tempora.currunt");
+        helper.setTo("titus@de-rerum.natura");
+        helper.setSubject("Benchmark");
+        helper.setText("Sent by the transport pool benchmark");
+        return mimeMessage;
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import it.ozimov.springboot.mail.configuration.EmailSchedulerProperties;
+import it.ozimov.springboot.mail.logging.EmailLogRenderer;
+import it.ozimov.springboot.mail.model.Email;
+import it.ozimov.springboot.mail.service.EmailService;
+import org.slf4j.Logger;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static it.ozimov.springboot.mail.utils.EmailToMimeMessageTest.getSimpleMail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures how many sends can be in flight at the same time with platform and virtual consumer threads, given an
+ * SMTP server simulated by a fixed latency. Not run by the test suite, launch it with:
+ * <pre>
+ * java -cp ... it.ozimov.springboot.mail.service.defaultimpl.VirtualThreadDispatchBenchmark [emails] [latencyMillis] [consumers,...]
+ * </pre>
+ */
+public class VirtualThreadDispatchBenchmark {
+
+    public static void main(final String[] args) throws Exception {
+        final int emails = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        final long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 100;
+        final int[] consumers = args.length > 2 ?
+                Arrays.stream(args[2].split(",")).mapToInt(Integer::parseInt).toArray() : new int[]{16, 256, 2048};
+
+        System.out.printf("%-8s %10s %10s %14s %12s%n", "threads", "consumers", "emails", "peak in-flight", "emails/s");
+        for (final int numberOfConsumers : consumers) {
+            for (final boolean virtualThreads : new boolean[]{false, true}) {
+                run(emails, latencyMillis, numberOfConsumers, virtualThreads);
+            }
+        }
+    }
+
+    private static void run(final int emails, final long latencyMillis, final int numberOfConsumers,
+                            final boolean virtualThreads) throws Exception {
+        final CountDownLatch sent = new CountDownLatch(emails);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger peakInFlight = new AtomicInteger();
+
+        final EmailService emailService = mock(EmailService.class);
+        doAnswer(invocation -> {
+            peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                TimeUnit.MILLISECONDS.sleep(latencyMillis); //simulated SMTP round trip
+            } finally {
+                inFlight.decrementAndGet();
+                sent.countDown();
+            }
+            return null;
+        }).when(emailService).send(any(Email.class));
+
+        final EmailLogRenderer emailLogRenderer = mock(EmailLogRenderer.class);
+        when(emailLogRenderer.registerLogger(any(Logger.class))).thenReturn(emailLogRenderer);
+
+        final EmailSchedulerProperties emailSchedulerProperties = EmailSchedulerProperties.builder()
+                .priorityLevels(1)
+                .dispatcher(EmailSchedulerProperties.Dispatcher.builder()
+                        .consumers(numberOfConsumers)
+                        .virtualThreads(virtualThreads)
+                        .build())
+                .build();
+
+        final PriorityQueueEmailSchedulerService schedulerService = new PriorityQueueEmailSchedulerService(emailService,
+                emailSchedulerProperties, Optional.empty(), emailLogRenderer);
+        try {
+            final Email email = getSimpleMail();
+            final long start = System.nanoTime();
+            for (int i = 0; i < emails; i++) {
+                schedulerService.schedule(email, 1);
+            }
+            sent.await();
+            final double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+
+            System.out.printf("%-8s %10d %10d %14d %12.0f%n", virtualThreads ? "virtual" : "platform",
+                    numberOfConsumers, emails, peakInFlight.get(), emails / seconds);
+        } finally {
+            schedulerService.cleanUp();
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2015 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package it.ozimov.springboot.mail.service.defaultimpl;
+
+import org.assertj.core.api.JUnitSoftAssertions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.fail;
+
+public class WeightedRoundRobinDequeuePolicyTest {
+
+    @Rule
+    public final ExpectedException expectedException = ExpectedException.none();
+
+    @Rule
+    public final JUnitSoftAssertions assertions = new JUnitSoftAssertions();
+
+    @Test
+    public void shouldConstructorThrowExceptionGivenNonPositiveWeight() throws Exception {
+        //Arrange
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Expected positive weights, while [3, 0] was given");
+
+        //Act
+        new WeightedRoundRobinDequeuePolicy(new int[]{3, 0});
+
+        //Assert
+        fail();
+    }
+
+    @Test
+    public void shouldServeEachLevelUpToItsWeightPerRound() throws Exception {
+        //Arrange
+        final WeightedRoundRobinDequeuePolicy dequeuePolicy = new WeightedRoundRobinDequeuePolicy(new int[]{3, 1});
+        final DequeuePolicy.Levels levels = FixedLevels.due(true, true);
+
+        //Act
+        final int[] selected = IntStream.range(0, 8).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(selected).containsExactly(0, 0, 0, 1, 0, 0, 0, 1);
+    }
+
+    @Test
+    public void shouldSkipLevelsWithoutDueEmails() throws Exception {
+        //Arrange
+        final WeightedRoundRobinDequeuePolicy dequeuePolicy = new WeightedRoundRobinDequeuePolicy(new int[]{1, 1, 1});
+        final FixedLevels levels = FixedLevels.due(true, false, true);
+
+        //Act
+        final int[] selected = IntStream.range(0, 4).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(selected).containsExactly(0, 2, 0, 2);
+    }
+
+    @Test
+    public void shouldKeepServingTheOnlyDueLevelBeyondItsWeight() throws Exception {
+        //Arrange
+        final WeightedRoundRobinDequeuePolicy dequeuePolicy = new WeightedRoundRobinDequeuePolicy(new int[]{1, 1});
+        final DequeuePolicy.Levels levels = FixedLevels.due(false, true);
+
+        //Act
+        final int[] selected = IntStream.range(0, 3).map(i -> dequeuePolicy.select(levels)).toArray();
+
+        //Assert
+        assertions.assertThat(Arrays.stream(selected).allMatch(level -> level == 1)).isTrue();
+    }
+
+}